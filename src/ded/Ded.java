@@ -11,6 +11,7 @@ import java.awt.event.KeyEvent;
 import java.awt.event.WindowEvent;
 import java.awt.event.WindowListener;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -36,6 +37,7 @@ import javax.swing.UIManager.LookAndFeelInfo;
 import util.awt.AWTUtil;
 import util.awt.BDFParser;
 import util.awt.BitmapFont;
+import util.awt.ImageCache;
 import util.awt.ResourceImageCache;
 import util.swing.MenuAction;
 import util.swing.SwingUtil;
@@ -59,13 +61,21 @@ public class Ded extends JFrame implements WindowListener {
     /** Window icons. */
     public static ImageIcon windowIcon16, windowIcon32;
 
+    /** Images loaded from files and resources, shared by all windows so
+      * together they stay within one memory budget.  The budget, in
+      * megabytes, can be set with the DED_IMAGE_CACHE_MB environment
+      * variable. */
+    public static final ImageCache sharedImageCache =
+        new ImageCache(getImageCacheByteBudget());
+
     // ---------- instance data --------------
     /** The font I want to use in the diagram area.  There should be no
       * use of the AWT fonts for drawing. */
     public BitmapFont diagramBitmapFont;
 
     /** Image cache. */
-    public ResourceImageCache resourceImageCache = new ResourceImageCache();
+    public ResourceImageCache resourceImageCache =
+        new ResourceImageCache(sharedImageCache);
 
     /** The main diagram editor pane. */
     private DiagramController diagramController;
@@ -134,6 +144,20 @@ public class Ded extends JFrame implements WindowListener {
             this.setIconImages(icons);
         }
 
+        this.diagramBitmapFont = loadDiagramFont();
+
+        this.diagramController = new DiagramController(this);
+        this.diagramController.setName("diagramController");
+        this.diagramController.setOpaque(true);
+        this.setContentPane(this.diagramController);
+
+        this.buildMenuBar();
+    }
+
+    /** Load the font used for text in diagrams, exiting the program
+      * if that fails. */
+    public static BitmapFont loadDiagramFont()
+    {
         // Use a bitmap font packaged with 'ded' itself.  (After many
         // attempts, I was unable to find a portable alternative.)
         InputStream in = null;
@@ -151,11 +175,12 @@ public class Ded extends JFrame implements WindowListener {
                 in = new FileInputStream(fname);
             }
             in = new GZIPInputStream(in);
-            this.diagramBitmapFont = new BitmapFont(new BDFParser(in));
+            return new BitmapFont(new BDFParser(in));
         }
         catch (Exception e) {
             System.err.println("cannot load bitmap font resource: "+e);
             System.exit(2);
+            return null;      // Not reached.
         }
         finally {
             if (in != null) {
@@ -165,13 +190,27 @@ public class Ded extends JFrame implements WindowListener {
                 catch (IOException e) {/*don't care*/}
             }
         }
+    }
 
-        this.diagramController = new DiagramController(this);
-        this.diagramController.setName("diagramController");
-        this.diagramController.setOpaque(true);
-        this.setContentPane(this.diagramController);
-
-        this.buildMenuBar();
+    /** Get the budget for 'sharedImageCache' from DED_IMAGE_CACHE_MB,
+      * or the default if that is not set or is invalid. */
+    private static long getImageCacheByteBudget()
+    {
+        String mb = System.getenv("DED_IMAGE_CACHE_MB");
+        if (mb != null) {
+            try {
+                long ret = Long.valueOf(mb);
+                if (ret >= 0) {
+                    return ret << 20;
+                }
+                System.err.println("DED_IMAGE_CACHE_MB is negative: "+mb);
+            }
+            catch (NumberFormatException e) {
+                System.err.println("invalid DED_IMAGE_CACHE_MB value \""+mb+
+                                   "\": "+Util.getExceptionMessage(e));
+            }
+        }
+        return ImageCache.defaultByteBudget;
     }
 
     /** Build the menu. */
@@ -348,7 +387,7 @@ public class Ded extends JFrame implements WindowListener {
         m.setName("diagram");
         m.setMnemonic(KeyEvent.VK_D);
 
-        // Used mnemonics: bcfgilnoprsux
+        // Used mnemonics: bcefgilnoprsux
 
         this.drawFileNameCheckbox =
             new JCheckBoxMenuItem("Draw file name in upper-left corner", true);
@@ -392,6 +431,12 @@ public class Ded extends JFrame implements WindowListener {
             }
         });
 
+        m.add(new MenuAction("Reload object graph source", KeyEvent.VK_E) {
+            public void actionPerformed(ActionEvent e) {
+                Ded.this.diagramController.reloadObjectGraphSource();
+            }
+        });
+
         m.add(new MenuAction("Add object graph node...", KeyEvent.VK_N) {
             public void actionPerformed(ActionEvent e) {
                 Ded.this.diagramController.addObjectGraphNode();
@@ -613,6 +658,21 @@ public class Ded extends JFrame implements WindowListener {
     }
 
 
+    /** Implement the --profile-render option, which paints the
+        diagram offscreen repeatedly and prints the RenderProfiler
+        CSV report. */
+    private static void profileRender(String fname, int frames)
+        throws Exception
+    {
+        Diagram diagram = Diagram.readFromFile(fname);
+        DiagramController dc = DiagramController.createOffscreen(
+            diagram, new File(fname).getAbsolutePath(), loadDiagramFont());
+
+        // Warm up with as many frames as are measured, so the JIT has
+        // compiled the paint code and the caches are populated.
+        System.out.print(dc.profileRender(frames, frames));
+    }
+
     /** Diagram editor program entry point. */
     public static void main(final String[] args)
     {
@@ -632,6 +692,13 @@ public class Ded extends JFrame implements WindowListener {
                 // Stop after processing those options.
                 return;
             }
+
+            // Handle --profile-render.
+            if (cmdLine.m_profileRenderFrames > 0) {
+                profileRender(cmdLine.m_diagramFname,
+                              cmdLine.m_profileRenderFrames);
+                return;
+            }
         }
         catch (Exception e) {
             System.err.println("error: " + Util.getExceptionMessage(e));
@@ -13,6 +13,10 @@ import static util.StringUtil.fmt;
 
 /** Parser for the 'ded' command line. */
 public class DedCmdLine {
+    // ---- constants ----
+    /** Number of frames "--profile-render" measures by default. */
+    public static final int defaultProfileRenderFrames = 200;
+
     // ---- public instance data ----
     /** True to check the object graph against the diagram. */
     public boolean m_checkGraph = false;
@@ -20,6 +24,10 @@ public class DedCmdLine {
     /** True to check the object graph against its source file. */
     public boolean m_checkGraphSource = false;
 
+    /** If positive, the number of frames to measure for
+      * "--profile-render". */
+    public int m_profileRenderFrames = 0;
+
     /** If not null, the name of the diagram file to load initially. */
     public String m_diagramFname = null;
 
@@ -54,6 +62,11 @@ public class DedCmdLine {
             throw new XParse("The --check-graph and --check-graph-source "+
                              "options require a file name argument.");
         }
+
+        if (m_profileRenderFrames > 0 && m_diagramFname == null) {
+            throw new XParse("The --profile-render option requires a "+
+                             "file name argument.");
+        }
     }
 
     /** True if "--check-graph" or "--check-graph-source" was used. */
@@ -85,6 +98,25 @@ public class DedCmdLine {
             m_checkGraphSource = true;
         }
 
+        else if (opt.equals("--profile-render")) {
+            m_profileRenderFrames = defaultProfileRenderFrames;
+        }
+
+        else if (opt.startsWith("--profile-render=")) {
+            String value = opt.substring("--profile-render=".length());
+            try {
+                m_profileRenderFrames = Integer.parseInt(value);
+            }
+            catch (NumberFormatException e) {
+                m_profileRenderFrames = 0;
+            }
+            if (m_profileRenderFrames <= 0) {
+                throw new XParse(fmt(
+                    "Invalid frame count for --profile-render: %s.",
+                    StringUtil.doubleQuote(value)));
+            }
+        }
+
         else {
             throw new XParse(fmt(
                 "Unrecognized option: %s.",
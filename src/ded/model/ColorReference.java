@@ -0,0 +1,45 @@
+// ColorReference.java
+// See toplevel license.txt for copyright and license terms.
+
+package ded.model;
+
+import java.awt.Color;
+
+/** A color name, as stored in an element's color field, resolved to a
+  * Color through a Diagram.  The resolved value is kept so repeated
+  * lookups do not search the color table or parse RGB syntax again.
+  *
+  * The result is recomputed when the name, the fallback, or the
+  * diagram's color table changes.  The table is compared by identity,
+  * relying on 'Diagram.namedColors' being replaced rather than
+  * modified in place. */
+public class ColorReference {
+    // ---------------- instance data ------------------
+    /** Inputs to the most recent resolution, or null if none. */
+    private String m_name;
+    private Color m_fallback;
+    private Object m_colorTable;
+
+    /** Result of the most recent resolution. */
+    private Color m_color;
+
+    // ------------------- methods ---------------------
+    /** Get the color for 'name' in 'diagram', or 'fallback' if it does
+      * not name or specify a color, like 'Diagram.getNamedColor'. */
+    public Color get(Diagram diagram, String name, Color fallback)
+    {
+        if (this.m_colorTable != diagram.namedColors ||
+            this.m_fallback != fallback ||
+            this.m_name == null ||
+            !this.m_name.equals(name))
+        {
+            this.m_color = diagram.getNamedColor(name, fallback);
+            this.m_name = name;
+            this.m_fallback = fallback;
+            this.m_colorTable = diagram.namedColors;
+        }
+        return this.m_color;
+    }
+}
+
+// EOF
@@ -0,0 +1,603 @@
+// CompactNodeMap.java
+// See toplevel license.txt for copyright and license terms.
+
+package ded.model;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/** Map from node ID to ObjectGraphNode that stores the nodes in a few
+  * large arrays instead of as individual objects, for large graphs.
+  *
+  * Each attribute or pointer name is stored once, in a dictionary, and
+  * nodes refer to it by number.  Likewise, each node ID is stored once,
+  * and pointer targets refer to it by number.  A node's attributes are
+  * a run of (name number, value) pairs in two parallel arrays, and its
+  * pointers are a run of (name number, target number, preview) triples
+  * in three more.
+  *
+  * 'get' makes a new ObjectGraphNode from that data each time.  Changing
+  * the returned node does not change the map; use 'put' to do that.  The
+  * attribute values, which may be JSONObjects or JSONArrays, are shared
+  * with the map, and must not be modified.
+  *
+  * Copying a map is cheap because the copy shares the arrays until one
+  * of them is modified. */
+public class CompactNodeMap extends AbstractMap<String, ObjectGraphNode> {
+    // ---------------- private types ------------------
+    /** Numbering of a set of strings. */
+    private static class Dictionary {
+        /** Map from number to string. */
+        public ArrayList<String> m_strings;
+
+        /** Map from string to number. */
+        public HashMap<String, Integer> m_numbers;
+
+        public Dictionary()
+        {
+            this.m_strings = new ArrayList<String>();
+            this.m_numbers = new HashMap<String, Integer>();
+        }
+
+        public Dictionary(Dictionary src)
+        {
+            this.m_strings = new ArrayList<String>(src.m_strings);
+            this.m_numbers = new HashMap<String, Integer>(src.m_numbers);
+        }
+
+        /** Return the number of 's', or -1 if it has none. */
+        public int find(String s)
+        {
+            Integer n = this.m_numbers.get(s);
+            return n == null? -1 : n;
+        }
+
+        /** Return the number of 's', assigning one if needed. */
+        public int intern(String s)
+        {
+            Integer n = this.m_numbers.get(s);
+            if (n == null) {
+                n = this.m_strings.size();
+                this.m_strings.add(s);
+                this.m_numbers.put(s, n);
+            }
+            return n;
+        }
+
+        public String get(int n)
+        {
+            return this.m_strings.get(n);
+        }
+
+        public int size()
+        {
+            return this.m_strings.size();
+        }
+    }
+
+    /** The data, which can be shared by several maps. */
+    private static class Store {
+        /** Names of attributes and pointers. */
+        public Dictionary m_keys;
+
+        /** IDs of nodes and of pointer targets, which need not be
+          * nodes.  The number of an ID is its slot in the arrays below. */
+        public Dictionary m_ids;
+
+        /** For each ID, the index in 'm_attrKeys' of its first attribute,
+          * or -1 if there is no node with that ID. */
+        public int[] m_attrStart;
+
+        /** For each ID with a node, its number of attributes. */
+        public int[] m_attrCount;
+
+        /** For each ID with a node, the index in 'm_ptrKeys' of its
+          * first pointer, and the number of pointers. */
+        public int[] m_ptrStart;
+        public int[] m_ptrCount;
+
+        /** For each ID with a node, its 'contentHash', or 0 if that has
+          * not been computed since the node was stored. */
+        public long[] m_contentHash;
+
+        /** Attribute name numbers and values.  Entries up to
+          * 'm_attrUsed' are used, but those of replaced or removed nodes
+          * are garbage. */
+        public int[] m_attrKeys;
+        public Object[] m_attrValues;
+        public int m_attrUsed;
+
+        /** Pointer name numbers, target ID numbers, and previews, which
+          * can be null, managed like the attributes. */
+        public int[] m_ptrKeys;
+        public int[] m_ptrTargets;
+        public String[] m_ptrPreviews;
+        public int m_ptrUsed;
+
+        /** Number of IDs that have nodes. */
+        public int m_nodeCount;
+
+        /** Number of garbage entries among the attributes, and among
+          * the pointers. */
+        public int m_attrGarbage;
+        public int m_ptrGarbage;
+
+        public Store()
+        {
+            this.m_keys = new Dictionary();
+            this.m_ids = new Dictionary();
+            this.m_attrStart = new int[16];
+            Arrays.fill(this.m_attrStart, -1);
+            this.m_attrCount = new int[16];
+            this.m_ptrStart = new int[16];
+            this.m_ptrCount = new int[16];
+            this.m_contentHash = new long[16];
+            this.m_attrKeys = new int[64];
+            this.m_attrValues = new Object[64];
+            this.m_ptrKeys = new int[64];
+            this.m_ptrTargets = new int[64];
+            this.m_ptrPreviews = new String[64];
+        }
+
+        /** Deep copy, except for the attribute values, which are not
+          * modified once stored. */
+        public Store(Store src)
+        {
+            this.m_keys = new Dictionary(src.m_keys);
+            this.m_ids = new Dictionary(src.m_ids);
+            this.m_attrStart = src.m_attrStart.clone();
+            this.m_attrCount = src.m_attrCount.clone();
+            this.m_ptrStart = src.m_ptrStart.clone();
+            this.m_ptrCount = src.m_ptrCount.clone();
+            this.m_contentHash = src.m_contentHash.clone();
+            this.m_attrKeys = src.m_attrKeys.clone();
+            this.m_attrValues = src.m_attrValues.clone();
+            this.m_attrUsed = src.m_attrUsed;
+            this.m_ptrKeys = src.m_ptrKeys.clone();
+            this.m_ptrTargets = src.m_ptrTargets.clone();
+            this.m_ptrPreviews = src.m_ptrPreviews.clone();
+            this.m_ptrUsed = src.m_ptrUsed;
+            this.m_nodeCount = src.m_nodeCount;
+            this.m_attrGarbage = src.m_attrGarbage;
+            this.m_ptrGarbage = src.m_ptrGarbage;
+        }
+
+        /** Return the number of 'id', assigning one, and growing the
+          * per-ID arrays, if needed. */
+        public int internID(String id)
+        {
+            int n = this.m_ids.intern(id);
+            if (n >= this.m_attrStart.length) {
+                int oldLength = this.m_attrStart.length;
+                int newLength = Math.max(oldLength * 2, n + 1);
+                this.m_attrStart = Arrays.copyOf(this.m_attrStart, newLength);
+                Arrays.fill(this.m_attrStart, oldLength, newLength, -1);
+                this.m_attrCount = Arrays.copyOf(this.m_attrCount, newLength);
+                this.m_ptrStart = Arrays.copyOf(this.m_ptrStart, newLength);
+                this.m_ptrCount = Arrays.copyOf(this.m_ptrCount, newLength);
+                this.m_contentHash = Arrays.copyOf(this.m_contentHash, newLength);
+            }
+            return n;
+        }
+
+        /** True if ID number 'n' has a node. */
+        public boolean hasNode(int n)
+        {
+            return n >= 0 && this.m_attrStart[n] >= 0;
+        }
+
+        /** Make room for 'attrs' more attributes and 'ptrs' more
+          * pointers. */
+        private void reserve(int attrs, int ptrs)
+        {
+            int need = this.m_attrUsed + attrs;
+            if (need > this.m_attrKeys.length) {
+                int len = Math.max(this.m_attrKeys.length * 2, need);
+                this.m_attrKeys = Arrays.copyOf(this.m_attrKeys, len);
+                this.m_attrValues = Arrays.copyOf(this.m_attrValues, len);
+            }
+            need = this.m_ptrUsed + ptrs;
+            if (need > this.m_ptrKeys.length) {
+                int len = Math.max(this.m_ptrKeys.length * 2, need);
+                this.m_ptrKeys = Arrays.copyOf(this.m_ptrKeys, len);
+                this.m_ptrTargets = Arrays.copyOf(this.m_ptrTargets, len);
+                this.m_ptrPreviews = Arrays.copyOf(this.m_ptrPreviews, len);
+            }
+        }
+
+        /** Store 'node', replacing any node with the same ID. */
+        public void put(ObjectGraphNode node)
+        {
+            int n = this.internID(node.m_id);
+            this.remove(n);
+
+            int attrs = node.m_attributes.length();
+            int ptrs = node.m_pointers.size();
+            this.reserve(attrs, ptrs);
+
+            this.m_attrStart[n] = this.m_attrUsed;
+            this.m_attrCount[n] = attrs;
+            Iterator<?> it = node.m_attributes.keys();
+            while (it.hasNext()) {
+                String key = (String)it.next();
+                this.m_attrKeys[this.m_attrUsed] = this.m_keys.intern(key);
+                this.m_attrValues[this.m_attrUsed] = node.m_attributes.opt(key);
+                this.m_attrUsed++;
+            }
+
+            this.m_ptrStart[n] = this.m_ptrUsed;
+            this.m_ptrCount[n] = ptrs;
+            for (Map.Entry<String, ObjectGraphNode.Ptr> kv :
+                     node.m_pointers.entrySet()) {
+                ObjectGraphNode.Ptr ptr = kv.getValue();
+                this.m_ptrKeys[this.m_ptrUsed] = this.m_keys.intern(kv.getKey());
+                this.m_ptrTargets[this.m_ptrUsed] = this.internID(ptr.m_ptr);
+                this.m_ptrPreviews[this.m_ptrUsed] = ptr.m_preview;
+                this.m_ptrUsed++;
+            }
+
+            this.m_contentHash[n] = 0;
+            this.m_nodeCount++;
+        }
+
+        /** Remove the node for ID number 'n', if there is one, and
+          * return true if there was. */
+        public boolean remove(int n)
+        {
+            if (!this.hasNode(n)) {
+                return false;
+            }
+
+            // Release the values so they can be collected.
+            int start = this.m_attrStart[n];
+            Arrays.fill(this.m_attrValues, start, start + this.m_attrCount[n], null);
+            start = this.m_ptrStart[n];
+            Arrays.fill(this.m_ptrPreviews, start, start + this.m_ptrCount[n], null);
+
+            this.m_attrGarbage += this.m_attrCount[n];
+            this.m_ptrGarbage += this.m_ptrCount[n];
+            this.m_attrStart[n] = -1;
+            this.m_nodeCount--;
+
+            if (this.m_attrGarbage + this.m_ptrGarbage >
+                    (this.m_attrUsed + this.m_ptrUsed) / 2) {
+                this.compact();
+            }
+            return true;
+        }
+
+        /** Rewrite the attribute and pointer arrays without garbage. */
+        private void compact()
+        {
+            int[] attrKeys = new int[this.m_attrUsed - this.m_attrGarbage + 1];
+            Object[] attrValues = new Object[attrKeys.length];
+            int[] ptrKeys = new int[this.m_ptrUsed - this.m_ptrGarbage + 1];
+            int[] ptrTargets = new int[ptrKeys.length];
+            String[] ptrPreviews = new String[ptrKeys.length];
+            int attrUsed = 0;
+            int ptrUsed = 0;
+
+            for (int n=0; n < this.m_ids.size(); n++) {
+                if (!this.hasNode(n)) {
+                    continue;
+                }
+
+                int start = this.m_attrStart[n];
+                int count = this.m_attrCount[n];
+                System.arraycopy(this.m_attrKeys, start, attrKeys, attrUsed, count);
+                System.arraycopy(this.m_attrValues, start, attrValues, attrUsed, count);
+                this.m_attrStart[n] = attrUsed;
+                attrUsed += count;
+
+                start = this.m_ptrStart[n];
+                count = this.m_ptrCount[n];
+                System.arraycopy(this.m_ptrKeys, start, ptrKeys, ptrUsed, count);
+                System.arraycopy(this.m_ptrTargets, start, ptrTargets, ptrUsed, count);
+                System.arraycopy(this.m_ptrPreviews, start, ptrPreviews, ptrUsed, count);
+                this.m_ptrStart[n] = ptrUsed;
+                ptrUsed += count;
+            }
+
+            this.m_attrKeys = attrKeys;
+            this.m_attrValues = attrValues;
+            this.m_attrUsed = attrUsed;
+            this.m_ptrKeys = ptrKeys;
+            this.m_ptrTargets = ptrTargets;
+            this.m_ptrPreviews = ptrPreviews;
+            this.m_ptrUsed = ptrUsed;
+            this.m_attrGarbage = 0;
+            this.m_ptrGarbage = 0;
+        }
+
+        /** Make an ObjectGraphNode for ID number 'n', which must have a
+          * node. */
+        public ObjectGraphNode makeNode(int n)
+        {
+            ObjectGraphNode node = new ObjectGraphNode(this.m_ids.get(n));
+            try {
+                int end = this.m_attrStart[n] + this.m_attrCount[n];
+                for (int i = this.m_attrStart[n]; i < end; i++) {
+                    node.m_attributes.put(this.m_keys.get(this.m_attrKeys[i]),
+                                          this.m_attrValues[i]);
+                }
+            }
+            catch (JSONException e) {
+                // The values were accepted by a JSONObject before.
+                throw new RuntimeException("CompactNodeMap.makeNode failed", e);
+            }
+
+            int end = this.m_ptrStart[n] + this.m_ptrCount[n];
+            for (int i = this.m_ptrStart[n]; i < end; i++) {
+                node.m_pointers.put(this.m_keys.get(this.m_ptrKeys[i]),
+                    new ObjectGraphNode.Ptr(this.m_ids.get(this.m_ptrTargets[i]),
+                                            this.m_ptrPreviews[i]));
+            }
+            return node;
+        }
+    }
+
+    /** Iterator over the ID numbers that have nodes. */
+    private abstract class NodeIterator<T> implements Iterator<T> {
+        /** ID number of the next node, or the number of IDs if none. */
+        private int m_next;
+
+        /** ID number of the node most recently returned, or -1. */
+        private int m_last = -1;
+
+        public NodeIterator()
+        {
+            this.m_next = this.advance(0);
+        }
+
+        /** Return the first ID number at or after 'n' with a node. */
+        private int advance(int n)
+        {
+            Store store = CompactNodeMap.this.m_store;
+            while (n < store.m_ids.size() && !store.hasNode(n)) {
+                n++;
+            }
+            return n;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            return this.m_next < CompactNodeMap.this.m_store.m_ids.size();
+        }
+
+        /** Return the ID number of the next node. */
+        protected int nextNumber()
+        {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            this.m_last = this.m_next;
+            this.m_next = this.advance(this.m_next + 1);
+            return this.m_last;
+        }
+
+        @Override
+        public void remove()
+        {
+            if (this.m_last < 0) {
+                throw new IllegalStateException();
+            }
+
+            // Compacting does not renumber IDs, so 'm_next' stays valid.
+            CompactNodeMap.this.writableStore().remove(this.m_last);
+            this.m_last = -1;
+        }
+    }
+
+    // ---------------- instance data ------------------
+    /** The data. */
+    private Store m_store;
+
+    /** True if 'm_store' might be shared with another map, in which
+      * case it must be copied before being modified. */
+    private boolean m_shared;
+
+    // ------------------- methods ---------------------
+    public CompactNodeMap()
+    {
+        this.m_store = new Store();
+        this.m_shared = false;
+    }
+
+    /** Make a copy of 'src'.  This takes constant time; the data is
+      * copied when either map is first modified. */
+    public CompactNodeMap(CompactNodeMap src)
+    {
+        this.m_store = src.m_store;
+        this.m_shared = true;
+        src.m_shared = true;
+    }
+
+    /** Get 'm_store', first copying it if it is shared. */
+    private Store writableStore()
+    {
+        if (this.m_shared) {
+            this.m_store = new Store(this.m_store);
+            this.m_shared = false;
+        }
+        return this.m_store;
+    }
+
+    /** True if 'this' and 'other' share their data, and so are equal. */
+    public boolean sharesDataWith(CompactNodeMap other)
+    {
+        return this.m_store == other.m_store;
+    }
+
+    /** Return the 'contentHash' of the node for 'id', which must
+      * exist.  It is remembered until the node is replaced, so asking
+      * again is cheap. */
+    public long getContentHash(String id)
+    {
+        Store store = this.m_store;
+        int n = store.m_ids.find(id);
+        if (!store.hasNode(n)) {
+            throw new IllegalArgumentException("no node \""+id+"\"");
+        }
+
+        // Filling in the hash does not change the contents, so it is
+        // fine to do even when 'store' is shared.
+        long h = store.m_contentHash[n];
+        if (h == 0) {
+            h = store.makeNode(n).contentHash();
+            store.m_contentHash[n] = h;
+        }
+        return h;
+    }
+
+    /** Record that the 'contentHash' of the node for 'id', which must
+      * exist, is 'hash', which the caller already knows. */
+    /*package*/ void setContentHash(String id, long hash)
+    {
+        Store store = this.writableStore();
+        int n = store.m_ids.find(id);
+        assert(store.hasNode(n));
+        store.m_contentHash[n] = hash;
+    }
+
+    /** Number of distinct attribute and pointer names. */
+    public int getKeyCount()
+    {
+        return this.m_store.m_keys.size();
+    }
+
+    @Override
+    public int size()
+    {
+        return this.m_store.m_nodeCount;
+    }
+
+    @Override
+    public boolean containsKey(Object id)
+    {
+        if (!(id instanceof String)) {
+            return false;
+        }
+        return this.m_store.hasNode(this.m_store.m_ids.find((String)id));
+    }
+
+    @Override
+    public ObjectGraphNode get(Object id)
+    {
+        if (!(id instanceof String)) {
+            return null;
+        }
+        int n = this.m_store.m_ids.find((String)id);
+        return this.m_store.hasNode(n)? this.m_store.makeNode(n) : null;
+    }
+
+    /** Store the data of 'node' under 'id', which must be its ID.
+      * Later changes to 'node' do not affect the map.  This always
+      * returns null rather than the previous node. */
+    @Override
+    public ObjectGraphNode put(String id, ObjectGraphNode node)
+    {
+        if (!id.equals(node.m_id)) {
+            throw new IllegalArgumentException(
+                "node ID \""+node.m_id+"\" is not the key \""+id+"\"");
+        }
+        this.writableStore().put(node);
+        return null;
+    }
+
+    /** Remove the node for 'id'.  This returns null rather than the
+      * removed node. */
+    @Override
+    public ObjectGraphNode remove(Object id)
+    {
+        if (this.containsKey(id)) {
+            Store store = this.writableStore();
+            store.remove(store.m_ids.find((String)id));
+        }
+        return null;
+    }
+
+    @Override
+    public void clear()
+    {
+        this.m_store = new Store();
+        this.m_shared = false;
+    }
+
+    @Override
+    public Set<String> keySet()
+    {
+        return new AbstractSet<String>() {
+            @Override
+            public Iterator<String> iterator()
+            {
+                return new NodeIterator<String>() {
+                    @Override
+                    public String next()
+                    {
+                        return CompactNodeMap.this.m_store.m_ids.get(this.nextNumber());
+                    }
+                };
+            }
+
+            @Override
+            public int size()
+            {
+                return CompactNodeMap.this.size();
+            }
+
+            @Override
+            public boolean contains(Object id)
+            {
+                return CompactNodeMap.this.containsKey(id);
+            }
+
+            @Override
+            public boolean remove(Object id)
+            {
+                boolean ret = CompactNodeMap.this.containsKey(id);
+                CompactNodeMap.this.remove(id);
+                return ret;
+            }
+        };
+    }
+
+    @Override
+    public Set<Map.Entry<String, ObjectGraphNode>> entrySet()
+    {
+        return new AbstractSet<Map.Entry<String, ObjectGraphNode>>() {
+            @Override
+            public Iterator<Map.Entry<String, ObjectGraphNode>> iterator()
+            {
+                return new NodeIterator<Map.Entry<String, ObjectGraphNode>>() {
+                    @Override
+                    public Map.Entry<String, ObjectGraphNode> next()
+                    {
+                        Store store = CompactNodeMap.this.m_store;
+                        int n = this.nextNumber();
+                        return new AbstractMap.SimpleImmutableEntry<String, ObjectGraphNode>(
+                            store.m_ids.get(n), store.makeNode(n));
+                    }
+                };
+            }
+
+            @Override
+            public int size()
+            {
+                return CompactNodeMap.this.size();
+            }
+        };
+    }
+}
+
+// EOF
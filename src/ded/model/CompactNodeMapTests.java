@@ -0,0 +1,176 @@
+// CompactNodeMapTests.java
+// See toplevel license.txt for copyright and license terms.
+
+package ded.model;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import util.json.JSONUtil;
+
+import static util.StringUtil.fmt;
+
+/** Tests for CompactNodeMap. */
+public class CompactNodeMapTests {
+    /** Make a node with a few attributes and pointers, some of which
+      * point at nodes that do not exist. */
+    public static ObjectGraphNode makeNode(int i, int nodeCount)
+        throws Exception
+    {
+        ObjectGraphNode node = new ObjectGraphNode("n"+i);
+        node.m_attributes.put("name", fmt("node %1$d", i));
+        node.m_attributes.put("size", i * 3);
+        if (i % 3 == 0) {
+            JSONArray arr = new JSONArray();
+            arr.put(i);
+            arr.put("x");
+            node.m_attributes.put("list", arr);
+        }
+        node.m_pointers.put("next",
+            new ObjectGraphNode.Ptr("n"+((i+1) % nodeCount), null));
+        if (i % 2 == 0) {
+            node.m_pointers.put("parent",
+                new ObjectGraphNode.Ptr("n"+(i/2), "parent of "+i));
+        }
+        if (i % 5 == 0) {
+            node.m_pointers.put("dangling",
+                new ObjectGraphNode.Ptr("missing"+i, null));
+        }
+        return node;
+    }
+
+    /** Check that 'compact' has the same contents as 'reference'. */
+    private static void checkSame(CompactNodeMap compact,
+                                  Map<String, ObjectGraphNode> reference)
+    {
+        assert(compact.size() == reference.size());
+        assert(compact.equals(reference));
+        assert(reference.equals(compact));
+        assert(compact.hashCode() == reference.hashCode());
+
+        int count = 0;
+        for (String id : compact.keySet()) {
+            assert(reference.get(id).equals(compact.get(id)));
+            count++;
+        }
+        assert(count == reference.size());
+    }
+
+    public static void main(String args[])
+        throws Exception
+    {
+        int nodeCount = 500;
+        CompactNodeMap compact = new CompactNodeMap();
+        HashMap<String, ObjectGraphNode> reference =
+            new HashMap<String, ObjectGraphNode>();
+        for (int i=0; i < nodeCount; i++) {
+            ObjectGraphNode node = makeNode(i, nodeCount);
+            compact.put(node.m_id, node);
+            reference.put(node.m_id, node);
+        }
+        checkSame(compact, reference);
+        assert(compact.getKeyCount() == 6);
+
+        // Dangling pointer targets are not nodes.
+        assert(!compact.containsKey("missing0"));
+        assert(compact.get("missing0") == null);
+        assert(compact.get("n0").getPointerTarget("dangling").equals("missing0"));
+
+        // Changing a returned node does not change the map.
+        ObjectGraphNode n7 = compact.get("n7");
+        n7.m_attributes.put("name", "changed");
+        assert(compact.get("n7").getAttributeString("name").equals("node 7"));
+        compact.put("n7", n7);
+        reference.put("n7", n7);
+        assert(compact.get("n7").getAttributeString("name").equals("changed"));
+        checkSame(compact, reference);
+
+        // A copy shares the data until one of them changes.
+        CompactNodeMap copy = new CompactNodeMap(compact);
+        assert(copy.sharesDataWith(compact));
+        copy.remove("n1");
+        assert(!copy.sharesDataWith(compact));
+        assert(!copy.containsKey("n1"));
+        assert(compact.containsKey("n1"));
+        checkSame(compact, reference);
+
+        // Removing most nodes, through all three interfaces, compacts
+        // the arrays without losing the rest.
+        for (int i=0; i < nodeCount; i += 4) {
+            compact.remove("n"+i);
+            reference.remove("n"+i);
+        }
+        compact.keySet().remove("n1");
+        reference.remove("n1");
+        Iterator<Map.Entry<String, ObjectGraphNode>> it =
+            compact.entrySet().iterator();
+        while (it.hasNext()) {
+            String id = it.next().getKey();
+            if (Integer.parseInt(id.substring(1)) % 4 == 2) {
+                it.remove();
+                reference.remove(id);
+            }
+        }
+        checkSame(compact, reference);
+
+        // Removed nodes can be added back.
+        for (int i=0; i < nodeCount; i += 4) {
+            ObjectGraphNode node = makeNode(i, nodeCount);
+            compact.put(node.m_id, node);
+            reference.put(node.m_id, node);
+        }
+        checkSame(compact, reference);
+
+        // The key must be the node ID.
+        try {
+            compact.put("wrong", makeNode(1, nodeCount));
+            assert(false);
+        }
+        catch (IllegalArgumentException e) {
+            // As expected.
+        }
+
+        compact.clear();
+        assert(compact.isEmpty());
+        assert(!compact.keySet().iterator().hasNext());
+
+        // Large graphs read from JSON use the compact map, and write the
+        // same JSON back.
+        int savedThreshold = ObjectGraph.s_compactNodeThreshold;
+        try {
+            ObjectGraph.s_compactNodeThreshold = 10;
+            ObjectGraph graph = new ObjectGraph();
+            for (int i=0; i < 20; i++) {
+                graph.addNode(makeNode(i, 20));
+            }
+            JSONObject json = graph.toJSON();
+            ObjectGraph parsed = new ObjectGraph(json);
+            assert(parsed.isCompact());
+            assert(parsed.equals(graph));
+            assert(graph.equals(parsed));
+            assert(JSONUtil.equalJSONObjects(parsed.toJSON(), json));
+            parsed.selfCheck();
+
+            // Copies share storage and compare equal cheaply.
+            ObjectGraph parsedCopy = new ObjectGraph(parsed);
+            assert(parsedCopy.isCompact());
+            assert(parsedCopy.equals(parsed));
+            parsedCopy.m_nodes.remove("n3");
+            assert(!parsedCopy.equals(parsed));
+            assert(parsed.getOptNode("n3") != null);
+
+            // Small graphs do not.
+            ObjectGraph.s_compactNodeThreshold = 1000;
+            assert(!new ObjectGraph(json).isCompact());
+        }
+        finally {
+            ObjectGraph.s_compactNodeThreshold = savedThreshold;
+        }
+    }
+}
+
+// EOF
@@ -97,7 +97,10 @@ public class Diagram implements JSONable {
 
     /** Map from color names to Colors.
       *
-      * Invariant: No key is null or empty. */
+      * Invariant: No key is null or empty.
+      *
+      * To change the table, assign a new map rather than modifying
+      * this one, since ColorReference detects changes by identity. */
     public LinkedHashMap<String, Color> namedColors;
 
     /** Set of objects forming a graph that can be interactively
@@ -560,9 +563,10 @@ public class Diagram implements JSONable {
         File sourceFile = Util.getFileRelativeTo(fnameBase,
             m_objectGraphSourceFile);
 
-        JSONObject sourceGraphObj;
+        // Read the source one node at a time since it can be large.
+        ObjectGraph sourceGraph;
         try {
-            sourceGraphObj = JSONUtil.readObjectFromFile(sourceFile);
+            sourceGraph = ObjectGraphImporter.readFile(sourceFile);
         }
         catch (Exception e) {
             issues.add(fmt(
@@ -572,12 +576,14 @@ public class Diagram implements JSONable {
             return;
         }
 
-        JSONObject existingGraphObj = this.objectGraph.toJSON();
-        if (!JSONUtil.equalJSONObjects(sourceGraphObj, existingGraphObj)) {
+        String difference =
+            sourceGraph.describeDifference(this.objectGraph, true /*parallel*/);
+        if (difference != null) {
             issues.add(fmt(
-                "Graph loaded from \"%s\" differs from the one in \"%s\".",
+                "Graph loaded from \"%s\" differs from the one in \"%s\": %s.",
                 sourceFile.toString(),
-                fname));
+                fname,
+                difference));
             return;
         }
     }
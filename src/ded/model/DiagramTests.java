@@ -3,6 +3,9 @@
 
 package ded.model;
 
+import java.awt.Color;
+
+import java.util.LinkedHashMap;
 import java.util.List;
 
 import ded.model.Diagram;
@@ -18,6 +21,7 @@ public class DiagramTests {
     {
         DiagramTests t = new DiagramTests();
         t.testFixObjectGraphEntityNeighbors();
+        t.testColorReference();
     }
 
     private void testFixObjectGraphEntityNeighbors()
@@ -74,6 +78,32 @@ public class DiagramTests {
         // And the ID should be correct.
         assert(e2.objectGraphNodeID.equals("n2"));
     }
+
+    private void testColorReference()
+    {
+        Diagram diagram = new Diagram();
+        ColorReference ref = new ColorReference();
+
+        // Named color.
+        Color red = ref.get(diagram, "Red", Color.BLACK);
+        assert(red == diagram.namedColors.get("Red"));
+
+        // RGB syntax resolves to the same object on repeated lookups.
+        Color c = ref.get(diagram, "RGB(1,2,3)", Color.BLACK);
+        assert(c.equals(new Color(1, 2, 3)));
+        assert(ref.get(diagram, new String("RGB(1,2,3)"), Color.BLACK) == c);
+
+        // Unrecognized names give the fallback.
+        assert(ref.get(diagram, "NoSuchColor", Color.BLUE) == Color.BLUE);
+        assert(ref.get(diagram, "NoSuchColor", Color.GREEN) == Color.GREEN);
+
+        // Replacing the table is noticed.
+        LinkedHashMap<String, Color> table =
+            new LinkedHashMap<String, Color>(diagram.namedColors);
+        table.put("NoSuchColor", Color.CYAN);
+        diagram.namedColors = table;
+        assert(ref.get(diagram, "NoSuchColor", Color.GREEN) == Color.CYAN);
+    }
 }
 
 
@@ -0,0 +1,150 @@
+// IncomingPointerIndex.java
+// See toplevel license.txt for copyright and license terms.
+
+package ded.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+/** Map from node ID to the pointers that point at it, so the nodes
+  * pointing at a node can be found without scanning the whole graph. */
+public class IncomingPointerIndex {
+    // ---------------- public types ------------------
+    /** A pointer named 'key' in the node 'sourceID'. */
+    public static class Ref implements Comparable<Ref> {
+        public final String sourceID;
+        public final String key;
+
+        public Ref(String sourceID, String key)
+        {
+            this.sourceID = sourceID;
+            this.key = key;
+        }
+
+        /** Order by source, then key. */
+        @Override
+        public int compareTo(Ref r)
+        {
+            int c = this.sourceID.compareTo(r.sourceID);
+            return c != 0? c : this.key.compareTo(r.key);
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null || obj.getClass() != this.getClass()) {
+                return false;
+            }
+            Ref r = (Ref)obj;
+            return this.sourceID.equals(r.sourceID) &&
+                   this.key.equals(r.key);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return this.sourceID.hashCode() * 31 + this.key.hashCode();
+        }
+
+        @Override
+        public String toString()
+        {
+            return this.sourceID + "." + this.key;
+        }
+    }
+
+    // ---------------- private types ------------------
+    /** The pointers to one node. */
+    private static class RefSet {
+        /** The pointers, in no particular order. */
+        public HashSet<Ref> m_refs = new HashSet<Ref>();
+
+        /** 'm_refs' sorted, or null if it has changed since this was
+          * last computed. */
+        public List<Ref> m_sorted = null;
+    }
+
+    // ---------------- instance data ------------------
+    /** Map from target ID to the pointers to it.  Targets do not need
+      * to be nodes.  There are no empty sets. */
+    private HashMap<String, RefSet> m_targets = new HashMap<String, RefSet>();
+
+    // ------------------- methods ---------------------
+    /** Make an empty index. */
+    public IncomingPointerIndex()
+    {}
+
+    /** Make an index of all the pointers in 'graph'. */
+    public IncomingPointerIndex(ObjectGraph graph)
+    {
+        for (Map.Entry<String, ObjectGraphNode> kv : graph.m_nodes.entrySet()) {
+            this.addNode(kv.getValue());
+        }
+    }
+
+    /** Add the pointers of 'node'. */
+    public void addNode(ObjectGraphNode node)
+    {
+        for (Map.Entry<String, ObjectGraphNode.Ptr> kv : node.m_pointers.entrySet()) {
+            String target = kv.getValue().m_ptr;
+            RefSet rs = this.m_targets.get(target);
+            if (rs == null) {
+                rs = new RefSet();
+                this.m_targets.put(target, rs);
+            }
+            if (rs.m_refs.add(new Ref(node.m_id, kv.getKey()))) {
+                rs.m_sorted = null;
+            }
+        }
+    }
+
+    /** Remove the pointers of 'node', which were added earlier. */
+    public void removeNode(ObjectGraphNode node)
+    {
+        for (Map.Entry<String, ObjectGraphNode.Ptr> kv : node.m_pointers.entrySet()) {
+            String target = kv.getValue().m_ptr;
+            RefSet rs = this.m_targets.get(target);
+            if (rs != null && rs.m_refs.remove(new Ref(node.m_id, kv.getKey()))) {
+                if (rs.m_refs.isEmpty()) {
+                    this.m_targets.remove(target);
+                }
+                else {
+                    rs.m_sorted = null;
+                }
+            }
+        }
+    }
+
+    /** Return the pointers to 'targetID', sorted by source then key.
+      * The list must not be modified.  The sorted list is remembered
+      * until the pointers to 'targetID' change. */
+    public List<Ref> getIncoming(String targetID)
+    {
+        RefSet rs = this.m_targets.get(targetID);
+        if (rs == null) {
+            return Collections.<Ref>emptyList();
+        }
+        if (rs.m_sorted == null) {
+            ArrayList<Ref> sorted = new ArrayList<Ref>(rs.m_refs);
+            Collections.sort(sorted);
+            rs.m_sorted = Collections.unmodifiableList(sorted);
+        }
+        return rs.m_sorted;
+    }
+
+    /** Return the number of pointers to 'targetID'. */
+    public int getIncomingCount(String targetID)
+    {
+        RefSet rs = this.m_targets.get(targetID);
+        return rs == null? 0 : rs.m_refs.size();
+    }
+}
+
+// EOF
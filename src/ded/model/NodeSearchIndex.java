@@ -0,0 +1,201 @@
+// NodeSearchIndex.java
+// See toplevel license.txt for copyright and license terms.
+
+package ded.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/** Inverted index from the words in node IDs and attribute values to
+  * the nodes containing them, for finding nodes by typing part of
+  * their contents.
+  *
+  * Nodes are identified by their "ordinal", their position among the
+  * IDs in sorted order.  Search results are arrays of ordinals in
+  * ascending order, and hence also sorted by ID. */
+public class NodeSearchIndex {
+    // ---------------- private types ------------------
+    /** Growable list of ordinals, without repeats, in ascending order. */
+    private static class Postings {
+        public int[] m_ordinals = new int[2];
+        public int m_count = 0;
+
+        /** Add 'ordinal', which is at least as large as any already
+          * present. */
+        public void add(int ordinal)
+        {
+            if (m_count > 0 && m_ordinals[m_count-1] == ordinal) {
+                return;
+            }
+            if (m_count == m_ordinals.length) {
+                m_ordinals = Arrays.copyOf(m_ordinals, m_count * 2);
+            }
+            m_ordinals[m_count++] = ordinal;
+        }
+    }
+
+    // ---------------- instance data ------------------
+    /** The node IDs in sorted order. */
+    private String[] m_ids;
+
+    /** The distinct words, lowercased and sorted, so those with a
+      * given prefix are adjacent. */
+    private String[] m_words;
+
+    /** For each word in 'm_words', the ordinals of the nodes that
+      * contain it, in ascending order. */
+    private int[][] m_postings;
+
+    // ------------------- methods ---------------------
+    /** Index the nodes of 'graph'. */
+    public NodeSearchIndex(ObjectGraph graph)
+    {
+        m_ids = graph.idSet().toArray(new String[0]);
+        Arrays.sort(m_ids);
+
+        HashMap<String, Postings> wordToPostings =
+            new HashMap<String, Postings>(m_ids.length * 4);
+        ArrayList<String> words = new ArrayList<String>();
+        for (int ordinal=0; ordinal < m_ids.length; ordinal++) {
+            String id = m_ids[ordinal];
+            words.clear();
+            tokenizeInto(words, id);
+            addValueWords(words, graph.getExistingNode(id).m_attributes);
+            for (String word : words) {
+                Postings p = wordToPostings.get(word);
+                if (p == null) {
+                    p = new Postings();
+                    wordToPostings.put(word, p);
+                }
+                p.add(ordinal);
+            }
+        }
+
+        m_words = wordToPostings.keySet().toArray(new String[0]);
+        Arrays.sort(m_words);
+        m_postings = new int[m_words.length][];
+        for (int i=0; i < m_words.length; i++) {
+            Postings p = wordToPostings.get(m_words[i]);
+            m_postings[i] = Arrays.copyOf(p.m_ordinals, p.m_count);
+        }
+    }
+
+    /** Add to 'words' the words in the attribute value 'v', looking
+      * inside objects and arrays. */
+    private static void addValueWords(List<String> words, Object v)
+    {
+        if (v instanceof JSONObject) {
+            JSONObject o = (JSONObject)v;
+            Iterator<?> it = o.keys();
+            while (it.hasNext()) {
+                addValueWords(words, o.opt((String)it.next()));
+            }
+        }
+        else if (v instanceof JSONArray) {
+            JSONArray a = (JSONArray)v;
+            for (int i=0; i < a.length(); i++) {
+                addValueWords(words, a.opt(i));
+            }
+        }
+        else if (v != null && v != JSONObject.NULL) {
+            tokenizeInto(words, v.toString());
+        }
+    }
+
+    /** Add to 'words' the maximal runs of letters and digits in
+      * 'text', lowercased. */
+    public static void tokenizeInto(List<String> words, String text)
+    {
+        int start = -1;
+        for (int i=0; i <= text.length(); i++) {
+            boolean inWord = i < text.length() &&
+                             Character.isLetterOrDigit(text.charAt(i));
+            if (inWord && start < 0) {
+                start = i;
+            }
+            else if (!inWord && start >= 0) {
+                words.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+    }
+
+    /** Return the number of nodes indexed. */
+    public int getNodeCount()
+    {
+        return m_ids.length;
+    }
+
+    /** Return the number of distinct words. */
+    public int getWordCount()
+    {
+        return m_words.length;
+    }
+
+    /** Return the ID of the node at 'ordinal'. */
+    public String getID(int ordinal)
+    {
+        return m_ids[ordinal];
+    }
+
+    /** Return the ordinals of the nodes that, for every word in
+      * 'query', have a word that begins with it, ignoring case.  If
+      * 'query' has no words, return all ordinals. */
+    public int[] search(String query)
+    {
+        ArrayList<String> queryWords = new ArrayList<String>();
+        tokenizeInto(queryWords, query);
+
+        BitSet result = null;
+        for (String prefix : queryWords) {
+            BitSet matches = new BitSet(m_ids.length);
+
+            // Find the first word not less than 'prefix'.
+            int i = Arrays.binarySearch(m_words, prefix);
+            if (i < 0) {
+                i = -(i+1);
+            }
+            for (; i < m_words.length && m_words[i].startsWith(prefix); i++) {
+                for (int ordinal : m_postings[i]) {
+                    matches.set(ordinal);
+                }
+            }
+
+            if (result == null) {
+                result = matches;
+            }
+            else {
+                result.and(matches);
+            }
+            if (result.isEmpty()) {
+                return new int[0];
+            }
+        }
+
+        if (result == null) {
+            int[] all = new int[m_ids.length];
+            for (int ordinal=0; ordinal < all.length; ordinal++) {
+                all[ordinal] = ordinal;
+            }
+            return all;
+        }
+
+        int[] ret = new int[result.cardinality()];
+        int n = 0;
+        for (int ordinal = result.nextSetBit(0); ordinal >= 0;
+             ordinal = result.nextSetBit(ordinal+1)) {
+            ret[n++] = ordinal;
+        }
+        return ret;
+    }
+}
+
+// EOF
@@ -0,0 +1,104 @@
+// NodeSearchIndexTests.java
+// See toplevel license.txt for copyright and license terms.
+
+package ded.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/** Tests for NodeSearchIndex. */
+public class NodeSearchIndexTests {
+    /** Return the IDs of the nodes matching 'query', comma-separated. */
+    private static String search(NodeSearchIndex index, String query)
+    {
+        ArrayList<String> ids = new ArrayList<String>();
+        for (int ordinal : index.search(query)) {
+            ids.add(index.getID(ordinal));
+        }
+        return String.join(",", ids);
+    }
+
+    public static void main(String args[])
+        throws Exception
+    {
+        ArrayList<String> words = new ArrayList<String>();
+        NodeSearchIndex.tokenizeInto(words, " Foo_bar.BAZ2 -- x ");
+        assert(words.equals(Arrays.asList("foo", "bar", "baz2", "x")));
+
+        ObjectGraph graph = new ObjectGraph();
+
+        ObjectGraphNode n = new ObjectGraphNode("Widget:12");
+        n.m_attributes.put("name", "Left Button");
+        n.m_attributes.put("size", 40);
+        graph.addNode(n);
+
+        n = new ObjectGraphNode("Widget:3");
+        n.m_attributes.put("name", "Right Button");
+        n.m_attributes.put("nothing", JSONObject.NULL);
+        graph.addNode(n);
+
+        n = new ObjectGraphNode("Panel:1");
+        JSONArray children = new JSONArray();
+        children.put("widget 12");
+        JSONObject layout = new JSONObject();
+        layout.put("kind", "Grid");
+        children.put(layout);
+        n.m_attributes.put("children", children);
+        n.addPointerTarget("first", "Widget:12");
+        graph.addNode(n);
+
+        NodeSearchIndex index = graph.getSearchIndex();
+        assert(index.getNodeCount() == 3);
+
+        // No words matches everything, in ID order.
+        assert(search(index, "").equals("Panel:1,Widget:12,Widget:3"));
+        assert(search(index, " ;; ").equals("Panel:1,Widget:12,Widget:3"));
+
+        // Words match by prefix, ignoring case.
+        assert(search(index, "wid").equals("Panel:1,Widget:12,Widget:3"));
+        assert(search(index, "BUTT").equals("Widget:12,Widget:3"));
+        assert(search(index, "4").equals("Widget:12"));
+
+        // Every word must match.
+        assert(search(index, "widget 1").equals("Panel:1,Widget:12"));
+        assert(search(index, "right but").equals("Widget:3"));
+        assert(search(index, "right left").equals(""));
+        assert(search(index, "zzz").equals(""));
+
+        // Values inside arrays and objects are included, but not keys,
+        // null, or pointers.
+        assert(search(index, "grid").equals("Panel:1"));
+        assert(search(index, "kind").equals(""));
+        assert(search(index, "null").equals(""));
+        assert(search(index, "first").equals(""));
+
+        // The index is remembered until the graph changes.
+        assert(graph.getSearchIndex() == index);
+        graph.removeNode("Widget:3");
+        assert(graph.getSearchIndex() != index);
+        assert(search(graph.getSearchIndex(), "butt").equals("Widget:12"));
+
+        // Compact storage is indexed the same way.
+        ObjectGraph compact = new ObjectGraph();
+        for (int i=0; i < 30; i++) {
+            compact.addNode(CompactNodeMapTests.makeNode(i, 30));
+        }
+        compact.useCompactStorage();
+        index = compact.getSearchIndex();
+        assert(index.getNodeCount() == 30);
+        assert(search(index, "n2").equals(
+            "n2,n20,n21,n22,n23,n24,n25,n26,n27,n28,n29"));
+
+        // "2" matches the number in the name and also the sizes 21, 24
+        // and 27.
+        assert(search(index, "node 2").equals(
+            "n2,n20,n21,n22,n23,n24,n25,n26,n27,n28,n29,n7,n8,n9"));
+        assert(search(index, "x").equals(
+            "n0,n12,n15,n18,n21,n24,n27,n3,n6,n9"));
+    }
+}
+
+// EOF
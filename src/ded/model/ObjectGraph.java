@@ -3,28 +3,142 @@
 
 package ded.model;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import util.json.JSONable;
 
+import static util.StringUtil.fmt;
+
 /** Set of objects with attributes and pointers. */
 public class ObjectGraph implements JSONable {
+    // ---------- public types ------------
+    /** What 'mergeFrom' changed. */
+    public static class MergeResult {
+        /** IDs of nodes added, removed, and replaced. */
+        public ArrayList<String> m_added = new ArrayList<String>();
+        public ArrayList<String> m_removed = new ArrayList<String>();
+        public ArrayList<String> m_changed = new ArrayList<String>();
+
+        /** IDs that the nodes above pointed at, before or after the
+          * merge, whose incoming pointers may therefore have changed. */
+        public HashSet<String> m_pointerTargets = new HashSet<String>();
+
+        /** True if nothing changed. */
+        public boolean isEmpty()
+        {
+            return m_added.isEmpty() &&
+                   m_removed.isEmpty() &&
+                   m_changed.isEmpty();
+        }
+
+        /** Return the IDs of all nodes that were added, removed, or
+          * replaced. */
+        public Set<String> getAffectedIDs()
+        {
+            Set<String> ret = new HashSet<String>(m_added);
+            ret.addAll(m_removed);
+            ret.addAll(m_changed);
+            return ret;
+        }
+
+        /** Describe the counts in a sentence. */
+        public String getSummary()
+        {
+            return fmt("%,d nodes added, %,d removed, %,d changed.",
+                m_added.size(), m_removed.size(), m_changed.size());
+        }
+    }
+
+    /** What 'getNeighborhood' found. */
+    public static class Neighborhood {
+        /** A pointer that was followed. */
+        public static class Edge {
+            public final String m_sourceID;
+            public final String m_key;
+            public final String m_targetID;
+
+            public Edge(String sourceID, String key, String targetID)
+            {
+                m_sourceID = sourceID;
+                m_key = key;
+                m_targetID = targetID;
+            }
+
+            @Override
+            public String toString()
+            {
+                return m_sourceID + "." + m_key + " -> " + m_targetID;
+            }
+        }
+
+        /** IDs of the nodes reached, other than the start, in the order
+          * they were reached. */
+        public ArrayList<String> m_ids = new ArrayList<String>();
+
+        /** Number of pointers followed to reach each node in 'm_ids',
+          * at least 1. */
+        public ArrayList<Integer> m_depths = new ArrayList<Integer>();
+
+        /** The pointers followed, including those to nodes that had
+          * already been reached. */
+        public ArrayList<Edge> m_edges = new ArrayList<Edge>();
+
+        /** True if the search stopped early because it reached the
+          * maximum number of nodes. */
+        public boolean m_truncated = false;
+    }
+
+    // ---------- public class data ------------
+    /** Graphs read from JSON with at least this many nodes store them
+      * in a CompactNodeMap rather than a HashMap. */
+    public static int s_compactNodeThreshold = 1000;
+
+    /** Graphs with fewer nodes than this are always compared on one
+      * thread by 'describeDifference'. */
+    public static int s_parallelCompareThreshold = 10000;
+
     // ---------- public data ------------
     /**
       The set of nodes.
 
+      When this is a CompactNodeMap, the nodes it returns are copies,
+      so changing one requires putting it back.
+
       Invariant:
           forall String key in m_nodes:
               m_nodes.get(key).m_id.equals(key)
     */
     public Map<String, ObjectGraphNode> m_nodes;
 
+    // ---------- private data ------------
+    /** Index of the pointers in 'm_nodes' by target, or null if it has
+      * not been needed yet.  'addNode' and 'removeNode' keep it up to
+      * date, so nodes of a graph whose index may exist must only be
+      * changed through them.
+      *
+      * The indexes are built lazily, possibly while the tiles of an
+      * export are being painted concurrently, so the methods that use
+      * them are synchronized. */
+    private IncomingPointerIndex m_incomingIndex = null;
+
+    /** Word index of the nodes, or null if it has not been needed
+      * since the graph last changed. */
+    private NodeSearchIndex m_searchIndex = null;
+
     // ---------- public methods ------------
     public ObjectGraph()
     {
@@ -47,18 +161,227 @@ public class ObjectGraph implements JSONable {
         return n;
     }
 
-    /** Add 'node' to the graph. */
-    public void addNode(ObjectGraphNode node)
+    /** Add 'node' to the graph, replacing any with the same ID.  To
+      * change the pointers of a node already in the graph, add a
+      * modified copy rather than changing it in place, so the old
+      * pointers can be removed from the index. */
+    public synchronized void addNode(ObjectGraphNode node)
     {
+        m_searchIndex = null;
+        if (m_incomingIndex != null) {
+            ObjectGraphNode old = m_nodes.get(node.m_id);
+            if (old != null) {
+                m_incomingIndex.removeNode(old);
+            }
+            m_incomingIndex.addNode(node);
+        }
         m_nodes.put(node.m_id, node);
     }
 
+    /** Remove the node for 'id', if there is one. */
+    public synchronized void removeNode(String id)
+    {
+        m_searchIndex = null;
+        if (m_incomingIndex != null) {
+            ObjectGraphNode old = m_nodes.get(id);
+            if (old != null) {
+                m_incomingIndex.removeNode(old);
+            }
+        }
+        m_nodes.remove(id);
+    }
+
+    /** Return the pointers, in any node, to 'id', sorted by source
+      * node ID and then pointer name.  The list must not be modified.
+      * The first call builds an index, which takes time proportional to
+      * the number of pointers in the graph, and is then maintained as
+      * nodes are added and removed. */
+    public synchronized List<IncomingPointerIndex.Ref> getIncomingPointers(String id)
+    {
+        if (m_incomingIndex == null) {
+            m_incomingIndex = new IncomingPointerIndex(this);
+        }
+        return m_incomingIndex.getIncoming(id);
+    }
+
+    /** Return an index for finding nodes by the words in their IDs and
+      * attribute values.  It is built on first use, taking time
+      * proportional to the size of the graph, and discarded when the
+      * graph changes. */
+    public synchronized NodeSearchIndex getSearchIndex()
+    {
+        if (m_searchIndex == null) {
+            m_searchIndex = new NodeSearchIndex(this);
+        }
+        return m_searchIndex;
+    }
+
+    /** Search breadth-first from 'startID', following pointers at most
+      * 'maxDepth' times.  If 'keys' is not null, only follow pointers
+      * with those names.  Pointers to IDs that are not nodes are
+      * ignored.  Stop adding nodes after 'maxNodes', not counting the
+      * start.  The pointers of each node are followed in order of their
+      * names, so the result does not depend on storage order. */
+    public Neighborhood getNeighborhood(
+        String startID,
+        int maxDepth,
+        Set<String> keys,
+        int maxNodes)
+    {
+        Neighborhood ret = new Neighborhood();
+
+        // Nodes that have been reached, including the start.
+        HashSet<String> reached = new HashSet<String>();
+        reached.add(startID);
+
+        // Process nodes in order of distance.  'frontier' has those at
+        // 'depth'; 'next' collects those at 'depth+1'.
+        ArrayList<String> frontier = new ArrayList<String>();
+        frontier.add(startID);
+        for (int depth=0; depth < maxDepth && !frontier.isEmpty(); depth++) {
+            ArrayList<String> next = new ArrayList<String>();
+            for (String id : frontier) {
+                ObjectGraphNode node = getOptNode(id);
+                if (node == null) {
+                    continue;
+                }
+
+                ArrayList<String> nodeKeys =
+                    new ArrayList<String>(node.m_pointers.keySet());
+                Collections.sort(nodeKeys);
+                for (String key : nodeKeys) {
+                    if (keys != null && !keys.contains(key)) {
+                        continue;
+                    }
+                    String target = node.m_pointers.get(key).m_ptr;
+                    if (!reached.contains(target)) {
+                        if (!m_nodes.containsKey(target)) {
+                            continue;
+                        }
+                        if (ret.m_ids.size() >= maxNodes) {
+                            ret.m_truncated = true;
+                            continue;
+                        }
+                        reached.add(target);
+                        ret.m_ids.add(target);
+                        ret.m_depths.add(depth+1);
+                        next.add(target);
+                    }
+                    ret.m_edges.add(new Neighborhood.Edge(id, key, target));
+                }
+            }
+            frontier = next;
+        }
+
+        return ret;
+    }
+
     /** Return the set of node IDs. */
     public Set<String> idSet()
     {
         return m_nodes.keySet();
     }
 
+    /** True if the nodes are stored in a CompactNodeMap. */
+    public boolean isCompact()
+    {
+        return m_nodes instanceof CompactNodeMap;
+    }
+
+    /** Move the nodes into a CompactNodeMap if they are not already.
+      * Afterward, nodes previously added to the graph are no longer
+      * part of it; they have been copied. */
+    public void useCompactStorage()
+    {
+        if (!isCompact()) {
+            CompactNodeMap compact = new CompactNodeMap();
+            compact.putAll(m_nodes);
+            m_nodes = compact;
+        }
+    }
+
+    /** Return the 'contentHash' of the node for 'id', which must
+      * exist.  With compact storage, this is remembered per node. */
+    public long getNodeContentHash(String id)
+    {
+        if (m_nodes instanceof CompactNodeMap) {
+            return ((CompactNodeMap)m_nodes).getContentHash(id);
+        }
+        return getExistingNode(id).contentHash();
+    }
+
+    /** Compute the content hashes of all nodes now, if they will be
+      * remembered, so that a later 'mergeFrom' involving this graph
+      * does not have to.  This is meant to be done on a background
+      * thread, before the graph is shared. */
+    public void computeContentHashes()
+    {
+        if (m_nodes instanceof CompactNodeMap) {
+            CompactNodeMap compact = (CompactNodeMap)m_nodes;
+            for (String id : compact.keySet()) {
+                compact.getContentHash(id);
+            }
+        }
+    }
+
+    /** Make this graph equal to 'src' by adding, removing, and
+      * replacing only the nodes that differ, as judged by their
+      * content hashes, and return what changed.
+
+        With compact storage, the hashes of unchanged nodes are
+        remembered, so a later merge only needs to hash the nodes of
+        'src'.  'src' should not be used afterward, since it may share
+        nodes with this graph. */
+    public MergeResult mergeFrom(ObjectGraph src)
+    {
+        MergeResult result = new MergeResult();
+
+        for (String id : src.m_nodes.keySet()) {
+            long hash = src.getNodeContentHash(id);
+            if (!m_nodes.containsKey(id)) {
+                result.m_added.add(id);
+            }
+            else if (getNodeContentHash(id) != hash) {
+                result.m_changed.add(id);
+                for (ObjectGraphNode.Ptr ptr : getExistingNode(id).m_pointers.values()) {
+                    result.m_pointerTargets.add(ptr.m_ptr);
+                }
+            }
+            else {
+                continue;
+            }
+            ObjectGraphNode node = src.getExistingNode(id);
+            for (ObjectGraphNode.Ptr ptr : node.m_pointers.values()) {
+                result.m_pointerTargets.add(ptr.m_ptr);
+            }
+            addNode(node);
+            if (m_nodes instanceof CompactNodeMap) {
+                ((CompactNodeMap)m_nodes).setContentHash(id, hash);
+            }
+        }
+
+        for (String id : m_nodes.keySet()) {
+            if (!src.m_nodes.containsKey(id)) {
+                result.m_removed.add(id);
+            }
+        }
+        for (String id : result.m_removed) {
+            ObjectGraphNode old = getExistingNode(id);
+            for (ObjectGraphNode.Ptr ptr : old.m_pointers.values()) {
+                result.m_pointerTargets.add(ptr.m_ptr);
+            }
+            removeNode(id);
+        }
+
+        // A graph that has grown large switches to compact storage, as
+        // one read from the same source would have.
+        if (m_nodes.size() >= s_compactNodeThreshold) {
+            useCompactStorage();
+        }
+
+        return result;
+    }
+
     public void selfCheck()
     {
         for (Map.Entry<String, ObjectGraphNode> kv : m_nodes.entrySet()) {
@@ -114,7 +437,12 @@ public class ObjectGraph implements JSONable {
       */
     public ObjectGraph(JSONObject jsonGraph) throws JSONException
     {
-        m_nodes = new HashMap<String, ObjectGraphNode>();
+        if (jsonGraph.length() >= s_compactNodeThreshold) {
+            m_nodes = new CompactNodeMap();
+        }
+        else {
+            m_nodes = new HashMap<String, ObjectGraphNode>();
+        }
 
         Iterator it = jsonGraph.keys();
         while (it.hasNext()) {
@@ -136,6 +464,12 @@ public class ObjectGraph implements JSONable {
     /** Deep copy. */
     public ObjectGraph(ObjectGraph src)
     {
+        if (src.m_nodes instanceof CompactNodeMap) {
+            // The copy shares the storage until either is modified.
+            this.m_nodes = new CompactNodeMap((CompactNodeMap)src.m_nodes);
+            return;
+        }
+
         this.m_nodes = new HashMap<String, ObjectGraphNode>();
 
         // Build clones of the objects.
@@ -157,33 +491,113 @@ public class ObjectGraph implements JSONable {
         }
         ObjectGraph graph = (ObjectGraph)obj;
 
-        if (this.m_nodes.size() != graph.m_nodes.size()) {
-            return false;
-        }
+        return this.describeDifference(graph, false /*parallel*/) == null;
+    }
 
-        // Check that every ID in 'this' is also in 'graph', and with
-        // equal values.
-        for (Map.Entry<String, ObjectGraphNode> kv :
-                 this.m_nodes.entrySet()) {
-            String id = kv.getKey();
-            ObjectGraphNode thisNode = kv.getValue();
-            assert(thisNode != null);
+    /** Return null if 'this' equals 'other'.  Otherwise, return a phrase
+        naming a node that differs, such as 'node "n3" differs'.
 
-            ObjectGraphNode graphNode = graph.m_nodes.get(id);
-            if (graphNode == null) {
-                return false;
-            }
+        This stops at the first difference it finds.  If 'parallel', and
+        the graphs have at least 's_parallelCompareThreshold' nodes,
+        the nodes are compared on several threads, in which case the
+        node reported is not necessarily the first one that differs.
+        Neither graph may be modified during the comparison. */
+    public String describeDifference(ObjectGraph other, boolean parallel)
+    {
+        if (this.m_nodes instanceof CompactNodeMap &&
+            other.m_nodes instanceof CompactNodeMap &&
+            ((CompactNodeMap)this.m_nodes).sharesDataWith(
+                (CompactNodeMap)other.m_nodes))
+        {
+            return null;
+        }
 
-            if (!thisNode.equals(graphNode)) {
-                return false;
+        if (this.m_nodes.size() != other.m_nodes.size()) {
+            // Some node in the larger graph is missing from the other.
+            ObjectGraph larger =
+                (this.m_nodes.size() > other.m_nodes.size()? this : other);
+            ObjectGraph smaller = (larger == this? other : this);
+            for (String id : larger.m_nodes.keySet()) {
+                if (!smaller.m_nodes.containsKey(id)) {
+                    return fmt("node \"%1$s\" is only in one of them", id);
+                }
             }
+            assert(false);
         }
 
         // Since the number of keys is the same, every key is unique in
-        // its map, and every key in 'this' is in 'graph', it is not
-        // possible for 'graph' to have a key that 'this' is missing.
+        // its map, and every key in 'this' will be checked to be in
+        // 'other', it is not possible for 'other' to have a key that
+        // 'this' is missing.
+        final ArrayList<String> ids = new ArrayList<String>(this.m_nodes.keySet());
+        int threads = Runtime.getRuntime().availableProcessors();
+        if (!parallel || threads <= 1 || ids.size() < s_parallelCompareThreshold) {
+            return this.describeDifferenceIn(other, ids, 0, ids.size(), null);
+        }
+
+        // Split the IDs into several chunks per thread so that threads
+        // finishing early can help with the rest.
+        final AtomicReference<String> found = new AtomicReference<String>();
+        final ObjectGraph ths = this;
+        final ObjectGraph oth = other;
+        int chunkSize = (ids.size() + threads*4 - 1) / (threads*4);
+        ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int start = 0; start < ids.size(); start += chunkSize) {
+            final int chunkStart = start;
+            final int chunkEnd = Math.min(start + chunkSize, ids.size());
+            futures.add(ForkJoinPool.commonPool().submit(new Runnable() {
+                @Override
+                public void run()
+                {
+                    String diff = ths.describeDifferenceIn(
+                        oth, ids, chunkStart, chunkEnd, found);
+                    if (diff != null) {
+                        found.compareAndSet(null, diff);
+                    }
+                }
+            }));
+        }
 
-        return true;
+        for (Future<?> f : futures) {
+            try {
+                f.get();
+            }
+            catch (InterruptedException e) {
+                throw new RuntimeException("ObjectGraph comparison interrupted", e);
+            }
+            catch (ExecutionException e) {
+                throw new RuntimeException("ObjectGraph comparison failed", e.getCause());
+            }
+        }
+        return found.get();
+    }
+
+    /** Compare the nodes of 'this' whose IDs are in 'ids[start,end)'
+        to those in 'other', returning a description of the first
+        difference, or null.  Stop early, returning null, once 'stop',
+        if not null, has been set. */
+    private String describeDifferenceIn(
+        ObjectGraph other,
+        List<String> ids,
+        int start,
+        int end,
+        AtomicReference<String> stop)
+    {
+        for (int i = start; i < end; i++) {
+            if (stop != null && (i & 63) == 0 && stop.get() != null) {
+                return null;
+            }
+
+            String id = ids.get(i);
+            ObjectGraphNode otherNode = other.m_nodes.get(id);
+            if (otherNode == null) {
+                return fmt("node \"%1$s\" is only in one of them", id);
+            }
+            if (!otherNode.equals(this.m_nodes.get(id))) {
+                return fmt("node \"%1$s\" differs", id);
+            }
+        }
+        return null;
     }
 
     @Override
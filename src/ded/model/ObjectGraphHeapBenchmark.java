@@ -0,0 +1,76 @@
+// ObjectGraphHeapBenchmark.java
+// See toplevel license.txt for copyright and license terms.
+
+package ded.model;
+
+import org.json.JSONObject;
+
+import static util.StringUtil.fmt;
+
+/** Measures the heap used by a large object graph with each way of
+  * storing its nodes.  This is not part of the unit tests because its
+  * output depends on the JVM.
+  *
+  * Usage: java -cp bin ded.model.ObjectGraphHeapBenchmark [nodes] */
+public class ObjectGraphHeapBenchmark {
+    /** Return the heap in use after collecting garbage. */
+    private static long usedHeap()
+    {
+        Runtime rt = Runtime.getRuntime();
+        long prev = Long.MAX_VALUE;
+        for (int i=0; i < 10; i++) {
+            System.gc();
+            long used = rt.totalMemory() - rt.freeMemory();
+            if (used >= prev) {
+                return prev;
+            }
+            prev = used;
+        }
+        return prev;
+    }
+
+    /** Parse 'json' with the given threshold and report the heap used
+      * by the result and the time to copy it. */
+    private static void measure(String label, JSONObject json, int threshold)
+        throws Exception
+    {
+        ObjectGraph.s_compactNodeThreshold = threshold;
+
+        long before = usedHeap();
+        ObjectGraph graph = new ObjectGraph(json);
+        long after = usedHeap();
+
+        long start = System.nanoTime();
+        ObjectGraph copy = new ObjectGraph(graph);
+        long copyMicros = (System.nanoTime() - start) / 1000;
+
+        System.out.println(fmt(
+            "%1$-8s: %2$,d nodes, %3$,d bytes (%4$,d per node), copy %5$,d us",
+            label,
+            graph.m_nodes.size(),
+            after - before,
+            (after - before) / graph.m_nodes.size(),
+            copyMicros));
+
+        // Keep both alive until measured.
+        assert(copy.m_nodes.size() == graph.m_nodes.size());
+    }
+
+    public static void main(String args[])
+        throws Exception
+    {
+        int nodeCount = (args.length >= 1? Integer.parseInt(args[0]) : 100000);
+
+        ObjectGraph source = new ObjectGraph();
+        for (int i=0; i < nodeCount; i++) {
+            source.addNode(CompactNodeMapTests.makeNode(i, nodeCount));
+        }
+        JSONObject json = source.toJSON();
+        source = null;
+
+        measure("HashMap", json, Integer.MAX_VALUE);
+        measure("compact", json, 0);
+    }
+}
+
+// EOF
@@ -0,0 +1,224 @@
+// ObjectGraphImporter.java
+// See toplevel license.txt for copyright and license terms.
+
+package ded.model;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.concurrent.CancellationException;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+/** Reads an object graph from JSON one node at a time, so the JSON for
+  * the whole graph is never in memory at once.  The input has the same
+  * format that the ObjectGraph(JSONObject) constructor accepts.
+  *
+  * Importing can be run on any thread.  Another thread can watch its
+  * progress with the 'get' methods, and stop it with 'cancel'. */
+public class ObjectGraphImporter {
+    // ---------------- private types ------------------
+    /** Stream that counts the bytes read through it. */
+    private class CountingInputStream extends FilterInputStream {
+        public CountingInputStream(InputStream in)
+        {
+            super(in);
+        }
+
+        @Override
+        public int read()
+            throws IOException
+        {
+            int c = super.read();
+            if (c >= 0) {
+                ObjectGraphImporter.this.m_bytesRead++;
+            }
+            return c;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len)
+            throws IOException
+        {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                ObjectGraphImporter.this.m_bytesRead += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n)
+            throws IOException
+        {
+            long skipped = super.skip(n);
+            ObjectGraphImporter.this.m_bytesRead += skipped;
+            return skipped;
+        }
+    }
+
+    // ---------------- instance data ------------------
+    /** Number of bytes in the input, or 0 if not known. */
+    private volatile long m_totalBytes = 0;
+
+    /** Number of bytes consumed so far.  Because input is buffered,
+      * this runs somewhat ahead of the parser. */
+    private volatile long m_bytesRead = 0;
+
+    /** Number of nodes read so far. */
+    private volatile int m_nodeCount = 0;
+
+    /** Set by 'cancel'. */
+    private volatile boolean m_cancelled = false;
+
+    // ------------------- methods ---------------------
+    public ObjectGraphImporter()
+    {}
+
+    /** Read the graph in 'file'.  Throws CancellationException if
+      * 'cancel' is called before it finishes. */
+    public ObjectGraph importFile(File file)
+        throws IOException, JSONException
+    {
+        this.m_totalBytes = file.length();
+        InputStream is = new FileInputStream(file);
+        try {
+            return this.importStream(is);
+        }
+        finally {
+            is.close();
+        }
+    }
+
+    /** Read the graph in 'is', which is UTF-8 JSON, without closing it. */
+    public ObjectGraph importStream(InputStream is)
+        throws JSONException
+    {
+        return this.importReader(
+            new BufferedReader(
+                new InputStreamReader(new CountingInputStream(is),
+                                      StandardCharsets.UTF_8)));
+    }
+
+    /** Read the graph in 'r'.  Progress in bytes is only reported for
+      * input that comes through 'importStream'. */
+    public ObjectGraph importReader(Reader r)
+        throws JSONException
+    {
+        ObjectGraph graph = new ObjectGraph();
+        JSONTokener x = new JSONTokener(r);
+
+        // This follows the JSONObject(JSONTokener) constructor, except
+        // that each value becomes a node as soon as it has been read.
+        if (x.nextClean() != '{') {
+            throw x.syntaxError("A JSONObject text must begin with '{'");
+        }
+        for (;;) {
+            if (this.m_cancelled) {
+                throw new CancellationException("Object graph import cancelled.");
+            }
+
+            String id;
+            char c = x.nextClean();
+            switch (c) {
+                case 0:
+                    throw x.syntaxError("A JSONObject text must end with '}'");
+                case '}':
+                    return graph;
+                default:
+                    x.back();
+                    id = x.nextValue().toString();
+            }
+
+            c = x.nextClean();
+            if (c == '=') {
+                if (x.next() != '>') {
+                    x.back();
+                }
+            }
+            else if (c != ':') {
+                throw x.syntaxError("Expected a ':' after a key");
+            }
+
+            if (x.nextClean() != '{') {
+                throw new JSONException(
+                    "While parsing the object graph JSON, the value for "+
+                    "key \""+id+"\" is not an object.");
+            }
+            x.back();
+            JSONObject jsonNode = new JSONObject(x);
+
+            if (graph.m_nodes.containsKey(id)) {
+                throw new JSONException("Duplicate key \""+id+"\"");
+            }
+            graph.addNode(new ObjectGraphNode(id, jsonNode));
+            this.m_nodeCount++;
+
+            // Switch to compact storage once it is clear the graph is
+            // large, as ObjectGraph(JSONObject) would have.
+            if (this.m_nodeCount == ObjectGraph.s_compactNodeThreshold) {
+                graph.useCompactStorage();
+            }
+
+            switch (x.nextClean()) {
+                case ';':
+                case ',':
+                    if (x.nextClean() == '}') {
+                        return graph;
+                    }
+                    x.back();
+                    break;
+                case '}':
+                    return graph;
+                default:
+                    throw x.syntaxError("Expected a ',' or '}'");
+            }
+        }
+    }
+
+    /** Read the graph in 'file' on the calling thread. */
+    public static ObjectGraph readFile(File file)
+        throws IOException, JSONException
+    {
+        return new ObjectGraphImporter().importFile(file);
+    }
+
+    /** Ask the import to stop.  It stops before reading the next node. */
+    public void cancel()
+    {
+        this.m_cancelled = true;
+    }
+
+    public boolean isCancelled()
+    {
+        return this.m_cancelled;
+    }
+
+    /** Size of the input file, or 0 if not known. */
+    public long getTotalBytes()
+    {
+        return this.m_totalBytes;
+    }
+
+    public long getBytesRead()
+    {
+        return this.m_bytesRead;
+    }
+
+    public int getNodeCount()
+    {
+        return this.m_nodeCount;
+    }
+}
+
+// EOF
@@ -0,0 +1,91 @@
+// ObjectGraphImporterTests.java
+// See toplevel license.txt for copyright and license terms.
+
+package ded.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.concurrent.CancellationException;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/** Tests for ObjectGraphImporter. */
+public class ObjectGraphImporterTests {
+    /** Check that importing 'text' fails with a JSONException. */
+    private static void expectFailure(String text)
+    {
+        try {
+            new ObjectGraphImporter().importReader(new StringReader(text));
+            assert(false);
+        }
+        catch (JSONException e) {
+            // As expected.
+        }
+    }
+
+    public static void main(String args[])
+        throws Exception
+    {
+        // Importing gives the same graph as parsing all at once.
+        ObjectGraph graph = new ObjectGraph();
+        for (int i=0; i < 50; i++) {
+            graph.addNode(CompactNodeMapTests.makeNode(i, 50));
+        }
+        String text = graph.toJSON().toString(2 /*indent*/);
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+
+        ObjectGraphImporter importer = new ObjectGraphImporter();
+        ObjectGraph imported =
+            importer.importStream(new ByteArrayInputStream(bytes));
+        assert(imported.equals(graph));
+        assert(imported.equals(new ObjectGraph(new JSONObject(text))));
+        assert(!imported.isCompact());
+        assert(importer.getNodeCount() == 50);
+        assert(importer.getBytesRead() == bytes.length);
+
+        // Large graphs switch to compact storage partway through.
+        int savedThreshold = ObjectGraph.s_compactNodeThreshold;
+        try {
+            ObjectGraph.s_compactNodeThreshold = 10;
+            imported = new ObjectGraphImporter().importReader(
+                new StringReader(text));
+            assert(imported.isCompact());
+            assert(imported.equals(graph));
+        }
+        finally {
+            ObjectGraph.s_compactNodeThreshold = savedThreshold;
+        }
+
+        // The syntax JSONObject tolerates is accepted.
+        imported = new ObjectGraphImporter().importReader(new StringReader(
+            "{ a: { x: 1, p: { ptr: \"b\" } }; b => { }, }"));
+        assert(imported.m_nodes.size() == 2);
+        assert(imported.getExistingNode("a").getPointerTarget("p").equals("b"));
+        assert(new ObjectGraphImporter().importReader(
+            new StringReader("{}")).m_nodes.isEmpty());
+
+        expectFailure("");
+        expectFailure("[]");
+        expectFailure("{ a: 1 }");
+        expectFailure("{ a: {}, a: {} }");
+        expectFailure("{ a: {} b: {} }");
+        expectFailure("{ a: {}");
+
+        // Cancelling stops before the next node.
+        importer = new ObjectGraphImporter();
+        importer.cancel();
+        try {
+            importer.importReader(new StringReader(text));
+            assert(false);
+        }
+        catch (CancellationException e) {
+            assert(importer.getNodeCount() == 0);
+        }
+    }
+}
+
+// EOF
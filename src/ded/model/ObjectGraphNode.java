@@ -124,7 +124,11 @@ public class ObjectGraphNode implements JSONable {
       * in the graph. */
     public String m_id;
 
-    /** Set of non-pointer attributes. */
+    /** Set of non-pointer attributes.
+
+      The values are treated as immutable: a JSONObject or JSONArray
+      value is never modified in place, but instead replaced with a new
+      one.  That lets copies of the node share the values. */
     public JSONObject m_attributes;
 
     /*
@@ -146,15 +150,27 @@ public class ObjectGraphNode implements JSONable {
     /** Return a deep copy of the attributes. */
     public JSONObject cloneAttributes()
     {
-        // It's sort of nuts to clone this by serializing and
-        // deserializing but I'm not seeing an easy alternative.
-        try {
-            return new JSONObject(m_attributes.toString());
-        }
-        catch (JSONException e) {
-            throw new RuntimeException(
-                "Round-trip JSON array serialization failed", e);
+        return JSONUtil.deepCopy(m_attributes);
+    }
+
+    /** Return a copy of the attributes that shares their values.  That
+      * is enough for another node, since the values are immutable. */
+    public JSONObject copyAttributes()
+    {
+        JSONObject ret = new JSONObject();
+        Iterator<?> it = m_attributes.keys();
+        while (it.hasNext()) {
+            String key = (String)it.next();
+            try {
+                ret.put(key, m_attributes.opt(key));
+            }
+            catch (JSONException e) {
+                // The value was already accepted by 'm_attributes'.
+                throw new RuntimeException(
+                    "ObjectGraphNode.copyAttributes failed", e);
+            }
         }
+        return ret;
     }
 
     /** Get the attribute value of 'key' as a string. */
@@ -211,6 +227,23 @@ public class ObjectGraphNode implements JSONable {
         m_pointers.put(key, ptr);
     }
 
+    /** Return a 64-bit hash of the serialized form of this node, for
+      * quickly telling whether two nodes with the same ID differ.  It
+      * does not depend on the order in which attributes and pointers
+      * were added, since serialization sorts the keys.  It is never 0,
+      * so callers can use 0 to mean "not computed". */
+    public long contentHash()
+    {
+        // FNV-1a over the UTF-16 code units.
+        String s = this.toJSON(false /*deep*/).toString();
+        long h = 0xcbf29ce484222325L;
+        for (int i=0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h == 0? 1 : h;
+    }
+
     public void selfCheck()
     {
         // Check that the key sets are disjoint.
@@ -222,7 +255,14 @@ public class ObjectGraphNode implements JSONable {
     @Override
     public JSONObject toJSON()
     {
-        JSONObject jsonNode = cloneAttributes();
+        return toJSON(true /*deep*/);
+    }
+
+    /** Serialize as JSON.  Unless 'deep', the result shares attribute
+      * values with this node, so it must not be modified. */
+    private JSONObject toJSON(boolean deep)
+    {
+        JSONObject jsonNode = (deep? cloneAttributes() : copyAttributes());
 
         for (Map.Entry<String, Ptr> kv : m_pointers.entrySet()) {
             try {
@@ -304,11 +344,12 @@ public class ObjectGraphNode implements JSONable {
     }
 
     // ------------- data object boilerplate -------------
-    /** Deep copy. */
+    /** Deep copy, except that the attribute values, being immutable,
+      * are shared. */
     public ObjectGraphNode(ObjectGraphNode src)
     {
         this.m_id = src.m_id;
-        this.m_attributes = src.cloneAttributes();
+        this.m_attributes = src.copyAttributes();
 
         this.m_pointers = new HashMap<String, Ptr>();
         for (Map.Entry<String, Ptr> kv : src.m_pointers.entrySet()) {
@@ -332,6 +373,14 @@ public class ObjectGraphNode implements JSONable {
                    this.m_attributes, node.m_attributes) &&
                this.m_pointers.equals(node.m_pointers);
     }
+
+    @Override
+    public int hashCode()
+    {
+        // Attributes are left out because JSONObject does not define
+        // a hash code consistent with 'equalJSONObjects'.
+        return 31 * m_id.hashCode() + m_pointers.hashCode();
+    }
 }
 
 // EOF
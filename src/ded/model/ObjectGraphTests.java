@@ -0,0 +1,321 @@
+// ObjectGraphTests.java
+// See toplevel license.txt for copyright and license terms.
+
+package ded.model;
+
+import java.util.HashSet;
+
+import static util.StringUtil.fmt;
+
+/** Tests for ObjectGraph. */
+public class ObjectGraphTests {
+    /** Make a graph of nodes "n0" through "n<count-1>". */
+    private static ObjectGraph makeGraph(int count)
+        throws Exception
+    {
+        ObjectGraph graph = new ObjectGraph();
+        for (int i=0; i < count; i++) {
+            graph.addNode(CompactNodeMapTests.makeNode(i, count));
+        }
+        return graph;
+    }
+
+    /** Merge into 'graph' a copy of it with a few nodes added, removed
+      * and changed, and check the result. */
+    private static void testMerge(ObjectGraph graph)
+        throws Exception
+    {
+        int count = graph.m_nodes.size();
+        ObjectGraph newGraph = makeGraph(count);
+        newGraph.m_nodes.remove("n1");
+        newGraph.m_nodes.remove("n2");
+        ObjectGraphNode n3 = newGraph.getExistingNode("n3");
+        n3.m_attributes.put("size", -1);
+        newGraph.addNode(n3);
+        ObjectGraphNode n4 = newGraph.getExistingNode("n4");
+        n4.addPointerTarget("extra", "n5");
+        newGraph.addNode(n4);
+        newGraph.addNode(new ObjectGraphNode("new"));
+
+        ObjectGraph expect = new ObjectGraph(newGraph);
+        ObjectGraph.MergeResult result = graph.mergeFrom(newGraph);
+        assert(graph.equals(expect));
+        assert(result.m_added.size() == 1 && result.m_added.contains("new"));
+        assert(result.m_removed.size() == 2 &&
+               result.m_removed.contains("n1") &&
+               result.m_removed.contains("n2"));
+        assert(result.m_changed.size() == 2 &&
+               result.m_changed.contains("n3") &&
+               result.m_changed.contains("n4"));
+        assert(result.getAffectedIDs().size() == 5);
+        assert(result.getSummary().equals(
+            "1 nodes added, 2 removed, 2 changed."));
+
+        // Merging the same thing again changes nothing.
+        result = graph.mergeFrom(new ObjectGraph(expect));
+        assert(result.isEmpty());
+        assert(graph.equals(expect));
+    }
+
+    /** Make a graph of nodes "n0" through "n<count-1>" where each
+      * node's only pointer, "next", points at the next node. */
+    private static ObjectGraph makeRing(int count)
+    {
+        ObjectGraph graph = new ObjectGraph();
+        for (int i=0; i < count; i++) {
+            ObjectGraphNode n = new ObjectGraphNode("n"+i);
+            n.addPointerTarget("next", "n"+((i+1) % count));
+            graph.addNode(n);
+        }
+        return graph;
+    }
+
+    /** Return the incoming pointers to 'id' as a string. */
+    private static String incoming(ObjectGraph graph, String id)
+    {
+        return graph.getIncomingPointers(id).toString();
+    }
+
+    /** Check that the incoming pointer index follows changes. */
+    private static void testIncomingPointers(ObjectGraph graph)
+        throws Exception
+    {
+        assert(incoming(graph, "n4").equals("[n3.next]"));
+        assert(incoming(graph, "n0").equals("[n19.next]"));
+        assert(incoming(graph, "nowhere").equals("[]"));
+
+        // Adding a node adds its pointers.
+        ObjectGraphNode x = new ObjectGraphNode("x");
+        x.addPointerTarget("b", "n4");
+        x.addPointerTarget("a", "n4");
+        graph.addNode(x);
+        assert(incoming(graph, "n4").equals("[n3.next, x.a, x.b]"));
+
+        // Replacing a node removes its old pointers.
+        ObjectGraphNode n3 = new ObjectGraphNode(graph.getExistingNode("n3"));
+        n3.m_pointers.get("next").m_ptr = "n7";
+        graph.addNode(n3);
+        assert(incoming(graph, "n4").equals("[x.a, x.b]"));
+        assert(incoming(graph, "n7").equals("[n3.next, n6.next]"));
+
+        // Removing a node removes its pointers, but not those to it.
+        graph.removeNode("x");
+        assert(incoming(graph, "n4").equals("[]"));
+        graph.removeNode("n7");
+        assert(incoming(graph, "n7").equals("[n3.next, n6.next]"));
+        assert(incoming(graph, "n8").equals("[]"));
+
+        // The pointers of a node that was pointed to are removed too.
+        graph.removeNode("n3");
+        assert(incoming(graph, "n7").equals("[n6.next]"));
+
+        // Merging keeps the index up to date and reports the nodes
+        // whose incoming pointers may have changed.
+        ObjectGraph newGraph = new ObjectGraph(graph);
+        ObjectGraphNode n6 = new ObjectGraphNode(newGraph.getExistingNode("n6"));
+        n6.m_pointers.get("next").m_ptr = "n9";
+        newGraph.addNode(n6);
+        newGraph.removeNode("n10");
+        ObjectGraph.MergeResult result = graph.mergeFrom(newGraph);
+        assert(incoming(graph, "n7").equals("[]"));
+        assert(incoming(graph, "n9").equals("[n6.next, n8.next]"));
+        assert(incoming(graph, "n11").equals("[]"));
+        assert(result.m_pointerTargets.size() == 3 &&
+               result.m_pointerTargets.contains("n7") &&
+               result.m_pointerTargets.contains("n9") &&
+               result.m_pointerTargets.contains("n11"));
+    }
+
+    /** Check that a node with many referrers is handled quickly. */
+    private static void testManyReferrers()
+    {
+        int count = 20000;
+        ObjectGraph graph = new ObjectGraph();
+        graph.addNode(new ObjectGraphNode("hub"));
+        for (int i=0; i < count; i++) {
+            ObjectGraphNode n = new ObjectGraphNode(fmt("s%05d", i));
+            n.addPointerTarget("hub", "hub");
+            graph.addNode(n);
+        }
+        assert(graph.getIncomingPointers("hub").size() == count);
+        assert(graph.getIncomingPointers("hub").get(0).sourceID.equals("s00000"));
+
+        // Each change costs time proportional to the changed node, not
+        // to the number of referrers, so this would take minutes if it
+        // were quadratic.
+        for (int i=0; i < count; i += 2) {
+            graph.removeNode(fmt("s%05d", i));
+        }
+        assert(graph.getIncomingPointers("hub").size() == count/2);
+        assert(graph.getIncomingPointers("hub").get(0).sourceID.equals("s00001"));
+    }
+
+    /** Check 'getNeighborhood'. */
+    private static void testNeighborhood()
+    {
+        // Binary tree: node i points at "left" 2i+1 and "right" 2i+2.
+        ObjectGraph graph = new ObjectGraph();
+        for (int i=0; i < 15; i++) {
+            ObjectGraphNode n = new ObjectGraphNode("t"+i);
+            if (2*i+2 < 15) {
+                n.addPointerTarget("right", "t"+(2*i+2));
+                n.addPointerTarget("left", "t"+(2*i+1));
+            }
+            n.addPointerTarget("root", "t0");
+            n.addPointerTarget("dangling", "missing");
+            graph.addNode(n);
+        }
+
+        // Nodes are reached in breadth-first order, following pointers
+        // in key order, and pointers to non-nodes are ignored.
+        ObjectGraph.Neighborhood hood =
+            graph.getNeighborhood("t0", 2, null, 100);
+        assert(hood.m_ids.toString().equals("[t1, t2, t3, t4, t5, t6]"));
+        assert(hood.m_depths.toString().equals("[1, 1, 2, 2, 2, 2]"));
+        assert(!hood.m_truncated);
+
+        // Pointers to nodes already reached are edges too, but pointers
+        // from the last level are not followed.
+        assert(hood.m_edges.size() == 3*3);
+        assert(hood.m_edges.get(0).toString().equals("t0.left -> t1"));
+        assert(hood.m_edges.get(1).toString().equals("t0.right -> t2"));
+        assert(hood.m_edges.get(2).toString().equals("t0.root -> t0"));
+        assert(hood.m_edges.get(4).toString().equals("t1.right -> t4"));
+
+        // Key filter.
+        HashSet<String> keys = new HashSet<String>();
+        keys.add("left");
+        hood = graph.getNeighborhood("t0", 10, keys, 100);
+        assert(hood.m_ids.toString().equals("[t1, t3, t7]"));
+        assert(hood.m_edges.size() == 3);
+
+        // Node limit.
+        hood = graph.getNeighborhood("t0", 10, null, 5);
+        assert(hood.m_ids.toString().equals("[t1, t2, t3, t4, t5]"));
+        assert(hood.m_truncated);
+        for (ObjectGraph.Neighborhood.Edge edge : hood.m_edges) {
+            assert(edge.m_targetID.equals("t0") ||
+                   hood.m_ids.contains(edge.m_targetID));
+        }
+
+        // Starting somewhere that is not a node finds nothing.
+        hood = graph.getNeighborhood("missing", 3, null, 100);
+        assert(hood.m_ids.isEmpty() && hood.m_edges.isEmpty());
+
+        // A few thousand nodes are found quickly.
+        hood = makeRing(5000).getNeighborhood("n0", 10000, null, 100000);
+        assert(hood.m_ids.size() == 4999);
+        assert(hood.m_depths.get(4998) == 4999);
+        assert(hood.m_edges.size() == 5000);
+    }
+
+    public static void main(String args[])
+        throws Exception
+    {
+        // The content hash ignores the order of insertion.
+        ObjectGraphNode a = new ObjectGraphNode("a");
+        a.m_attributes.put("x", 1);
+        a.m_attributes.put("y", 2);
+        ObjectGraphNode b = new ObjectGraphNode("a");
+        b.m_attributes.put("y", 2);
+        b.m_attributes.put("x", 1);
+        assert(a.contentHash() == b.contentHash());
+        b.m_attributes.put("y", 3);
+        assert(a.contentHash() != b.contentHash());
+
+        // A copied node shares attribute values, but not the set of
+        // attributes, and its pointers are independent.
+        ObjectGraphNode orig = CompactNodeMapTests.makeNode(3, 10);
+        ObjectGraphNode copy = new ObjectGraphNode(orig);
+        assert(copy.equals(orig));
+        assert(copy.m_attributes.get("list") == orig.m_attributes.get("list"));
+        copy.m_attributes.put("name", "changed");
+        copy.m_attributes.remove("list");
+        copy.m_pointers.get("next").m_ptr = "n9";
+        assert(orig.getAttributeString("name").equals("node 3"));
+        assert(orig.m_attributes.has("list"));
+        assert(orig.getPointerTarget("next").equals("n4"));
+
+        // Serializing still makes a deep copy.
+        assert(orig.toJSON().get("list") != orig.m_attributes.get("list"));
+
+        // Compact storage remembers hashes, but forgets them when a
+        // node is replaced.
+        ObjectGraph graph = makeGraph(20);
+        graph.useCompactStorage();
+        assert(graph.isCompact());
+        long h = graph.getNodeContentHash("n3");
+        assert(h == graph.getExistingNode("n3").contentHash());
+        assert(h == graph.getNodeContentHash("n3"));
+        ObjectGraphNode n3 = graph.getExistingNode("n3");
+        n3.m_attributes.put("size", -1);
+        graph.addNode(n3);
+        assert(graph.getNodeContentHash("n3") != h);
+        assert(graph.getNodeContentHash("n3") == n3.contentHash());
+
+        testMerge(makeGraph(20));
+        ObjectGraph compact = makeGraph(20);
+        compact.useCompactStorage();
+        testMerge(compact);
+
+        // A merge does not affect copies made for undo.
+        ObjectGraph snapshot = new ObjectGraph(compact);
+        ObjectGraph before = new ObjectGraph(compact);
+        compact.mergeFrom(makeGraph(5));
+        assert(compact.m_nodes.size() == 5);
+        assert(snapshot.equals(before));
+
+        // Differences name a node.
+        graph = makeGraph(30);
+        assert(graph.describeDifference(makeGraph(30), false) == null);
+        assert(graph.describeDifference(makeGraph(31), false).equals(
+            "node \"n30\" is only in one of them"));
+        ObjectGraph other = makeGraph(30);
+        ObjectGraphNode n17 = other.getExistingNode("n17");
+        n17.m_attributes.put("size", 0);
+        other.addNode(n17);
+        assert(graph.describeDifference(other, false).equals(
+            "node \"n17\" differs"));
+        assert(!graph.equals(other));
+
+        // The parallel comparison finds the same things.
+        int savedParallel = ObjectGraph.s_parallelCompareThreshold;
+        try {
+            ObjectGraph.s_parallelCompareThreshold = 1;
+            assert(graph.describeDifference(makeGraph(30), true) == null);
+            assert(graph.describeDifference(other, true).equals(
+                "node \"n17\" differs"));
+            other.m_nodes.remove("n17");
+            other.addNode(new ObjectGraphNode("x"));
+            String diff = graph.describeDifference(other, true);
+            assert(diff.equals("node \"n17\" is only in one of them") ||
+                   diff.equals("node \"x\" is only in one of them"));
+        }
+        finally {
+            ObjectGraph.s_parallelCompareThreshold = savedParallel;
+        }
+
+        testIncomingPointers(makeRing(20));
+        compact = makeRing(20);
+        compact.useCompactStorage();
+        testIncomingPointers(compact);
+        testManyReferrers();
+        testNeighborhood();
+
+        // A graph that grows large switches to compact storage.
+        int savedThreshold = ObjectGraph.s_compactNodeThreshold;
+        try {
+            ObjectGraph.s_compactNodeThreshold = 10;
+            graph = makeGraph(5);
+            assert(!graph.isCompact());
+            graph.mergeFrom(makeGraph(15));
+            assert(graph.isCompact());
+            assert(graph.equals(makeGraph(15)));
+        }
+        finally {
+            ObjectGraph.s_compactNodeThreshold = savedThreshold;
+        }
+    }
+}
+
+// EOF
@@ -3,15 +3,14 @@
 
 package ded.ui;
 
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
+import java.awt.Cursor;
 import java.awt.Dimension;
 
 import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseAdapter;
@@ -24,8 +23,13 @@ import javax.swing.JComponent;
 import javax.swing.JLabel;
 import javax.swing.JTable;
 import javax.swing.JScrollPane;
+import javax.swing.JTextField;
 import javax.swing.KeyStroke;
 import javax.swing.ListSelectionModel;
+import javax.swing.Timer;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 
 import javax.swing.table.AbstractTableModel;
 
@@ -36,37 +40,21 @@ import util.swing.ModalDialog;
 import util.swing.SwingUtil;
 
 import ded.model.Entity;
-import ded.model.ObjectGraph;
+import ded.model.NodeSearchIndex;
 
 import ded.ui.DiagramController;
 
+import static util.StringUtil.fmt;
 
 /** Show a dialog that allows the user to pick a node to add. */
 public class AddGraphNodeDialog extends ModalDialog {
     // ---- types ----
-    /** One entry in the table. */
-    private static class TableEntry implements Comparable<TableEntry> {
-        /** Count of existing entities with the ID. */
-        public int m_entityCount;
-
-        /** The node ID. */
-        public String m_id;
+    /** Table model providing data for the JTable.
 
-        public TableEntry(int entityCount, String id)
-        {
-            m_entityCount = entityCount;
-            m_id = id;
-        }
-
-        @Override
-        public int compareTo(TableEntry other)
-        {
-            // Sort by ID.
-            return m_id.compareTo(other.m_id);
-        }
-    }
-
-    /** Table model providing data for the JTable. */
+        The JTable only asks for the cells it shows, so the rows are
+        just node ordinals in 'm_index', and the cell values are looked
+        up as needed.  That keeps opening the dialog and filtering fast
+        even when there are hundreds of thousands of nodes. */
     private static class TableModel extends AbstractTableModel {
         // ---- class data ----
         private static final long serialVersionUID = -9127244580221510146L;
@@ -87,17 +75,50 @@ public class AddGraphNodeDialog extends ModalDialog {
         };
 
         // ---- instance data ----
-        /** Table data. */
-        public List<TableEntry> m_entries = new ArrayList<TableEntry>();
+        /** The nodes that can be shown. */
+        private NodeSearchIndex m_index;
+
+        /** Count of existing entities with each ID.  IDs with no
+            entities are absent. */
+        private Map<String, Integer> m_idToEntityCount;
+
+        /** Ordinals in 'm_index' of the nodes currently shown, in
+            order. */
+        private int[] m_rows;
 
         // ---- methods ----
-        public TableModel()
-        {}
+        public TableModel(NodeSearchIndex index,
+                          Map<String, Integer> idToEntityCount)
+        {
+            m_index = index;
+            m_idToEntityCount = idToEntityCount;
+            m_rows = index.search("");
+        }
+
+        /** Show only the nodes matching 'query'.  See
+            'NodeSearchIndex.search'. */
+        public void setFilter(String query)
+        {
+            m_rows = m_index.search(query);
+            this.fireTableDataChanged();
+        }
+
+        /** Return the number of nodes that could be shown. */
+        public int getNodeCount()
+        {
+            return m_index.getNodeCount();
+        }
+
+        /** Return the node ID shown in 'row'. */
+        public String getID(int row)
+        {
+            return m_index.getID(m_rows[row]);
+        }
 
         @Override
         public int getRowCount()
         {
-            return m_entries.size();
+            return m_rows.length;
         }
 
         @Override
@@ -127,16 +148,16 @@ public class AddGraphNodeDialog extends ModalDialog {
         @Override
         public Object getValueAt(int rowIndex, int columnIndex)
         {
-            TableEntry entry = this.m_entries.get(rowIndex);
+            String id = this.getID(rowIndex);
             switch (columnIndex) {
                 default:
                     assert(false);
 
                 case 0:
-                    return Integer.valueOf(entry.m_entityCount);
+                    return m_idToEntityCount.getOrDefault(id, 0);
 
                 case 1:
-                    return entry.m_id;
+                    return id;
             }
         }
     }
@@ -155,8 +176,14 @@ public class AddGraphNodeDialog extends ModalDialog {
     private String m_chosenID = null;
 
     // Controls.
+    private JTextField m_filterText = null;
+    private JLabel m_tableLabel = null;
     private JTable m_jtable = null;
 
+    /** Applies the filter shortly after the user stops typing, so a
+        burst of keystrokes only searches once. */
+    private Timer m_filterTimer = null;
+
     // ---- methods ----
     public AddGraphNodeDialog(DiagramController diagramController)
     {
@@ -164,32 +191,81 @@ public class AddGraphNodeDialog extends ModalDialog {
 
         m_diagramController = diagramController;
 
-        m_tableModel = new TableModel();
-        populateTable();
+        m_tableModel = new TableModel(
+            diagramController.diagram.objectGraph.getSearchIndex(),
+            countEntitiesByID());
+
+        final AddGraphNodeDialog ths = this;
 
         Box vb = ModalDialog.makeMarginVBox(this, ModalDialog.OUTER_MARGIN);
 
+        // Filter
+        {
+            m_filterText = ModalDialog.makeLineEdit(vb, "Filter", 'f', "");
+
+            m_filterTimer = new Timer(150, new ActionListener() {
+                @Override
+                public void actionPerformed(ActionEvent e)
+                {
+                    ths.applyFilter();
+                }
+            });
+            m_filterTimer.setRepeats(false);
+
+            m_filterText.getDocument().addDocumentListener(
+                new DocumentListener() {
+                    @Override
+                    public void insertUpdate(DocumentEvent e)
+                    {
+                        ths.m_filterTimer.restart();
+                    }
+
+                    @Override
+                    public void removeUpdate(DocumentEvent e)
+                    {
+                        ths.m_filterTimer.restart();
+                    }
+
+                    @Override
+                    public void changedUpdate(DocumentEvent e)
+                    {
+                        ths.m_filterTimer.restart();
+                    }
+                });
+
+            // Let Down move from the filter to the table.
+            m_filterText.getInputMap().put(
+                KeyStroke.getKeyStroke(KeyEvent.VK_DOWN, 0), "ToTable");
+            m_filterText.getActionMap().put("ToTable", new AbstractAction() {
+                @Override
+                public void actionPerformed(ActionEvent e)
+                {
+                    ths.m_jtable.requestFocusInWindow();
+                }
+            });
+        }
+
+        vb.add(ModalDialog.makeVCPadStrut());
+
         // Table
         {
-            JLabel tableLabel;
             {
                 Box hb = ModalDialog.makeHBox(vb);
-                tableLabel = new JLabel("Nodes:");
-                tableLabel.setDisplayedMnemonic('n');
-                hb.add(tableLabel);
+                m_tableLabel = new JLabel();
+                m_tableLabel.setDisplayedMnemonic('n');
+                hb.add(m_tableLabel);
                 hb.add(Box.createHorizontalGlue());
                 vb.add(hb);
             }
+            updateTableLabel();
 
             m_jtable = new JTable(m_tableModel);
-            tableLabel.setLabelFor(m_jtable);
+            m_tableLabel.setLabelFor(m_jtable);
             SwingUtil.setJTableSizes(m_jtable,
                 TableModel.s_columnWidths, 500 /*height*/);
             m_jtable.getSelectionModel().setSelectionMode(
                 ListSelectionModel.SINGLE_SELECTION);
 
-            final AddGraphNodeDialog ths = this;
-
             // Intercept double-click to mean "create".
             m_jtable.addMouseListener(new MouseAdapter() {
                 @Override
@@ -227,12 +303,10 @@ public class AddGraphNodeDialog extends ModalDialog {
         this.finishBuildingDialog(vb);
     }
 
-    /** Populate 'm_tableModel' with data from the diagram. */
-    private void populateTable()
+    /** Return the number of entities in the diagram with each graph
+        node ID. */
+    private Map<String, Integer> countEntitiesByID()
     {
-        ObjectGraph graph = m_diagramController.diagram.objectGraph;
-
-        // Count the number of entities with each ID.
         Map<String, Integer> idToEntityCount =
             new HashMap<String, Integer>();
 
@@ -245,15 +319,26 @@ public class AddGraphNodeDialog extends ModalDialog {
                 entity.objectGraphNodeID);
         }
 
-        // Populate the table with IDs and counts.
-        for (String id : graph.idSet()) {
-            m_tableModel.m_entries.add(new TableEntry(
-                idToEntityCount.getOrDefault(id, 0),
-                id));
+        return idToEntityCount;
+    }
+
+    /** Show only the rows matching the filter text, and select the
+        first, so Enter chooses it. */
+    private void applyFilter()
+    {
+        m_tableModel.setFilter(m_filterText.getText());
+        updateTableLabel();
+        if (m_tableModel.getRowCount() > 0) {
+            m_jtable.setRowSelectionInterval(0, 0);
+            m_jtable.scrollRectToVisible(m_jtable.getCellRect(0, 0, true));
         }
+    }
 
-        // Sort by ID.
-        Collections.sort(m_tableModel.m_entries);
+    /** Show the number of rows in the table label. */
+    private void updateTableLabel()
+    {
+        m_tableLabel.setText(fmt("Nodes (%,d of %,d):",
+            m_tableModel.getRowCount(), m_tableModel.getNodeCount()));
     }
 
     /** Respond to double-clicking on a row like choosing it and
@@ -289,6 +374,12 @@ public class AddGraphNodeDialog extends ModalDialog {
     @Override
     public void okPressed()
     {
+        // Do not act on a stale filter.
+        if (m_filterTimer.isRunning()) {
+            m_filterTimer.stop();
+            applyFilter();
+        }
+
         int row = m_jtable.getSelectedRow();
         if (row < 0) {
             SwingUtil.errorMessageBox(this,
@@ -306,8 +397,7 @@ public class AddGraphNodeDialog extends ModalDialog {
         row 'row'. */
     private void createEntityForRow(int row)
     {
-        TableEntry tableEntry = m_tableModel.m_entries.get(row);
-        String id = tableEntry.m_id;
+        String id = m_tableModel.getID(row);
 
         // This calls 'diagramChanged'.
         EntityController entityController =
@@ -322,8 +412,17 @@ public class AddGraphNodeDialog extends ModalDialog {
         'diagramChanged' called. */
     public static boolean exec(DiagramController diagramController)
     {
-        AddGraphNodeDialog dialog =
-            new AddGraphNodeDialog(diagramController);
+        // Building the search index takes a moment for a large graph,
+        // but it is then kept until the graph changes.
+        AddGraphNodeDialog dialog;
+        diagramController.setCursor(
+            Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+        try {
+            dialog = new AddGraphNodeDialog(diagramController);
+        }
+        finally {
+            diagramController.setCursor(Cursor.getDefaultCursor());
+        }
         return dialog.exec();
     }
 }
@@ -5,12 +5,14 @@ package ded.ui;
 
 import java.awt.Color;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
 import java.awt.Point;
 import java.awt.Polygon;
 import java.awt.Rectangle;
 import java.awt.event.ActionEvent;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseEvent;
+import java.awt.geom.AffineTransform;
 
 import java.util.HashSet;
 import java.util.Set;
@@ -35,6 +37,11 @@ public abstract class Controller {
 
     public static final int resizeHandleSize = 10;         // 10x10
 
+    /** Scale, in screen pixels per diagram pixel, below which the
+      * diagram is drawn with less detail: at 0.4, text is only four or
+      * five pixels tall, too small to read. */
+    public static final double lowDetailScale = 0.4;
+
     // ----------- protected data ------------
     /** When the controller is selected, it can be manipulated with keyboard
       * commands and it is drawn differently. */
@@ -67,6 +74,24 @@ public abstract class Controller {
     public void paint(Graphics g)
     {}
 
+    /** Return true if 'g' draws at a scale below 'lowDetailScale', so
+      * 'paint' should leave out text and fine details. */
+    public static boolean isLowDetail(Graphics g)
+    {
+        if (!(g instanceof Graphics2D)) {
+            return false;
+        }
+        AffineTransform t = ((Graphics2D)g).getTransform();
+        return Math.abs(t.getDeterminant()) < lowDetailScale * lowDetailScale;
+    }
+
+    /** Name of the RenderProfiler phase to charge painting this
+      * controller to. */
+    public String getRenderPhase()
+    {
+        return RenderProfiler.otherPhase;
+    }
+
     /** Paint 'getBounds' with a solid color. */
     protected void paintBounds(Graphics g0, Color c)
     {
@@ -103,6 +128,18 @@ public abstract class Controller {
         return new HashSet<Polygon>();
     }
 
+    /** Get a rectangle containing everything 'paint' and
+      * 'paintSelectionBackground' draw, apart from lines drawn along its
+      * edges.  The default is the bounding box of 'getBounds'. */
+    public Rectangle getPaintBounds()
+    {
+        Rectangle ret = null;
+        for (Polygon p : this.getBounds()) {
+            ret = (ret == null? p.getBounds() : ret.union(p.getBounds()));
+        }
+        return ret == null? new Rectangle() : ret;
+    }
+
     /** Return true if 'point' is within this controller's click boundary. */
     public boolean boundsContains(Point point)
     {
@@ -181,7 +218,8 @@ public abstract class Controller {
 
         this.addToObjectMenu(new MenuDelegate(menu), ev);
 
-        menu.show(this.diagramController, ev.getPoint().x, ev.getPoint().y);
+        Point p = this.diagramController.diagramToScreen(ev.getPoint());
+        menu.show(this.diagramController, p.x, p.y);
     }
 
     /** Add more items to the right click or Object menu if desired.
@@ -8,6 +8,7 @@ import java.awt.Color;
 import java.awt.Component;
 import java.awt.Cursor;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
 import java.awt.GraphicsConfiguration;
 import java.awt.GraphicsDevice;
 import java.awt.GraphicsEnvironment;
@@ -30,6 +31,8 @@ import java.awt.event.KeyListener;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
+import java.awt.event.MouseWheelEvent;
+import java.awt.event.MouseWheelListener;
 import java.awt.image.BufferedImage;
 import java.awt.image.ColorModel;
 
@@ -40,15 +43,27 @@ import java.io.StringReader;
 
 import java.lang.reflect.Field;
 
+import java.nio.file.Path;
+
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
 
 import javax.imageio.ImageIO;
 import javax.swing.AbstractAction;
@@ -62,11 +77,21 @@ import javax.swing.filechooser.FileNameExtensionFilter;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import util.FileWatcher;
 import util.IdentityHashSet;
 import util.ImageFileUtil;
+import util.MapUtil;
 import util.Util;
+import util.awt.AWTUtil;
+import util.awt.BackBuffer;
 import util.awt.BitmapFont;
+import util.awt.BoundedImageCache;
 import util.awt.GeomUtil;
+import util.awt.GridIndex;
+import util.awt.ImageCache;
+import util.awt.MipMap;
+import util.awt.ResourceImageCache;
+import util.awt.TiledRenderer;
 import util.swing.MenuAction;
 import util.swing.MenuDelegate;
 import util.swing.SwingUtil;
@@ -76,7 +101,9 @@ import ded.model.ArrowStyle;
 import ded.model.Diagram;
 import ded.model.Entity;
 import ded.model.EntityShape;
+import ded.model.IncomingPointerIndex;
 import ded.model.Inheritance;
+import ded.model.ObjectGraph;
 import ded.model.ObjectGraphConfig;
 import ded.model.ObjectGraphNode;
 import ded.model.Relation;
@@ -90,8 +117,8 @@ import static util.StringUtil.localize;
 
 /** Widget to display and edit a diagram. */
 public class DiagramController extends JPanel
-    implements MouseListener, MouseMotionListener, KeyListener,
-               ComponentListener, FocusListener, UndoHistoryLimit
+    implements MouseListener, MouseMotionListener, MouseWheelListener,
+               KeyListener, ComponentListener, FocusListener, UndoHistoryLimit
 {
     // ------------- constants ---------------
     private static final long serialVersionUID = 1266678840598864303L;
@@ -116,6 +143,9 @@ public class DiagramController extends JPanel
         "Ctrl+Left click - multiselect\n"+
         "Left click+drag - multiselect rectangle\n"+
         "Right click - action menu for selection(s)\n"+
+        "Mouse wheel, Shift+wheel - Scroll up/down, left/right\n"+
+        "Ctrl+wheel, Ctrl+=, Ctrl+- - Zoom in/out\n"+
+        "Ctrl+0 - Reset scroll and zoom\n"+
         "\n"+
         "When entity selected, F/B to move to front/back.\n"+
         "When relation selected, H/V/D to change routing,\n"+
@@ -126,17 +156,92 @@ public class DiagramController extends JPanel
         "\n"+
         "See menu bar for commands without keybindings.";
 
+    /** The zoom factor doubles every this many zoom steps. */
+    public static final int zoomStepsPerDoubling = 4;
+
+    /** Range of zoom steps, corresponding to zoom factors 1/64 to 16. */
+    public static final int minZoomStep = -6 * zoomStepsPerDoubling;
+    public static final int maxZoomStep = 4 * zoomStepsPerDoubling;
+
+    /** Screen pixels to scroll per unit of mouse wheel rotation. */
+    public static final int wheelScrollPixels = 40;
+
+    /** Distance by which the rectangles in the spatial index extend
+      * beyond 'Controller.getPaintBounds', to cover outlines drawn
+      * along its edges. */
+    public static final int paintBoundsSlop = 4;
+
     /** When true, turn on some extra diagnostics related to focus. */
     public static final boolean debugFocus = false;
 
-    /** Print some debug tracing for 'recomputeGraphEdges'. */
-    public static final boolean s_traceRecompute = false;
+    /** Print some debug tracing for changes to 'm_graphEdges'. */
+    public static final boolean s_traceGraphEdges = false;
 
     // ------------- static data ---------------
     /** Granularity of drag/move snap action. */
     public static final int SNAP_DIST = 5;
 
+    /** Maximum bytes of rendered entity images to keep in
+      * 'm_entityImageCache'. */
+    public static final long entityImageCacheByteBudget = 64L << 20;
+
+    /** Maximum bytes of stretched and tiled images to keep in
+      * 'm_scaledImageCache'. */
+    public static final long scaledImageCacheByteBudget = 32L << 20;
+
+    /** Maximum bytes of MipMaps, including their full size levels, to
+      * keep in 'm_imageMipMaps'. */
+    public static final long imageMipMapByteBudget = 64L << 20;
+
+    /** Threads that decode entity fill images in the background, shared
+      * by all DiagramControllers, or null before the first is needed. */
+    private static ExecutorService s_imageLoaderPool = null;
+
     // ------------- private types ---------------
+    /** Outcome of decoding an image file. */
+    private static class ImageLoadResult {
+        /** The image, or null if it could not be loaded. */
+        public Image image;
+
+        /** Message for the log describing what happened. */
+        public String logMessage;
+    }
+
+    /** Task to decode the image for 'imageFileName' on a background
+      * thread, then call 'finishImageLoad' on the event dispatch
+      * thread. */
+    private class ImageLoadTask extends FutureTask<ImageLoadResult> {
+        public final String imageFileName;
+
+        /** Name of the image in 'imageCache'. */
+        public final String cacheKey;
+
+        public ImageLoadTask(final String imageFileName, final File imageFile)
+        {
+            super(new Callable<ImageLoadResult>() {
+                @Override
+                public ImageLoadResult call()
+                {
+                    return decodeImage(imageFileName, imageFile);
+                }
+            });
+            this.imageFileName = imageFileName;
+            this.cacheKey = getImageCacheKey(imageFile);
+        }
+
+        @Override
+        protected void done()
+        {
+            SwingUtilities.invokeLater(new Runnable() {
+                @Override
+                public void run()
+                {
+                    DiagramController.this.finishImageLoad(ImageLoadTask.this);
+                }
+            });
+        }
+    }
+
     /** Primary "mode" of the editing interface, indicating what happens
       * when the left mouse button is clicked or released. */
     public static enum Mode {
@@ -163,9 +268,16 @@ public class DiagramController extends JPanel
     }
 
     // ------------- instance data ---------------
-    /** Parent diagram editor window. */
+    /** Parent diagram editor window, or null if this controller was
+      * made by 'createOffscreen'. */
     private Ded dedWindow;
 
+    /** Font for diagram text.  This normally comes from 'dedWindow'. */
+    private BitmapFont m_diagramFont;
+
+    /** Cache of images loaded from resources, likewise. */
+    private ResourceImageCache m_resourceImageCache;
+
     /** The diagram we are editing. */
     public Diagram diagram;
 
@@ -217,9 +329,60 @@ public class DiagramController extends JPanel
       * the file in that format. */
     private boolean importedFile;
 
-    /** Map from image file name to cached image.  A name can be
-      * mapped to null, meaning we failed to load the image. */
-    private HashMap<String, Image> imageCache;
+    /** Cache of loaded images, keyed by 'getImageCacheKey'.  A key can
+      * be mapped to null, meaning we failed to load the image.  This is
+      * the one 'm_resourceImageCache' uses, so it is normally shared
+      * with everything else in the program that loads images. */
+    private ImageCache imageCache;
+
+    /** Reduced copies of images in 'imageCache', for drawing them
+      * zoomed out, keyed by entity image file name, in access order so
+      * the first is the least recently used.
+      *
+      * Level 0 of a MipMap is the full image, which this holds strongly,
+      * so the total is limited to 'imageMipMapByteBudget', and the map is
+      * cleared when the file name changes, as it does when another
+      * diagram is loaded.  Accesses synchronize on the map because the
+      * tiles of an export are painted concurrently. */
+    private LinkedHashMap<String, MipMap> m_imageMipMaps =
+        new LinkedHashMap<String, MipMap>(16, 0.75f, true /*accessOrder*/);
+
+    /** Sum of 'MipMap.estimateBytes' over 'm_imageMipMaps'. */
+    private long m_imageMipMapBytes = 0;
+
+    /** While exporting, the images of the diagram's entities, keyed by
+      * image file name, possibly mapping to null if they could not be
+      * loaded; otherwise null.  Holding them here keeps the garbage
+      * collector from reclaiming them during the export, and lets the
+      * tile painters look them up without touching 'm_pendingImages'
+      * or starting background loads. */
+    private volatile HashMap<String, Image> m_exportImages = null;
+
+    /** Map from 'getImageCacheKey' to the background task loading the
+      * image, for images not yet in 'imageCache' or being reloaded
+      * because the file changed. */
+    private HashMap<String, ImageLoadTask> m_pendingImages =
+        new HashMap<String, ImageLoadTask>();
+
+    /** Watches the entity image files so they are reloaded when they
+      * change, or null if this is offscreen or watching is not
+      * possible. */
+    private FileWatcher m_imageFileWatcher = null;
+
+    /** Reload of the object graph source in progress, or null. */
+    private ObjectGraphLoadTask m_objectGraphLoadTask = null;
+
+    /** Map from the visual inputs of an entity to its rendered
+      * appearance, so unchanged entities can be drawn with a single
+      * image blit. */
+    private BoundedImageCache<EntityRenderKey> m_entityImageCache =
+        new BoundedImageCache<EntityRenderKey>(entityImageCacheByteBudget);
+
+    /** Map from an entity fill image and a size to that image stretched
+      * or tiled to the size, so it can be drawn with a single unscaled
+      * copy. */
+    private BoundedImageCache<ScaledImageKey> m_scaledImageCache =
+        new BoundedImageCache<ScaledImageKey>(scaledImageCacheByteBudget);
 
     /** Accumulated log messages. */
     private StringBuilder logMessages;
@@ -234,54 +397,128 @@ public class DiagramController extends JPanel
     private UndoHistoryWindow undoHistoryWindow;
 
     /** Set of node-to-node edges represented by existing relations, as
-      * a map from source node ID to a map from target node ID to a set
-      * of relations connecting that pair of entities.
+      * a map from edge to the number of relations representing it.
+      * There can be more than one, although that is unusual.
       *
-      * This uses a set of Relations because it is possible, although
-      * unusual, to have many such between any pair of nodes, and they
-      * can all have different labels.
+      * This is maintained along with 'm_relationControllersByKey', and
+      * additionally updated when the graph node ID of an entity at the
+      * end of a relation changes, so it does not have to be recomputed
+      * when the diagram changes. */
+    private HashMap<GraphEdgeKey, Integer> m_graphEdges =
+        new HashMap<GraphEdgeKey, Integer>();
+
+    /** Map from graph node ID to the controllers of entities with that
+      * ID, so following a pointer does not scan every controller.
+      * Usually there is at most one per ID.  This is kept up to date by
+      * 'add', 'remove', 'rebuildControllers', and 'reindexController',
+      * which must be called after editing the ID of an entity. */
+    private HashMap<String, ArrayList<EntityController> >
+        m_entityControllersByGraphID =
+            new HashMap<String, ArrayList<EntityController> >();
+
+    /** Map from the endpoint entities and label of relations to their
+      * controllers, maintained like 'm_entityControllersByGraphID'.
+      * Relations not connected to an entity at both ends are absent. */
+    private HashMap<RelationIndexKey, ArrayList<RelationController> >
+        m_relationControllersByKey =
+            new HashMap<RelationIndexKey, ArrayList<RelationController> >();
+
+    /** Map from entity to the controllers of the relations in
+      * 'm_relationControllersByKey' that start or end at it, so the
+      * edges they represent can be updated when its ID changes. */
+    private IdentityHashMap<Entity, ArrayList<RelationController> >
+        m_relationControllersByEntity =
+            new IdentityHashMap<Entity, ArrayList<RelationController> >();
+
+    /** Map from 'getImageCacheKey' to the controllers of the entities
+      * using that image, followed by the controllers of the relations
+      * and inheritances attached to those entities, which move if an
+      * entity is resized.  This lets an arriving image be handled
+      * without scanning every controller.  It is built when needed and
+      * discarded by
+      * anything that could change it: 'add', 'remove', rebuilding the
+      * controllers, changing the file name (which relative image file
+      * names depend on), and recording a diagram change. */
+    private HashMap<String, ArrayList<Controller> >
+        m_controllersByImageKey = null;
+
+    /** When not null, we use a "triple buffer" render technique to
+      * avoid problems on Apple HiDPI/Retina displays: the diagram is
+      * painted into this buffer, which is then copied to the screen.
       *
-      * This is computed from 'diagram.relations', and recomputed
-      * whenever the diagram changes. */
-    private HashMap<String, HashMap<String, ArrayList<Relation> > >
-        m_graphEdges;
-
-    /** When not 0, we use a "triple buffer" render technique to
-      * avoid problems on Apple HiDPI/Retina displays.  Mode -1
-      * uses a "compatible" image.  Other values are treated as
-      * "imageType" arguments to BufferedImage; for example, 1
-      * is TYPE_INT_RGB, 2 is TYPE_INT_ARGB, etc.
+      * It is enabled by setting DED_TRIPLE_BUFFER to a 'BackBuffer'
+      * image kind: -1 uses a "compatible" image, -2 uses a
+      * VolatileImage, and other values are treated as "imageType"
+      * arguments to BufferedImage; for example, 1 is TYPE_INT_RGB,
+      * 2 is TYPE_INT_ARGB, etc.
       *
       * This might be unnecessary now that I've reimplemented the
       * text renderer.  I need some new experiments on a Mac. */
-    private int tripleBufferMode = 0;
+    private BackBuffer m_backBuffer = null;
 
-    /** When true, we render frames as fast as possible and measure
-      * the resulting frames per second. */
-    private boolean fpsMeasurementMode = false;
-
-    /** Number of frames rendered since entering FPS mode. */
-    private int fpsFrameCount = 0;
-
-    /** System.currentTimeMillis() when we entered FPS mode. */
-    private long fpsStartMillis = 0;
-
-    /** Last FPS measurement. */
-    private String fpsMeasurement = null;
-
-    /** Number of FPS samples reported.  This is useful because
-      * the effects of the JIT mean the number naturally climbs
-      * over time, so I need to know about how long I have been
-      * running FPS measurement so I can pick a consistent point
-      * to stop and consider the measurement final. */
-    private int fpsSampleCount = 0;
+    /** When not null, we render frames as fast as possible and
+      * measure them with this profiler, showing a summary on top of
+      * the diagram.  This is turned on with Ctrl+F and off with
+      * Ctrl+G.
+      *
+      * Watch the frame count as well as the times: the effects of the
+      * JIT mean the frame rate naturally climbs over time, so it takes
+      * a while to reach a consistent point to consider the
+      * measurement final. */
+    private RenderProfiler m_renderProfiler = null;
+
+    /** Diagram coordinates of the upper-left corner of the window.
+      * These are integers while the zoom factor is 1. */
+    private double m_viewX = 0, m_viewY = 0;
+
+    /** Current zoom step, from 'minZoomStep' to 'maxZoomStep', and
+      * the corresponding factor, in screen pixels per diagram pixel. */
+    private int m_zoomStep = 0;
+    private double m_zoom = 1.0;
+
+    /** Index of the 'getPaintBounds' rectangles of 'controllers', with
+      * item numbers equal to positions in that list, or null if it
+      * needs to be rebuilt.  Painting the window and hit testing use
+      * it to find the few controllers near a point or region.
+      *
+      * Since controllers are moved by modifying the model directly,
+      * this is discarded whenever the controller list or the diagram
+      * might have changed; see 'invalidateSpatialIndex'.  The exception
+      * is dragging, which updates just the controllers it moves; see
+      * 'updateSpatialIndexForDrag'. */
+    private GridIndex m_spatialIndex = null;
+
+    /** While dragging, the positions in 'controllers' of those whose
+      * paint bounds the drag can change, or null if that has not been
+      * computed since the drag started or the index was invalidated. */
+    private int[] m_dragAffected = null;
+
+    /** Incremented whenever something that entity render keys depend
+      * on might have changed for many entities at once: a recorded
+      * diagram change (which covers edits to entities, colors and the
+      * object graph), rebuilding the controllers, reloading images, or
+      * changing the file name.  See 'EntityController.getRenderKey'. */
+    private int m_renderKeyGeneration = 0;
 
     // ------------- public methods ---------------
     public DiagramController(Ded dedWindow)
+    {
+        this(dedWindow, dedWindow.diagramBitmapFont,
+             dedWindow.resourceImageCache);
+    }
+
+    /** Create a controller for 'dedWindow', or if that is null, one
+      * that is not shown in any window; see 'createOffscreen'. */
+    private DiagramController(
+        Ded dedWindow,
+        BitmapFont diagramFont,
+        ResourceImageCache resourceImageCache)
     {
         this.setBackground(Color.WHITE);
 
         this.dedWindow = dedWindow;
+        this.m_diagramFont = diagramFont;
+        this.m_resourceImageCache = resourceImageCache;
         this.diagram = new Diagram();
         this.controllers = new ArrayList<Controller>();
         this.mode = Mode.DCM_SELECT;
@@ -289,29 +526,68 @@ public class DiagramController extends JPanel
         this.currentFileChooserDirectory = Util.getWorkingDirectoryFile();
         this.dirty = false;
         this.importedFile = false;
-        this.imageCache = new HashMap<String, Image>();
+        this.imageCache = resourceImageCache.getImageCache();
 
         this.logMessages = new StringBuilder();
         this.log("Diagram Editor started at "+(new Date()));
 
         this.undoHistory = new UndoHistory(this.diagram,
             fmt("Created empty diagram"), this);
-        this.undoHistoryWindow = new UndoHistoryWindow(this);
+        if (dedWindow != null) {
+            this.undoHistoryWindow = new UndoHistoryWindow(this);
+        }
 
         String tbm = System.getenv("DED_TRIPLE_BUFFER");
+        int tripleBufferMode = 0;
         if (tbm != null) {
             try {
-                this.tripleBufferMode = Integer.valueOf(tbm);
+                tripleBufferMode = Integer.valueOf(tbm);
             }
             catch (NumberFormatException e) {
                 this.log("invalid DED_TRIPLE_BUFFER value \""+tbm+
                          "\": "+Util.getExceptionMessage(e));
             }
         }
-        this.log("DED_TRIPLE_BUFFER: "+this.tripleBufferMode);
+        this.log("DED_TRIPLE_BUFFER: "+tripleBufferMode);
+        if (tripleBufferMode != 0) {
+            try {
+                this.m_backBuffer = new BackBuffer(tripleBufferMode);
+            }
+            catch (IllegalArgumentException e) {
+                // Change it to something known to be valid.
+                this.log("creating a BufferedImage with imageType "+tripleBufferMode+
+                         " failed: "+Util.getExceptionMessage(e));
+                this.log("switching type to TYPE_INT_ARGB");
+                this.m_backBuffer = new BackBuffer(BufferedImage.TYPE_INT_ARGB);
+            }
+        }
+
+        if (dedWindow != null) {
+            try {
+                this.m_imageFileWatcher = new FileWatcher(
+                    new FileWatcher.Listener() {
+                        @Override
+                        public void filesChanged(final Set<Path> changed)
+                        {
+                            SwingUtilities.invokeLater(new Runnable() {
+                                @Override
+                                public void run()
+                                {
+                                    DiagramController.this.imageFilesChanged(changed);
+                                }
+                            });
+                        }
+                    });
+            }
+            catch (IOException e) {
+                this.log("cannot watch image files for changes: "+
+                         Util.getExceptionMessage(e));
+            }
+        }
 
         this.addMouseListener(this);
         this.addMouseMotionListener(this);
+        this.addMouseWheelListener(this);
         this.addKeyListener(this);
         this.addComponentListener(this);
         this.addFocusListener(this);
@@ -327,10 +603,66 @@ public class DiagramController extends JPanel
         return this.diagram;
     }
 
+    /** Create a controller showing 'diagram', loaded from 'fileName',
+      * that is not attached to any window.  It can be painted to an
+      * image, but not edited.  This works in a headless environment. */
+    public static DiagramController createOffscreen(
+        Diagram diagram,
+        String fileName,
+        BitmapFont diagramFont)
+    {
+        DiagramController ret =
+            new DiagramController(null, diagramFont, new ResourceImageCache());
+        ret.fileName = fileName;
+        ret.diagram = diagram;
+        ret.setSize(diagram.windowSize);
+        ret.setBackground(diagram.getBackgroundColor());
+        ret.rebuildControllers();
+        return ret;
+    }
+
+    /** Paint the diagram 'warmupFrames' times without measuring, then
+      * 'frames' times with a RenderProfiler, offscreen.  Return the
+      * profiler's CSV report. */
+    public String profileRender(int warmupFrames, int frames)
+    {
+        BufferedImage bi = new BufferedImage(
+            Math.max(this.getWidth(), 1), Math.max(this.getHeight(), 1),
+            BufferedImage.TYPE_INT_ARGB);
+
+        // Do not measure frames that draw image placeholders.
+        this.loadEntityImagesNow();
+
+        RenderProfiler profiler = new RenderProfiler();
+        for (int i=0; i < warmupFrames + frames; i++) {
+            if (i == warmupFrames) {
+                this.m_renderProfiler = profiler;
+            }
+            Graphics g = bi.createGraphics();
+            this.innerPaint(g);
+            g.dispose();
+        }
+        this.m_renderProfiler = null;
+
+        return profiler.getCSV();
+    }
+
     /** Font to use for all text in the diagram area. */
     public BitmapFont getDiagramFont()
     {
-        return this.dedWindow.diagramBitmapFont;
+        return this.m_diagramFont;
+    }
+
+    /** Cache of rendered entity images. */
+    public BoundedImageCache<EntityRenderKey> getEntityImageCache()
+    {
+        return this.m_entityImageCache;
+    }
+
+    /** Cache of stretched and tiled entity fill images. */
+    public BoundedImageCache<ScaledImageKey> getScaledImageCache()
+    {
+        return this.m_scaledImageCache;
     }
 
     @Override
@@ -341,61 +673,28 @@ public class DiagramController extends JPanel
         // with HiDPI/Retina displays.  This is an attempt at a
         // hack that might circumvent it, effectively triple-buffering
         // the rendering step.
-        if (this.tripleBufferMode != 0) {
-            // The idea here is if I create an in-memory image with no
-            // initial association with the display, whatever hacks Apple
-            // has added should not kick in, and I get unscaled pixel
-            // rendering.
-            BufferedImage bi;
-
-            if (this.tripleBufferMode == -1) {
-                // This is not right because we might be drawing on a
-                // different screen than the "default" screen.  Also, I
-                // am worried that a "compatible" image might be one
-                // subject to the scaling effects I'm trying to avoid.
-                GraphicsDevice gd =
-                    GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice();
-                GraphicsConfiguration gc = gd.getDefaultConfiguration();
-                bi = gc.createCompatibleImage(this.getWidth(), this.getHeight());
-            }
-            else {
-                // This is not ideal because the color representation
-                // for this hidden image may not match that of the display,
-                // necessitating a conversion during 'drawImage'.
-                try {
-                    bi = new BufferedImage(this.getWidth(), this.getHeight(),
-                                           this.tripleBufferMode);
-                }
-                catch (IllegalArgumentException e) {
-                    // This would happen if 'tripleBufferMode' were invalid.
-                    if (this.tripleBufferMode == BufferedImage.TYPE_INT_ARGB) {
-                        // I don't know how this could happen.  Re-throw.
-                        this.log("creating a BufferedImage with TYPE_INT_ARGB failed: "+Util.getExceptionMessage(e));
-                        this.log("re-throwing exception...");
-                        throw e;
-                    }
-                    else {
-                        // Change it to something known to be valid and try again.
-                        this.log("creating a BufferedImage with imageType "+this.tripleBufferMode+
-                                 " failed: "+Util.getExceptionMessage(e));
-                        this.log("switching type to TYPE_INT_ARGB and re-trying...");
-                        this.tripleBufferMode = BufferedImage.TYPE_INT_ARGB;
-                        this.paint(g);
-                        return;
+        if (this.m_backBuffer != null) {
+            // The idea here is if I render into an in-memory image
+            // with no initial association with the display, whatever
+            // hacks Apple has added should not kick in, and I get
+            // unscaled pixel rendering.  The image is kept across
+            // paints, and only the region being repainted is painted
+            // and copied.
+            this.m_backBuffer.paint(g, this.getWidth(), this.getHeight(),
+                this.getGraphicsConfiguration(),
+                new BackBuffer.Painter() {
+                    @Override
+                    public void paint(Graphics2D g2)
+                    {
+                        DiagramController.this.innerPaint(g2);
                     }
-                }
-            }
-            Graphics g2 = bi.createGraphics();
-            this.innerPaint(g2);
-            g2.dispose();
-
-            g.drawImage(bi, 0, 0, null /*imageObserver*/);
+                });
         }
         else {
             this.innerPaint(g);
         }
 
-        if (this.fpsMeasurementMode) {
+        if (this.m_renderProfiler != null) {
             // Immediately trigger another paint cycle.
             this.repaint();
         }
@@ -405,26 +704,123 @@ public class DiagramController extends JPanel
       * another buffer. */
     private void innerPaint(Graphics g)
     {
+        RenderProfiler profiler = this.m_renderProfiler;
+        if (profiler != null) {
+            profiler.beginFrame();
+            profiler.enterPhase(RenderProfiler.backgroundPhase);
+        }
+
         super.paint(g);
 
+        if (profiler != null) {
+            profiler.exitPhase();
+        }
+
+        this.paintContents(g, true /*inWindow*/, null /*exportIndex*/);
+
+        if (profiler != null) {
+            profiler.endFrame();
+            this.paintProfilerOverlay(g, profiler);
+        }
+    }
+
+    /** Draw the summary of 'profiler' in the upper right corner. */
+    private void paintProfilerOverlay(Graphics g0, RenderProfiler profiler)
+    {
+        Graphics g = g0.create();
+        BitmapFont font = this.getDiagramFont();
+        List<String> lines = profiler.getSummaryLines();
+
+        int lineHeight = font.getStandardLineHeight();
+        int width = 0;
+        for (String line : lines) {
+            width = Math.max(width, font.stringWidth(line));
+        }
+        int margin = fileNameLabelMargin;
+        Rectangle box = new Rectangle(
+            this.getWidth() - width - margin*3, margin,
+            width + margin*2, lines.size() * lineHeight + margin*2);
+
+        // Translucent so the diagram underneath is still visible.
+        g.setColor(new Color(255, 255, 255, 224));
+        g.fillRect(box.x, box.y, box.width, box.height);
+        g.setColor(Color.BLACK);
+        g.drawRect(box.x, box.y, box.width, box.height);
+
+        int y = box.y + margin + font.getAscent();
+        for (String line : lines) {
+            font.drawString(g, line, box.x + margin, y);
+            y += lineHeight;
+        }
+        g.dispose();
+    }
+
+    /** Profiler measuring the frame being painted, or null if render
+      * profiling is off. */
+    public RenderProfiler getRenderProfiler()
+    {
+        return this.m_renderProfiler;
+    }
+
+    /** Paint everything in the diagram area except the background,
+      * which 'JPanel.paint' handles.
+      *
+      * If 'inWindow', paint the part of the diagram visible in the
+      * window at the current scroll position and zoom, looking up the
+      * controllers to paint in the spatial index.  Otherwise, paint the
+      * whole diagram with diagram coordinates equal to 'g' coordinates;
+      * this does not modify the DiagramController, so
+      * 'renderWithoutSelectionsShowing' can call it from several
+      * threads at once.  In that case, if 'exportIndex' is not null,
+      * it is the spatial index, already built, and only the controllers
+      * it says can touch the clip area are painted. */
+    private void paintContents(Graphics g, boolean inWindow,
+                               GridIndex exportIndex)
+    {
+        RenderProfiler profiler = this.m_renderProfiler;
+
+        // Graphics for drawing in diagram coordinates.
+        Graphics2D gd = (Graphics2D)g.create();
+        if (inWindow) {
+            gd.scale(this.m_zoom, this.m_zoom);
+            gd.translate(-this.m_viewX, -this.m_viewY);
+        }
+
         // Filename label.
         if (this.diagram.drawFileName && !this.fileName.isEmpty()) {
+            if (profiler != null) {
+                profiler.enterPhase(RenderProfiler.textPhase);
+            }
             String name = new File(this.fileName).getName();
 
             BitmapFont font = this.getDiagramFont();
             int x = fileNameLabelMargin;
             int y = fileNameLabelMargin + font.getAscent();
-            font.drawString(g, name, x, y);
+            font.drawString(gd, name, x, y);
             y += font.getUnderlineOffset() + 1 /*...*/;
-            g.drawLine(x, y, x + font.stringWidth(name), y);
+            gd.drawLine(x, y, x + font.stringWidth(name), y);
+            if (profiler != null) {
+                profiler.exitPhase();
+            }
         }
 
         // Controllers.
-        for (Controller c : this.controllers) {
-            if (c.isSelected()) {
-                c.paintSelectionBackground(g);
+        GridIndex index = inWindow? this.getSpatialIndex() : exportIndex;
+        Rectangle area = gd.getClipBounds();
+        if (inWindow && area == null) {
+            area = this.getVisibleDiagramRect();
+        }
+        if (index != null && area != null) {
+            // Only those that can touch the area being painted.
+            BitSet visible = index.query(area);
+            for (int i = visible.nextSetBit(0); i >= 0; i = visible.nextSetBit(i+1)) {
+                this.paintController(gd, this.controllers.get(i), profiler);
+            }
+        }
+        else {
+            for (Controller c : this.controllers) {
+                this.paintController(gd, c, profiler);
             }
-            c.paint(g);
         }
 
         // Description of current mode.
@@ -433,7 +829,7 @@ public class DiagramController extends JPanel
         // Lasso rectangle.
         if (this.mode == Mode.DCM_RECT_LASSO) {
             Rectangle r = this.getLassoRect();
-            g.drawRect(r.x, r.y, r.width, r.height);
+            gd.drawRect(r.x, r.y, r.width, r.height);
             modeDescription += " from ("+r.x+","+r.y+
                                ") to ("+(r.x+r.width)+","+(r.y+r.height)+
                                ") which is "+r.width+"x"+r.height;
@@ -450,24 +846,207 @@ public class DiagramController extends JPanel
         if (this.mode != Mode.DCM_SELECT) {
             g.drawString("Mode: " + modeDescription, 3, this.getHeight()-4);
         }
-        else if (this.fpsMeasurementMode) {
-            this.fpsFrameCount++;
-            long current = System.currentTimeMillis();
-            long millis = current - this.fpsStartMillis;
-            if (millis > 1000) {
-                // Update the FPS measurement with the results for this
-                // interval.
-                this.fpsSampleCount++;
-                this.fpsMeasurement = "FPS: "+this.fpsFrameCount+
-                    " (millis="+millis+", samples="+this.fpsSampleCount+")";
 
-                // Reset the counters.
-                this.fpsStartMillis = current;
-                this.fpsFrameCount = 0;
+        gd.dispose();
+    }
+
+    /** Paint 'c' onto 'g', charging the time to 'profiler' if it is
+      * not null. */
+    private void paintController(Graphics g, Controller c, RenderProfiler profiler)
+    {
+        if (profiler != null) {
+            profiler.countController(c.getClass().getSimpleName());
+            profiler.enterPhase(c.getRenderPhase());
+        }
+        if (c.isSelected()) {
+            c.paintSelectionBackground(g);
+        }
+        c.paint(g);
+        if (profiler != null) {
+            profiler.exitPhase();
+        }
+    }
+
+    /** Get the spatial index of the controllers, rebuilding it if it
+      * has been invalidated. */
+    private GridIndex getSpatialIndex()
+    {
+        // The size check is a safety net; every change to the list
+        // should also invalidate the index.
+        if (this.m_spatialIndex == null ||
+            this.m_spatialIndex.size() != this.controllers.size())
+        {
+            GridIndex index = new GridIndex();
+            for (Controller c : this.controllers) {
+                index.add(GeomUtil.growRectangle(c.getPaintBounds(), paintBoundsSlop));
+            }
+            this.m_spatialIndex = index;
+        }
+        return this.m_spatialIndex;
+    }
+
+    /** Discard the spatial index because controllers were added,
+      * removed, reordered, or moved.  It is rebuilt when next needed. */
+    private void invalidateSpatialIndex()
+    {
+        this.m_spatialIndex = null;
+        this.m_dragAffected = null;
+    }
+
+    /** Return the current generation of entity render keys. */
+    public int getRenderKeyGeneration()
+    {
+        return this.m_renderKeyGeneration;
+    }
+
+    /** Make every entity recompute its render key when next painted. */
+    private void invalidateRenderKeys()
+    {
+        this.m_renderKeyGeneration++;
+    }
+
+    /** Update the spatial index after a step of dragging, changing only
+      * the entries of the controllers the drag can move. */
+    private void updateSpatialIndexForDrag()
+    {
+        if (this.m_spatialIndex == null) {
+            return;            // Rebuilt when next needed.
+        }
+        if (this.m_dragAffected == null) {
+            this.m_dragAffected = this.computeDragAffected();
+        }
+        for (int i : this.m_dragAffected) {
+            this.m_spatialIndex.update(i, GeomUtil.growRectangle(
+                this.controllers.get(i).getPaintBounds(), paintBoundsSlop));
+        }
+    }
+
+    /** Return the positions in 'controllers' of those whose paint
+      * bounds can change when 'dragging' is dragged: the controllers
+      * being moved, those of the model objects they move, and those of
+      * anything attached to those objects.  The selection and the
+      * connections do not change during a drag, so this is computed
+      * once per drag, with a few passes over the controllers. */
+    private int[] computeDragAffected()
+    {
+        Set<Controller> moved;
+        if (this.dragging.isSelected()) {
+            moved = this.getSelectionSet();
+        }
+        else {
+            moved = new HashSet<Controller>();
+            moved.add(this.dragging);
+        }
+
+        // Model objects the moved controllers change.
+        IdentityHashSet<Entity> entities = new IdentityHashSet<Entity>();
+        IdentityHashSet<Inheritance> inheritances =
+            new IdentityHashSet<Inheritance>();
+        IdentityHashSet<Relation> relations = new IdentityHashSet<Relation>();
+        for (Controller c : moved) {
+            if (c instanceof EntityController) {
+                entities.add(((EntityController)c).entity);
+            }
+            else if (c instanceof EntityResizeController) {
+                entities.add(((EntityResizeController)c).econtroller.entity);
+            }
+            else if (c instanceof WindowCenterController) {
+                entities.add(((WindowCenterController)c).econtroller.entity);
+            }
+            else if (c instanceof InheritanceController) {
+                inheritances.add(((InheritanceController)c).inheritance);
+            }
+            else if (c instanceof RelationController) {
+                relations.add(((RelationController)c).relation);
+            }
+            else if (c instanceof RelationControlPointController) {
+                relations.add(
+                    ((RelationControlPointController)c).rcontroller.relation);
+            }
+            else if (c instanceof RelationEndpointController) {
+                relations.add(
+                    ((RelationEndpointController)c).rcontroller.relation);
+            }
+        }
+
+        // Inheritances are drawn from their parents, and relations
+        // between their endpoints.
+        for (Controller c : this.controllers) {
+            if (c instanceof InheritanceController) {
+                Inheritance inh = ((InheritanceController)c).inheritance;
+                if (entities.contains(inh.parent)) {
+                    inheritances.add(inh);
+                }
+            }
+        }
+        for (Controller c : this.controllers) {
+            if (c instanceof RelationController) {
+                Relation r = ((RelationController)c).relation;
+                if (endpointMoves(r.start, entities, inheritances) ||
+                    endpointMoves(r.end, entities, inheritances))
+                {
+                    relations.add(r);
+                }
+            }
+        }
+
+        ArrayList<Integer> affected = new ArrayList<Integer>();
+        for (int i=0; i < this.controllers.size(); i++) {
+            Controller c = this.controllers.get(i);
+            boolean moves;
+            if (moved.contains(c)) {
+                moves = true;
+            }
+            else if (c instanceof EntityController) {
+                moves = entities.contains(((EntityController)c).entity);
+            }
+            else if (c instanceof EntityResizeController) {
+                moves = entities.contains(
+                    ((EntityResizeController)c).econtroller.entity);
+            }
+            else if (c instanceof WindowCenterController) {
+                moves = entities.contains(
+                    ((WindowCenterController)c).econtroller.entity);
+            }
+            else if (c instanceof InheritanceController) {
+                moves = inheritances.contains(
+                    ((InheritanceController)c).inheritance);
+            }
+            else if (c instanceof RelationController) {
+                moves = relations.contains(((RelationController)c).relation);
+            }
+            else if (c instanceof RelationControlPointController) {
+                moves = relations.contains(
+                    ((RelationControlPointController)c).rcontroller.relation);
+            }
+            else if (c instanceof RelationEndpointController) {
+                moves = relations.contains(
+                    ((RelationEndpointController)c).rcontroller.relation);
+            }
+            else {
+                moves = true;  // Unknown, so assume the worst.
+            }
+            if (moves) {
+                affected.add(i);
             }
-            g.drawString(this.fpsMeasurement + " (Ctrl+G to stop)",
-                         3, this.getHeight()-4);
         }
+
+        int[] ret = new int[affected.size()];
+        for (int i=0; i < ret.length; i++) {
+            ret[i] = affected.get(i);
+        }
+        return ret;
+    }
+
+    /** True if 'ep' is attached to something in 'entities' or
+      * 'inheritances'. */
+    private static boolean endpointMoves(
+        RelationEndpoint ep,
+        IdentityHashSet<Entity> entities,
+        IdentityHashSet<Inheritance> inheritances)
+    {
+        return (ep.entity != null && entities.contains(ep.entity)) ||
+               (ep.inheritance != null && inheritances.contains(ep.inheritance));
     }
 
     /** Return the set of currently selected controllers as a freshly
@@ -524,8 +1103,23 @@ public class DiagramController extends JPanel
       * (if it is not null), or null if none does. */
     private Controller hitTest(Point point, ControllerFilter filter)
     {
+        // While dragging, the controllers move between repaints, so
+        // check all of them rather than keep rebuilding the index.
+        BitSet candidates;
+        if (this.mode == Mode.DCM_DRAGGING) {
+            candidates = new BitSet();
+            candidates.set(0, this.controllers.size());
+        }
+        else {
+            candidates = this.getSpatialIndex().query(
+                new Rectangle(point.x, point.y, 1, 1));
+        }
+
         // Go backwards for top-down order.
-        for (int i = this.controllers.size()-1; i >= 0; i--) {
+        for (int i = candidates.previousSetBit(this.controllers.size()-1);
+             i >= 0;
+             i = candidates.previousSetBit(i-1))
+        {
             Controller c = this.controllers.get(i);
 
             if (filter != null && filter.satisfies(c) == false) {
@@ -561,6 +1155,19 @@ public class DiagramController extends JPanel
         });
     }
 
+    /** Return a copy of 'e', which is in window coordinates, with its
+      * location converted to diagram coordinates. */
+    private MouseEvent toDiagramEvent(MouseEvent e)
+    {
+        if (this.m_zoomStep == 0 && this.m_viewX == 0 && this.m_viewY == 0) {
+            return e;
+        }
+        Point p = this.screenToDiagram(e.getPoint());
+        return new MouseEvent(e.getComponent(), e.getID(), e.getWhen(),
+            e.getModifiersEx(), p.x, p.y, e.getXOnScreen(), e.getYOnScreen(),
+            e.getClickCount(), e.isPopupTrigger(), e.getButton());
+    }
+
     /** Return e.getPoint(), except snapped to SNAP_DIST if shift not held. */
     public Point getSnappedPoint(MouseEvent e)
     {
@@ -577,6 +1184,7 @@ public class DiagramController extends JPanel
     @Override
     public void mousePressed(MouseEvent e)
     {
+        e = this.toDiagramEvent(e);
         switch (this.mode) {
             case DCM_SELECT: {
                 // Clicked a controller?
@@ -657,6 +1265,7 @@ public class DiagramController extends JPanel
     @Override
     public void mouseDragged(MouseEvent e)
     {
+        e = this.toDiagramEvent(e);
         if (this.mode == Mode.DCM_DRAGGING) {
             this.selfCheck();
 
@@ -694,6 +1303,7 @@ public class DiagramController extends JPanel
                         destLoc.y);
             }
 
+            this.updateSpatialIndexForDrag();
             this.repaint();
         }
 
@@ -726,6 +1336,7 @@ public class DiagramController extends JPanel
     public void mouseClicked(MouseEvent e)
     {
         // Double-click on control to edit it.
+        e = this.toDiagramEvent(e);
         if (SwingUtilities.isLeftMouseButton(e) && (e.getClickCount() == 2)) {
             Controller c = this.hitTest(e.getPoint(), null);
             if (c != null) {
@@ -734,6 +1345,24 @@ public class DiagramController extends JPanel
         }
     }
 
+    @Override
+    public void mouseWheelMoved(MouseWheelEvent e)
+    {
+        if (SwingUtil.controlPressed(e)) {
+            // Rotating away from the user zooms in.
+            this.zoomBy(-e.getWheelRotation(), e.getPoint());
+        }
+        else {
+            double d = e.getPreciseWheelRotation() * wheelScrollPixels / this.m_zoom;
+            if (SwingUtil.shiftPressed(e)) {
+                this.scrollBy(d, 0);
+            }
+            else {
+                this.scrollBy(0, d);
+            }
+        }
+    }
+
     // MouseListener methods I do not care about.
     @Override public void mouseEntered(MouseEvent e) {}
     @Override public void mouseExited(MouseEvent e) {}
@@ -755,21 +1384,39 @@ public class DiagramController extends JPanel
         if (SwingUtil.controlPressed(e)) {
             switch (e.getKeyCode()) {
                 case KeyEvent.VK_F:
-                    if (this.fpsMeasurementMode == false) {
-                        this.fpsMeasurementMode = true;
-                        this.fpsStartMillis = System.currentTimeMillis();
-                        this.fpsFrameCount = 0;
-                        this.fpsMeasurement = "(FPS measurement in progress)";
+                    if (this.m_renderProfiler == null) {
+                        this.m_renderProfiler = new RenderProfiler();
                         this.repaint();
                     }
                     else {
-                        // FPS mode already active.  We get lots of key
+                        // Profiling already active.  We get lots of key
                         // events due to auto-repeat.
                     }
                     break;
 
                 case KeyEvent.VK_G:
-                    this.fpsMeasurementMode = false;
+                    if (this.m_renderProfiler != null) {
+                        this.log("render profile:");
+                        this.logNoNewline(this.m_renderProfiler.getCSV());
+                        this.m_renderProfiler = null;
+                        this.repaint();
+                    }
+                    break;
+
+                case KeyEvent.VK_EQUALS:
+                case KeyEvent.VK_PLUS:
+                case KeyEvent.VK_ADD:
+                    this.zoomBy(+1, this.getWindowCenter());
+                    break;
+
+                case KeyEvent.VK_MINUS:
+                case KeyEvent.VK_SUBTRACT:
+                    this.zoomBy(-1, this.getWindowCenter());
+                    break;
+
+                case KeyEvent.VK_0:
+                case KeyEvent.VK_NUMPAD0:
+                    this.resetView();
                     break;
             }
             return;
@@ -901,6 +1548,14 @@ public class DiagramController extends JPanel
     /** Show a window with the log. */
     public void showLogWindow()
     {
+        this.log("image cache: "+this.imageCache.getStatistics());
+        this.log("entity image cache: "+
+                 this.m_entityImageCache.getStatistics());
+        this.log("scaled image cache: "+
+                 this.m_scaledImageCache.getStatistics());
+        if (this.m_backBuffer != null) {
+            this.log("back buffer: "+this.m_backBuffer.getStatistics());
+        }
         SwingUtil.logFileMessageBox(this, this.logMessages.toString(), "Diagram Editor Log");
     }
 
@@ -921,6 +1576,7 @@ public class DiagramController extends JPanel
         this.setFileName("");
 
         // Clear the diagram.
+        this.resetView();
         this.setDiagram(new Diagram());
         this.undoHistory = new UndoHistory(this.diagram,
             fmt("Started a new, empty diagram"), this);
@@ -931,7 +1587,6 @@ public class DiagramController extends JPanel
     private void setDiagram(Diagram newDiagram)
     {
         this.diagram = newDiagram;
-        this.recomputeGraphEdges();
 
         // Sizing is achieved by specifying a preferred size for
         // the content pane, then packing other controls and the
@@ -951,6 +1606,7 @@ public class DiagramController extends JPanel
         this.setBackground(this.diagram.getBackgroundColor());
 
         this.rebuildControllers();
+        this.prefetchEntityImages();
         this.dedWindow.updateMenuState();
         this.repaint();
     }
@@ -1019,6 +1675,7 @@ public class DiagramController extends JPanel
             }
 
             // Swap in the new diagram and rebuild the UI for it.
+            this.resetView();
             this.setDiagram(d);
             this.undoHistory = new UndoHistory(this.diagram,
                 fmt("Loaded file \"%1$s\"", name), this);
@@ -1113,6 +1770,9 @@ public class DiagramController extends JPanel
     private void rebuildControllers()
     {
         this.controllers.clear();
+        this.clearGraphIndexes();
+        this.invalidateSpatialIndex();
+        this.invalidateRenderKeys();
 
         for (Entity e : this.diagram.entities) {
             this.buildEntityController(e);
@@ -1277,6 +1937,11 @@ public class DiagramController extends JPanel
     private void setFileName(String name)
     {
         this.fileName = name;
+
+        // Relative image file names depend on the file name.
+        this.m_controllersByImageKey = null;
+        this.clearImageMipMaps();
+        this.invalidateRenderKeys();
         this.updateWindowTitle();
 
         // Changing the file name affects the drawn name in the
@@ -1303,12 +1968,7 @@ public class DiagramController extends JPanel
             // http://stackoverflow.com/questions/5655908/export-jpanel-graphics-to-png-or-gif-or-jpg
 
             // First, render the image to an in-memory image buffer.
-            BufferedImage bi =
-                new BufferedImage(this.getSize().width, this.getSize().height,
-                                  BufferedImage.TYPE_INT_ARGB);
-            Graphics g = bi.createGraphics();
-            this.paintWithoutSelectionsShowing(g);
-            g.dispose();
+            BufferedImage bi = this.renderWithoutSelectionsShowing();
 
             // Now, write that image to a file in PNG format.
             String warning = ImageFileUtil.writeImageToPNGFile(bi, file, comment);
@@ -1323,22 +1983,73 @@ public class DiagramController extends JPanel
         }
     }
 
-    /** Paint diagram to 'g', except temporarily deselect everything
-      * first so that the selection indicators do not not appear. */
-    protected void paintWithoutSelectionsShowing(Graphics g)
+    /** Render the diagram to a new image the size of the drawing
+      * area, except temporarily deselect everything first so that the
+      * selection indicators do not not appear.
+      *
+      * The image is divided into tiles that are painted in parallel by
+      * 'TiledRenderer', so large exports use all available cores. */
+    protected BufferedImage renderWithoutSelectionsShowing()
     {
         // Turn off selections.
         HashSet<Controller> originalSelection = this.getSelectionSet();
         setMultipleSelected(originalSelection, SelectionState.SS_UNSELECTED);
         try {
+            // Entity images are normally loaded in the background, with a
+            // placeholder drawn meanwhile.  The file needs them all, and
+            // they must stay in memory until it is done.
+            this.m_exportImages = this.loadEntityImagesNow();
+
+            // Paint once with an empty clip.  That draws nothing, but it
+            // brings the caches the controllers consult while painting
+            // (routes, text layouts, colors, entity images, image files)
+            // up to date, so the concurrent tile painters below only
+            // read them.  The entity image cache is synchronized in case
+            // it evicts entries and has to re-render them.
+            {
+                BufferedImage scratch =
+                    new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+                Graphics2D g = scratch.createGraphics();
+                g.setClip(0, 0, 0, 0);
+                this.paintContents(g, false /*inWindow*/, null /*exportIndex*/);
+                g.dispose();
+            }
+
+            // Each tile only paints the controllers that can touch it.
+            // Build the index here, since the tile painters must not.
+            final GridIndex index = this.getSpatialIndex();
+
             // Paint now that selections are turned off.
             //
-            // This uses 'innerPaint' to bypass the additional buffering
-            // logic, which is unnecessary here since we are already
-            // rendering to a hidden image to write to a file.
-            this.innerPaint(g);
+            // This bypasses 'paint' and its additional buffering logic,
+            // which is unnecessary here since we are already rendering
+            // to a hidden image to write to a file.
+            final int width = this.getWidth();
+            final int height = this.getHeight();
+            final Color background = this.getBackground();
+            return TiledRenderer.render(width, height,
+                BufferedImage.TYPE_INT_ARGB,
+                new TiledRenderer.Painter() {
+                    @Override
+                    public void paint(Graphics2D g)
+                    {
+                        // Fill the background like 'JPanel.paint' does,
+                        // since it must not be called off the event
+                        // dispatch thread.  That leaves the color of
+                        // 'g' unchanged, so restore it here too.
+                        Color c = g.getColor();
+                        g.setColor(background);
+                        g.fillRect(0, 0, width, height);
+                        g.setColor(c);
+
+                        DiagramController.this.paintContents(g, false /*inWindow*/,
+                                                             index);
+                    }
+                });
         }
         finally {
+            this.m_exportImages = null;
+
             // Restore selection state.
             setSelectionSet(originalSelection);
         }
@@ -1423,13 +2134,25 @@ public class DiagramController extends JPanel
     public void diagramChanged(String command)
     {
         //System.out.println("Diagram changed: "+command);
+        this.recordDiagramChange(command);
+        this.invalidateSpatialIndex();
+        this.repaint();
+    }
+
+    /** Like 'diagramChanged', but for a change that does not move or
+      * resize anything, and that leaves the caller responsible for
+      * repainting what it affected. */
+    private void recordDiagramChange(String command)
+    {
+        // The change might have been to an image file name.
+        this.m_controllersByImageKey = null;
+        this.invalidateRenderKeys();
+
         this.undoHistory.recordDiagramChange(this.diagram, command);
         this.undoHistoryWindow.updateHistory();
         this.populateRedoAlternateMenu();
-        this.recomputeGraphEdges();
 
         this.setDirty();
-        this.repaint();
     }
 
     /** Set 'dirty' to true.  This is private because all other classes
@@ -1494,6 +2217,7 @@ public class DiagramController extends JPanel
             this.dragging = null;
             this.dragOffset = new Point(0,0);
             this.dragCommandDescription = null;
+            this.m_dragAffected = null;
         }
 
         if (m != Mode.DCM_RECT_LASSO) {
@@ -1529,6 +2253,7 @@ public class DiagramController extends JPanel
         }
 
         this.selfCheck();
+        this.invalidateSpatialIndex();
         this.repaint();
     }
 
@@ -1924,6 +2649,7 @@ public class DiagramController extends JPanel
         this.dragging = c;
         this.dragOffset = GeomUtil.subtract(pt, c.getLoc());
         this.dragCommandDescription = null;
+        this.m_dragAffected = null;
         c.beginDragging(pt);
         this.setMode(Mode.DCM_DRAGGING);
     }
@@ -1942,6 +2668,8 @@ public class DiagramController extends JPanel
         for (Controller c : this.controllers) {
             c.globalSelfCheck(this.diagram);
         }
+
+        this.checkGraphIndexes();
     }
 
     /** Set the set of selected controllers to those in 'toSelect'. */
@@ -2046,37 +2774,277 @@ public class DiagramController extends JPanel
     /** Add an active controller. */
     public void add(Controller c)
     {
+        this.m_controllersByImageKey = null;
         this.controllers.add(c);
+        this.indexController(c);
+        this.invalidateSpatialIndex();
         this.repaint();
     }
 
     /** Remove an active controller. */
     public void remove(Controller c)
     {
+        this.m_controllersByImageKey = null;
         this.controllers.remove(c);
+        this.unindexController(c);
+        this.invalidateSpatialIndex();
         this.repaint();
     }
 
-    /** Return true if 'c' is among the active controllers for this diagram. */
-    public boolean contains(Controller c)
+    /** Add 'c' to the graph indexes if it belongs in one. */
+    private void indexController(Controller c)
     {
-        return this.controllers.contains(c);
-    }
+        if (c instanceof EntityController) {
+            EntityController ec = (EntityController)c;
+            String id = ec.entity.objectGraphNodeID;
+            if (!id.isEmpty()) {
+                ArrayList<EntityController> list =
+                    this.m_entityControllersByGraphID.get(id);
+                if (list == null) {
+                    list = new ArrayList<EntityController>(1);
+                    this.m_entityControllersByGraphID.put(id, list);
+                }
+                list.add(ec);
+                ec.m_indexedGraphID = id;
+            }
+        }
+        else if (c instanceof RelationController) {
+            RelationController rc = (RelationController)c;
+            RelationIndexKey key = RelationIndexKey.fromRelation(rc.relation);
+            if (key != null) {
+                ArrayList<RelationController> list =
+                    this.m_relationControllersByKey.get(key);
+                if (list == null) {
+                    list = new ArrayList<RelationController>(1);
+                    this.m_relationControllersByKey.put(key, list);
+                }
+                list.add(rc);
+                rc.m_indexKey = key;
 
-    /** Return set of matching controllers. */
-    private IdentityHashSet<Controller> findControllers(ControllerFilter filter)
-    {
-        IdentityHashSet<Controller> ret = new IdentityHashSet<Controller>();
-        for (Controller c : this.controllers) {
-            if (filter.satisfies(c)) {
-                ret.add(c);
+                this.addIncidentRelation(key.start, rc);
+                if (key.end != key.start) {
+                    this.addIncidentRelation(key.end, rc);
+                }
+            }
+
+            GraphEdgeKey edge = GraphEdgeKey.fromRelation(rc.relation);
+            if (edge != null) {
+                if (s_traceGraphEdges) {
+                    System.out.println("add edge: "+edge);
+                }
+                Integer count = this.m_graphEdges.get(edge);
+                this.m_graphEdges.put(edge, count == null? 1 : count+1);
+                rc.m_graphEdgeKey = edge;
             }
         }
-        return ret;
     }
 
-    /** Delete matching controllers. */
-    public void deleteControllers(ControllerFilter filter)
+    /** Record in 'm_relationControllersByEntity' that 'rc' starts or
+      * ends at 'e'. */
+    private void addIncidentRelation(Entity e, RelationController rc)
+    {
+        ArrayList<RelationController> list =
+            this.m_relationControllersByEntity.get(e);
+        if (list == null) {
+            list = new ArrayList<RelationController>(2);
+            this.m_relationControllersByEntity.put(e, list);
+        }
+        list.add(rc);
+    }
+
+    /** Remove 'c' from the graph indexes, using the key it was indexed
+      * under, which might not match its current state. */
+    private void unindexController(Controller c)
+    {
+        if (c instanceof EntityController) {
+            EntityController ec = (EntityController)c;
+            if (ec.m_indexedGraphID != null) {
+                removeFromIndex(this.m_entityControllersByGraphID,
+                                ec.m_indexedGraphID, ec);
+                ec.m_indexedGraphID = null;
+            }
+        }
+        else if (c instanceof RelationController) {
+            RelationController rc = (RelationController)c;
+            RelationIndexKey key = rc.m_indexKey;
+            if (key != null) {
+                removeFromIndex(this.m_relationControllersByKey, key, rc);
+                removeFromIndex(this.m_relationControllersByEntity,
+                                key.start, rc);
+                if (key.end != key.start) {
+                    removeFromIndex(this.m_relationControllersByEntity,
+                                    key.end, rc);
+                }
+                rc.m_indexKey = null;
+            }
+
+            GraphEdgeKey edge = rc.m_graphEdgeKey;
+            if (edge != null) {
+                if (s_traceGraphEdges) {
+                    System.out.println("remove edge: "+edge);
+                }
+                int count = this.m_graphEdges.get(edge);
+                if (count == 1) {
+                    this.m_graphEdges.remove(edge);
+                }
+                else {
+                    this.m_graphEdges.put(edge, count-1);
+                }
+                rc.m_graphEdgeKey = null;
+            }
+        }
+    }
+
+    /** Remove 'value' from the list that 'index' maps 'key' to, and
+      * remove the list if it becomes empty. */
+    private static <K, V> void removeFromIndex(
+        Map<K, ArrayList<V> > index,
+        K key,
+        V value)
+    {
+        ArrayList<V> list = index.get(key);
+        if (list != null) {
+            list.remove(value);
+            if (list.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+
+    /** Update the graph indexes after changing the graph node ID of the
+      * entity of 'c', or the endpoints or label of its relation. */
+    public void reindexController(Controller c)
+    {
+        this.unindexController(c);
+        this.indexController(c);
+
+        // The ID also affects how graph node variables are substituted.
+        if (c instanceof EntityController) {
+            ((EntityController)c).invalidateRenderKey();
+        }
+
+        // The edges represented by relations at an entity depend on
+        // its ID.
+        if (c instanceof EntityController) {
+            ArrayList<RelationController> incident =
+                this.m_relationControllersByEntity.get(
+                    ((EntityController)c).entity);
+            if (incident != null) {
+                for (RelationController rc :
+                         new ArrayList<RelationController>(incident)) {
+                    this.unindexController(rc);
+                    this.indexController(rc);
+                }
+            }
+        }
+    }
+
+    /** Rebuild the graph indexes from scratch.  This is for changes
+      * that affect many controllers at once. */
+    public void rebuildGraphIndexes()
+    {
+        this.clearGraphIndexes();
+        for (Controller c : this.controllers) {
+            this.indexController(c);
+        }
+    }
+
+    /** Empty the graph indexes, including 'm_graphEdges'. */
+    private void clearGraphIndexes()
+    {
+        for (Controller c : this.controllers) {
+            if (c instanceof EntityController) {
+                ((EntityController)c).m_indexedGraphID = null;
+            }
+            else if (c instanceof RelationController) {
+                ((RelationController)c).m_indexKey = null;
+                ((RelationController)c).m_graphEdgeKey = null;
+            }
+        }
+        this.m_entityControllersByGraphID.clear();
+        this.m_relationControllersByKey.clear();
+        this.m_controllersByImageKey = null;
+        this.m_relationControllersByEntity.clear();
+        this.m_graphEdges.clear();
+    }
+
+    /** Check that the graph indexes agree with the controllers. */
+    private void checkGraphIndexes()
+    {
+        int entities = 0;
+        int relations = 0;
+        int edges = 0;
+        for (Controller c : this.controllers) {
+            if (c instanceof EntityController) {
+                EntityController ec = (EntityController)c;
+                String id = ec.entity.objectGraphNodeID;
+                if (id.isEmpty()) {
+                    assert(ec.m_indexedGraphID == null);
+                }
+                else {
+                    assert(id.equals(ec.m_indexedGraphID));
+                    assert(this.m_entityControllersByGraphID.get(id).contains(ec));
+                    entities++;
+                }
+            }
+            else if (c instanceof RelationController) {
+                RelationController rc = (RelationController)c;
+                RelationIndexKey key = RelationIndexKey.fromRelation(rc.relation);
+                assert(key == null?
+                    rc.m_indexKey == null :
+                    key.equals(rc.m_indexKey) &&
+                        this.m_relationControllersByKey.get(key).contains(rc) &&
+                        this.m_relationControllersByEntity.get(key.start).contains(rc) &&
+                        this.m_relationControllersByEntity.get(key.end).contains(rc));
+                if (key != null) {
+                    relations++;
+                }
+
+                GraphEdgeKey edge = GraphEdgeKey.fromRelation(rc.relation);
+                assert(edge == null?
+                    rc.m_graphEdgeKey == null :
+                    edge.equals(rc.m_graphEdgeKey));
+                if (edge != null) {
+                    edges++;
+                }
+            }
+        }
+
+        // Nothing else is in the indexes.
+        for (ArrayList<EntityController> list :
+                 this.m_entityControllersByGraphID.values()) {
+            entities -= list.size();
+        }
+        for (ArrayList<RelationController> list :
+                 this.m_relationControllersByKey.values()) {
+            relations -= list.size();
+        }
+        for (int count : this.m_graphEdges.values()) {
+            edges -= count;
+        }
+        assert(entities == 0 && relations == 0 && edges == 0);
+    }
+
+    /** Return true if 'c' is among the active controllers for this diagram. */
+    public boolean contains(Controller c)
+    {
+        return this.controllers.contains(c);
+    }
+
+    /** Return set of matching controllers. */
+    private IdentityHashSet<Controller> findControllers(ControllerFilter filter)
+    {
+        IdentityHashSet<Controller> ret = new IdentityHashSet<Controller>();
+        for (Controller c : this.controllers) {
+            if (filter.satisfies(c)) {
+                ret.add(c);
+            }
+        }
+        return ret;
+    }
+
+    /** Delete matching controllers. */
+    public void deleteControllers(ControllerFilter filter)
     {
         // Get the set of matching controllers first; we cannot remove
         // them while searching due to iterator invalidation issues.
@@ -2381,28 +3349,384 @@ public class DiagramController extends JPanel
     }
 
     /** Get an image for a given file name.  Save the result in an
-      * image cache.  Return null if it cannot be loaded. */
+      * image cache.  Return null if it cannot be loaded.
+      *
+      * If the image is not loaded yet, this waits for it, so painting
+      * uses 'getImageIfLoaded' instead. */
     public Image getImage(String imageFileName)
     {
         // Consult the cache.
-        if (this.imageCache.containsKey(imageFileName)) {
-            return this.imageCache.get(imageFileName);  // Might be null.
+        File imageFile = this.getRelativeFile(imageFileName);
+        String key = getImageCacheKey(imageFile);
+        if (this.imageCache.containsKey(key)) {
+            return this.imageCache.get(key);  // Might be null.
         }
 
-        // Try to load the image from disk.
-        Image image = this.innerGetImage(imageFileName);
+        // If it is being loaded in the background, wait for that.
+        // 'finishImageLoad' will ignore the task once it is removed.
+        ImageLoadTask task = this.m_pendingImages.remove(key);
+        this.watchImageFile(imageFile);
+        ImageLoadResult result = (task != null?
+            getImageLoadResult(task) :
+            decodeImage(imageFileName, imageFile));
 
         // Cache the result, whatever it was, even if null.
-        this.imageCache.put(imageFileName, image);
+        this.log(result.logMessage);
+        this.imageCache.put(key, result.image);
+
+        return result.image;
+    }
+
+    /** Get the image for 'imageFileName' if it has been loaded.  Return
+      * null if it could not be loaded, or if it has not been loaded yet,
+      * in which case this starts loading it in the background if that
+      * is not already happening.  When it arrives, the entities that
+      * use it are updated and repainted. */
+    public Image getImageIfLoaded(String imageFileName)
+    {
+        HashMap<String, Image> exportImages = this.m_exportImages;
+        if (exportImages != null) {
+            // Exporting, possibly on a tile painter thread.  The images
+            // were all loaded beforehand.
+            return exportImages.get(imageFileName);
+        }
+
+        File imageFile = this.getRelativeFile(imageFileName);
+        String key = getImageCacheKey(imageFile);
+        if (this.imageCache.containsKey(key)) {
+            return this.imageCache.get(key);
+        }
+
+        if (!this.m_pendingImages.containsKey(key)) {
+            this.startImageLoad(imageFileName, imageFile);
+            this.watchImageFile(imageFile);
+        }
+        return null;
+    }
+
+    /** Begin loading 'imageFile' in the background, replacing any load
+      * of it already in progress. */
+    private void startImageLoad(String imageFileName, File imageFile)
+    {
+        ImageLoadTask task = new ImageLoadTask(imageFileName, imageFile);
+        this.m_pendingImages.put(task.cacheKey, task);
+        getImageLoaderPool().execute(task);
+    }
+
+    /** Reload the image for 'imageFile' if it changes. */
+    private void watchImageFile(File imageFile)
+    {
+        if (this.m_imageFileWatcher != null) {
+            this.m_imageFileWatcher.watch(imageFile);
+        }
+    }
+
+    /** Respond to a report from 'm_imageFileWatcher' that the files in
+      * 'changed' have changed by reloading those used by entities in the
+      * background.  Until a new image arrives, the old one continues to
+      * be drawn.  Then 'finishImageLoad' updates the entities using it. */
+    private void imageFilesChanged(Set<Path> changed)
+    {
+        HashSet<String> started = new HashSet<String>();
+        for (Entity e : this.diagram.entities) {
+            if (e.imageFileName.isEmpty()) {
+                continue;
+            }
+            File imageFile = this.getRelativeFile(e.imageFileName);
+            String key = getImageCacheKey(imageFile);
+            if (changed.contains(FileWatcher.normalize(imageFile)) &&
+                started.add(key))
+            {
+                this.log("image file changed: "+e.imageFileName);
+                this.startImageLoad(e.imageFileName, imageFile);
+            }
+        }
+    }
+
+    /** True if the image for 'imageFileName' is being loaded in the
+      * background. */
+    public boolean isImageLoading(String imageFileName)
+    {
+        if (this.m_exportImages != null) {
+            return false;
+        }
+        return this.m_pendingImages.containsKey(
+            getImageCacheKey(this.getRelativeFile(imageFileName)));
+    }
+
+    /** Name of the image in 'imageFile' in 'imageCache'.  Since the
+      * cache is shared, this is the absolute path, which is the same
+      * regardless of which diagram refers to the file. */
+    private static String getImageCacheKey(File imageFile)
+    {
+        return "file:"+imageFile.getAbsolutePath();
+    }
+
+    /** Start loading the fill images of all entities that are not
+      * already loaded. */
+    private void prefetchEntityImages()
+    {
+        // Watch only the files this diagram uses.
+        if (this.m_imageFileWatcher != null) {
+            ArrayList<File> files = new ArrayList<File>();
+            for (Entity e : this.diagram.entities) {
+                if (!e.imageFileName.isEmpty()) {
+                    files.add(this.getRelativeFile(e.imageFileName));
+                }
+            }
+            this.m_imageFileWatcher.watchOnly(files);
+        }
+
+        for (Entity e : this.diagram.entities) {
+            if (!e.imageFileName.isEmpty()) {
+                this.getImageIfLoaded(e.imageFileName);
+            }
+        }
+    }
+
+    /** Load the fill images of all entities, waiting for any that are
+      * still loading, so the diagram can be painted completely.  Return
+      * a map from image file name to image, or to null if the image
+      * could not be loaded. */
+    private HashMap<String, Image> loadEntityImagesNow()
+    {
+        HashMap<String, Image> ret = new HashMap<String, Image>();
+        for (Entity e : this.diagram.entities) {
+            if (!e.imageFileName.isEmpty() &&
+                !ret.containsKey(e.imageFileName))
+            {
+                ret.put(e.imageFileName, this.getImage(e.imageFileName));
+            }
+        }
+        return ret;
+    }
+
+    /** Get the pool for 'ImageLoadTask', creating it if needed. */
+    private static synchronized ExecutorService getImageLoaderPool()
+    {
+        if (s_imageLoaderPool == null) {
+            int threads = Math.max(1, Math.min(4,
+                Runtime.getRuntime().availableProcessors()));
+            s_imageLoaderPool = Executors.newFixedThreadPool(threads,
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r)
+                    {
+                        // Daemon, so the pool does not keep the
+                        // program running.
+                        Thread t = new Thread(r, "image loader");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        }
+        return s_imageLoaderPool;
+    }
+
+    /** Wait for 'task' to finish and return its result. */
+    private static ImageLoadResult getImageLoadResult(ImageLoadTask task)
+    {
+        try {
+            return task.get();
+        }
+        catch (Exception e) {
+            // 'decodeImage' catches everything, so this should not
+            // happen, but do not lose the image name if it does.
+            ImageLoadResult ret = new ImageLoadResult();
+            ret.logMessage = "while loading \""+task.imageFileName+"\": "+
+                             Util.getExceptionMessage(e);
+            return ret;
+        }
+    }
+
+    /** Store the image loaded by 'task', then update and repaint the
+      * entities that use it.  This runs on the event dispatch thread. */
+    private void finishImageLoad(ImageLoadTask task)
+    {
+        if (this.m_pendingImages.get(task.cacheKey) != task) {
+            // Already retrieved by 'getImage', discarded by
+            // 'reloadEntityImages', or superseded by a later load
+            // because the file changed again.
+            return;
+        }
+        this.m_pendingImages.remove(task.cacheKey);
+
+        ImageLoadResult result = getImageLoadResult(task);
+        this.log(result.logMessage);
+        this.imageCache.put(task.cacheKey, result.image);
+
+        ArrayList<Controller> affected =
+            this.getControllersByImageKey().get(task.cacheKey);
+        if (affected == null) {
+            return;
+        }
+
+        // The size of a size-locked entity can change, which moves the
+        // relations and inheritances attached to it.
+        Rectangle before = null;
+        for (Controller c : affected) {
+            before = union(before, c.getPaintBounds());
+        }
+        for (Controller c : affected) {
+            c.updateAfterImageReload();
+        }
+        this.invalidateSpatialIndex();
+        Rectangle after = null;
+        for (Controller c : affected) {
+            after = union(after, c.getPaintBounds());
+        }
+        this.repaintDiagramRect(before.union(after));
+    }
+
+    /** Return the union of 'a', which may be null, and 'b'. */
+    private static Rectangle union(Rectangle a, Rectangle b)
+    {
+        return a == null? new Rectangle(b) : a.union(b);
+    }
+
+    /** Return 'm_controllersByImageKey', building it if needed. */
+    private HashMap<String, ArrayList<Controller> > getControllersByImageKey()
+    {
+        if (this.m_controllersByImageKey != null) {
+            return this.m_controllersByImageKey;
+        }
+
+        HashMap<String, ArrayList<Controller> > map =
+            new HashMap<String, ArrayList<Controller> >();
+
+        // Entities with images, and the lists they belong in.
+        IdentityHashMap<Entity, ArrayList<Controller> > entityToList =
+            new IdentityHashMap<Entity, ArrayList<Controller> >();
+        for (Controller c : this.controllers) {
+            if (!(c instanceof EntityController)) {
+                continue;
+            }
+            EntityController ec = (EntityController)c;
+            String name = ec.entity.imageFileName;
+            if (name.isEmpty()) {
+                continue;
+            }
+            String key = getImageCacheKey(this.getRelativeFile(name));
+            ArrayList<Controller> list = map.get(key);
+            if (list == null) {
+                list = new ArrayList<Controller>(1);
+                map.put(key, list);
+            }
+            list.add(ec);
+            entityToList.put(ec.entity, list);
+        }
+
+        // Things attached to those entities.
+        if (!entityToList.isEmpty()) {
+            for (Controller c : this.controllers) {
+                if (c instanceof RelationController) {
+                    Relation r = ((RelationController)c).relation;
+                    addAttached(entityToList, r.start.entity, c);
+                    if (r.end.entity != r.start.entity) {
+                        addAttached(entityToList, r.end.entity, c);
+                    }
+                }
+                else if (c instanceof InheritanceController) {
+                    addAttached(entityToList,
+                        ((InheritanceController)c).inheritance.parent, c);
+                }
+            }
+        }
+
+        this.m_controllersByImageKey = map;
+        return map;
+    }
+
+    /** If 'e' is in 'entityToList', add 'c' to its list, unless the
+      * list already has it because 'c' is attached to two entities
+      * using the same image. */
+    private static void addAttached(
+        IdentityHashMap<Entity, ArrayList<Controller> > entityToList,
+        Entity e,
+        Controller c)
+    {
+        if (e == null) {
+            return;
+        }
+        ArrayList<Controller> list = entityToList.get(e);
+        if (list != null && list.get(list.size()-1) != c) {
+            list.add(c);
+        }
+    }
+
+    /** Repaint the part of the window showing 'r', which is in diagram
+      * coordinates. */
+    private void repaintDiagramRect(Rectangle r)
+    {
+        Point p = this.diagramToScreen(r.getLocation());
+        Point q = this.diagramToScreen(new Point(r.x + r.width, r.y + r.height));
+
+        // Allow for rounding and for outlines drawn along the edges.
+        int slop = paintBoundsSlop + 1;
+        this.repaint(p.x - slop, p.y - slop,
+                     q.x - p.x + slop*2, q.y - p.y + slop*2);
+    }
+
+    /** Get the MipMap of the image for 'imageFileName', or null if the
+      * image cannot be loaded or is still loading.  A MipMap is replaced
+      * when its image is, which happens if 'imageCache' evicts and then
+      * reloads it. */
+    public MipMap getImageMipMap(String imageFileName)
+    {
+        Image image = this.getImageIfLoaded(imageFileName);
+        synchronized (this.m_imageMipMaps) {
+            MipMap ret = this.m_imageMipMaps.get(imageFileName);
+            if (ret != null && ret.getLevel(0) == image) {
+                return ret;
+            }
+
+            // Do not keep a MipMap of an image the cache let go of.
+            if (ret != null) {
+                this.m_imageMipMaps.remove(imageFileName);
+                this.m_imageMipMapBytes -= ret.estimateBytes();
+            }
+            if (image == null ||
+                image.getWidth(null) <= 0 ||
+                image.getHeight(null) <= 0)
+            {
+                return null;
+            }
+
+            ret = new MipMap(image);
+            this.m_imageMipMaps.put(imageFileName, ret);
+            this.m_imageMipMapBytes += ret.estimateBytes();
+
+            // Evict the least recently used, but keep the new one even
+            // if it alone exceeds the budget.
+            Iterator<MipMap> it = this.m_imageMipMaps.values().iterator();
+            while (this.m_imageMipMapBytes > imageMipMapByteBudget &&
+                   this.m_imageMipMaps.size() > 1)
+            {
+                this.m_imageMipMapBytes -= it.next().estimateBytes();
+                it.remove();
+            }
+            return ret;
+        }
+    }
 
-        return image;
+    /** Discard all of 'm_imageMipMaps'. */
+    private void clearImageMipMaps()
+    {
+        synchronized (this.m_imageMipMaps) {
+            this.m_imageMipMaps.clear();
+            this.m_imageMipMapBytes = 0;
+        }
     }
 
-    /** Get an image for a file name, not using the cache.  If there
-      * is problem, log it and return null. */
-    private Image innerGetImage(String imageFileName)
+    /** Read the image for 'imageFileName', located at 'imageFile'.
+      * This does not use the DiagramController, so it can run on any
+      * thread.  If there is a problem, the result image is null and the
+      * message says why. */
+    private static ImageLoadResult decodeImage(
+        String imageFileName,
+        File imageFile)
     {
-        File imageFile = getRelativeFile(imageFileName);
+        ImageLoadResult ret = new ImageLoadResult();
 
         // Try to load the file.
         FileInputStream is = null;
@@ -2410,18 +3734,19 @@ public class DiagramController extends JPanel
             // I explicitly create my own InputStream because ImageIO
             // does a poor job of reporting file read errors.
             is = new FileInputStream(imageFile);
-            Image image = ImageIO.read(is);
+            BufferedImage image = ImageIO.read(is);
             if (image == null) {
-                this.log("no registered image reader for: "+imageFile);
-                return null;
+                ret.logMessage = "no registered image reader for: "+imageFile;
+                return ret;
             }
 
-            this.log("loaded: "+imageFileName);
-            return image;
+            // Convert once so that drawing it each frame is fast.
+            ret.image = AWTUtil.toCompatibleImage(image);
+            ret.logMessage = "loaded: "+imageFileName;
         }
         catch (Exception e) {
-            this.log("while loading \""+imageFileName+"\": "+Util.getExceptionMessage(e));
-            return null;
+            ret.logMessage = "while loading \""+imageFileName+"\": "+
+                             Util.getExceptionMessage(e);
         }
         finally {
             if (is != null) {
@@ -2431,6 +3756,7 @@ public class DiagramController extends JPanel
                 catch (IOException e) {/*ignore*/}
             }
         }
+        return ret;
     }
 
     /** Interpret 'fname' as a path relative to the location of the DED
@@ -2459,13 +3785,29 @@ public class DiagramController extends JPanel
     public void reloadEntityImages()
     {
         this.log("image cache cleared at "+(new Date()));
+        this.invalidateRenderKeys();
 
-        this.imageCache.clear();
-
-        // Reloading images might alter size-locked entity sizes.
-        for (Controller c : this.controllers) {
-            c.updateAfterImageReload();
+        // Other diagrams sharing the cache keep their images until they
+        // are reloaded too.
+        for (Entity e : this.diagram.entities) {
+            if (!e.imageFileName.isEmpty()) {
+                this.imageCache.remove(
+                    getImageCacheKey(this.getRelativeFile(e.imageFileName)));
+            }
         }
+        this.clearImageMipMaps();
+
+        // Loads in progress may have read the old files.  Their
+        // results will be ignored.
+        this.m_pendingImages.clear();
+
+        // The rendered entities refer to the old images.
+        this.m_entityImageCache.clear();
+        this.m_scaledImageCache.clear();
+
+        // Reloading images might alter size-locked entity sizes.  That
+        // is handled as each image arrives.
+        this.prefetchEntityImages();
 
         this.repaint();
     }
@@ -2478,6 +3820,75 @@ public class DiagramController extends JPanel
         }
     }
 
+    /** Read the object graph source file again, on a background
+      * thread, and merge it into the current graph.  Only the nodes
+      * that changed are replaced, and only the entities showing them
+      * are repainted. */
+    public void reloadObjectGraphSource()
+    {
+        String fname = this.diagram.m_objectGraphSourceFile;
+        if (fname.isEmpty()) {
+            this.errorMessageBox(
+                "The object graph source file name is empty.  "+
+                "It can be set in the object graph dialog.");
+            return;
+        }
+        if (this.m_objectGraphLoadTask != null) {
+            this.errorMessageBox("The object graph source is already "+
+                                 "being reloaded.");
+            return;
+        }
+
+        final DiagramController ths = this;
+        this.m_objectGraphLoadTask = new ObjectGraphLoadTask(this,
+            this.getRelativeFile(fname),
+            new ObjectGraphLoadTask.Listener() {
+                @Override
+                public void graphLoaded(ObjectGraph graph) {
+                    ths.mergeObjectGraph(graph);
+                }
+
+                @Override
+                public void loadFinished() {
+                    ths.m_objectGraphLoadTask = null;
+                }
+            });
+        this.m_objectGraphLoadTask.start();
+    }
+
+    /** Merge 'graph', just read from the source file, into the diagram's
+      * graph, and report what changed. */
+    private void mergeObjectGraph(ObjectGraph graph)
+    {
+        ObjectGraph.MergeResult result =
+            this.diagram.objectGraph.mergeFrom(graph);
+        if (result.isEmpty()) {
+            this.informationMessageBox("Reload Object Graph Source",
+                "The object graph source has not changed.");
+            return;
+        }
+
+        this.recordDiagramChange("Reload object graph source");
+
+        // Only entities showing affected nodes, or nodes whose incoming
+        // pointers may have changed, can look different.  The others
+        // will find their rendered images in the cache.
+        Set<String> ids = result.getAffectedIDs();
+        ids.addAll(result.m_pointerTargets);
+        for (String id : ids) {
+            ArrayList<EntityController> ecs =
+                this.m_entityControllersByGraphID.get(id);
+            if (ecs != null) {
+                for (EntityController ec : ecs) {
+                    this.repaintDiagramRect(ec.getPaintBounds());
+                }
+            }
+        }
+
+        this.informationMessageBox("Reload Object Graph Source",
+            "Merged the object graph source: "+result.getSummary());
+    }
+
     /** Show the add node dialog. */
     public void addObjectGraphNode()
     {
@@ -2602,6 +4013,7 @@ public class DiagramController extends JPanel
         else {
             this.controllers.addAll(0, selControllers);
         }
+        this.invalidateSpatialIndex();
 
         this.selfCheck();
         this.diagramChanged(localize(front?
@@ -2645,7 +4057,7 @@ public class DiagramController extends JPanel
     /** Return a resource image, using an internal cache. */
     public Image getResourceImage(String resourceName)
     {
-        return this.dedWindow.resourceImageCache.getResourceImage(resourceName);
+        return this.m_resourceImageCache.getResourceImage(resourceName);
     }
 
     /** Swap the endpoint arrowheads for all selected relations. */
@@ -2821,6 +4233,13 @@ public class DiagramController extends JPanel
         return this.diagram.getGraphNode(id);
     }
 
+    /** Get the pointers to the graph node 'id'.  See
+      * ObjectGraph.getIncomingPointers. */
+    public List<IncomingPointerIndex.Ref> getGraphNodeIncomingPointers(String id)
+    {
+        return this.diagram.objectGraph.getIncomingPointers(id);
+    }
+
     /** Get the relevant graph configuration. */
     private ObjectGraphConfig graphConfig()
     {
@@ -2834,13 +4253,10 @@ public class DiagramController extends JPanel
         String id,
         Point newEntityLoc)
     {
-        for (Controller c : this.controllers) {
-            if (c instanceof EntityController) {
-                EntityController ec = (EntityController)c;
-                if (id.equals(ec.entity.objectGraphNodeID)) {
-                    return ec;
-                }
-            }
+        ArrayList<EntityController> list =
+            this.m_entityControllersByGraphID.get(id);
+        if (list != null) {
+            return list.get(0);
         }
 
         return createEntityControllerWithGraphID(id, newEntityLoc);
@@ -2852,11 +4268,9 @@ public class DiagramController extends JPanel
         String id,
         Point newEntityLoc)
     {
-        EntityController ec = EntityController.createEntityAt(this,
+        EntityController ec = this.addEntityControllerWithGraphID(id,
             newEntityLoc);
-        ec.entity.name = graphConfig().getNewNodeName();
-        ec.entity.attributes = graphConfig().getNewNodeAttributes();
-        ec.entity.objectGraphNodeID = id;
+        this.selectOnly(ec);
         this.diagramChanged(
             fmt("Create entity for node ID \"%1$s\" at (%2$d,%3$d)",
                 id, ec.entity.loc.x, ec.entity.loc.y));
@@ -2864,6 +4278,19 @@ public class DiagramController extends JPanel
         return ec;
     }
 
+    /** Make a new entity for graph node 'id' centered at 'center', and
+      * its controller, without selecting it or recording the change. */
+    private EntityController addEntityControllerWithGraphID(
+        String id,
+        Point center)
+    {
+        Entity ent = new Entity();
+        ent.name = graphConfig().getNewNodeName();
+        ent.attributes = graphConfig().getNewNodeAttributes();
+        ent.objectGraphNodeID = id;
+        return EntityController.addEntityAt(this, ent, center);
+    }
+
     /** If there is an existing relation connecting 'fromEntity' to
       * 'toEntity', with 'label', return its controller.  Otherwise make
       * a new one and return its controller. */
@@ -2872,19 +4299,32 @@ public class DiagramController extends JPanel
         Entity toEntity,
         String label)
     {
-        for (Controller c : this.controllers) {
-            if (c instanceof RelationController) {
-                RelationController rc = (RelationController)c;
-
-                if (rc.relation.start.entity == fromEntity &&
-                    rc.relation.end.entity == toEntity &&
-                    rc.relation.label.equals(label))
-                {
-                    return rc;
-                }
-            }
+        ArrayList<RelationController> list =
+            this.m_relationControllersByKey.get(
+                new RelationIndexKey(fromEntity, toEntity, label));
+        if (list != null) {
+            return list.get(0);
         }
 
+        RelationController rc =
+            this.addRelationControllerFromToLabel(fromEntity, toEntity, label);
+
+        this.diagramChanged(
+            fmt("Create relation from %1$s to %2$s with label \"%3$s\"",
+                describeEntityForChange(fromEntity),
+                describeEntityForChange(toEntity),
+                label));
+
+        return rc;
+    }
+
+    /** Make a new relation connecting 'fromEntity' to 'toEntity' with
+      * 'label', and its controller, without recording the change. */
+    private RelationController addRelationControllerFromToLabel(
+        Entity fromEntity,
+        Entity toEntity,
+        String label)
+    {
         Relation r = new Relation(
             new RelationEndpoint(fromEntity),
             new RelationEndpoint(toEntity).
@@ -2892,15 +4332,134 @@ public class DiagramController extends JPanel
         r.label = label;
         this.diagram.relations.add(r);
 
-        RelationController rc = this.buildRelationController(r);
+        return this.buildRelationController(r);
+    }
 
-        this.diagramChanged(
-            fmt("Create relation from %1$s to %2$s with label \"%3$s\"",
-                describeEntityForChange(fromEntity),
-                describeEntityForChange(toEntity),
-                label));
+    /** Ask the user how far to expand the neighborhood of the graph
+      * node shown by 'start', then do so. */
+    public void expandObjectGraphNeighborhood(EntityController start)
+    {
+        ExpandNeighborhoodDialog dialog =
+            new ExpandNeighborhoodDialog(this, graphConfig());
+        if (dialog.exec()) {
+            this.expandObjectGraphNeighborhood(start,
+                dialog.getDepth(),
+                dialog.getOnlyShowFields(),
+                dialog.getMaxNodes());
+        }
+    }
+
+    /** Show the graph nodes within 'depth' pointers of the node shown
+      * by 'start', and the pointers between them, creating whatever
+      * entities and relations are missing as a single change.  If
+      * 'onlyShowFields', only follow pointers named in the graph
+      * configuration's "showFields".  Stop after reaching 'maxNodes'
+      * nodes.
+      *
+      * New entities are placed in one column per depth to the right of
+      * 'start', and become the selection.  Return the number of
+      * entities created. */
+    public int expandObjectGraphNeighborhood(
+        EntityController start,
+        int depth,
+        boolean onlyShowFields,
+        int maxNodes)
+    {
+        String startID = start.entity.objectGraphNodeID;
+        Set<String> keys = null;
+        if (onlyShowFields) {
+            keys = new HashSet<String>(graphConfig().m_showFields);
+        }
+        ObjectGraph.Neighborhood hood =
+            this.diagram.objectGraph.getNeighborhood(startID, depth,
+                keys, maxNodes);
+
+        // Map from node ID to the entity to connect relations to.  Like
+        // 'findOrCreateEntityControllerWithGraphID', use the first
+        // entity when there are several, except at the start.
+        HashMap<String, Entity> idToEntity = new HashMap<String, Entity>();
+        idToEntity.put(startID, start.entity);
+
+        // Find the existing entities and count, for each depth, how
+        // many need to be created, so each column can be centered.
+        HashMap<Integer, Integer> depthToNewCount =
+            new HashMap<Integer, Integer>();
+        for (int i=0; i < hood.m_ids.size(); i++) {
+            String id = hood.m_ids.get(i);
+            ArrayList<EntityController> list =
+                this.m_entityControllersByGraphID.get(id);
+            if (list != null) {
+                idToEntity.put(id, list.get(0).entity);
+            }
+            else {
+                MapUtil.incrementValue(depthToNewCount, hood.m_depths.get(i));
+            }
+        }
 
-        return rc;
+        // Create the missing entities.  As in 'EntityController.
+        // followPointer', leave 50 pixel gaps between columns of
+        // default size entities.
+        int startRight = start.entity.loc.x + start.entity.size.width;
+        int startCenterY = start.entity.loc.y + start.entity.size.height/2;
+        int rowSpacing = new Entity().size.height + 20;
+        HashMap<Integer, Integer> depthToPlaced =
+            new HashMap<Integer, Integer>();
+        ArrayList<EntityController> created =
+            new ArrayList<EntityController>();
+        for (int i=0; i < hood.m_ids.size(); i++) {
+            String id = hood.m_ids.get(i);
+            if (idToEntity.containsKey(id)) {
+                continue;
+            }
+            int d = hood.m_depths.get(i);
+            int row = depthToPlaced.getOrDefault(d, 0);
+            depthToPlaced.put(d, row+1);
+            int rows = depthToNewCount.get(d);
+
+            Point center = new Point(
+                startRight + 100 + (d-1) * 150,
+                startCenterY + (2*row - (rows-1)) * rowSpacing / 2);
+            EntityController ec =
+                this.addEntityControllerWithGraphID(id, center);
+            idToEntity.put(id, ec.entity);
+            created.add(ec);
+        }
+
+        // Create the missing relations.
+        int relationCount = 0;
+        for (ObjectGraph.Neighborhood.Edge edge : hood.m_edges) {
+            Entity from = idToEntity.get(edge.m_sourceID);
+            Entity to = idToEntity.get(edge.m_targetID);
+            if (!this.m_relationControllersByKey.containsKey(
+                    new RelationIndexKey(from, to, edge.m_key))) {
+                this.addRelationControllerFromToLabel(from, to, edge.m_key);
+                relationCount++;
+            }
+        }
+
+        if (!created.isEmpty()) {
+            this.deselectAll_noUpdateAfter();
+            for (EntityController ec : created) {
+                ec.setSelected(SelectionState.SS_SELECTED);
+            }
+            this.normalizeExclusiveSelect();
+        }
+
+        if (!created.isEmpty() || relationCount > 0) {
+            this.diagramChanged(fmt(
+                "Expand neighborhood of %1$s to depth %2$d: "+
+                "%3$d entities and %4$d relations created",
+                describeEntityForChange(start.entity), depth,
+                created.size(), relationCount));
+        }
+
+        if (hood.m_truncated) {
+            this.informationMessageBox("Expand Neighborhood", fmt(
+                "Stopped after reaching %1$,d nodes.  Nodes farther away "+
+                "were not added.", maxNodes));
+        }
+
+        return created.size();
     }
 
     /** Describe 'e' in a way that is suitable for inclusion in a
@@ -2923,74 +4482,101 @@ public class DiagramController extends JPanel
     public boolean hasRelationFromToLabel(
         String fromID, String toID, String label)
     {
-        HashMap<String, ArrayList<Relation> > successors =
-            m_graphEdges.get(fromID);
-        if (successors == null) {
-            return false;
-        }
+        return this.m_graphEdges.containsKey(
+            new GraphEdgeKey(fromID, toID, label));
+    }
 
-        ArrayList<Relation> relations =
-            successors.get(toID);
-        if (relations == null) {
-            return false;
-        }
+    /** Return the point, in diagram coordinates, that is in the center
+        of the visible region. */
+    public Point getViewportCenter()
+    {
+        return this.screenToDiagram(this.getWindowCenter());
+    }
 
-        for (Relation r : relations) {
-            if (label.equals(r.label)) {
-                return true;
-            }
-        }
+    /** Center of the window, in window coordinates. */
+    private Point getWindowCenter()
+    {
+        return new Point(this.getWidth()/2, this.getHeight()/2);
+    }
 
-        return false;
+    /** Return the part of the diagram visible in the window, in diagram
+      * coordinates. */
+    public Rectangle getVisibleDiagramRect()
+    {
+        Point p = this.screenToDiagram(new Point(0, 0));
+        Point q = this.screenToDiagram(new Point(this.getWidth(), this.getHeight()));
+        return new Rectangle(p.x, p.y, q.x - p.x + 1, q.y - p.y + 1);
     }
 
-    /** Recompute 'm_graphEdges'. */
-    private void recomputeGraphEdges()
+    /** Convert 'p' from window coordinates to diagram coordinates. */
+    public Point screenToDiagram(Point p)
     {
-        if (s_traceRecompute) {
-            System.out.println("recomputeGraphEdges");
-        }
+        return new Point(
+            (int)Math.floor(p.x / this.m_zoom + this.m_viewX),
+            (int)Math.floor(p.y / this.m_zoom + this.m_viewY));
+    }
 
-        m_graphEdges =
-            new HashMap<String, HashMap<String, ArrayList<Relation> > >();
+    /** Convert 'p' from diagram coordinates to window coordinates. */
+    public Point diagramToScreen(Point p)
+    {
+        return new Point(
+            (int)Math.round((p.x - this.m_viewX) * this.m_zoom),
+            (int)Math.round((p.y - this.m_viewY) * this.m_zoom));
+    }
 
-        for (Relation r : this.diagram.relations) {
-            String fromID = r.start.getObjectGraphNodeID();
-            String toID = r.end.getObjectGraphNodeID();
+    /** Current zoom factor, in screen pixels per diagram pixel. */
+    public double getZoom()
+    {
+        return this.m_zoom;
+    }
 
-            if (fromID.isEmpty() || toID.isEmpty() || r.label.isEmpty()) {
-                // Skip if any of the three are empty.
-            }
-            else {
-                if (s_traceRecompute) {
-                    System.out.println(fmt(
-                        "  edge: %1$s to %2$s with \"%3$s\"",
-                        fromID, toID, r.label));
-                }
+    /** Scroll the view by ('dx','dy') diagram pixels. */
+    public void scrollBy(double dx, double dy)
+    {
+        this.setViewOrigin(this.m_viewX + dx, this.m_viewY + dy);
+    }
 
-                if (!m_graphEdges.containsKey(fromID)) {
-                    m_graphEdges.put(fromID, new HashMap<String, ArrayList<Relation> >());
-                }
-                HashMap<String, ArrayList<Relation> > successors =
-                    m_graphEdges.get(fromID);
+    /** Zoom in by 'steps', or out if it is negative, keeping the
+      * diagram point at window location 'anchor' in place. */
+    public void zoomBy(int steps, Point anchor)
+    {
+        int newStep = Math.max(minZoomStep,
+                               Math.min(maxZoomStep, this.m_zoomStep + steps));
+        if (newStep == this.m_zoomStep) {
+            return;
+        }
 
-                if (!successors.containsKey(toID)) {
-                    successors.put(toID, new ArrayList<Relation>());
-                }
-                ArrayList<Relation> relations =
-                    successors.get(toID);
+        double ax = anchor.x / this.m_zoom + this.m_viewX;
+        double ay = anchor.y / this.m_zoom + this.m_viewY;
 
-                relations.add(r);
-            }
-        }
+        this.m_zoomStep = newStep;
+        this.m_zoom = Math.pow(2, (double)newStep / zoomStepsPerDoubling);
+
+        this.setViewOrigin(ax - anchor.x / this.m_zoom,
+                           ay - anchor.y / this.m_zoom);
     }
 
-    /** Return the point, in diagram coordinates, that is in the center
-        of the visible region. */
-    public Point getViewportCenter()
+    /** Go back to showing the diagram unscrolled at its actual size. */
+    public void resetView()
     {
-        // Currently I do not have any scrolling capability.
-        return new Point(this.getWidth()/2, this.getHeight()/2);
+        this.m_zoomStep = 0;
+        this.m_zoom = 1.0;
+        this.setViewOrigin(0, 0);
+    }
+
+    /** Set the diagram coordinates of the window's upper-left corner. */
+    private void setViewOrigin(double x, double y)
+    {
+        if (this.m_zoomStep == 0) {
+            // Keep diagram pixels aligned with screen pixels, so text
+            // stays crisp and cached entity images can be copied
+            // directly.
+            x = Math.rint(x);
+            y = Math.rint(y);
+        }
+        this.m_viewX = x;
+        this.m_viewY = y;
+        this.repaint();
     }
 }
 
@@ -50,6 +50,10 @@ public class EditJsonDialog extends ModalDialog {
         if (jsonValue instanceof JSONObject) {
             initialJsonText = ((JSONObject)jsonValue).toString(2 /*indent*/);
         }
+        else if (jsonValue instanceof String) {
+            // Text already prepared by the subclass.
+            initialJsonText = (String)jsonValue;
+        }
         else {
             initialJsonText = ((JSONArray)jsonValue).toString(2 /*indent*/);
         }
@@ -87,10 +91,15 @@ public class EditJsonDialog extends ModalDialog {
     public void okPressed()
     {
         try {
+            String text = m_jsonTextArea.getText();
+            if (processUnparsedText(text)) {
+                super.okPressed();
+                return;
+            }
+
             // Parse using the tokener interface so we can handle either
             // an object or an array.
-            JSONTokener tokener = new JSONTokener(
-                m_jsonTextArea.getText());
+            JSONTokener tokener = new JSONTokener(text);
             Object jsonValue = tokener.nextValue();
 
             if (jsonValue instanceof JSONObject) {
@@ -119,6 +128,16 @@ public class EditJsonDialog extends ModalDialog {
         super.okPressed();
     }
 
+    /** A subclass can override this to accept 'text' without parsing
+        it, for example because it is a stand-in for data that is too
+        large to show.  It returns true if it did so, and false to have
+        'text' parsed as usual.  The base class returns false. */
+    protected boolean processUnparsedText(String text)
+        throws JSONException
+    {
+        return false;
+    }
+
     /** A subclass that uses JSON objects must override this.  It is
         called when the user presses OK, and the JSON text has been
         validated as JSON.
@@ -6,13 +6,17 @@ package ded.ui;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
 import java.awt.Image;
 import java.awt.Point;
 import java.awt.Polygon;
 import java.awt.Rectangle;
+import java.awt.RenderingHints;
 import java.awt.event.ActionEvent;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseEvent;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -23,6 +27,7 @@ import java.util.Set;
 
 import javax.swing.AbstractAction;
 import javax.swing.JMenu;
+import javax.swing.JMenuItem;
 import javax.swing.JPopupMenu;
 
 import org.json.JSONObject;
@@ -31,19 +36,26 @@ import util.IdentityHashSet;
 import util.StringUtil;
 import util.StringVarSubst;
 import util.Util;
-import util.WrapText;
+import util.WrapTextPolicy;
+import util.awt.AWTUtil;
 import util.awt.BitmapFont;
+import util.awt.BoundedImageCache;
 import util.awt.G;
 import util.awt.GeomUtil;
 import util.awt.HorizOrVert;
+import util.awt.MipMap;
+import util.awt.TiledRenderer;
+import util.awt.WrappedTextLayout;
 import util.swing.MenuAction;
 import util.swing.MenuDelegate;
 
+import ded.model.ColorReference;
 import ded.model.Diagram;
 import ded.model.Entity;
 import ded.model.EntityShape;
 import ded.model.HTextAlign;
 import ded.model.ImageFillStyle;
+import ded.model.IncomingPointerIndex;
 import ded.model.ObjectGraphConfig;
 import ded.model.ObjectGraphNode;
 import ded.model.ShapeFlag;
@@ -100,6 +112,55 @@ public class EntityController extends Controller
     /** Color of the non-bevel part of the scroll thumb. */
     public static final Color scrollThumbColor = new Color(220, 220, 220);
 
+    /** Color drawn in place of a fill image that is still loading. */
+    public static final Color imageLoadingColor = new Color(230, 230, 230);
+
+    /** Maximum number of items in the "Follow incoming pointer" menu. */
+    public static final int maxIncomingPointerMenuItems = 30;
+
+    /** RenderProfiler phase name for each entity shape, indexed by
+      * ordinal. */
+    private static final String[] shapeRenderPhases;
+    static {
+        EntityShape[] shapes = EntityShape.values();
+        shapeRenderPhases = new String[shapes.length];
+        for (EntityShape shape : shapes) {
+            shapeRenderPhases[shape.ordinal()] =
+                "entity " + shape.displayName.toLowerCase();
+        }
+    }
+
+    // ----------- private types -------------
+    /** Name and attributes of an entity after variable substitution,
+      * with what they were computed from.  It is immutable so export
+      * tile painters can share it. */
+    private static class DisplayText {
+        /** 'DiagramController.getRenderKeyGeneration' when computed. */
+        public final int generation;
+
+        /** The entity's name and attributes. */
+        public final String name;
+        public final String attributes;
+
+        /** Those after substitution. */
+        public final String displayName;
+        public final String displayAttributes;
+
+        public DisplayText(
+            int generation,
+            String name,
+            String attributes,
+            String displayName,
+            String displayAttributes)
+        {
+            this.generation = generation;
+            this.name = name;
+            this.attributes = attributes;
+            this.displayName = displayName;
+            this.displayAttributes = displayAttributes;
+        }
+    }
+
     // ----------- instance data -------------
     /** The thing being controlled. */
     public Entity entity;
@@ -113,6 +174,43 @@ public class EntityController extends Controller
       * window auto-resize center.  Otherwise, null. */
     public WindowCenterController windowCenterHandle;
 
+    /** Layout of the attribute text from the most recent paint, or
+      * null.  It is recomputed only when the text, available width,
+      * wrap settings, or font change, so resizing one entity does not
+      * re-wrap any others. */
+    private WrappedTextLayout m_attributesLayout;
+
+    /** The string most recently measured by 'drawAlignedText' (this
+      * is normally the name), the font used, and its width.  The
+      * string is null if nothing has been measured. */
+    private String m_measuredText;
+    private BitmapFont m_measuredTextFont;
+    private int m_measuredTextWidth;
+
+    /** The key most recently computed by 'getRenderKey', or null if it
+      * has been invalidated, and the value of 'DiagramController.
+      * getRenderKeyGeneration' at the time.  Painting a clean entity
+      * then needs neither variable substitution nor a new key, and the
+      * cache lookup succeeds on the identity check in
+      * 'EntityRenderKey.equals'. */
+    private EntityRenderKey m_renderKey = null;
+    private int m_renderKeyGeneration = 0;
+
+    /** Name and attributes after variable substitution, or null.  Like
+      * the render key, this is recomputed when the render key
+      * generation changes, which includes any change to the object
+      * graph or the relations, or when the name or attributes do. */
+    private DisplayText m_displayText = null;
+
+    /** Resolved fill, line and text colors. */
+    private ColorReference m_fillColor = new ColorReference();
+    private ColorReference m_lineColor = new ColorReference();
+    private ColorReference m_textColor = new ColorReference();
+
+    /** Graph node ID under which DiagramController has indexed this
+      * controller, or null if it is not indexed. */
+    String m_indexedGraphID = null;
+
     // ----------- public methods -----------
     public EntityController(DiagramController dc, Entity e)
     {
@@ -330,9 +428,31 @@ public class EntityController extends Controller
         HTextAlign halign,
         VTextAlign valign)
     {
+        RenderProfiler profiler = this.diagramController.getRenderProfiler();
+        if (profiler != null) {
+            profiler.enterPhase(RenderProfiler.textPhase);
+        }
+
         Graphics g = g0.create();
         g.setClip(r);
 
+        BitmapFont bitmapFont = this.diagramController.getDiagramFont();
+        Point base = this.getAlignedTextBaseline(r, str, halign, valign);
+        bitmapFont.drawString(g, str, base.x, base.y);
+
+        if (profiler != null) {
+            profiler.exitPhase();
+        }
+    }
+
+    /** Get the left end of the baseline of 'str' when drawn by
+      * 'drawAlignedText'. */
+    private Point getAlignedTextBaseline(
+        Rectangle r,
+        String str,
+        HTextAlign halign,
+        VTextAlign valign)
+    {
         Point center = GeomUtil.getCenter(r);
         BitmapFont bitmapFont = this.diagramController.getDiagramFont();
 
@@ -364,19 +484,272 @@ public class EntityController extends Controller
                 break;
 
             case TA_CENTER:
-                baseX = center.x - bitmapFont.stringWidth(str)/2;
+                baseX = center.x - this.measureText(bitmapFont, str)/2;
                 break;
 
             case TA_RIGHT:
-                baseX = r.x + r.width - horizMargin - bitmapFont.stringWidth(str);
+                baseX = r.x + r.width - horizMargin - this.measureText(bitmapFont, str);
                 break;
         }
 
-        bitmapFont.drawString(g, str, baseX, baseY);
+        return new Point(baseX, baseY);
+    }
+
+    /** Return 'font.stringWidth(str)', reusing the previous result if
+      * the arguments are the same as last time. */
+    private int measureText(BitmapFont font, String str)
+    {
+        if (font != this.m_measuredTextFont || !str.equals(this.m_measuredText)) {
+            this.m_measuredText = str;
+            this.m_measuredTextFont = font;
+            this.m_measuredTextWidth = font.stringWidth(str);
+        }
+        return this.m_measuredTextWidth;
+    }
+
+    /** Get the layout of 'text' as the attributes wrapped to 'width',
+      * reusing the previous layout if nothing relevant changed. */
+    private WrappedTextLayout getAttributesLayout(String text, int width)
+    {
+        BitmapFont font = this.diagramController.getDiagramFont();
+        WrapTextPolicy policy = this.entity.m_attributesWrapTextPolicy;
+        int indent = this.entity.m_attributesWrapTextIndentSpaces;
+
+        if (this.m_attributesLayout == null ||
+            !this.m_attributesLayout.matches(policy, width, indent, text, font))
+        {
+            this.m_attributesLayout =
+                new WrappedTextLayout(policy, width, indent, text, font);
+        }
+        return this.m_attributesLayout;
     }
 
     @Override
     public void paint(Graphics g0)
+    {
+        if (isLowDetail(g0)) {
+            this.paintLowDetail(g0);
+            return;
+        }
+
+        BoundedImageCache<EntityRenderKey> cache =
+            this.diagramController.getEntityImageCache();
+
+        // Selected entities are drawn directly.  The XOR border and the
+        // window resize lines depend on the pixels underneath, and a
+        // selected entity is usually about to change anyway.
+        //
+        // Also bypass the cache when the destination is scaled, since
+        // blitting an unscaled image would lose resolution, and while
+        // the fill image is loading, since the placeholder is brief.
+        // A key with an image shows it has finished loading.
+        if (this.isSelected() || !hasIntegerTranslationOnly(g0)) {
+            this.paintDirectly(g0);
+            return;
+        }
+        EntityRenderKey key = this.getRenderKey();
+        if (key.image == null && this.isImageLoading()) {
+            this.paintDirectly(g0);
+            return;
+        }
+
+        Rectangle bounds = this.getPaintBounds();
+        if (bounds.isEmpty() ||
+            !cache.wantToCache(bounds.width, bounds.height))
+        {
+            this.paintDirectly(g0);
+            return;
+        }
+
+        BufferedImage image = cache.get(key);
+        if (image == null) {
+            // Render into a transparent image whose origin is the
+            // upper-left corner of 'bounds'.
+            image = new BufferedImage(bounds.width, bounds.height,
+                                      BufferedImage.TYPE_INT_ARGB);
+            Graphics2D ig = image.createGraphics();
+            ig.translate(-bounds.x, -bounds.y);
+            this.paintDirectly(ig);
+            ig.dispose();
+
+            cache.put(key, image);
+        }
+
+        g0.drawImage(image, bounds.x, bounds.y, null /*obs*/);
+    }
+
+    /** True if the transform of 'g' is at most an integer translation,
+      * meaning a cached image can be drawn onto it without resampling. */
+    private static boolean hasIntegerTranslationOnly(Graphics g)
+    {
+        if (!(g instanceof Graphics2D)) {
+            return false;
+        }
+        AffineTransform t = ((Graphics2D)g).getTransform();
+        if ((t.getType() & ~AffineTransform.TYPE_TRANSLATION) != 0) {
+            return false;
+        }
+        return t.getTranslateX() == Math.rint(t.getTranslateX()) &&
+               t.getTranslateY() == Math.rint(t.getTranslateY());
+    }
+
+    /** Get the rectangle containing every pixel that 'paintDirectly'
+      * might draw.  This is 'getRect' except for cuboids, whose sides
+      * extend outside it. */
+    @Override
+    public Rectangle getPaintBounds()
+    {
+        Rectangle r = this.getRect();
+        int[] params = this.entity.shapeParams;
+        if (this.entity.shape == EntityShape.ES_CUBOID &&
+            params != null && params.length >= 2)
+        {
+            r = r.union(new Rectangle(r.x - params[0], r.y - params[1],
+                                      r.width, r.height));
+        }
+        return r;
+    }
+
+    /** Get the key that captures everything affecting how this entity
+      * looks, other than its location and selection state.  The key is
+      * remembered until the diagram records a change or this entity's
+      * image is reloaded.
+      *
+      * Concurrent export tile painters may race to compute the key,
+      * but the generation cannot change during an export, and the keys
+      * they compute are equal. */
+    public EntityRenderKey getRenderKey()
+    {
+        EntityRenderKey key = this.m_renderKey;
+        int generation = this.diagramController.getRenderKeyGeneration();
+        if (key == null || this.m_renderKeyGeneration != generation) {
+            key = this.computeRenderKey();
+            this.m_renderKeyGeneration = generation;
+            this.m_renderKey = key;
+        }
+        return key;
+    }
+
+    /** Discard the key remembered by 'getRenderKey' and the text
+      * remembered by 'getDisplayText'. */
+    public void invalidateRenderKey()
+    {
+        this.m_renderKey = null;
+        this.m_displayText = null;
+    }
+
+    /** Compute the key for 'getRenderKey'. */
+    private EntityRenderKey computeRenderKey()
+    {
+        Image image = null;
+        if (!this.entity.imageFileName.isEmpty()) {
+            image = this.diagramController.getImageIfLoaded(
+                this.entity.imageFileName);
+        }
+
+        return new EntityRenderKey(
+            this.entity.size.width,
+            this.entity.size.height,
+            this.entity.shape,
+            this.getFillColor(),
+            this.getLineColor(),
+            this.getTextColor(),
+            this.getEntityNameForDisplay(),
+            this.getEntityAttributesForDisplay(),
+            this.entity.nameHAlign,
+            this.entity.nameVAlign,
+            this.entity.shapeParams,
+            this.entity.shapeFlags,
+            image,
+            this.entity.imageFillStyle,
+            this.entity.m_attributesWrapTextPolicy,
+            this.entity.m_attributesWrapTextIndentSpaces,
+            this.diagramController.getDiagramFont());
+    }
+
+    /** Draw the entity as a rectangle with a bar in place of each line
+      * of text, for when it is too small for the details to be seen. */
+    private void paintLowDetail(Graphics g0)
+    {
+        Graphics g = g0.create();
+        Rectangle r = this.getRect();
+        boolean hasShape = this.entity.shape != EntityShape.ES_NO_SHAPE;
+
+        if (!this.entity.imageFileName.isEmpty()) {
+            RenderProfiler profiler = this.diagramController.getRenderProfiler();
+            if (profiler != null) {
+                profiler.enterPhase(RenderProfiler.imagePhase);
+            }
+            this.drawImageLowDetail(g, r);
+            if (profiler != null) {
+                profiler.exitPhase();
+            }
+        }
+        else if (hasShape && !this.isSelected()) {
+            g.setColor(this.getFillColor());
+            g.fillRect(r.x, r.y, r.width-1, r.height-1);
+        }
+
+        if (hasShape) {
+            g.setColor(this.getLineColor());
+            g.drawRect(r.x, r.y, r.width-1, r.height-1);
+        }
+
+        g.setClip(r.x, r.y, r.width, r.height);
+        g.setColor(this.getTextColor());
+        BitmapFont font = this.diagramController.getDiagramFont();
+        String name = this.getEntityNameForDisplay();
+        String attributes = this.getEntityAttributesForDisplay();
+
+        if (attributes.isEmpty() && this.entity.shape != EntityShape.ES_WINDOW) {
+            Point base = this.getAlignedTextBaseline(r, name,
+                this.entity.nameHAlign, this.entity.nameVAlign);
+            drawTextBar(g, font, base, this.measureText(font, name));
+            return;
+        }
+
+        Rectangle nameRect = new Rectangle(r);
+        nameRect.height = 0;
+        if (!name.isEmpty() || this.entity.shape == EntityShape.ES_WINDOW) {
+            nameRect.height = entityNameHeight;
+            Point base = this.getAlignedTextBaseline(nameRect, name,
+                this.entity.nameHAlign, this.entity.nameVAlign);
+            drawTextBar(g, font, base, this.measureText(font, name));
+        }
+
+        Rectangle attributeRect = new Rectangle(r);
+        attributeRect.y += nameRect.height;
+        attributeRect.height -= nameRect.height;
+        attributeRect = GeomUtil.growRectangle(attributeRect, -entityAttributeMargin);
+        if (attributeRect.width <= 0) {
+            return;
+        }
+        WrappedTextLayout layout =
+            this.getAttributesLayout(attributes, attributeRect.width);
+        int firstBaseline = attributeRect.y + font.getMaxAscent();
+        for (int line=0; line < layout.getNumLines(); line++) {
+            Point base = new Point(attributeRect.x,
+                firstBaseline + layout.getBaselineOffset(line));
+            if (base.y - font.getAscent() > attributeRect.y + attributeRect.height) {
+                break;       // The rest are clipped.
+            }
+            drawTextBar(g, font, base, layout.getLineWidth(line));
+        }
+    }
+
+    /** Draw a bar standing in for 'width' pixels of text in 'font' whose
+      * baseline starts at 'base'. */
+    private static void drawTextBar(Graphics g, BitmapFont font, Point base, int width)
+    {
+        if (width > 0) {
+            // Cover roughly where the lowercase letters are.
+            int ascent = font.getAscent();
+            g.fillRect(base.x, base.y - ascent*3/4, width, Math.max(1, ascent/2));
+        }
+    }
+
+    /** Draw the entity onto 'g0' without consulting the image cache. */
+    private void paintDirectly(Graphics g0)
     {
         Graphics g = g0.create();
 
@@ -398,9 +771,17 @@ public class EntityController extends Controller
         // selection color.
         boolean wantSolidBackground = !this.isSelected();
 
+        RenderProfiler profiler = this.diagramController.getRenderProfiler();
+
         // Image background.
         if (!this.entity.imageFileName.isEmpty()) {
+            if (profiler != null) {
+                profiler.enterPhase(RenderProfiler.imagePhase);
+            }
             this.drawImage(g, r);
+            if (profiler != null) {
+                profiler.exitPhase();
+            }
 
             // Do not draw a solid background; the image will
             // act as the background.
@@ -476,12 +857,12 @@ public class EntityController extends Controller
             case ES_ELLIPSE:
                 if (wantSolidBackground) {
                     g.setColor(this.getFillColor());
-                    g.fillOval(r.x, r.y, r.width-1, r.height-1);
+                    TiledRenderer.fillOval(g, r.x, r.y, r.width-1, r.height-1);
 
                 }
 
                 g.setColor(this.getLineColor());
-                g.drawOval(r.x, r.y, r.width-1, r.height-1);
+                TiledRenderer.drawOval(g, r.x, r.y, r.width-1, r.height-1);
                 break;
 
             case ES_CYLINDER:
@@ -565,17 +946,16 @@ public class EntityController extends Controller
             g2.clipRect(attributeRect.x, attributeRect.y,
                         attributeRect.width, attributeRect.height);
             g2.setColor(this.getTextColor());
-            BitmapFont font = this.diagramController.getDiagramFont();
-            int maxAscent = font.getMaxAscent();
-            font.drawTextWithNewlines(g2,
-                WrapText.wrapText(
-                    this.entity.m_attributesWrapTextPolicy,
-                    attributeRect.width,
-                    this.entity.m_attributesWrapTextIndentSpaces,
-                    entityAttributes,
-                    font),
-                attributeRect.x,
-                attributeRect.y + maxAscent);
+            if (profiler != null) {
+                profiler.enterPhase(RenderProfiler.textPhase);
+            }
+            WrappedTextLayout layout =
+                this.getAttributesLayout(entityAttributes, attributeRect.width);
+            layout.draw(g2, attributeRect.x,
+                        attributeRect.y + layout.font.getMaxAscent());
+            if (profiler != null) {
+                profiler.exitPhase();
+            }
         }
 
         // Try to make sure selected objects are noticeable, even when
@@ -633,22 +1013,189 @@ public class EntityController extends Controller
         }
     }
 
+    /** True if the fill image is being loaded in the background. */
+    private boolean isImageLoading()
+    {
+        return !this.entity.imageFileName.isEmpty() &&
+               this.diagramController.isImageLoading(this.entity.imageFileName);
+    }
+
     /** Draw the named image onto 'g' in 'r'. */
     public void drawImage(Graphics g, Rectangle r)
     {
-        Image image = this.diagramController.getImage(this.entity.imageFileName);
+        Image image =
+            this.diagramController.getImageIfLoaded(this.entity.imageFileName);
         if (image == null) {
-            this.drawBrokenImageIndicator(g, r);
+            this.drawMissingImageIndicator(g, r);
+            return;
+        }
+
+        if (this.drawPreparedImage(g, r, image)) {
+            return;
+        }
+        this.drawImageFill(g, r, image, image.getWidth(null),
+                           image.getHeight(null), 1.0, 1.0);
+    }
+
+    /** Like 'drawImage', but use the reduced copy of the image that
+      * suits the scale of 'g'. */
+    private void drawImageLowDetail(Graphics g, Rectangle r)
+    {
+        Image image =
+            this.diagramController.getImageIfLoaded(this.entity.imageFileName);
+        if (image != null && this.drawPreparedImage(g, r, image)) {
+            return;
+        }
+
+        MipMap mipMap =
+            this.diagramController.getImageMipMap(this.entity.imageFileName);
+        if (mipMap == null) {
+            this.drawMissingImageIndicator(g, r);
             return;
         }
 
+        // Screen pixels per image pixel.
+        double scale = Math.sqrt(Math.abs(
+            ((Graphics2D)g).getTransform().getDeterminant()));
+        if (this.entity.imageFillStyle == ImageFillStyle.IFS_STRETCH) {
+            scale *= Math.max((double)r.width / mipMap.getWidth(),
+                              (double)r.height / mipMap.getHeight());
+        }
+
+        Image source = mipMap.getImageForScale(scale);
+        this.drawImageFill(g, r, source, mipMap.getWidth(), mipMap.getHeight(),
+            (double)source.getWidth(null) / mipMap.getWidth(),
+            (double)source.getHeight(null) / mipMap.getHeight());
+    }
+
+    /** If the image fill style is IFS_STRETCH or IFS_TILE, draw 'image'
+      * in 'r' by copying a version of it already stretched or tiled to
+      * the right size, preparing that first if it is not in the cache,
+      * and return true.  Return false for other styles, and when the
+      * prepared image would be too big to cache. */
+    private boolean drawPreparedImage(Graphics g, Rectangle r, Image image)
+    {
         ImageFillStyle ifs = this.entity.imageFillStyle;
         int imageWidth = image.getWidth(null);
         int imageHeight = image.getHeight(null);
+        if ((ifs != ImageFillStyle.IFS_STRETCH && ifs != ImageFillStyle.IFS_TILE) ||
+            imageWidth <= 0 || imageHeight <= 0 || r.isEmpty())
+        {
+            return false;
+        }
+
+        // A stretched image is prepared at the size it will have on
+        // the screen, so it is copied without further scaling.  Tiles
+        // are composed at their natural size.
+        int width = r.width;
+        int height = r.height;
+        if (ifs == ImageFillStyle.IFS_STRETCH && g instanceof Graphics2D) {
+            AffineTransform t = ((Graphics2D)g).getTransform();
+            if (t.getShearX() != 0 || t.getShearY() != 0) {
+                return false;
+            }
+            width = Math.max(1, (int)Math.round(r.width * Math.abs(t.getScaleX())));
+            height = Math.max(1, (int)Math.round(r.height * Math.abs(t.getScaleY())));
+        }
+
+        BoundedImageCache<ScaledImageKey> cache =
+            this.diagramController.getScaledImageCache();
+        if (!cache.wantToCache(width, height)) {
+            return false;
+        }
+
+        ScaledImageKey key = new ScaledImageKey(image, ifs, width, height);
+        BufferedImage prepared = cache.get(key);
+        if (prepared == null) {
+            prepared = (ifs == ImageFillStyle.IFS_STRETCH?
+                this.stretchImage(image, width, height) :
+                tileImage(image, width, height));
+            cache.put(key, prepared);
+        }
+
+        g.drawImage(prepared, r.x, r.y, r.x + r.width, r.y + r.height,
+                    0,0, width, height, null);
+        return true;
+    }
+
+    /** Return 'image', which is the entity's fill image, stretched to
+      * 'width' by 'height'. */
+    private BufferedImage stretchImage(Image image, int width, int height)
+    {
+        int imageWidth = image.getWidth(null);
+        int imageHeight = image.getHeight(null);
+
+        BufferedImage ret = AWTUtil.createCompatibleImage(
+            width, height, AWTUtil.getTransparency(image));
+        Graphics2D g = ret.createGraphics();
+        try {
+            if (width < imageWidth || height < imageHeight) {
+                // Shrink from the reduced copy closest in size, blending
+                // pixels, rather than sampling scattered pixels of the
+                // original.
+                MipMap mipMap =
+                    this.diagramController.getImageMipMap(this.entity.imageFileName);
+                if (mipMap != null) {
+                    image = mipMap.getImageForScale(Math.max(
+                        (double)width / imageWidth,
+                        (double)height / imageHeight));
+                }
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                                   RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            }
+            g.drawImage(image, 0, 0, width, height,
+                        0, 0, image.getWidth(null), image.getHeight(null), null);
+        }
+        finally {
+            g.dispose();
+        }
+        return ret;
+    }
+
+    /** Return an image of 'width' by 'height' covered by copies of
+      * 'image', starting at the upper left. */
+    private static BufferedImage tileImage(Image image, int width, int height)
+    {
+        int imageWidth = image.getWidth(null);
+        int imageHeight = image.getHeight(null);
+
+        BufferedImage ret = AWTUtil.createCompatibleImage(
+            width, height, AWTUtil.getTransparency(image));
+        Graphics2D g = ret.createGraphics();
+        try {
+            for (int x = 0; x < width; x += imageWidth) {
+                for (int y = 0; y < height; y += imageHeight) {
+                    g.drawImage(image, x, y, null);
+                }
+            }
+        }
+        finally {
+            g.dispose();
+        }
+        return ret;
+    }
+
+    /** Draw the entity's image in 'r' according to its fill style.  The
+      * image is 'imageWidth' by 'imageHeight', but 'source' may be a
+      * copy of it scaled by 'sourceScaleX' and 'sourceScaleY'. */
+    private void drawImageFill(
+        Graphics g,
+        Rectangle r,
+        Image source,
+        int imageWidth,
+        int imageHeight,
+        double sourceScaleX,
+        double sourceScaleY)
+    {
+        ImageFillStyle ifs = this.entity.imageFillStyle;
         if (imageWidth < 0 || imageHeight < 0) {
             ifs = ImageFillStyle.IFS_UPPER_LEFT;      // fallback
         }
 
+        // Source coordinates of the whole image.
+        int sw = scaleSourceCoord(imageWidth, sourceScaleX, source.getWidth(null));
+        int sh = scaleSourceCoord(imageHeight, sourceScaleY, source.getHeight(null));
+
         switch (ifs) {
             case IFS_UPPER_LEFT:
             case IFS_LOCK_SIZE: {
@@ -670,35 +1217,62 @@ public class EntityController extends Controller
                 // The API docs do not say that it is ok to pass null
                 // as the observer, but I saw code that did it online,
                 // and so far it seems to work.
-                g.drawImage(image, r.x, r.y, r.x + w, r.y + h,
-                                   0,0, w, h, null);
+                g.drawImage(source, r.x, r.y, r.x + w, r.y + h,
+                    0,0,
+                    scaleSourceCoord(w, sourceScaleX, source.getWidth(null)),
+                    scaleSourceCoord(h, sourceScaleY, source.getHeight(null)),
+                    null);
                 break;
             }
 
             case IFS_CENTER:
-                g.drawImage(image, r.x + r.width/2 - imageWidth/2,
-                                   r.y + r.height/2 - imageHeight/2,
-                                   r.x + r.width/2 + imageWidth/2,
-                                   r.y + r.height/2 + imageHeight/2,
-                                   0,0, imageWidth, imageHeight, null);
+                g.drawImage(source, r.x + r.width/2 - imageWidth/2,
+                                    r.y + r.height/2 - imageHeight/2,
+                                    r.x + r.width/2 + imageWidth/2,
+                                    r.y + r.height/2 + imageHeight/2,
+                                    0,0, sw, sh, null);
                 break;
 
             case IFS_STRETCH:
-                g.drawImage(image, r.x, r.y, r.x+r.width, r.y+r.height,
-                                   0,0, imageWidth, imageHeight, null);
+                g.drawImage(source, r.x, r.y, r.x+r.width, r.y+r.height,
+                                    0,0, sw, sh, null);
                 break;
 
             case IFS_TILE:
                 for (int x = r.x; x < r.x+r.width; x += imageWidth) {
-                    for (int y = r.y; y < r.y+r.height; y += imageWidth) {
-                        g.drawImage(image, x, y, x+imageWidth, y+imageHeight,
-                                    0,0, imageWidth, imageHeight, null);
+                    for (int y = r.y; y < r.y+r.height; y += imageHeight) {
+                        g.drawImage(source, x, y, x+imageWidth, y+imageHeight,
+                                    0,0, sw, sh, null);
                     }
                 }
                 break;
         }
     }
 
+    /** Convert 'v', a coordinate in an image, to the corresponding
+      * coordinate in a copy scaled by 'scale' that is 'limit' pixels
+      * across. */
+    private static int scaleSourceCoord(int v, double scale, int limit)
+    {
+        if (scale == 1.0) {
+            return v;
+        }
+        return Math.min(limit, (int)Math.ceil(v * scale));
+    }
+
+    /** Draw a placeholder in 'r' if the image is still loading,
+      * otherwise the broken image indicator. */
+    private void drawMissingImageIndicator(Graphics g, Rectangle r)
+    {
+        if (this.isImageLoading()) {
+            g.setColor(imageLoadingColor);
+            g.fillRect(r.x, r.y, r.width, r.height);
+        }
+        else {
+            this.drawBrokenImageIndicator(g, r);
+        }
+    }
+
     /** Draw an indicator on 'r' that we could not load the image. */
     private void drawBrokenImageIndicator(Graphics g0, Rectangle r)
     {
@@ -713,24 +1287,30 @@ public class EntityController extends Controller
         g.drawLine(r.x+w, r.y, r.x, r.y+h);
     }
 
+    @Override
+    public String getRenderPhase()
+    {
+        return shapeRenderPhases[this.entity.shape.ordinal()];
+    }
+
     /** Get the color to use to fill this Entity. */
     public Color getFillColor()
     {
-        return this.diagramController.diagram.getNamedColor(
+        return this.m_fillColor.get(this.diagramController.diagram,
             this.entity.fillColor, fallbackEntityFillColor);
     }
 
     /** Get the color to use to draw Entity lines. */
     public Color getLineColor()
     {
-        return this.diagramController.diagram.getNamedColor(
+        return this.m_lineColor.get(this.diagramController.diagram,
             this.entity.lineColor, fallbackEntityLineColor);
     }
 
     /** Get the color to use to draw text inside the Entity. */
     public Color getTextColor()
     {
-        return this.diagramController.diagram.getNamedColor(
+        return this.m_textColor.get(this.diagramController.diagram,
             this.entity.textColor, Color.BLACK);
     }
 
@@ -777,7 +1357,7 @@ public class EntityController extends Controller
 
         // Fill it and draw its edges.
         g.setColor(this.getFillColor());
-        g.fillPolygon(p);
+        TiledRenderer.fillPolygon(g, p);
         g.setColor(this.getLineColor());
         g.drawPolygon(p);
 
@@ -797,12 +1377,12 @@ public class EntityController extends Controller
             // but experimentation shows that if I do not do that,
             // then I get fill color pixels peeking out from behind
             // the outline.
-            g.fillOval(r.x, r.y,
-                       r.width - 1, entityNameHeight - 1);
+            TiledRenderer.fillOval(g, r.x, r.y,
+                                   r.width - 1, entityNameHeight - 1);
 
             // Fill lower ellipse.
-            g.fillOval(r.x, r.y + r.height - entityNameHeight,
-                       r.width - 1, entityNameHeight - 1);
+            TiledRenderer.fillOval(g, r.x, r.y + r.height - entityNameHeight,
+                                   r.width - 1, entityNameHeight - 1);
 
             // Fill rectangle between them.
             g.fillRect(r.x, r.y + entityNameHeight/2,
@@ -812,13 +1392,13 @@ public class EntityController extends Controller
         g.setColor(this.getLineColor());
 
         // Draw upper ellipse.
-        g.drawOval(r.x, r.y,
-                   r.width-1, entityNameHeight-1);
+        TiledRenderer.drawOval(g, r.x, r.y,
+                               r.width-1, entityNameHeight-1);
 
         // Draw lower ellipse, lower half of it.
-        g.drawArc(r.x, r.y + r.height - entityNameHeight,
-                  r.width-1, entityNameHeight-1,
-                  180, 180);
+        TiledRenderer.drawArc(g, r.x, r.y + r.height - entityNameHeight,
+                              r.width-1, entityNameHeight-1,
+                              180, 180);
 
         // Draw left side.
         g.drawLine(r.x, r.y + entityNameHeight/2,
@@ -1079,7 +1659,7 @@ public class EntityController extends Controller
     {
         final EntityController ths = this;
 
-        // Used mnemonic letters: afglnopstx
+        // Used mnemonic letters: aefgilnopstx
 
         JMenu fillColorMenu = new JMenu("Set fill color");
         fillColorMenu.setMnemonic(KeyEvent.VK_F);
@@ -1175,6 +1755,43 @@ public class EntityController extends Controller
         }
         menu.add(pointerMenu);
 
+        JMenu incomingMenu = new JMenu("Follow incoming pointer");
+        incomingMenu.setMnemonic(KeyEvent.VK_I);
+        List<IncomingPointerIndex.Ref> incoming = getFollowableIncomingPointers();
+        if (!incoming.isEmpty()) {
+            // A popular node can have thousands of referrers, more than
+            // a menu can usefully show.
+            int shown = Math.min(incoming.size(), maxIncomingPointerMenuItems);
+            for (final IncomingPointerIndex.Ref ref : incoming.subList(0, shown)) {
+                incomingMenu.add(new MenuAction(ref.toString()) {
+                    public void actionPerformed(ActionEvent e) {
+                        ths.followIncomingPointer(ref);
+                    }
+                });
+            }
+            if (shown < incoming.size()) {
+                JMenuItem more = new JMenuItem(
+                    fmt("(%,d more)", incoming.size() - shown));
+                more.setEnabled(false);
+                incomingMenu.add(more);
+            }
+        }
+        else {
+            incomingMenu.setEnabled(false);
+        }
+        menu.add(incomingMenu);
+
+        MenuAction expandAction =
+            new MenuAction("Expand neighborhood...", KeyEvent.VK_E) {
+                public void actionPerformed(ActionEvent e) {
+                    ths.diagramController.expandObjectGraphNeighborhood(ths);
+                }
+            };
+        if (getGraphNode() == null) {
+            expandAction.setEnabled(false);
+        }
+        menu.add(expandAction);
+
         MenuAction showNodeDetailsAction =
             new MenuAction("Show object node details", KeyEvent.VK_N) {
                 public void actionPerformed(ActionEvent e) {
@@ -1239,7 +1856,18 @@ public class EntityController extends Controller
     public static EntityController createEntityAt(
         DiagramController dc, Point p)
     {
-        Entity ent = new Entity();
+        EntityController ec = addEntityAt(dc, new Entity(), p);
+        dc.selectOnly(ec);
+
+        return ec;
+    }
+
+    /** Move 'ent', which is not yet in the diagram, so it is centered
+      * at 'p', subject to snap, and add it and a new controller for it
+      * to 'dc', without changing the selection. */
+    public static EntityController addEntityAt(
+        DiagramController dc, Entity ent, Point p)
+    {
         ent.loc = GeomUtil.snapPoint(new Point(p.x - ent.size.width/2,
                                                p.y - ent.size.height/2),
                                      DiagramController.SNAP_DIST);
@@ -1247,7 +1875,6 @@ public class EntityController extends Controller
 
         EntityController ec = new EntityController(dc, ent);
         dc.add(ec);
-        dc.selectOnly(ec);
 
         return ec;
     }
@@ -1358,6 +1985,9 @@ public class EntityController extends Controller
                               this.entity)) {
             this.updateAfterImageReload();
 
+            // The graph node ID might have changed.
+            this.diagramController.reindexController(this);
+
             // Make sure the presence or absence of resize handles
             // is consistent with the image fill style.
             this.setSelected(this.selState);
@@ -1382,6 +2012,7 @@ public class EntityController extends Controller
     @Override
     public void updateAfterImageReload()
     {
+        this.invalidateRenderKey();
         if (this.entity.imageFillStyle == ImageFillStyle.IFS_LOCK_SIZE) {
             Dimension imageDim = this.getImageDimension();
             if (imageDim != null) {
@@ -1449,18 +2080,46 @@ public class EntityController extends Controller
       * as the entity name, but is different for a graph node. */
     public String getEntityNameForDisplay()
     {
-        return substituteVariableReferences(this.entity.name);
+        return this.getDisplayText().displayName;
     }
 
     /** Get the text for the attributes box. */
     public String getEntityAttributesForDisplay()
     {
-        return substituteVariableReferences(this.entity.attributes);
+        return this.getDisplayText().displayAttributes;
+    }
+
+    /** Get 'm_displayText', recomputing it if it is out of date. */
+    private DisplayText getDisplayText()
+    {
+        DisplayText dt = this.m_displayText;
+        int generation = this.diagramController.getRenderKeyGeneration();
+
+        // The strings are compared by identity; an equal new string
+        // merely costs a recomputation.
+        if (dt == null ||
+            dt.generation != generation ||
+            dt.name != this.entity.name ||
+            dt.attributes != this.entity.attributes)
+        {
+            // With compact graph storage, each lookup makes a new copy
+            // of the node, so look it up only once.
+            ObjectGraphNode node = this.getGraphNode();
+            dt = new DisplayText(generation,
+                this.entity.name, this.entity.attributes,
+                this.substituteVariableReferences(this.entity.name, node),
+                this.substituteVariableReferences(this.entity.attributes, node));
+            this.m_displayText = dt;
+        }
+        return dt;
     }
 
     /** Replace "$(varName)" variable references in 'hasVarRefs' with
-      * their values according to 'getVariableValue'. */
-    public String substituteVariableReferences(String hasVarRefs)
+      * their values according to 'getVariableValue', where 'node' is
+      * our graph node or null. */
+    public String substituteVariableReferences(
+        String hasVarRefs,
+        final ObjectGraphNode node)
     {
         // Only attempt substitutions if a graph node ID is set.
         if (!this.entity.hasObjectGraphNodeID()) {
@@ -1471,7 +2130,8 @@ public class EntityController extends Controller
             new StringVarSubst.Replacer() {
                 public String getVar(String varName)
                 {
-                    return EntityController.this.getVariableValue(varName);
+                    return EntityController.this.getVariableValue(
+                        varName, node);
                 }
             });
     }
@@ -1483,15 +2143,17 @@ public class EntityController extends Controller
 
           $(graphNode<name>): Perform some computation specified by
           "<name>".  See 'getGraphNodeComputation'.
+
+        'node' is our graph node, or null if there is none.
     */
-    public String getVariableValue(String varName)
+    public String getVariableValue(String varName, ObjectGraphNode node)
     {
         if (varName.startsWith("graphNode.")) {
-            return getGraphNodeAttribute(varName.substring(10));
+            return getGraphNodeAttribute(varName.substring(10), node);
         }
 
         else if (varName.startsWith("graphNode")) {
-            return getGraphNodeComputation(varName.substring(9));
+            return getGraphNodeComputation(varName.substring(9), node);
         }
 
         else {
@@ -1499,10 +2161,10 @@ public class EntityController extends Controller
         }
     }
 
-    /** Look up 'attrName' in the node attributes. */
-    public String getGraphNodeAttribute(String attrName)
+    /** Look up 'attrName' in the attributes of 'node', our graph node
+      * or null. */
+    public String getGraphNodeAttribute(String attrName, ObjectGraphNode node)
     {
-        ObjectGraphNode node = getGraphNode();
         if (node == null) {
             return fmt("<no node with ID: \"%1$s\">",
                        this.entity.objectGraphNodeID);
@@ -1515,14 +2177,14 @@ public class EntityController extends Controller
 
     /** Do one of a set of specified computations relating to the
         associated object graph node.  The specification is in
-        resources/helptext/EntityDialog-objectGraphNodeID.txt. */
-    public String getGraphNodeComputation(String name)
+        resources/helptext/EntityDialog-objectGraphNodeID.txt.  'node'
+        is our graph node, or null. */
+    public String getGraphNodeComputation(String name, ObjectGraphNode node)
     {
         if (name.equals("ID")) {
             return this.entity.objectGraphNodeID;
         }
 
-        ObjectGraphNode node = getGraphNode();
         if (node == null) {
             return fmt("<no node with ID: \"%1$s\">",
                        this.entity.objectGraphNodeID);
@@ -1536,6 +2198,10 @@ public class EntityController extends Controller
             return getGraphNodeFollowablePtrsString(node);
         }
 
+        else if (name.equals("IncomingPtrs")) {
+            return getGraphNodeIncomingPtrsString(node);
+        }
+
         else if (name.equals("AttributesAndPtrs")) {
             return getGraphNodeAttributesString(node) +
                    getGraphNodeFollowablePtrsString(node);
@@ -1587,6 +2253,18 @@ public class EntityController extends Controller
         return String.join("\n", lines);
     }
 
+    /** Get a list of newline-separated pointers to 'node' from other
+      * nodes, whether or not they are shown as edges. */
+    public String getGraphNodeIncomingPtrsString(ObjectGraphNode node)
+    {
+        ArrayList<String> lines = new ArrayList<String>();
+        for (IncomingPointerIndex.Ref ref :
+                 this.diagramController.getGraphNodeIncomingPointers(node.m_id)) {
+            lines.add(ref.key + ": <- " + ref.sourceID);
+        }
+        return String.join("\n", lines);
+    }
+
     /** If this entity is associated with a graph node, get it.
       * Otherwise, return null. */
     public ObjectGraphNode getGraphNode()
@@ -1639,6 +2317,27 @@ public class EntityController extends Controller
         return followable;
     }
 
+    /** Return the pointers to our node that we could follow
+      * backwards, sorted by source node ID and then pointer name. */
+    public List<IncomingPointerIndex.Ref> getFollowableIncomingPointers()
+    {
+        ArrayList<IncomingPointerIndex.Ref> followable =
+            new ArrayList<IncomingPointerIndex.Ref>();
+        if (getGraphNode() == null) {
+            return followable;
+        }
+
+        String myID = this.entity.objectGraphNodeID;
+        for (IncomingPointerIndex.Ref ref :
+                 this.diagramController.getGraphNodeIncomingPointers(myID)) {
+            if (!this.diagramController.hasRelationFromToLabel(
+                    ref.sourceID, myID, ref.key)) {
+                followable.add(ref);
+            }
+        }
+        return followable;
+    }
+
     /** Get the relevant graph configuration. */
     private ObjectGraphConfig gConfig()
     {
@@ -1694,6 +2393,37 @@ public class EntityController extends Controller
         this.diagramController.selectOnly(toEntityController);
     }
 
+    /** Create an entity and edge corresponding to the pointer 'ref'
+      * that points at our node. */
+    private void followIncomingPointer(IncomingPointerIndex.Ref ref)
+    {
+        if (this.diagramController.getGraphNode(ref.sourceID) == null) {
+            this.diagramController.errorMessageBox(
+                fmt("followIncomingPointer: No node in graph for ID \"%1$s\".",
+                    ref.sourceID));
+            return;
+        }
+
+        // If we need to create the entity, put its center 100 pixels to
+        // the left of the one we already have, leaving a 50 pixel gap as
+        // in 'followPointer'.
+        Point sourceLoc = new Point(
+            this.entity.loc.x - 100,
+            this.entity.loc.y + this.entity.size.height/2);
+
+        EntityController fromEntityController =
+            this.diagramController.findOrCreateEntityControllerWithGraphID(
+                ref.sourceID,
+                sourceLoc);
+
+        this.diagramController.findOrCreateRelationControllerFromToLabel(
+            fromEntityController.entity,
+            this.entity,
+            ref.key);
+
+        this.diagramController.selectOnly(fromEntityController);
+    }
+
     /** Show all of the object node details. */
     private void showNodeDetails()
     {
@@ -1782,6 +2512,7 @@ public class EntityController extends Controller
         int ct = this.diagramController.diagram.
             fixObjectGraphEntityNeighbors(this.entity);
         if (ct > 0) {
+            this.diagramController.rebuildGraphIndexes();
             this.diagramController.diagramChanged(fmt(
                 "Fixed %d neighbors of entity with graph node ID %s",
                 ct,
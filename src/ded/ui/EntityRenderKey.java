@@ -0,0 +1,154 @@
+// EntityRenderKey.java
+// See toplevel license.txt for copyright and license terms.
+
+package ded.ui;
+
+import java.awt.Color;
+import java.awt.Image;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Objects;
+
+import util.WrapTextPolicy;
+import util.awt.BitmapFont;
+
+import ded.model.EntityShape;
+import ded.model.HTextAlign;
+import ded.model.ImageFillStyle;
+import ded.model.ShapeFlag;
+import ded.model.VTextAlign;
+
+/** The complete set of inputs that determine how an unselected entity
+  * looks, independent of its location.  Two entities with equal keys
+  * render identically (up to translation), so this is used as the key
+  * for the rendered entity image cache.
+  *
+  * All fields are copies or immutable values so that later changes to
+  * the Entity do not affect a key that is already in the cache. */
+public class EntityRenderKey {
+    // ---------------- instance data ------------------
+    public final int width;
+    public final int height;
+    public final EntityShape shape;
+
+    /** Colors after resolving names through the diagram. */
+    public final Color fillColor;
+    public final Color lineColor;
+    public final Color textColor;
+
+    /** Name and attributes after variable substitution. */
+    public final String displayName;
+    public final String displayAttributes;
+
+    public final HTextAlign nameHAlign;
+    public final VTextAlign nameVAlign;
+
+    /** Copy of the shape parameters, possibly null. */
+    public final int[] shapeParams;
+
+    /** Copy of the shape flags. */
+    public final EnumSet<ShapeFlag> shapeFlags;
+
+    /** The fill image, compared by identity, or null if none. */
+    public final Image image;
+
+    public final ImageFillStyle imageFillStyle;
+    public final WrapTextPolicy wrapTextPolicy;
+    public final int wrapTextIndentSpaces;
+
+    /** The font, compared by identity. */
+    public final BitmapFont font;
+
+    /** Hash of all of the above, computed once. */
+    private final int m_hashCode;
+
+    // ------------------- methods ---------------------
+    public EntityRenderKey(
+        int width,
+        int height,
+        EntityShape shape,
+        Color fillColor,
+        Color lineColor,
+        Color textColor,
+        String displayName,
+        String displayAttributes,
+        HTextAlign nameHAlign,
+        VTextAlign nameVAlign,
+        int[] shapeParams,
+        EnumSet<ShapeFlag> shapeFlags,
+        Image image,
+        ImageFillStyle imageFillStyle,
+        WrapTextPolicy wrapTextPolicy,
+        int wrapTextIndentSpaces,
+        BitmapFont font)
+    {
+        this.width = width;
+        this.height = height;
+        this.shape = shape;
+        this.fillColor = fillColor;
+        this.lineColor = lineColor;
+        this.textColor = textColor;
+        this.displayName = displayName;
+        this.displayAttributes = displayAttributes;
+        this.nameHAlign = nameHAlign;
+        this.nameVAlign = nameVAlign;
+        this.shapeParams = (shapeParams == null? null : shapeParams.clone());
+        this.shapeFlags = shapeFlags.clone();
+        this.image = image;
+        this.imageFillStyle = imageFillStyle;
+        this.wrapTextPolicy = wrapTextPolicy;
+        this.wrapTextIndentSpaces = wrapTextIndentSpaces;
+        this.font = font;
+
+        int h = Objects.hash(
+            this.width, this.height, this.shape,
+            this.fillColor, this.lineColor, this.textColor,
+            this.displayName, this.displayAttributes,
+            this.nameHAlign, this.nameVAlign,
+            this.shapeFlags, this.imageFillStyle,
+            this.wrapTextPolicy, this.wrapTextIndentSpaces);
+        h = h*31 + Arrays.hashCode(this.shapeParams);
+        h = h*31 + System.identityHashCode(this.image);
+        h = h*31 + System.identityHashCode(this.font);
+        this.m_hashCode = h;
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || obj.getClass() != this.getClass()) {
+            return false;
+        }
+        EntityRenderKey k = (EntityRenderKey)obj;
+        return this.m_hashCode == k.m_hashCode &&
+               this.width == k.width &&
+               this.height == k.height &&
+               this.shape == k.shape &&
+               this.fillColor.equals(k.fillColor) &&
+               this.lineColor.equals(k.lineColor) &&
+               this.textColor.equals(k.textColor) &&
+               this.displayName.equals(k.displayName) &&
+               this.displayAttributes.equals(k.displayAttributes) &&
+               this.nameHAlign == k.nameHAlign &&
+               this.nameVAlign == k.nameVAlign &&
+               Arrays.equals(this.shapeParams, k.shapeParams) &&
+               this.shapeFlags.equals(k.shapeFlags) &&
+               this.image == k.image &&
+               this.imageFillStyle == k.imageFillStyle &&
+               this.wrapTextPolicy == k.wrapTextPolicy &&
+               this.wrapTextIndentSpaces == k.wrapTextIndentSpaces &&
+               this.font == k.font;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return this.m_hashCode;
+    }
+}
+
+// EOF
@@ -0,0 +1,133 @@
+// ExpandNeighborhoodDialog.java
+// See toplevel license.txt for copyright and license terms.
+
+package ded.ui;
+
+import java.awt.Component;
+
+import javax.swing.Box;
+import javax.swing.JCheckBox;
+import javax.swing.JTextField;
+
+import util.Util;
+
+import util.swing.ModalDialog;
+import util.swing.SwingUtil;
+
+import ded.model.ObjectGraphConfig;
+
+
+/** Dialog to choose how far DiagramController.
+  * expandObjectGraphNeighborhood goes. */
+public class ExpandNeighborhoodDialog extends ModalDialog {
+    // ---- private class data ----
+    private static final long serialVersionUID = 4923005386211650818L;
+
+    /** The values last accepted, used as the initial values next time. */
+    private static int s_depth = 2;
+    private static int s_maxNodes = 1000;
+    private static boolean s_onlyShowFields = false;
+
+    // ---- private instance data ----
+    /** Values chosen when Ok is pressed. */
+    private int m_depth;
+    private int m_maxNodes;
+    private boolean m_onlyShowFields;
+
+    // Controls.
+    private JTextField m_depthText;
+    private JTextField m_maxNodesText;
+    private JCheckBox m_onlyShowFieldsCheckBox;
+
+    // ---- methods ----
+    public ExpandNeighborhoodDialog(Component parent, ObjectGraphConfig config)
+    {
+        super(parent, "Expand Neighborhood");
+
+        Box vb = ModalDialog.makeMarginVBox(this, ModalDialog.OUTER_MARGIN);
+
+        // Don't let the dialog layout get too small.
+        vb.add(Box.createHorizontalStrut(300));
+
+        m_depthText = ModalDialog.makeLineEdit(vb,
+            "Depth", 'd', String.valueOf(s_depth));
+        vb.add(ModalDialog.makeVCPadStrut());
+
+        m_maxNodesText = ModalDialog.makeLineEdit(vb,
+            "Maximum nodes", 'm', String.valueOf(s_maxNodes));
+        vb.add(ModalDialog.makeVCPadStrut());
+
+        {
+            Box hb = ModalDialog.makeHBox(vb);
+            m_onlyShowFieldsCheckBox =
+                new JCheckBox("Only follow pointers in showFields");
+            m_onlyShowFieldsCheckBox.setMnemonic('o');
+            if (config.m_showFields.isEmpty()) {
+                // Then the configuration does not restrict anything.
+                m_onlyShowFieldsCheckBox.setEnabled(false);
+            }
+            else {
+                m_onlyShowFieldsCheckBox.setSelected(s_onlyShowFields);
+            }
+            hb.add(m_onlyShowFieldsCheckBox);
+            hb.add(Box.createHorizontalGlue());
+        }
+        vb.add(ModalDialog.makeVCPadStrut());
+
+        m_helpText = Util.readResourceString_joinAdjacentLines(
+            "/resources/helptext/ExpandNeighborhoodDialog.txt");
+
+        this.finishBuildingDialog(vb);
+    }
+
+    @Override
+    public void okPressed()
+    {
+        // Validate first.
+        int depth, maxNodes;
+        try {
+            depth = Integer.parseInt(m_depthText.getText().trim());
+            maxNodes = Integer.parseInt(m_maxNodesText.getText().trim());
+        }
+        catch (NumberFormatException e) {
+            SwingUtil.errorMessageBox(this,
+                "Depth and maximum nodes must be integers.");
+            return;
+        }
+        if (depth < 1 || maxNodes < 1) {
+            SwingUtil.errorMessageBox(this,
+                "Depth and maximum nodes must be at least 1.");
+            return;
+        }
+
+        m_depth = s_depth = depth;
+        m_maxNodes = s_maxNodes = maxNodes;
+        m_onlyShowFields = m_onlyShowFieldsCheckBox.isSelected();
+        if (m_onlyShowFieldsCheckBox.isEnabled()) {
+            s_onlyShowFields = m_onlyShowFields;
+        }
+
+        super.okPressed();
+    }
+
+    /** Number of pointers to follow from the start node. */
+    public int getDepth()
+    {
+        return m_depth;
+    }
+
+    /** Number of nodes after which to stop. */
+    public int getMaxNodes()
+    {
+        return m_maxNodes;
+    }
+
+    /** True to only follow pointers named in "showFields". */
+    public boolean getOnlyShowFields()
+    {
+        return m_onlyShowFields;
+    }
+}
+
+
+// EOF
@@ -0,0 +1,74 @@
+// GraphEdgeKey.java
+// See toplevel license.txt for copyright and license terms.
+
+package ded.ui;
+
+import ded.model.Relation;
+
+/** Identifies an edge between object graph nodes that a relation can
+  * represent: the IDs of its start and end nodes, and its label, which
+  * is the pointer name.  This is the key for the set of such edges
+  * shown in the diagram. */
+public class GraphEdgeKey {
+    // ---------------- instance data ------------------
+    public final String fromID;
+    public final String toID;
+    public final String label;
+
+    /** Hash of the three strings, computed once since keys are looked
+      * up while painting. */
+    private final int m_hash;
+
+    // ------------------- methods ---------------------
+    public GraphEdgeKey(String fromID, String toID, String label)
+    {
+        this.fromID = fromID;
+        this.toID = toID;
+        this.label = label;
+        this.m_hash = (fromID.hashCode() * 31 + toID.hashCode()) * 31 +
+                      label.hashCode();
+    }
+
+    /** Return the key of the edge 'r' represents, or null if it does
+      * not represent one because an endpoint lacks a graph node ID or
+      * it has no label. */
+    public static GraphEdgeKey fromRelation(Relation r)
+    {
+        String fromID = r.start.getObjectGraphNodeID();
+        String toID = r.end.getObjectGraphNodeID();
+        if (fromID.isEmpty() || toID.isEmpty() || r.label.isEmpty()) {
+            return null;
+        }
+        return new GraphEdgeKey(fromID, toID, r.label);
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || obj.getClass() != this.getClass()) {
+            return false;
+        }
+        GraphEdgeKey k = (GraphEdgeKey)obj;
+        return this.m_hash == k.m_hash &&
+               this.fromID.equals(k.fromID) &&
+               this.toID.equals(k.toID) &&
+               this.label.equals(k.label);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return this.m_hash;
+    }
+
+    @Override
+    public String toString()
+    {
+        return this.fromID+" to "+this.toID+" with \""+this.label+"\"";
+    }
+}
+
+// EOF
@@ -19,6 +19,7 @@ import java.util.Set;
 import util.IntRange;
 import util.awt.GeomUtil;
 import util.awt.HorizOrVert;
+import util.awt.TiledRenderer;
 import util.swing.SwingUtil;
 
 import ded.model.Diagram;
@@ -176,6 +177,13 @@ public class InheritanceController extends Controller {
         return bounds;
     }
 
+    @Override
+    public Rectangle getPaintBounds()
+    {
+        // The line to the parent starts on the parent's boundary.
+        return super.getPaintBounds().union(this.inheritance.parent.getRect());
+    }
+
     @Override
     public void paint(Graphics g0)
     {
@@ -191,7 +199,7 @@ public class InheritanceController extends Controller {
         // Triangle interior?
         if (!this.inheritance.open) {
             g.setColor(inheritFillColor);
-            g.fillPolygon(trianglePolygon);
+            TiledRenderer.fillPolygon(g, trianglePolygon);
         }
 
         // Triangle outline.
@@ -224,6 +232,12 @@ public class InheritanceController extends Controller {
         }
     }
 
+    @Override
+    public String getRenderPhase()
+    {
+        return RenderProfiler.inheritancePhase;
+    }
+
     @Override
     public void mousePressed(MouseEvent ev)
     {
@@ -32,8 +32,29 @@ public class ObjectGraphDialog extends EditJsonDialog {
         be edited. */
     private DiagramController m_diagramController;
 
+    /** Source files larger than this many bytes are not shown as text
+        after loading, since the text area cannot cope with them. */
+    private static final long maxShownSourceBytes = 10L << 20;
+
+    /** Likewise, graphs with more nodes than this are not shown. */
+    private static final int maxShownNodes = 20000;
+
     // Controls.
     private JTextField m_sourceFileNameField;
+    private JButton m_loadButton;
+
+    /** Graph most recently loaded from the source file, or, if the
+        text area initially shows a note standing in for the diagram's
+        graph, that graph; otherwise null. */
+    private ObjectGraph m_loadedGraph;
+
+    /** Text put into the text area to show 'm_loadedGraph'.  If the
+        text area still has it when OK or Load is pressed,
+        'm_loadedGraph' is used without parsing the text. */
+    private String m_loadedGraphText;
+
+    /** Load running in the background, or null. */
+    private ObjectGraphLoadTask m_loadTask;
 
     // ---- methods ----
     public ObjectGraphDialog(DiagramController diagramController)
@@ -43,10 +64,18 @@ public class ObjectGraphDialog extends EditJsonDialog {
             "Object Graph",
             Util.readResourceString_joinAdjacentLines(
                 "/resources/helptext/ObjectGraphDialog.txt"),
-            diagramController.diagram.objectGraph.toJSON());
+            getInitialValue(diagramController.diagram.objectGraph));
 
         m_diagramController = diagramController;
 
+        ObjectGraph graph = getDiagram().objectGraph;
+        if (graph.m_nodes.size() > maxShownNodes) {
+            // The text area has the note, so use the graph directly
+            // unless that is edited.
+            m_loadedGraph = graph;
+            m_loadedGraphText = m_jsonTextArea.getText();
+        }
+
         final ObjectGraphDialog ths = this;
 
         // Used: mnemonics: hls
@@ -66,15 +95,15 @@ public class ObjectGraphDialog extends EditJsonDialog {
 
             hb.add(makeHCPadStrut());
 
-            JButton loadButton = new JButton("Load");
-            loadButton.setMnemonic('l');
-            loadButton.addActionListener(new ActionListener() {
+            m_loadButton = new JButton("Load");
+            m_loadButton.setMnemonic('l');
+            m_loadButton.addActionListener(new ActionListener() {
                 @Override
                 public void actionPerformed(ActionEvent e) {
                     ths.loadButtonPressed();
                 }
             });
-            hb.add(loadButton);
+            hb.add(m_loadButton);
 
             hb.add(makeHCPadStrut());
 
@@ -87,11 +116,39 @@ public class ObjectGraphDialog extends EditJsonDialog {
         this.finishBuildingDialog(vb);
     }
 
+    /** Return the JSON to initially show for 'graph', or a note
+        standing in for it if it is too large to show. */
+    private static Object getInitialValue(ObjectGraph graph)
+        throws JSONException
+    {
+        if (graph.m_nodes.size() > maxShownNodes) {
+            return fmt(
+                "(The graph has %,d nodes.  That is too many to show "+
+                "here, but pressing OK will keep them.)\n",
+                graph.m_nodes.size());
+        }
+        return graph.toJSON();
+    }
+
     private Diagram getDiagram()
     {
         return m_diagramController.diagram;
     }
 
+    @Override
+    protected boolean processUnparsedText(String text)
+    {
+        // Use the loaded graph directly if the text has not been
+        // edited since it was loaded.
+        if (m_loadedGraph != null && text.equals(m_loadedGraphText)) {
+            Diagram d = getDiagram();
+            d.objectGraph = m_loadedGraph;
+            d.m_objectGraphSourceFile = m_sourceFileNameField.getText();
+            return true;
+        }
+        return false;
+    }
+
     @Override
     protected boolean processEditedJSONObject(JSONObject json)
         throws JSONException
@@ -105,56 +162,116 @@ public class ObjectGraphDialog extends EditJsonDialog {
         return true;
     }
 
-    /** Respond to the user pressing the Load button. */
+    /** Return the graph the text area currently describes, or null if
+        it does not describe one. */
+    private ObjectGraph getEditedGraph()
+    {
+        String text = m_jsonTextArea.getText();
+        if (m_loadedGraph != null && text.equals(m_loadedGraphText)) {
+            return m_loadedGraph;
+        }
+
+        try {
+            return new ObjectGraph(JSONUtil.readObjectFromString(text));
+        }
+        catch (Exception e) {
+            return null;
+        }
+    }
+
+    /** Respond to the user pressing the Load button.  The file is read
+        on a background thread, with a progress dialog that allows
+        cancelling. */
     private void loadButtonPressed()
     {
-        String fname = m_sourceFileNameField.getText();
+        final String fname = m_sourceFileNameField.getText();
         if (fname.isEmpty()) {
             SwingUtil.errorMessageBox(this,
                 "The source file name is empty.");
             return;
         }
 
-        // First read the existing data so we can compare it to the new
-        // data.
-        JSONObject oldGraphObj = null;
-        try {
-            oldGraphObj = JSONUtil.readObjectFromString(
-                m_jsonTextArea.getText());
-        }
-        catch (Exception e) {
-            // Ignore, thereby leaving 'oldGraphObj' as null, and hence
-            // not equal to whatever we read from the source file.
-        }
+        // First get the existing data so we can compare it to the new
+        // data.  If that fails, 'oldGraph' is null, and hence not equal
+        // to whatever we read from the source file.
+        final ObjectGraph oldGraph = getEditedGraph();
 
         // Now load the new data.
-        File sourceFile = m_diagramController.getRelativeFile(fname);
-        try {
-            JSONObject newGraphObj =
-                JSONUtil.readObjectFromFile(sourceFile);
-
-            if (JSONUtil.equalJSONObjects(oldGraphObj, newGraphObj)) {
-                SwingUtil.informationMessageBox(this, "Load Graph Data",
-                    fmt("The existing graph data is the same as what "+
-                        "was loaded from \"%s\" (when compared as JSON), "+
-                        "so has been discarded.",
-                        fname));
-                return;
-            }
+        final File sourceFile = m_diagramController.getRelativeFile(fname);
+        m_loadButton.setEnabled(false);
+
+        final ObjectGraphDialog ths = this;
+        m_loadTask = new ObjectGraphLoadTask(this, sourceFile,
+            new ObjectGraphLoadTask.Listener() {
+                @Override
+                public void graphLoaded(ObjectGraph graph) {
+                    if (ths.isDisplayable()) {
+                        ths.finishLoad(fname, sourceFile, oldGraph, graph);
+                    }
+                }
 
-            // Update the control to contain the new data.
-            m_jsonTextArea.setText(newGraphObj.toString(2 /*indent*/));
+                @Override
+                public void loadFinished() {
+                    ths.m_loadTask = null;
+                    ths.m_loadButton.setEnabled(true);
+                }
+            });
+        m_loadTask.start();
+    }
 
+    /** Show 'newGraph', just loaded from 'sourceFile', unless it is the
+        same as 'oldGraph'. */
+    private void finishLoad(
+        String fname,
+        File sourceFile,
+        ObjectGraph oldGraph,
+        ObjectGraph newGraph)
+    {
+        if (newGraph.equals(oldGraph)) {
             SwingUtil.informationMessageBox(this, "Load Graph Data",
-                fmt("Loaded new data from \"%s\".",
+                fmt("The existing graph data is the same as what "+
+                    "was loaded from \"%s\" (the same nodes, with the "+
+                    "same attributes and pointers), so has been discarded.",
                     fname));
+            return;
         }
-        catch (Exception e) {
-            SwingUtil.errorMessageBox(this, fmt(
-                "While reading \"%s\": %s",
-                sourceFile.toString(),
-                Util.getExceptionMessage(e)));
+
+        // Update the control to contain the new data, or a note
+        // standing in for it if it is too large to show.
+        m_loadedGraph = newGraph;
+        if (sourceFile.length() > maxShownSourceBytes ||
+            newGraph.m_nodes.size() > maxShownNodes)
+        {
+            m_loadedGraphText = fmt(
+                "(%,d nodes were loaded from \"%s\".  That is too many to "+
+                "show here, but pressing OK will use them.)\n",
+                newGraph.m_nodes.size(),
+                fname);
+        }
+        else {
+            try {
+                m_loadedGraphText = newGraph.toJSON().toString(2 /*indent*/);
+            }
+            catch (JSONException e) {
+                SwingUtil.errorMessageBox(this, Util.getExceptionMessage(e));
+                return;
+            }
+        }
+        m_jsonTextArea.setText(m_loadedGraphText);
+
+        SwingUtil.informationMessageBox(this, "Load Graph Data",
+            fmt("Loaded new data from \"%s\".",
+                fname));
+    }
+
+    @Override
+    public void dispose()
+    {
+        // Stop any load in progress since its result would be ignored.
+        if (m_loadTask != null) {
+            m_loadTask.cancel();
         }
+        super.dispose();
     }
 
     /** Show the dialog, waiting until the user closes the dialog before
@@ -0,0 +1,134 @@
+// ObjectGraphLoadTask.java
+// See toplevel license.txt for copyright and license terms.
+
+package ded.ui;
+
+import java.awt.Component;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+
+import java.io.File;
+
+import java.util.concurrent.ExecutionException;
+
+import javax.swing.ProgressMonitor;
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
+
+import util.Util;
+import util.swing.SwingUtil;
+
+import ded.model.ObjectGraph;
+import ded.model.ObjectGraphImporter;
+
+import static util.StringUtil.fmt;
+
+/** Reads an object graph file on a background thread, showing a
+  * progress dialog whose Cancel button stops the read. */
+public class ObjectGraphLoadTask {
+    // ---------------- public types ------------------
+    /** Receiver of the result, called on the event dispatch thread. */
+    public static interface Listener {
+        /** The file was read successfully. */
+        public void graphLoaded(ObjectGraph graph);
+
+        /** The read ended for any reason, including failure and
+          * cancellation.  This is called after 'graphLoaded'. */
+        public void loadFinished();
+    }
+
+    // ---------------- instance data ------------------
+    /** Window the progress and error dialogs belong to. */
+    private Component m_parent;
+
+    /** File being read. */
+    private File m_file;
+
+    private Listener m_listener;
+
+    /** The reader, which reports progress and can be cancelled. */
+    private ObjectGraphImporter m_importer = new ObjectGraphImporter();
+
+    // ------------------- methods ---------------------
+    public ObjectGraphLoadTask(Component parent, File file, Listener listener)
+    {
+        this.m_parent = parent;
+        this.m_file = file;
+        this.m_listener = listener;
+    }
+
+    /** Begin reading.  This returns immediately. */
+    public void start()
+    {
+        final ObjectGraphImporter importer = this.m_importer;
+
+        final ProgressMonitor monitor = new ProgressMonitor(this.m_parent,
+            fmt("Loading \"%s\"", this.m_file.getName()), "", 0, 1000);
+        final Timer timer = new Timer(200, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (monitor.isCanceled()) {
+                    importer.cancel();
+                    return;
+                }
+                long total = importer.getTotalBytes();
+                long read = importer.getBytesRead();
+                if (total > 0) {
+                    monitor.setProgress((int)(Math.min(read, total) * 1000 / total));
+                }
+                monitor.setNote(fmt("%,d nodes, %,d of %,d KB",
+                    importer.getNodeCount(), read >> 10, total >> 10));
+            }
+        });
+        timer.start();
+
+        final ObjectGraphLoadTask ths = this;
+        SwingWorker<ObjectGraph, Void> worker = new SwingWorker<ObjectGraph, Void>() {
+            @Override
+            protected ObjectGraph doInBackground()
+                throws Exception
+            {
+                ObjectGraph graph = importer.importFile(ths.m_file);
+
+                // Do this here rather than while merging on the event
+                // dispatch thread.
+                graph.computeContentHashes();
+                return graph;
+            }
+
+            @Override
+            protected void done()
+            {
+                timer.stop();
+                monitor.close();
+                try {
+                    if (!importer.isCancelled()) {
+                        ths.m_listener.graphLoaded(this.get());
+                    }
+                }
+                catch (ExecutionException e) {
+                    // 'importFile' only throws Exceptions.
+                    SwingUtil.errorMessageBox(ths.m_parent, fmt(
+                        "While reading \"%s\": %s",
+                        ths.m_file.toString(),
+                        Util.getExceptionMessage((Exception)e.getCause())));
+                }
+                catch (InterruptedException e) {
+                    // Not expected since the work is done.
+                }
+                finally {
+                    ths.m_listener.loadFinished();
+                }
+            }
+        };
+        worker.execute();
+    }
+
+    /** Stop reading.  'graphLoaded' will not be called. */
+    public void cancel()
+    {
+        this.m_importer.cancel();
+    }
+}
+
+// EOF
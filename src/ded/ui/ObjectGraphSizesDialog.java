@@ -207,7 +207,7 @@ public class ObjectGraphSizesDialog extends ModalDialog {
 
         // Remove the unused.
         for (String id : toRemove) {
-            graph.m_nodes.remove(id);
+            graph.removeNode(id);
         }
 
         return toRemove.size();
@@ -87,7 +87,8 @@ public class RelationControlPointController extends ResizeController {
             });
 
             // Show the popup menu.  This does *not* wait for the choice to be made.
-            menu.show(this.diagramController, ev.getPoint().x, ev.getPoint().y);
+            Point p = this.diagramController.diagramToScreen(ev.getPoint());
+            menu.show(this.diagramController, p.x, p.y);
         }
     }
 
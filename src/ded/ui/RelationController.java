@@ -18,6 +18,8 @@ import java.awt.geom.Line2D;
 import java.awt.geom.Point2D;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.Set;
@@ -31,11 +33,13 @@ import util.Util;
 import util.awt.BitmapFont;
 import util.awt.GeomUtil;
 import util.awt.HorizOrVert;
+import util.awt.TiledRenderer;
 import util.swing.MenuAction;
 import util.swing.MenuDelegate;
 import util.swing.SwingUtil;
 
 import ded.model.ArrowStyle;
+import ded.model.ColorReference;
 import ded.model.Diagram;
 import ded.model.Entity;
 import ded.model.Relation;
@@ -52,6 +56,45 @@ public class RelationController extends Controller {
     public static final int relationBoundsSlop = 10;
     public static final int relationLabelOffset = 4;
 
+    // ---------------------- private types ---------------------
+    /** Geometry of an arrowhead, ready to draw. */
+    private static class Arrowhead {
+        /** For AS_FILLED_TRIANGLE, the triangle to fill.  Otherwise null. */
+        public GeneralPath filled;
+
+        /** For AS_DOUBLE_ANGLE, the line segments to draw, as a
+          * sequence of (x1,y1,x2,y2) groups.  Otherwise null. */
+        public int[] lines;
+    }
+
+    /** The result of routing the relation, along with the inputs that
+      * produced it. */
+    private static class Route {
+        /** Values returned by 'getRouteInputs' when this was computed.
+          * The route is valid as long as those have not changed. */
+        public int[] inputs;
+
+        /** Result of 'computePoints'. */
+        public ArrayList<Point> points;
+
+        /** Result of 'getBounds'. */
+        public Set<Polygon> bounds;
+
+        /** Arrowheads at the start and end, or null if none is drawn. */
+        public Arrowhead startArrowhead;
+        public Arrowhead endArrowhead;
+
+        /** Inputs to the label placement calculation, which is done
+          * when first painted since it depends on the font.  'label'
+          * is null if the placement has not been computed. */
+        public String label;
+        public BitmapFont labelFont;
+        public int labelSegment;
+
+        /** Point at which to center the label, or null to not draw it. */
+        public Point labelCenter;
+    }
+
     // -------------------- instance data -----------------------
     /** The Relation we are controlling. */
     public Relation relation;
@@ -64,6 +107,22 @@ public class RelationController extends Controller {
       * all of the interior control points.  Otherwise it is null. */
     public RelationControlPointController[] controlPointHandle;
 
+    /** Most recently computed route, or null.  It is shared by hit
+      * testing and painting, and recomputed when 'getRouteInputs'
+      * changes. */
+    private Route m_route;
+
+    /** Resolved line and text colors. */
+    private ColorReference m_lineColor = new ColorReference();
+    private ColorReference m_textColor = new ColorReference();
+
+    /** Key under which DiagramController has indexed this controller,
+      * or null if it is not indexed. */
+    RelationIndexKey m_indexKey = null;
+
+    /** Graph edge this relation is counted as representing, or null. */
+    GraphEdgeKey m_graphEdgeKey = null;
+
     // ----------------------- methods -------------------------
     public RelationController(DiagramController dc, Relation r)
     {
@@ -229,18 +288,97 @@ public class RelationController extends Controller {
     @Override
     public Set<Polygon> getBounds()
     {
-        ArrayList<Point> points = this.computePoints();
+        return Collections.unmodifiableSet(this.getRoute().bounds);
+    }
 
-        if (points.size() == 1) {
-            return getSelfLoopBounds(points.get(0));
+    /** Append to 'inputs', starting at 'n', the values describing the
+      * geometry of 're' that affect routing.  Return the new 'n'. */
+    private static int addEndpointInputs(int[] inputs, int n, RelationEndpoint re)
+    {
+        if (re.isEntity()) {
+            inputs[n++] = 0;
+            inputs[n++] = re.entity.loc.x;
+            inputs[n++] = re.entity.loc.y;
+            inputs[n++] = re.entity.size.width;
+            inputs[n++] = re.entity.size.height;
+        }
+        else {
+            // Inheritances and points are both represented by a single
+            // point, which 'getCenter' returns.
+            Point c = re.getCenter();
+            inputs[n++] = re.isInheritance()? 1 : 2;
+            inputs[n++] = c.x;
+            inputs[n++] = c.y;
+            inputs[n++] = 0;
+            inputs[n++] = 0;
+        }
+        inputs[n++] = re.arrowStyle.ordinal();
+        return n;
+    }
+
+    /** Return an array of all of the values that 'computePoints' and
+      * the arrowhead geometry depend on.  This includes the geometry of
+      * the entities and inheritances at the ends, which are modified in
+      * many places without notifying the relations attached to them,
+      * so a cached route is validated against these values rather than
+      * being explicitly invalidated. */
+    private int[] getRouteInputs()
+    {
+        ArrayList<Point> cpts = this.relation.controlPts;
+        int[] inputs = new int[14 + cpts.size()*2];
+        int n = 0;
+        inputs[n++] = this.relation.routingAlg.ordinal();
+        n = addEndpointInputs(inputs, n, this.relation.start);
+        n = addEndpointInputs(inputs, n, this.relation.end);
+        inputs[n++] = cpts.size();
+        for (Point cp : cpts) {
+            inputs[n++] = cp.x;
+            inputs[n++] = cp.y;
         }
+        assert(n == inputs.length);
+        return inputs;
+    }
 
-        // Enclose each segment with a rectangle.
-        HashSet<Polygon> bounds = new HashSet<Polygon>();
-        for (int i=1; i < points.size(); i++) {
-            bounds.add(getSegmentBounds(points.get(i-1), points.get(i)));
+    /** Get the current route, recomputing it if its inputs changed. */
+    private Route getRoute()
+    {
+        int[] inputs = this.getRouteInputs();
+        if (this.m_route != null && Arrays.equals(this.m_route.inputs, inputs)) {
+            return this.m_route;
         }
-        return bounds;
+
+        Route route = new Route();
+        route.inputs = inputs;
+        route.points = this.computePoints();
+
+        ArrayList<Point> points = route.points;
+        int nPoints = points.size();
+        if (nPoints == 1) {
+            route.bounds = getSelfLoopBounds(points.get(0));
+        }
+        else {
+            // Enclose each segment with a rectangle.
+            HashSet<Polygon> bounds = new HashSet<Polygon>();
+            for (int i=1; i < nPoints; i++) {
+                bounds.add(getSegmentBounds(points.get(i-1), points.get(i)));
+            }
+            route.bounds = bounds;
+        }
+
+        if (nPoints >= 2) {
+            route.startArrowhead = computeArrowhead(
+                points.get(1), points.get(0), this.relation.start.arrowStyle);
+
+            // No arrowhead at the end of an inheritance.
+            if (!this.relation.end.isInheritance()) {
+                route.endArrowhead = computeArrowhead(
+                    points.get(nPoints-2), points.get(nPoints-1),
+                    this.relation.end.arrowStyle);
+            }
+        }
+
+        this.m_route = route;
+        return route;
     }
 
     /** Compute the sequence of points that determine the line segments
@@ -270,13 +408,40 @@ public class RelationController extends Controller {
       * The color is the current color of 'g0'. */
     private static void drawArrowhead(Graphics g0, Point start, Point end, ArrowStyle arrowStyle)
     {
-        if (arrowStyle == ArrowStyle.AS_NONE) {
+        drawArrowhead(g0, computeArrowhead(start, end, arrowStyle));
+    }
+
+    /** Draw 'arrowhead', which may be null, in the current color of 'g0'. */
+    private static void drawArrowhead(Graphics g0, Arrowhead arrowhead)
+    {
+        if (arrowhead == null) {
             return;
         }
 
         // Copy the Graphics object so settings changes are not persistent.
         Graphics2D g = (Graphics2D)g0.create();
 
+        if (arrowhead.filled != null) {
+            TiledRenderer.fill(g, arrowhead.filled);
+        }
+        else {
+            int[] lines = arrowhead.lines;
+            for (int i=0; i+3 < lines.length; i += 4) {
+                g.drawLine(lines[i], lines[i+1], lines[i+2], lines[i+3]);
+            }
+        }
+    }
+
+    /** Compute the geometry of the arrowhead that 'drawArrowhead'
+      * would draw for the same arguments, or null if none is drawn. */
+    private static Arrowhead computeArrowhead(Point start, Point end, ArrowStyle arrowStyle)
+    {
+        if (arrowStyle == ArrowStyle.AS_NONE) {
+            return null;
+        }
+
+        Arrowhead ret = new Arrowhead();
+
         // Then the arrowhead.  First, calculate the main arrow body vector
         // with the origin at 'end', pointing towards 'start'.
         Point2D.Double body =
@@ -328,13 +493,13 @@ public class RelationController extends Controller {
             Point2D.Double upPoint = GeomUtil.add(endFloat, up);
             Point2D.Double downPoint = GeomUtil.add(endFloat, down);
 
-            // Fill the arrowhead.
+            // The arrowhead to fill.
             GeneralPath pts = new GeneralPath();
             pts.moveTo(endFloat.x, endFloat.y);
             pts.lineTo(upPoint.x, upPoint.y);
             pts.lineTo(downPoint.x, downPoint.y);
             pts.closePath();
-            g.fill(pts);
+            ret.filled = pts;
         }
 
         else {
@@ -356,8 +521,6 @@ public class RelationController extends Controller {
             // Arrowhead nearest 'end'.
             Point upPoint = GeomUtil.add(end, GeomUtil.toPoint(up));
             Point downPoint = GeomUtil.add(end, GeomUtil.toPoint(down));
-            g.drawLine(end.x, end.y, upPoint.x, upPoint.y);
-            g.drawLine(end.x, end.y, downPoint.x, downPoint.y);
 
             // Second arrowhead.
             //
@@ -365,11 +528,18 @@ public class RelationController extends Controller {
             // aesthestics of the painted result.
             Point end2 = new Point(end.x + (int)(body.x * 2/3),
                                    end.y + (int)(body.y * 2/3));
-            upPoint = GeomUtil.add(end2, GeomUtil.toPoint(up));
-            downPoint = GeomUtil.add(end2, GeomUtil.toPoint(down));
-            g.drawLine(end2.x, end2.y, upPoint.x, upPoint.y);
-            g.drawLine(end2.x, end2.y, downPoint.x, downPoint.y);
+            Point upPoint2 = GeomUtil.add(end2, GeomUtil.toPoint(up));
+            Point downPoint2 = GeomUtil.add(end2, GeomUtil.toPoint(down));
+
+            ret.lines = new int[] {
+                end.x, end.y, upPoint.x, upPoint.y,
+                end.x, end.y, downPoint.x, downPoint.y,
+                end2.x, end2.y, upPoint2.x, upPoint2.y,
+                end2.x, end2.y, downPoint2.x, downPoint2.y,
+            };
         }
+
+        return ret;
     }
 
     @Override
@@ -378,7 +548,8 @@ public class RelationController extends Controller {
         super.paint(g0);
         Graphics2D g = (Graphics2D)g0.create();
 
-        ArrayList<Point> points = computePoints();
+        Route route = this.getRoute();
+        ArrayList<Point> points = route.points;
         if (points.isEmpty()) {
             return;      // defensive; should not happen
         }
@@ -453,51 +624,106 @@ public class RelationController extends Controller {
             g.drawPolyline(xPoints, yPoints, nPoints);
         }
 
+        // When zoomed far out, the arrowheads and label would be
+        // specks, so just show the line.
+        if (isLowDetail(g)) {
+            return;
+        }
+
         // Solid line for arrow heads.
         g.setStroke(new BasicStroke(lineWidth));
 
-        // Arrowhead at start.
-        {
-            Point first = points.get(0);
-            Point second = points.get(1);
-            drawArrowhead(g, second, first, this.relation.start.arrowStyle);
-        }
+        // Arrowheads at start and end (the latter is null for an
+        // inheritance).
+        drawArrowhead(g, route.startArrowhead);
+        drawArrowhead(g, route.endArrowhead);
 
-        // Arrowhead at end, if not an inheritance.
-        if (!this.relation.end.isInheritance()) {
-            Point secondToLast = points.get(nPoints-2);
-            Point last = points.get(nPoints-1);
-            drawArrowhead(g, secondToLast, last, this.relation.end.arrowStyle);
+        // Label near midpoint of nth segment.
+        BitmapFont font = this.diagramController.getDiagramFont();
+        this.placeLabel(route, font);
+        if (route.labelCenter != null) {
+            RenderProfiler profiler = this.diagramController.getRenderProfiler();
+            if (profiler != null) {
+                profiler.enterPhase(RenderProfiler.textPhase);
+            }
+            g.setColor(this.getTextColor());
+            font.drawCenteredText(g, route.labelCenter, route.label);
+            if (profiler != null) {
+                profiler.exitPhase();
+            }
         }
+    }
 
-        // Label near midpoint of nth segment.
+    /** Compute the label fields of 'route' for the current label and
+      * 'font', unless they are already up to date. */
+    private void placeLabel(Route route, BitmapFont font)
+    {
+        int n = this.relation.labelSegmentNumber;
+        if (!this.relation.label.equals(route.label) ||
+            font != route.labelFont ||
+            n != route.labelSegment)
         {
-            int n = this.relation.labelSegmentNumber;
+            route.label = this.relation.label;
+            route.labelFont = font;
+            route.labelSegment = n;
+            route.labelCenter = null;
             if (n < 0) {
                 // Should not happen.
             }
-            else if (n+1 >= points.size()) {
+            else if (n+1 >= route.points.size()) {
                 // Index is too large, do not draw a label.
             }
             else {
-                g.setColor(this.getTextColor());
-                this.drawLabelAtSegment(g, points.get(n), points.get(n+1),
-                    this.relation.label);
+                route.labelCenter = this.computeLabelCenter(
+                    route.points.get(n), route.points.get(n+1),
+                    route.label, font);
             }
         }
     }
 
+    @Override
+    public Rectangle getPaintBounds()
+    {
+        // The segment bounds enclose the line, but not necessarily the
+        // arrowheads or a thick line's edges.
+        Route route = this.getRoute();
+        int margin = arrowHeadLength;
+        if (this.relation.lineWidth != null) {
+            margin += this.relation.lineWidth.intValue();
+        }
+        Rectangle ret = GeomUtil.growRectangle(super.getPaintBounds(), margin);
+
+        BitmapFont font = this.diagramController.getDiagramFont();
+        this.placeLabel(route, font);
+        if (route.labelCenter != null) {
+            int width = font.stringWidth(route.label);
+            int height = font.getAscent() + font.getDescent();
+            ret = ret.union(new Rectangle(
+                route.labelCenter.x - width/2 - 1,
+                route.labelCenter.y - height,
+                width + 2,
+                height * 2));
+        }
+        return ret;
+    }
+
+    @Override
+    public String getRenderPhase()
+    {
+        return RenderProfiler.relationPhase;
+    }
+
     /** Get the color to use to draw this Relation's line. */
     public Color getLineColor()
     {
-        return this.diagramController.diagram.getNamedColor(
+        return this.m_lineColor.get(this.diagramController.diagram,
             this.relation.lineColor, Color.BLACK);
     }
 
     /** Get the color to use to draw this Relation's label text. */
     public Color getTextColor()
     {
-        return this.diagramController.diagram.getNamedColor(
+        return this.m_textColor.get(this.diagramController.diagram,
             this.relation.textColor, Color.BLACK);
     }
 
@@ -567,7 +793,8 @@ public class RelationController extends Controller {
         return new Point2D.Double(a * Math.cos(theta), b * Math.sin(theta));
     }
 
-    /** Draw 'label' near the midpoint of 'p' and 'q'.
+    /** Compute where to center 'label' so it is near the midpoint of
+      * 'p' and 'q', or return null if it should not be drawn.
       *
       * What I want:
       *   - Compute a bounding rectangle for 'label'.
@@ -583,14 +810,12 @@ public class RelationController extends Controller {
       * of any quick hacks that seemed likely to be good enough.
       *
       * This code was difficult to get right!  */
-    private void drawLabelAtSegment(
-        Graphics g,
+    private Point computeLabelCenter(
         Point origP,
         Point origQ,
-        String label)
+        String label,
+        BitmapFont bitmapFont)
     {
-        BitmapFont bitmapFont = this.diagramController.getDiagramFont();
-
         Point p = new Point(origP);
         Point q = new Point(origQ);
 
@@ -612,7 +837,7 @@ public class RelationController extends Controller {
         double a = (double)labelWidth / 2;                 // horizontal radius
         double b = (double)labelHeight / 2;                // vertical radius
         if (a <= 0 || b <= 0) {
-            return;                    // Degenerate, bail.
+            return null;               // Degenerate, bail.
         }
 
         // Midpoint of PQ.
@@ -630,8 +855,7 @@ public class RelationController extends Controller {
                 // Put label to the left of the segment.
                 m.x -= relationLabelOffset + (int)a;
             }
-            bitmapFont.drawCenteredText(g, m, label);
-            return;
+            return m;
         }
 
         // I'm having a hard time working out the following code in the
@@ -664,8 +888,7 @@ public class RelationController extends Controller {
         Point printSpot = GeomUtil.toPoint(center);
         printSpot.y = -printSpot.y;
 
-        // Draw the label.
-        bitmapFont.drawCenteredText(g, printSpot, label);
+        return printSpot;
     }
 
     @Override
@@ -756,6 +979,7 @@ public class RelationController extends Controller {
                                 this.relation)) {
             // User pressed OK.
             String newName = this.relation.label;
+            this.diagramController.reindexController(this);
 
             this.diagramController.diagramChanged(
                 (origName.equals(newName)?
@@ -1109,9 +1333,9 @@ public class RelationController extends Controller {
         // Draw a 315-degree circle starting at 45 degrees and ending
         // at 0 degrees, with radius 20, centered on 'start'.
         int radius = selfRelationRadius;
-        g.drawArc(pt.x - radius, pt.y - radius,
-                  radius*2, radius*2,
-                  45, 315);
+        TiledRenderer.drawArc(g, pt.x - radius, pt.y - radius,
+                              radius*2, radius*2,
+                              45, 315);
 
         // Put an arrowhead at the 0 degree position.
         drawArrowhead(g, GeomUtil.add(pt, new Point(radius, 0)),
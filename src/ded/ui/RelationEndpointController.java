@@ -47,6 +47,7 @@ public class RelationEndpointController extends ResizeController {
     public boolean dragTo(Point pt)
     {
         this.endpoint.seLocationTo(this.diagramController.getRelationEndpoint(pt));
+        this.diagramController.reindexController(this.rcontroller);
 
         // Do not set dirty bit.  Wait for mouse button release.
 
@@ -0,0 +1,64 @@
+// RelationIndexKey.java
+// See toplevel license.txt for copyright and license terms.
+
+package ded.ui;
+
+import java.util.Objects;
+
+import ded.model.Entity;
+import ded.model.Relation;
+
+/** Identifies the relations from one entity to another with a given
+  * label.  This is the key for finding an existing relation when
+  * following an object graph pointer. */
+public class RelationIndexKey {
+    // ---------------- instance data ------------------
+    /** Entities at the start and end, compared by identity. */
+    public final Entity start;
+    public final Entity end;
+
+    public final String label;
+
+    // ------------------- methods ---------------------
+    public RelationIndexKey(Entity start, Entity end, String label)
+    {
+        this.start = start;
+        this.end = end;
+        this.label = label;
+    }
+
+    /** Return the key of 'r', or null if either end is not attached to
+      * an entity. */
+    public static RelationIndexKey fromRelation(Relation r)
+    {
+        if (r.start.entity == null || r.end.entity == null) {
+            return null;
+        }
+        return new RelationIndexKey(r.start.entity, r.end.entity, r.label);
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || obj.getClass() != this.getClass()) {
+            return false;
+        }
+        RelationIndexKey k = (RelationIndexKey)obj;
+        return this.start == k.start &&
+               this.end == k.end &&
+               this.label.equals(k.label);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Objects.hash(System.identityHashCode(this.start),
+                            System.identityHashCode(this.end),
+                            this.label);
+    }
+}
+
+// EOF
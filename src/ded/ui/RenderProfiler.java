@@ -0,0 +1,384 @@
+// RenderProfiler.java
+// See toplevel license.txt for copyright and license terms.
+
+package ded.ui;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static util.StringUtil.fmt;
+
+/** Measures where the time goes while painting the diagram.
+  *
+  * A frame is the span between 'beginFrame' and 'endFrame'.  Within a
+  * frame, time is charged to named phases with 'enterPhase' and
+  * 'exitPhase'.  Phases nest, and time is charged exclusively: while a
+  * nested phase is active, its parent is not charged.  Time in a frame
+  * that is not in any phase is charged to 'otherPhase'.
+  *
+  * Calls made outside a frame are ignored, as are calls from any thread
+  * other than the one that began the frame.  That lets the hooks stay
+  * in place when the same paint code renders export tiles in parallel.
+  *
+  * The profiler also counts painted controllers by type and records
+  * garbage collections that happen during frames. */
+public class RenderProfiler {
+    // ---------------- constants ------------------
+    /** Number of most recent frames whose times are kept for the
+      * percentile calculation. */
+    public static final int maxRecordedFrames = 1000;
+
+    /** Phase names used by the paint code. */
+    public static final String backgroundPhase = "background";
+    public static final String relationPhase = "relation";
+    public static final String inheritancePhase = "inheritance";
+    public static final String textPhase = "text";
+    public static final String imagePhase = "image";
+    public static final String otherPhase = "other";
+
+    // ---------------- private types ------------------
+    /** Accumulated statistics for one phase. */
+    private static class PhaseStats {
+        /** Total time charged to the phase over all frames. */
+        public long m_totalNanos = 0;
+
+        /** Number of times the phase was entered. */
+        public long m_entries = 0;
+    }
+
+    // ---------------- instance data ------------------
+    /** Durations of the most recent frames, as a circular buffer.
+      * Entry 'm_frameCount % maxRecordedFrames' is the next to write. */
+    private long[] m_frameNanos = new long[maxRecordedFrames];
+
+    /** Start times of the same frames, from System.nanoTime. */
+    private long[] m_frameStartNanos = new long[maxRecordedFrames];
+
+    /** Total number of frames completed. */
+    private long m_frameCount = 0;
+
+    /** Thread painting the current frame, or null if no frame is in
+      * progress. */
+    private Thread m_frameThread = null;
+
+    /** System.nanoTime when the current frame began. */
+    private long m_frameStart;
+
+    /** Statistics for each phase, in order of first use. */
+    private LinkedHashMap<String, PhaseStats> m_phases =
+        new LinkedHashMap<String, PhaseStats>();
+
+    /** Active phases, innermost last.  The first entry is always
+      * 'otherPhase' while a frame is in progress. */
+    private ArrayList<PhaseStats> m_phaseStack = new ArrayList<PhaseStats>();
+
+    /** System.nanoTime when the innermost active phase was last
+      * entered or resumed. */
+    private long m_phaseStart;
+
+    /** Number of controllers of each type painted in the most recent
+      * complete frame, and in the frame in progress. */
+    private LinkedHashMap<String, Integer> m_lastControllerCounts =
+        new LinkedHashMap<String, Integer>();
+    private LinkedHashMap<String, Integer> m_controllerCounts =
+        new LinkedHashMap<String, Integer>();
+
+    /** The garbage collectors, and their collection counts and times
+      * when the current frame began. */
+    private List<GarbageCollectorMXBean> m_collectors =
+        ManagementFactory.getGarbageCollectorMXBeans();
+    private long[] m_gcCountAtFrameStart;
+    private long[] m_gcMillisAtFrameStart;
+
+    /** Collections and their total time, per collector, during
+      * frames. */
+    private long[] m_gcCount;
+    private long[] m_gcMillis;
+
+    /** Number of frames during which at least one collection ran. */
+    private long m_framesWithGC = 0;
+
+    /** Longest collection time, in milliseconds, during one frame. */
+    private long m_maxFrameGCMillis = 0;
+
+    // ------------------- methods ---------------------
+    public RenderProfiler()
+    {
+        int n = this.m_collectors.size();
+        this.m_gcCountAtFrameStart = new long[n];
+        this.m_gcMillisAtFrameStart = new long[n];
+        this.m_gcCount = new long[n];
+        this.m_gcMillis = new long[n];
+    }
+
+    /** True if a frame is in progress on the calling thread. */
+    private boolean recording()
+    {
+        return this.m_frameThread == Thread.currentThread();
+    }
+
+    /** Get the statistics object for 'phase', creating it if needed. */
+    private PhaseStats getPhase(String phase)
+    {
+        PhaseStats ret = this.m_phases.get(phase);
+        if (ret == null) {
+            ret = new PhaseStats();
+            this.m_phases.put(phase, ret);
+        }
+        return ret;
+    }
+
+    /** Charge the time since 'm_phaseStart' to the innermost phase, and
+      * restart the clock. */
+    private void chargeInnermostPhase()
+    {
+        long now = System.nanoTime();
+        PhaseStats top = this.m_phaseStack.get(this.m_phaseStack.size()-1);
+        top.m_totalNanos += now - this.m_phaseStart;
+        this.m_phaseStart = now;
+    }
+
+    /** Start timing a frame on the calling thread. */
+    public void beginFrame()
+    {
+        assert(this.m_frameThread == null);
+        this.m_frameThread = Thread.currentThread();
+
+        for (int i=0; i < this.m_collectors.size(); i++) {
+            GarbageCollectorMXBean gc = this.m_collectors.get(i);
+            this.m_gcCountAtFrameStart[i] = gc.getCollectionCount();
+            this.m_gcMillisAtFrameStart[i] = gc.getCollectionTime();
+        }
+
+        this.m_controllerCounts.clear();
+
+        this.m_frameStart = System.nanoTime();
+        this.m_phaseStart = this.m_frameStart;
+        this.m_phaseStack.clear();
+        PhaseStats other = this.getPhase(otherPhase);
+        other.m_entries++;
+        this.m_phaseStack.add(other);
+    }
+
+    /** Finish timing the frame begun by 'beginFrame'. */
+    public void endFrame()
+    {
+        if (!this.recording()) {
+            return;
+        }
+        this.chargeInnermostPhase();
+        assert(this.m_phaseStack.size() == 1);   // Phases are balanced.
+
+        long end = System.nanoTime();
+        int slot = (int)(this.m_frameCount % maxRecordedFrames);
+        this.m_frameNanos[slot] = end - this.m_frameStart;
+        this.m_frameStartNanos[slot] = this.m_frameStart;
+        this.m_frameCount++;
+
+        long frameGCMillis = 0;
+        boolean anyGC = false;
+        for (int i=0; i < this.m_collectors.size(); i++) {
+            GarbageCollectorMXBean gc = this.m_collectors.get(i);
+            long count = gc.getCollectionCount() - this.m_gcCountAtFrameStart[i];
+            long millis = gc.getCollectionTime() - this.m_gcMillisAtFrameStart[i];
+            if (count > 0) {
+                anyGC = true;
+                this.m_gcCount[i] += count;
+                this.m_gcMillis[i] += millis;
+                frameGCMillis += millis;
+            }
+        }
+        if (anyGC) {
+            this.m_framesWithGC++;
+            this.m_maxFrameGCMillis = Math.max(this.m_maxFrameGCMillis, frameGCMillis);
+        }
+
+        LinkedHashMap<String, Integer> tmp = this.m_lastControllerCounts;
+        this.m_lastControllerCounts = this.m_controllerCounts;
+        this.m_controllerCounts = tmp;
+
+        this.m_phaseStack.clear();
+        this.m_frameThread = null;
+    }
+
+    /** Begin charging time to 'phase' until the matching 'exitPhase'. */
+    public void enterPhase(String phase)
+    {
+        if (!this.recording()) {
+            return;
+        }
+        this.chargeInnermostPhase();
+        PhaseStats stats = this.getPhase(phase);
+        stats.m_entries++;
+        this.m_phaseStack.add(stats);
+    }
+
+    /** Go back to charging the phase that was active before the
+      * matching 'enterPhase'. */
+    public void exitPhase()
+    {
+        if (!this.recording()) {
+            return;
+        }
+        this.chargeInnermostPhase();
+        assert(this.m_phaseStack.size() > 1);
+        this.m_phaseStack.remove(this.m_phaseStack.size()-1);
+    }
+
+    /** Record that a controller of type 'type' was painted. */
+    public void countController(String type)
+    {
+        if (!this.recording()) {
+            return;
+        }
+        Integer n = this.m_controllerCounts.get(type);
+        this.m_controllerCounts.put(type, (n == null? 1 : n+1));
+    }
+
+    /** Total number of frames completed. */
+    public long getFrameCount()
+    {
+        return this.m_frameCount;
+    }
+
+    /** Return the recorded frame durations in nanoseconds, sorted. */
+    private long[] getSortedFrameNanos()
+    {
+        int n = (int)Math.min(this.m_frameCount, maxRecordedFrames);
+        long[] ret = Arrays.copyOf(this.m_frameNanos, n);
+        Arrays.sort(ret);
+        return ret;
+    }
+
+    /** Return the 'p'th percentile (0 to 100) of 'sorted', using the
+      * nearest-rank method, or 0 if it is empty. */
+    public static long percentile(long[] sorted, int p)
+    {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int rank = (int)Math.ceil(p / 100.0 * sorted.length);
+        return sorted[Math.max(rank, 1) - 1];
+    }
+
+    /** Number of frames that began during the last second. */
+    private int getFramesInLastSecond()
+    {
+        long cutoff = System.nanoTime() - 1000000000L;
+        int n = (int)Math.min(this.m_frameCount, maxRecordedFrames);
+        int ret = 0;
+        for (int i=0; i < n; i++) {
+            if (this.m_frameStartNanos[i] >= cutoff) {
+                ret++;
+            }
+        }
+        return ret;
+    }
+
+    private static double toMillis(long nanos)
+    {
+        return nanos / 1000000.0;
+    }
+
+    /** Return lines of text summarizing the measurements, for display
+      * on the canvas. */
+    public List<String> getSummaryLines()
+    {
+        List<String> ret = new ArrayList<String>();
+
+        long[] sorted = this.getSortedFrameNanos();
+        ret.add(fmt("FPS: %1$d  frames: %2$d", this.getFramesInLastSecond(),
+                    this.m_frameCount));
+        ret.add(fmt("frame ms: p50 %1$.2f  p95 %2$.2f  p99 %3$.2f  (last %4$d)",
+                    toMillis(percentile(sorted, 50)),
+                    toMillis(percentile(sorted, 95)),
+                    toMillis(percentile(sorted, 99)),
+                    sorted.length));
+
+        long totalNanos = 0;
+        for (PhaseStats stats : this.m_phases.values()) {
+            totalNanos += stats.m_totalNanos;
+        }
+        for (Map.Entry<String, PhaseStats> entry : this.m_phases.entrySet()) {
+            PhaseStats stats = entry.getValue();
+            ret.add(fmt("  %1$s: %2$.3f ms/frame (%3$.0f%%)",
+                        entry.getKey(),
+                        toMillis(stats.m_totalNanos / Math.max(this.m_frameCount, 1)),
+                        totalNanos == 0? 0.0 : stats.m_totalNanos * 100.0 / totalNanos));
+        }
+
+        StringBuilder sb = new StringBuilder("controllers:");
+        for (Map.Entry<String, Integer> entry : this.m_lastControllerCounts.entrySet()) {
+            sb.append(fmt(" %1$s=%2$d", entry.getKey(), entry.getValue()));
+        }
+        ret.add(sb.toString());
+
+        long gcCount = 0;
+        long gcMillis = 0;
+        for (int i=0; i < this.m_collectors.size(); i++) {
+            gcCount += this.m_gcCount[i];
+            gcMillis += this.m_gcMillis[i];
+        }
+        ret.add(fmt("GC: %1$d collections, %2$d ms, in %3$d frames; max %4$d ms/frame",
+                    gcCount, gcMillis, this.m_framesWithGC, this.m_maxFrameGCMillis));
+
+        ret.add("(Ctrl+G to stop and log CSV)");
+        return ret;
+    }
+
+    /** Return the measurements as CSV, with a header line.  The columns
+      * are: kind, name, count, total_ms, mean_ms, p50_ms, p95_ms, p99_ms.
+      * Columns that do not apply to a kind are empty.  For phases, the
+      * count is the number of times the phase was entered and the mean
+      * is per frame. */
+    public String getCSV()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append("kind,name,count,total_ms,mean_ms,p50_ms,p95_ms,p99_ms\n");
+
+        long[] sorted = this.getSortedFrameNanos();
+        long recordedNanos = 0;
+        for (long t : sorted) {
+            recordedNanos += t;
+        }
+        sb.append(fmt("frame,all,%1$d,%2$.3f,%3$.3f,%4$.3f,%5$.3f,%6$.3f\n",
+                      sorted.length,
+                      toMillis(recordedNanos),
+                      toMillis(recordedNanos / Math.max(sorted.length, 1)),
+                      toMillis(percentile(sorted, 50)),
+                      toMillis(percentile(sorted, 95)),
+                      toMillis(percentile(sorted, 99))));
+
+        for (Map.Entry<String, PhaseStats> entry : this.m_phases.entrySet()) {
+            PhaseStats stats = entry.getValue();
+            sb.append(fmt("phase,%1$s,%2$d,%3$.3f,%4$.3f,,,\n",
+                          entry.getKey(),
+                          stats.m_entries,
+                          toMillis(stats.m_totalNanos),
+                          toMillis(stats.m_totalNanos / Math.max(this.m_frameCount, 1))));
+        }
+
+        for (Map.Entry<String, Integer> entry : this.m_lastControllerCounts.entrySet()) {
+            sb.append(fmt("controllers,%1$s,%2$d,,,,,\n",
+                          entry.getKey(), entry.getValue()));
+        }
+
+        for (int i=0; i < this.m_collectors.size(); i++) {
+            sb.append(fmt("gc,%1$s,%2$d,%3$d,,,,\n",
+                          this.m_collectors.get(i).getName().replace(',', ' '),
+                          this.m_gcCount[i], this.m_gcMillis[i]));
+        }
+        sb.append(fmt("gc,frames with collections,%1$d,,,,,\n",
+                      this.m_framesWithGC));
+
+        return sb.toString();
+    }
+}
+
+// EOF
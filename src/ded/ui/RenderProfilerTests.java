@@ -0,0 +1,59 @@
+// RenderProfilerTests.java
+// See toplevel license.txt for copyright and license terms.
+
+package ded.ui;
+
+/** Tests for RenderProfiler. */
+public class RenderProfilerTests {
+    public static void main(String[] args)
+    {
+        testPercentile();
+        testFrames();
+    }
+
+    private static void testPercentile()
+    {
+        long[] sorted = new long[100];
+        for (int i=0; i < 100; i++) {
+            sorted[i] = i+1;
+        }
+        assert(RenderProfiler.percentile(sorted, 50) == 50);
+        assert(RenderProfiler.percentile(sorted, 95) == 95);
+        assert(RenderProfiler.percentile(sorted, 99) == 99);
+        assert(RenderProfiler.percentile(sorted, 0) == 1);
+        assert(RenderProfiler.percentile(new long[] { 7 }, 99) == 7);
+        assert(RenderProfiler.percentile(new long[0], 50) == 0);
+    }
+
+    private static void testFrames()
+    {
+        RenderProfiler p = new RenderProfiler();
+
+        // Calls outside a frame are ignored.
+        p.enterPhase(RenderProfiler.textPhase);
+        p.countController("EntityController");
+
+        for (int i=0; i < 3; i++) {
+            p.beginFrame();
+            p.enterPhase(RenderProfiler.backgroundPhase);
+            p.exitPhase();
+            p.countController("EntityController");
+            p.enterPhase("entity rectangle");
+            p.enterPhase(RenderProfiler.textPhase);
+            p.exitPhase();
+            p.exitPhase();
+            p.endFrame();
+        }
+        assert(p.getFrameCount() == 3);
+
+        String csv = p.getCSV();
+        assert(csv.startsWith("kind,name,count,"));
+        assert(csv.contains("\nframe,all,3,"));
+        assert(csv.contains("\nphase,background,3,"));
+        assert(csv.contains("\nphase,entity rectangle,3,"));
+        assert(csv.contains("\nphase,text,3,"));
+        assert(csv.contains("\ncontrollers,EntityController,1,"));
+    }
+}
+
+// EOF
@@ -0,0 +1,64 @@
+// ScaledImageKey.java
+// See toplevel license.txt for copyright and license terms.
+
+package ded.ui;
+
+import java.awt.Image;
+
+import java.util.Objects;
+
+import ded.model.ImageFillStyle;
+
+/** Identifies an entity fill image prepared for drawing at a particular
+  * size: stretched to that size, or tiled to fill it.  This is the key
+  * for the cache of such images. */
+public class ScaledImageKey {
+    // ---------------- instance data ------------------
+    /** The source image, compared by identity. */
+    public final Image image;
+
+    /** IFS_STRETCH or IFS_TILE. */
+    public final ImageFillStyle imageFillStyle;
+
+    /** Size of the prepared image. */
+    public final int width;
+    public final int height;
+
+    // ------------------- methods ---------------------
+    public ScaledImageKey(
+        Image image,
+        ImageFillStyle imageFillStyle,
+        int width,
+        int height)
+    {
+        this.image = image;
+        this.imageFillStyle = imageFillStyle;
+        this.width = width;
+        this.height = height;
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || obj.getClass() != this.getClass()) {
+            return false;
+        }
+        ScaledImageKey k = (ScaledImageKey)obj;
+        return this.image == k.image &&
+               this.imageFillStyle == k.imageFillStyle &&
+               this.width == k.width &&
+               this.height == k.height;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Objects.hash(System.identityHashCode(this.image),
+                            this.imageFillStyle, this.width, this.height);
+    }
+}
+
+// EOF
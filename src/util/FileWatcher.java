@@ -0,0 +1,270 @@
+// FileWatcher.java
+// See toplevel license.txt for copyright and license terms.
+
+package util;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/** Watches a set of files and reports when they are created, modified,
+  * or deleted.
+  *
+  * The operating system only watches directories, so this registers
+  * the directory of each file and ignores changes to other files in it.
+  * Changes are debounced: after the first one, reporting waits until no
+  * more have arrived for a while, so a program writing a file in
+  * several steps causes a single report.  Changes that keep arriving
+  * are still reported once they have been waiting long enough, so a
+  * file that is rewritten continuously is not ignored forever.
+  *
+  * Reports are made on a daemon thread that this creates. */
+public class FileWatcher {
+    // ---------------- constants ------------------
+    /** Default for how long changes must stop before being reported. */
+    public static final long defaultDebounceMillis = 300;
+
+    /** Default for the longest a change waits before being reported
+      * while more keep arriving. */
+    public static final long defaultMaxWaitMillis = 2000;
+
+    // ---------------- public types ------------------
+    /** Receiver of change reports. */
+    public static interface Listener {
+        /** Files in 'changed', which are absolute and normalized, have
+          * changed.  This is called on the watcher thread. */
+        public void filesChanged(Set<Path> changed);
+    }
+
+    // ---------------- private types ------------------
+    /** A directory containing watched files. */
+    private static class WatchedDirectory {
+        /** Registration of the directory with 'm_watchService'. */
+        public WatchKey key;
+
+        /** Names, within the directory, of the watched files. */
+        public HashSet<Path> fileNames = new HashSet<Path>();
+    }
+
+    // ---------------- instance data ------------------
+    /** The OS watching mechanism. */
+    private WatchService m_watchService;
+
+    /** Map from watched directory to its WatchKey and the names of the
+      * files being watched in it. */
+    private HashMap<Path, WatchedDirectory> m_directories =
+        new HashMap<Path, WatchedDirectory>();
+
+    /** Milliseconds without changes before they are reported. */
+    private long m_debounceMillis;
+
+    /** Milliseconds after the first change at which changes are
+      * reported even if more are still arriving. */
+    private long m_maxWaitMillis;
+
+    /** Receives the reports. */
+    private Listener m_listener;
+
+    /** The thread waiting for changes. */
+    private Thread m_thread;
+
+    // ------------------- methods ---------------------
+    /** Create a watcher that reports to 'listener', initially watching
+      * nothing.  Throws IOException if the platform cannot watch. */
+    public FileWatcher(
+        Listener listener,
+        long debounceMillis,
+        long maxWaitMillis)
+        throws IOException
+    {
+        this.m_listener = listener;
+        this.m_debounceMillis = debounceMillis;
+        this.m_maxWaitMillis = maxWaitMillis;
+        this.m_watchService = FileSystems.getDefault().newWatchService();
+
+        this.m_thread = new Thread(new Runnable() {
+            @Override
+            public void run()
+            {
+                FileWatcher.this.watchLoop();
+            }
+        }, "file watcher");
+        this.m_thread.setDaemon(true);
+        this.m_thread.start();
+    }
+
+    public FileWatcher(Listener listener, long debounceMillis)
+        throws IOException
+    {
+        this(listener, debounceMillis, defaultMaxWaitMillis);
+    }
+
+    public FileWatcher(Listener listener)
+        throws IOException
+    {
+        this(listener, defaultDebounceMillis, defaultMaxWaitMillis);
+    }
+
+    /** Normalized absolute path of 'file'. */
+    public static Path normalize(File file)
+    {
+        return file.toPath().toAbsolutePath().normalize();
+    }
+
+    /** Start watching 'file', if not already.  Return false if its
+      * directory cannot be watched, for example because it does not
+      * exist. */
+    public synchronized boolean watch(File file)
+    {
+        Path path = normalize(file);
+        Path dir = path.getParent();
+        if (dir == null) {
+            return false;
+        }
+
+        WatchedDirectory wd = this.m_directories.get(dir);
+        if (wd == null) {
+            wd = new WatchedDirectory();
+            try {
+                wd.key = dir.register(this.m_watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_DELETE);
+            }
+            catch (IOException e) {
+                return false;
+            }
+            this.m_directories.put(dir, wd);
+        }
+        wd.fileNames.add(path.getFileName());
+        return true;
+    }
+
+    /** Watch exactly the files in 'files', which replaces whatever was
+      * being watched before. */
+    public synchronized void watchOnly(Collection<File> files)
+    {
+        // Forget the file names but keep the directory registrations,
+        // so changes made meanwhile to files still wanted are not lost.
+        for (WatchedDirectory wd : this.m_directories.values()) {
+            wd.fileNames.clear();
+        }
+        for (File f : files) {
+            this.watch(f);
+        }
+
+        // Stop watching directories that no longer have any files.
+        Iterator<WatchedDirectory> it = this.m_directories.values().iterator();
+        while (it.hasNext()) {
+            WatchedDirectory wd = it.next();
+            if (wd.fileNames.isEmpty()) {
+                wd.key.cancel();
+                it.remove();
+            }
+        }
+    }
+
+    /** Stop watching everything. */
+    public synchronized void clear()
+    {
+        for (WatchedDirectory wd : this.m_directories.values()) {
+            wd.key.cancel();
+        }
+        this.m_directories.clear();
+    }
+
+    /** Stop watching and end the watcher thread. */
+    public void close()
+    {
+        try {
+            this.m_watchService.close();
+        }
+        catch (IOException e) {/*ignore*/}
+    }
+
+    /** Body of 'm_thread'. */
+    private void watchLoop()
+    {
+        try {
+            while (true) {
+                HashSet<Path> changed = new HashSet<Path>();
+                this.collectChanges(this.m_watchService.take(), changed);
+
+                // Wait for things to settle down, but not past the
+                // deadline.
+                long deadline = System.currentTimeMillis() + this.m_maxWaitMillis;
+                while (true) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    WatchKey key = this.m_watchService.poll(
+                        Math.min(this.m_debounceMillis, remaining),
+                        TimeUnit.MILLISECONDS);
+                    if (key == null) {
+                        break;
+                    }
+                    this.collectChanges(key, changed);
+                }
+
+                if (!changed.isEmpty()) {
+                    this.m_listener.filesChanged(changed);
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            // Stop.
+        }
+        catch (ClosedWatchServiceException e) {
+            // 'close' was called.
+        }
+    }
+
+    /** Add to 'changed' the watched files that the events of 'key'
+      * describe, and reset 'key' so it reports further events. */
+    private synchronized void collectChanges(WatchKey key, Set<Path> changed)
+    {
+        Path dir = (Path)key.watchable();
+        WatchedDirectory wd = this.m_directories.get(dir);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (wd == null || wd.key != key) {
+                continue;      // No longer watched.
+            }
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // Events were lost, so any file could have changed.
+                for (Path name : wd.fileNames) {
+                    changed.add(dir.resolve(name));
+                }
+            }
+            else {
+                Path name = (Path)event.context();
+                if (wd.fileNames.contains(name)) {
+                    changed.add(dir.resolve(name));
+                }
+            }
+        }
+        key.reset();
+    }
+
+    /** Return the number of directories being watched. */
+    public synchronized int getDirectoryCount()
+    {
+        return this.m_directories.size();
+    }
+}
+
+// EOF
@@ -0,0 +1,118 @@
+// FileWatcherTests.java
+// See toplevel license.txt for copyright and license terms.
+
+package util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/** Tests for FileWatcher. */
+public class FileWatcherTests {
+    /** Append a byte to 'f', creating it if necessary. */
+    private static void touch(File f)
+        throws IOException
+    {
+        FileOutputStream os = new FileOutputStream(f, true /*append*/);
+        os.write('x');
+        os.close();
+    }
+
+    public static void main(String args[])
+        throws Exception
+    {
+        final LinkedBlockingQueue<Set<Path>> reports =
+            new LinkedBlockingQueue<Set<Path>>();
+        FileWatcher watcher = new FileWatcher(new FileWatcher.Listener() {
+            @Override
+            public void filesChanged(Set<Path> changed)
+            {
+                reports.add(changed);
+            }
+        }, 200 /*debounceMillis*/);
+
+        File dir = Files.createTempDirectory("FileWatcherTests").toFile();
+        File a = new File(dir, "a.png");
+        File b = new File(dir, "b.png");
+        File other = new File(dir, "other.txt");
+        try {
+            touch(a);
+            assert(watcher.watch(a));
+            assert(watcher.getDirectoryCount() == 1);
+            assert(!watcher.watch(new File(dir, "missing/c.png")));
+
+            // A burst of writes to 'a', plus an unwatched file, makes
+            // one report of just 'a'.
+            for (int i=0; i < 5; i++) {
+                touch(a);
+                touch(other);
+            }
+            Set<Path> changed = reports.poll(10, TimeUnit.SECONDS);
+            assert(changed != null);
+            assert(changed.size() == 1);
+            assert(changed.contains(FileWatcher.normalize(a)));
+            assert(reports.poll(500, TimeUnit.MILLISECONDS) == null);
+
+            // Creating a watched file counts as a change.
+            ArrayList<File> files = new ArrayList<File>();
+            files.add(b);
+            watcher.watchOnly(files);
+            assert(watcher.getDirectoryCount() == 1);
+            touch(b);
+            touch(a);
+            changed = reports.poll(10, TimeUnit.SECONDS);
+            assert(changed != null);
+            assert(changed.size() == 1);
+            assert(changed.contains(FileWatcher.normalize(b)));
+
+            // Once nothing is watched, no reports are made.
+            watcher.clear();
+            assert(watcher.getDirectoryCount() == 0);
+            touch(b);
+            assert(reports.poll(500, TimeUnit.MILLISECONDS) == null);
+
+            // A file rewritten more often than the debounce interval is
+            // still reported, once the maximum wait has passed.
+            FileWatcher busyWatcher = new FileWatcher(new FileWatcher.Listener() {
+                @Override
+                public void filesChanged(Set<Path> changed)
+                {
+                    reports.add(changed);
+                }
+            }, 200 /*debounceMillis*/, 1000 /*maxWaitMillis*/);
+            try {
+                assert(busyWatcher.watch(a));
+                long start = System.currentTimeMillis();
+                changed = null;
+                while (changed == null &&
+                       System.currentTimeMillis() - start < 10000)
+                {
+                    touch(a);
+                    changed = reports.poll(100, TimeUnit.MILLISECONDS);
+                }
+                assert(changed != null);
+                assert(changed.contains(FileWatcher.normalize(a)));
+            }
+            finally {
+                busyWatcher.close();
+            }
+        }
+        finally {
+            watcher.close();
+            a.delete();
+            b.delete();
+            other.delete();
+            dir.delete();
+        }
+    }
+}
+
+// EOF
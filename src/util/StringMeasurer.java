@@ -6,9 +6,10 @@ package util;
 
 /** Measure strings in order to compute wrapped text. */
 public interface StringMeasurer {
-    /** Return the width, in pixels, that 's.substring(start, end)'
-        would take to draw. */
-    public int substringWidth(String s, int start, int end);
+    /** Return the width, in pixels, that 's.subSequence(start, end)'
+        would take to draw.  Implementations should not need to
+        allocate, since this is called in inner loops. */
+    public int substringWidth(CharSequence s, int start, int end);
 }
 
 
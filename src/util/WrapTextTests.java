@@ -18,7 +18,7 @@ public class WrapTextTests implements StringMeasurer {
     }
 
     @Override
-    public int substringWidth(String s, int start, int end)
+    public int substringWidth(CharSequence s, int start, int end)
     {
         // For ease of testing, just say that every character is ten
         // pixels.  (Testing with just one pixel per character would
@@ -6,6 +6,13 @@ package util.awt;
 import java.awt.Component;
 import java.awt.Container;
 import java.awt.Frame;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
+import java.awt.Image;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
 
 /** Miscellaneous utilities for use with AWT. */
 public class AWTUtil {
@@ -50,6 +57,74 @@ public class AWTUtil {
         }
     }
 
+    /** Return the Transparency constant describing 'image'. */
+    public static int getTransparency(Image image)
+    {
+        if (image instanceof BufferedImage) {
+            return ((BufferedImage)image).getColorModel().getTransparency();
+        }
+        return Transparency.TRANSLUCENT;
+    }
+
+    /** Create an image of 'width' by 'height' in the pixel format that
+      * is fastest to draw on the default screen, with the given
+      * Transparency.  If there is no screen, use TYPE_INT_RGB for
+      * opaque images and TYPE_INT_ARGB otherwise. */
+    public static BufferedImage createCompatibleImage(
+        int width,
+        int height,
+        int transparency)
+    {
+        if (GraphicsEnvironment.isHeadless()) {
+            return new BufferedImage(width, height,
+                transparency == Transparency.OPAQUE?
+                    BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+        }
+        return getDefaultConfiguration().createCompatibleImage(
+            width, height, transparency);
+    }
+
+    private static GraphicsConfiguration getDefaultConfiguration()
+    {
+        return GraphicsEnvironment.getLocalGraphicsEnvironment()
+            .getDefaultScreenDevice().getDefaultConfiguration();
+    }
+
+    /** Return 'image' in the format of 'createCompatibleImage'.  Images
+      * decoded by ImageIO often use formats that Java2D can only draw
+      * through a slow general-purpose path.  If 'image' is already in
+      * such a format, it is returned as is. */
+    public static BufferedImage toCompatibleImage(BufferedImage image)
+    {
+        int transparency = image.getColorModel().getTransparency();
+        if (GraphicsEnvironment.isHeadless()) {
+            int type = image.getType();
+            if (type == BufferedImage.TYPE_INT_ARGB ||
+                (type == BufferedImage.TYPE_INT_RGB &&
+                 transparency == Transparency.OPAQUE))
+            {
+                return image;
+            }
+        }
+        else {
+            ColorModel cm = getDefaultConfiguration().getColorModel(transparency);
+            if (image.getColorModel().equals(cm)) {
+                return image;
+            }
+        }
+
+        BufferedImage ret = createCompatibleImage(
+            image.getWidth(), image.getHeight(), transparency);
+        Graphics2D g = ret.createGraphics();
+        try {
+            g.drawImage(image, 0, 0, null);
+        }
+        finally {
+            g.dispose();
+        }
+        return ret;
+    }
+
     /** Print to stdout all the Frames and their Component trees. */
     public static void dumpFrameTrees()
     {
@@ -0,0 +1,232 @@
+// BackBuffer.java
+// See toplevel license.txt for copyright and license terms.
+
+package util.awt;
+
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
+
+import static util.StringUtil.fmt;
+
+/** An offscreen image that a component paints into before copying the
+  * result to the screen, kept from one paint to the next.
+  *
+  * Only the clip region of the destination is painted and copied, so
+  * repainting a small part of a large component is cheap.  The image is
+  * reallocated only when the component grows beyond it, when it moves
+  * to an incompatible screen, or, for a VolatileImage, when its
+  * contents are lost. */
+public class BackBuffer {
+    // ---------------- public types ------------------
+    /** Something that paints into the back buffer. */
+    public static interface Painter {
+        /** Paint onto 'g'.  Only the area inside the clip of 'g'
+          * needs to be painted. */
+        public void paint(Graphics2D g);
+    }
+
+    // ---------------- constants ------------------
+    /** Image kind: a BufferedImage compatible with the screen, which
+      * has the format fastest to copy to it. */
+    public static final int COMPATIBLE_IMAGE = -1;
+
+    /** Image kind: a VolatileImage, which can live in video memory. */
+    public static final int VOLATILE_IMAGE = -2;
+
+    // ---------------- instance data ------------------
+    /** COMPATIBLE_IMAGE, VOLATILE_IMAGE, or a BufferedImage type such
+      * as BufferedImage.TYPE_INT_RGB. */
+    private int m_imageKind;
+
+    /** The image, or null if none has been allocated yet.  This is a
+      * VolatileImage for VOLATILE_IMAGE and a BufferedImage otherwise. */
+    private Image m_image = null;
+
+    /** Configuration 'm_image' was created for, if it depends on one. */
+    private GraphicsConfiguration m_config = null;
+
+    /** Number of times an image has been allocated. */
+    private long m_allocations = 0;
+
+    /** Number of times a VolatileImage lost its contents while being
+      * used, requiring the paint to be repeated. */
+    private long m_contentsLost = 0;
+
+    // ------------------- methods ---------------------
+    /** Create a back buffer of 'imageKind'.  Throws
+      * IllegalArgumentException if it is not a valid kind. */
+    public BackBuffer(int imageKind)
+    {
+        if (imageKind != COMPATIBLE_IMAGE && imageKind != VOLATILE_IMAGE) {
+            // Let BufferedImage decide whether this is a valid type.
+            new BufferedImage(1, 1, imageKind);
+        }
+        this.m_imageKind = imageKind;
+    }
+
+    public int getImageKind()
+    {
+        return this.m_imageKind;
+    }
+
+    /** Paint the part of an area 'width' by 'height' pixels that is
+      * inside the clip of 'dest' by calling 'painter' on the back buffer
+      * and then copying the result to 'dest'.  'config' is the
+      * configuration of the device 'dest' draws on, or null if unknown. */
+    public void paint(
+        Graphics dest,
+        int width,
+        int height,
+        GraphicsConfiguration config,
+        Painter painter)
+    {
+        Rectangle dirty = new Rectangle(0, 0, width, height);
+        Rectangle clip = dest.getClipBounds();
+        if (clip != null) {
+            dirty = dirty.intersection(clip);
+        }
+        if (dirty.isEmpty()) {
+            return;
+        }
+
+        if (config == null &&
+            (this.m_imageKind == COMPATIBLE_IMAGE ||
+             this.m_imageKind == VOLATILE_IMAGE))
+        {
+            config = GraphicsEnvironment.getLocalGraphicsEnvironment()
+                .getDefaultScreenDevice().getDefaultConfiguration();
+        }
+
+        if (this.m_imageKind == VOLATILE_IMAGE) {
+            this.paintVolatile(dest, width, height, config, dirty, painter);
+            return;
+        }
+
+        BufferedImage image = (BufferedImage)this.m_image;
+        if (image == null ||
+            image.getWidth() < width ||
+            image.getHeight() < height ||
+            (this.m_imageKind == COMPATIBLE_IMAGE && this.m_config != config))
+        {
+            if (this.m_imageKind == COMPATIBLE_IMAGE) {
+                image = config.createCompatibleImage(width, height);
+                this.m_config = config;
+            }
+            else {
+                image = new BufferedImage(width, height, this.m_imageKind);
+            }
+            this.m_image = image;
+            this.m_allocations++;
+        }
+
+        renderAndCopy(image, dest, dirty, painter);
+    }
+
+    /** Implement 'paint' for VOLATILE_IMAGE. */
+    private void paintVolatile(
+        Graphics dest,
+        int width,
+        int height,
+        GraphicsConfiguration config,
+        Rectangle dirty,
+        Painter painter)
+    {
+        VolatileImage image = (VolatileImage)this.m_image;
+        while (true) {
+            if (image == null ||
+                image.getWidth() < width ||
+                image.getHeight() < height ||
+                image.validate(config) == VolatileImage.IMAGE_INCOMPATIBLE)
+            {
+                if (image != null) {
+                    image.flush();
+                }
+                image = config.createCompatibleVolatileImage(width, height);
+                this.m_image = image;
+                this.m_config = config;
+                this.m_allocations++;
+            }
+
+            // Every paint redraws the whole dirty region, so a restored
+            // image needs nothing more than what 'validate' did.
+            renderAndCopy(image, dest, dirty, painter);
+
+            if (!image.contentsLost()) {
+                break;
+            }
+            this.m_contentsLost++;
+        }
+    }
+
+    /** Paint the 'dirty' region of 'image' with 'painter', then copy
+      * it to the same place in 'dest'. */
+    private static void renderAndCopy(
+        Image image,
+        Graphics dest,
+        Rectangle dirty,
+        Painter painter)
+    {
+        Graphics2D g = (Graphics2D)image.getGraphics();
+        try {
+            g.setClip(dirty.x, dirty.y, dirty.width, dirty.height);
+
+            // Clear what the previous frame left, in case the painter
+            // does not cover every pixel.
+            g.setComposite(AlphaComposite.Src);
+            g.setColor(new Color(0, 0, 0, 0));
+            g.fillRect(dirty.x, dirty.y, dirty.width, dirty.height);
+            g.setComposite(AlphaComposite.SrcOver);
+            g.setColor(Color.WHITE);
+
+            painter.paint(g);
+        }
+        finally {
+            g.dispose();
+        }
+
+        int x2 = dirty.x + dirty.width;
+        int y2 = dirty.y + dirty.height;
+        dest.drawImage(image,
+                       dirty.x, dirty.y, x2, y2,
+                       dirty.x, dirty.y, x2, y2,
+                       null /*observer*/);
+    }
+
+    /** Number of times an image has been allocated. */
+    public long getAllocations()
+    {
+        return this.m_allocations;
+    }
+
+    /** Release the image.  The next 'paint' will allocate a new one. */
+    public void flush()
+    {
+        if (this.m_image != null) {
+            this.m_image.flush();
+            this.m_image = null;
+            this.m_config = null;
+        }
+    }
+
+    /** Return a one-line summary of the buffer state and counters. */
+    public String getStatistics()
+    {
+        String size = (this.m_image == null? "none" :
+            fmt("%1$dx%2$d", this.m_image.getWidth(null),
+                this.m_image.getHeight(null)));
+        return fmt("kind %1$d, image %2$s, %3$d allocations, "+
+                   "%4$d times contents lost",
+                   this.m_imageKind, size, this.m_allocations,
+                   this.m_contentsLost);
+    }
+}
+
+// EOF
@@ -0,0 +1,73 @@
+// BackBufferTests.java
+// See toplevel license.txt for copyright and license terms.
+
+package util.awt;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+/** Tests for BackBuffer. */
+public class BackBufferTests {
+    /** Painter that fills everything with one color. */
+    private static class FillPainter implements BackBuffer.Painter {
+        public Color m_color;
+
+        @Override
+        public void paint(Graphics2D g)
+        {
+            g.setColor(this.m_color);
+            g.fillRect(0, 0, 1000, 1000);
+        }
+    }
+
+    public static void main(String args[])
+    {
+        // A mode that does not depend on the screen, so this works
+        // when headless.
+        BackBuffer bb = new BackBuffer(BufferedImage.TYPE_INT_RGB);
+        BufferedImage screen = new BufferedImage(100, 80, BufferedImage.TYPE_INT_RGB);
+        FillPainter painter = new FillPainter();
+
+        // Paint everything red.
+        painter.m_color = Color.RED;
+        Graphics2D g = screen.createGraphics();
+        bb.paint(g, 100, 80, null, painter);
+        g.dispose();
+        assert(screen.getRGB(0, 0) == Color.RED.getRGB());
+        assert(screen.getRGB(99, 79) == Color.RED.getRGB());
+        assert(bb.getAllocations() == 1);
+
+        // Repaint only a small region blue; the rest is not copied.
+        painter.m_color = Color.BLUE;
+        g = screen.createGraphics();
+        g.clipRect(10, 10, 5, 5);
+        bb.paint(g, 100, 80, null, painter);
+        g.dispose();
+        assert(screen.getRGB(10, 10) == Color.BLUE.getRGB());
+        assert(screen.getRGB(14, 14) == Color.BLUE.getRGB());
+        assert(screen.getRGB(15, 15) == Color.RED.getRGB());
+        assert(screen.getRGB(9, 9) == Color.RED.getRGB());
+        assert(bb.getAllocations() == 1);
+
+        // Shrinking reuses the image; growing replaces it.
+        g = screen.createGraphics();
+        bb.paint(g, 50, 40, null, painter);
+        assert(bb.getAllocations() == 1);
+        bb.paint(g, 100, 81, null, painter);
+        assert(bb.getAllocations() == 2);
+        g.dispose();
+
+        // Invalid image types are rejected.
+        boolean threw = false;
+        try {
+            new BackBuffer(12345);
+        }
+        catch (IllegalArgumentException e) {
+            threw = true;
+        }
+        assert(threw);
+    }
+}
+
+// EOF
@@ -8,8 +8,12 @@ import java.awt.Graphics;
 import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import util.StringMeasurer;
 
@@ -20,173 +24,364 @@ import util.StringMeasurer;
   * which has proved very non-portable, both among different OSes
   * and among different JVMs (so frustrating!).
   *
-  * The drawing performed by this class is significantly slower than
-  * when using AWT Font.  For tests/test.ded, drawing with AWT Font
-  * gets ~500 FPS, while using this class gets ~400 FPS.  However,
-  * since drawing text is only part of the work for each frame, that
-  * means the text drawing is more than 20% slower.  I have not done
-  * careful measurements but I'd estimate just drawing text is 2-3x slower
-  * with this class.  But, as my editor is still getting good frame
-  * rates, for now I'm not spending more time trying to optimize it. */
+  * Originally, each character was drawn with its own 'drawImage' call
+  * from a per-character image, which made text drawing 2-3x slower
+  * than AWT Font.  Now, the glyphs for each color are packed into a
+  * single "atlas" raster, and a string is composed by copying pixels
+  * from the atlas into a scratch raster in a tight loop, then drawn
+  * with one 'drawImage' call.  On a BufferedImage destination (such
+  * as during PNG export) that final step is a single software blit. */
 public class BitmapFont implements StringMeasurer {
     // ---- types ---
-    /** Class to carry multiple values out of the render routine. */
-    private static class RenderMetrics {
-        /** Bounding rectangle for the rendered text. */
-        public Rectangle bound;
-
-        /** Sum of all the character offsets to next character. */
-        public Point offsetSum;
+    /** Reusable ARGB raster into which a string is composed before
+      * being drawn.  Each thread gets its own. */
+    private static class Scratch {
+        /** Image whose pixels are 'pixels'. */
+        public BufferedImage image;
+
+        /** Pixel data, row-major with stride 'image.getWidth()'.
+          * Outside of 'drawString', all pixels are transparent. */
+        public int[] pixels;
     }
 
+    // ---- constants ----
+    /** Maximum width of the glyph atlas rasters. */
+    private static final int atlasMaxWidth = 512;
+
+    /** Number of code points in the Basic Multilingual Plane. */
+    private static final int bmpSize = 0x10000;
+
     // ---- data ----
     /** The parsed font metrics and glyphs. */
     private BDFParser bdfParser;
 
-    /** Map from code point to BDF glyph. */
-    private HashMap<Integer, BDFParser.Glyph> codeToBitmapGlyph =
-        new HashMap<Integer, BDFParser.Glyph>();
-
-    /** Map from Color to code point to colored glyph image. */
-    private HashMap<Color, HashMap<Integer, BufferedImage>> colorToCodeToGlyph =
-        new HashMap<Color, HashMap<Integer, BufferedImage>>();
+    /** All glyphs.  A "glyph index" is an index into this array. */
+    private BDFParser.Glyph[] m_glyphs;
+
+    /** Map from BMP code point to glyph index, or -1 if there is no
+      * glyph for that code point. */
+    private int[] m_bmpGlyphIndex = new int[bmpSize];
+
+    /** Code points outside the BMP that have glyphs, in ascending
+      * order, and the corresponding glyph indices.  These are
+      * searched with binary search; fonts rarely have many. */
+    private int[] m_supplementaryCodePoints;
+    private int[] m_supplementaryGlyphIndices;
+
+    /** Glyph index of the replacement glyph, code point 0, or -1 if
+      * the font does not have one. */
+    private int m_replacementGlyphIndex;
+
+    /** Glyph metrics, indexed by glyph index.  These duplicate
+      * information in 'm_glyphs' in a form that can be read in the
+      * measurement loops without chasing pointers.
+      *
+      * 'm_advanceX' and 'm_advanceY' are the pen movement after the
+      * glyph.  'm_left' and 'm_top' are the offset of the glyph's
+      * upper-left pixel from the pen location (baseline point), and
+      * 'm_width' and 'm_height' its size. */
+    private int[] m_advanceX;
+    private int[] m_advanceY;
+    private int[] m_left;
+    private int[] m_top;
+    private int[] m_width;
+    private int[] m_height;
+
+    /** Location of each glyph's upper-left corner in the atlas,
+      * indexed by glyph index. */
+    private int[] m_atlasX;
+    private int[] m_atlasY;
+
+    /** Dimensions of every atlas raster. */
+    private int m_atlasWidth;
+    private int m_atlasHeight;
+
+    /** Map from Color to an atlas raster containing every glyph drawn
+      * in that color and transparent elsewhere.  The layout is given
+      * by 'm_atlasX' and 'm_atlasY'. */
+    private ConcurrentHashMap<Color, int[]> m_colorToAtlas =
+        new ConcurrentHashMap<Color, int[]>();
+
+    /** Per-thread scratch raster for composing strings. */
+    private ThreadLocal<Scratch> m_scratch = new ThreadLocal<Scratch>();
 
     // ---- methods ----
     public BitmapFont(BDFParser bdf)
     {
         this.bdfParser = bdf;
 
-        // Build the bitmap glyph map.
-        for (BDFParser.Glyph g : bdf.glyphs) {
-            this.codeToBitmapGlyph.put(g.codePoint, g);
+        // Build the code point to glyph index maps.
+        this.m_glyphs = bdf.glyphs.toArray(new BDFParser.Glyph[0]);
+        Arrays.fill(this.m_bmpGlyphIndex, -1);
+        TreeMap<Integer, Integer> supplementary = new TreeMap<Integer, Integer>();
+        for (int i=0; i < this.m_glyphs.length; i++) {
+            int codePoint = this.m_glyphs[i].codePoint;
+            if (0 <= codePoint && codePoint < bmpSize) {
+                this.m_bmpGlyphIndex[codePoint] = i;
+            }
+            else {
+                supplementary.put(codePoint, i);
+            }
         }
-    }
+        this.m_supplementaryCodePoints = new int[supplementary.size()];
+        this.m_supplementaryGlyphIndices = new int[supplementary.size()];
+        int n = 0;
+        for (Map.Entry<Integer, Integer> e : supplementary.entrySet()) {
+            this.m_supplementaryCodePoints[n] = e.getKey();
+            this.m_supplementaryGlyphIndices[n] = e.getValue();
+            n++;
+        }
+        this.m_replacementGlyphIndex = this.m_bmpGlyphIndex[0];
+
+        // Build the metrics tables.
+        int numGlyphs = this.m_glyphs.length;
+        this.m_advanceX = new int[numGlyphs];
+        this.m_advanceY = new int[numGlyphs];
+        this.m_left = new int[numGlyphs];
+        this.m_top = new int[numGlyphs];
+        this.m_width = new int[numGlyphs];
+        this.m_height = new int[numGlyphs];
+        for (int i=0; i < numGlyphs; i++) {
+            BDFParser.Glyph glyph = this.m_glyphs[i];
+
+            // There is no kerning, so the advance is per-glyph.
+            this.m_advanceX[i] = glyph.dwx0;
+            this.m_advanceY[i] = glyph.dwy0;
 
-    /** Draw 'str' into 'g' with the baseline at 'y' and start of the
-      * first character at 'x'. */
-    public void drawString(Graphics g, String str, int x, int y)
-    {
-        drawOrMeasureString(g, str, x, y);
-    }
+            // For reasons I do not understand, the Oracle JVM renders
+            // the space character with 3 pixels of space instead of the
+            // 4 it shows in the BDF file.  For the moment, I'm going to
+            // try to replicate that behavior in code rather than change
+            // the font definition.
+            if (glyph.codePoint == 32) {
+                this.m_advanceX[i]--;
+            }
 
-    /** Core render routine that can both draw the text as well as
-      * measure what it would do.  If 'g' is null, we just measure. */
-    public RenderMetrics drawOrMeasureString(Graphics g, String str, int x0, int y0)
-    {
-        Color color = g==null? null : g.getColor();
+            this.m_left[i] = glyph.bbxoff0x;
+            this.m_top[i] = -glyph.bbyoff0y - glyph.bbh;
+            this.m_width[i] = glyph.bbw;
+            this.m_height[i] = glyph.bbh;
+        }
 
-        Rectangle bound = null;
-        int x = x0;
-        int y = y0;
+        this.layOutAtlas();
+    }
 
-        for (int i=0; i < str.length(); i++) {
-            int codePoint = str.codePointAt(i);
-            if (codePoint > 0xFFFF) {
-                i++;    // Skip the second half of the surrogate pair.
+    /** Assign each glyph a location in the atlas, packing them into
+      * rows no wider than 'atlasMaxWidth'. */
+    private void layOutAtlas()
+    {
+        this.m_atlasX = new int[this.m_glyphs.length];
+        this.m_atlasY = new int[this.m_glyphs.length];
+
+        int x = 0;
+        int y = 0;
+        int rowHeight = 0;
+        int width = 0;
+        for (int i=0; i < this.m_glyphs.length; i++) {
+            BDFParser.Glyph glyph = this.m_glyphs[i];
+            if (x > 0 && x + glyph.bbw > atlasMaxWidth) {
+                // Start a new row.
+                x = 0;
+                y += rowHeight;
+                rowHeight = 0;
             }
+            this.m_atlasX[i] = x;
+            this.m_atlasY[i] = y;
+            x += glyph.bbw;
+            width = Math.max(width, x);
+            rowHeight = Math.max(rowHeight, glyph.bbh);
+        }
 
-            // Find the BDF definition of this character.
-            BDFParser.Glyph bitmap = this.codeToBitmapGlyph.get(codePoint);
-            if (bitmap == null) {
-                // Assume that code point 0 is suitable as a replacement character.
-                codePoint = 0;
-                bitmap = this.codeToBitmapGlyph.get(codePoint);
-                if (bitmap == null) {
-                    // Just skip it then.
-                    continue;
-                }
-            }
+        this.m_atlasWidth = Math.max(width, 1);
+        this.m_atlasHeight = Math.max(y + rowHeight, 1);
+    }
 
-            // Compute the bound for this character.
-            Rectangle r = new Rectangle(x + bitmap.bbxoff0x,
-                                        y - bitmap.bbyoff0y - bitmap.bbh,
-                                        bitmap.bbw, bitmap.bbh);
+    /** Return the glyph index for 'codePoint', or the replacement
+      * glyph index if there is no glyph for it.  Returns -1 if neither
+      * exists. */
+    private int glyphIndex(int codePoint)
+    {
+        int ret;
+        if (0 <= codePoint && codePoint < bmpSize) {
+            ret = this.m_bmpGlyphIndex[codePoint];
+        }
+        else {
+            int i = Arrays.binarySearch(this.m_supplementaryCodePoints, codePoint);
+            ret = (i >= 0? this.m_supplementaryGlyphIndices[i] : -1);
+        }
+        return ret >= 0? ret : this.m_replacementGlyphIndex;
+    }
 
-            // Combine it with the bound so far.
-            if (bound == null) {
-                bound = r;
-            }
-            else {
-                bound.add(r);
+    /** Return the code point that starts at 's[i]', treating 'end' as
+      * the end of the sequence.  An unpaired surrogate is returned as
+      * itself.  This is like 'Character.codePointAt(char[], int, int)'
+      * but for CharSequence. */
+    private static int codePointAt(CharSequence s, int i, int end)
+    {
+        char c = s.charAt(i);
+        if (Character.isHighSurrogate(c) && i+1 < end) {
+            char d = s.charAt(i+1);
+            if (Character.isLowSurrogate(d)) {
+                return Character.toCodePoint(c, d);
             }
+        }
+        return c;
+    }
 
-            if (g != null) {
-                // Get the image for that character in the chosen color.
-                BufferedImage glyphImage = getGlyphImage(color, codePoint, bitmap);
+    /** Get the atlas raster for 'color', creating it if necessary. */
+    private int[] getAtlas(Color color)
+    {
+        int[] atlas = this.m_colorToAtlas.get(color);
+        if (atlas != null) {
+            return atlas;
+        }
 
-                // Draw it to 'g'.
-                g.drawImage(glyphImage, r.x, r.y, null /*obs*/);
+        atlas = new int[this.m_atlasWidth * this.m_atlasHeight];
+        int argb = color.getRGB();
+        for (int i=0; i < this.m_glyphs.length; i++) {
+            BDFParser.Glyph glyph = this.m_glyphs[i];
+            for (int y=0; y < glyph.bits.length; y++) {
+                int rowStart = (this.m_atlasY[i] + y) * this.m_atlasWidth +
+                               this.m_atlasX[i];
+                for (int b=0; b < glyph.bits[y].length; b++) {
+                    int n = glyph.bits[y][b];
+                    for (int bit=0; bit < 8 && (b*8 + bit) < glyph.bbw; bit++, n <<= 1) {
+                        if ((n & 0x80) != 0) {
+                            atlas[rowStart + b*8 + bit] = argb;
+                        }
+                    }
+                }
             }
+        }
 
-            // Move past this character.  There is no kerning.
-            x += bitmap.dwx0;
-            y += bitmap.dwy0;
+        // If another thread raced to build the same atlas, theirs is
+        // equivalent, so it does not matter which one wins.
+        this.m_colorToAtlas.put(color, atlas);
+        return atlas;
+    }
 
-            // For reasons I do not understand, the Oracle JVM renders
-            // the space character with 3 pixels of space instead of the
-            // 4 it shows in the BDF file.  For the moment, I'm going to
-            // try to replicate that behavior in code rather than change
-            // the font definition.
-            if (codePoint == 32) {
-                x--;
+    /** Get this thread's scratch raster, ensuring it is at least
+      * 'w' by 'h'. */
+    private Scratch getScratch(int w, int h)
+    {
+        Scratch scratch = this.m_scratch.get();
+        if (scratch == null ||
+            scratch.image.getWidth() < w ||
+            scratch.image.getHeight() < h)
+        {
+            int newW = w;
+            int newH = h;
+            if (scratch != null) {
+                newW = Math.max(newW, scratch.image.getWidth());
+                newH = Math.max(newH, scratch.image.getHeight());
             }
+
+            // This initializes to all transparent.
+            scratch = new Scratch();
+            scratch.image = new BufferedImage(newW, newH,
+                                              BufferedImage.TYPE_INT_ARGB);
+            scratch.pixels =
+                ((DataBufferInt)scratch.image.getRaster().getDataBuffer()).getData();
+            this.m_scratch.set(scratch);
         }
+        return scratch;
+    }
 
-        RenderMetrics rm = new RenderMetrics();
-        rm.bound = bound;
-        rm.offsetSum = new Point(x-x0, y-y0);
-        return rm;
+    /** Draw 'str' into 'g' with the baseline at 'y' and start of the
+      * first character at 'x'. */
+    public void drawString(Graphics g, String str, int x, int y)
+    {
+        this.drawSubstring(g, str, 0, str.length(), x, y);
     }
 
-    /** Given a color and code point, look up or create an image
-      * containing the bitmap in 'bitmap' suitable for drawing. */
-    private BufferedImage getGlyphImage(Color color, int codePoint, BDFParser.Glyph bitmap)
+    /** Draw the characters of 's' in [start,end) into 'g' with the
+      * baseline at 'y' and start of the first character at 'x'. */
+    public void drawSubstring(
+        Graphics g,
+        CharSequence s,
+        int start,
+        int end,
+        int x,
+        int y)
     {
-        // Get or create the color-dependent map.
-        HashMap<Integer, BufferedImage> codeToImage =
-            this.colorToCodeToGlyph.get(color);
-        if (codeToImage == null) {
-            codeToImage = new HashMap<Integer, BufferedImage>();
-            this.colorToCodeToGlyph.put(color, codeToImage);
+        // First pass: compute the bounding box of the rendered pixels,
+        // relative to (x,y).
+        int minX = Integer.MAX_VALUE;
+        int minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE;
+        int maxY = Integer.MIN_VALUE;
+        int penX = 0;
+        int penY = 0;
+        for (int i=start; i < end; ) {
+            int codePoint = codePointAt(s, i, end);
+            i += Character.charCount(codePoint);
+
+            int gi = this.glyphIndex(codePoint);
+            if (gi < 0) {
+                continue;
+            }
+
+            int left = penX + this.m_left[gi];
+            int top = penY + this.m_top[gi];
+            minX = Math.min(minX, left);
+            minY = Math.min(minY, top);
+            maxX = Math.max(maxX, left + this.m_width[gi]);
+            maxY = Math.max(maxY, top + this.m_height[gi]);
+
+            penX += this.m_advanceX[gi];
+            penY += this.m_advanceY[gi];
         }
 
-        // Check the color-dependent map for this code point.
-        BufferedImage bi = codeToImage.get(codePoint);
-        if (bi != null) {
-            return bi;
+        int w = maxX - minX;
+        int h = maxY - minY;
+        if (w <= 0 || h <= 0 || !g.hitClip(x + minX, y + minY, w, h)) {
+            return;             // Nothing visible.
         }
 
-        // It appears that this automatically initializes to the entire
-        // image being transparent initially.
-        //
-        // I'm not sure about TYPE_INT_ARGB here.  I could imagine that
-        // it would be more efficient to use a different type, depending
-        // on the graphics hardware.
-        bi = new BufferedImage(bitmap.bbw, bitmap.bbh,
-                               BufferedImage.TYPE_INT_ARGB);
-        Graphics g = bi.createGraphics();
-        g.setColor(color);
-
-        // This is not particularly efficient, but it does not need to
-        // be since we only render each glyph once per color.
-        for (int y=0; y < bitmap.bits.length; y++) {
-            for (int b=0; b < bitmap.bits[y].length; b++) {
-                int n = bitmap.bits[y][b];
-                for (int bit=0; bit < 8 && (b*8 + bit) < bitmap.bbw; bit++, n <<= 1) {
-                    if ((n & 0x80) != 0) {
-                        // This draws a single pixel.
-                        g.drawLine(b*8 + bit, y,
-                                   b*8 + bit, y);
+        // Second pass: copy the glyph pixels from the atlas into the
+        // scratch raster.
+        int[] atlas = this.getAtlas(g.getColor());
+        Scratch scratch = this.getScratch(w, h);
+        int[] pixels = scratch.pixels;
+        int stride = scratch.image.getWidth();
+        penX = -minX;
+        penY = -minY;
+        for (int i=start; i < end; ) {
+            int codePoint = codePointAt(s, i, end);
+            i += Character.charCount(codePoint);
+
+            int gi = this.glyphIndex(codePoint);
+            if (gi < 0) {
+                continue;
+            }
+
+            int glyphWidth = this.m_width[gi];
+            int glyphHeight = this.m_height[gi];
+            int src = this.m_atlasY[gi] * this.m_atlasWidth + this.m_atlasX[gi];
+            int dest = (penY + this.m_top[gi]) * stride + penX + this.m_left[gi];
+            for (int row=0; row < glyphHeight; row++) {
+                for (int col=0; col < glyphWidth; col++) {
+                    int p = atlas[src + col];
+                    if (p != 0) {
+                        pixels[dest + col] = p;
                     }
                 }
+                src += this.m_atlasWidth;
+                dest += stride;
             }
+
+            penX += this.m_advanceX[gi];
+            penY += this.m_advanceY[gi];
         }
 
-        // Ensure any pending operations are flushed.
-        g.dispose();
+        g.drawImage(scratch.image,
+                    x + minX, y + minY, x + minX + w, y + minY + h,
+                    0, 0, w, h, null /*obs*/);
 
-        codeToImage.put(codePoint, bi);
-        return bi;
+        // Restore the scratch area to transparent.
+        for (int row=0; row < h; row++) {
+            Arrays.fill(pixels, row*stride, row*stride + w, 0);
+        }
     }
 
     /** Return the distance from the starting baseline to the ending
@@ -197,15 +392,25 @@ public class BitmapFont implements StringMeasurer {
       * the inter-character distance). */
     public int stringWidth(String str)
     {
-        RenderMetrics rm = drawOrMeasureString(null, str, 0,0);
-        return rm.offsetSum.x;
+        return this.substringWidth(str, 0, str.length());
     }
 
+    /** Like 'stringWidth', but for the characters of 's' in
+      * [start,end).  This does not allocate. */
     @Override
-    public int substringWidth(String s, int start, int end)
+    public int substringWidth(CharSequence s, int start, int end)
     {
-        // TODO: This is inefficient.
-        return stringWidth(s.substring(start, end));
+        int width = 0;
+        for (int i=start; i < end; ) {
+            int codePoint = codePointAt(s, i, end);
+            i += Character.charCount(codePoint);
+
+            int gi = this.glyphIndex(codePoint);
+            if (gi >= 0) {
+                width += this.m_advanceX[gi];
+            }
+        }
+        return width;
     }
 
     /** Return a bounding rectangle for the pixels rendered for 'str',
@@ -213,8 +418,43 @@ public class BitmapFont implements StringMeasurer {
       * to 'drawString'.  Returns (0,0,0,0) if 'str' is empty. */
     public Rectangle stringBound(String str)
     {
-        RenderMetrics rm = drawOrMeasureString(null, str, 0,0);
-        return rm.bound;
+        return this.substringBound(str, 0, str.length());
+    }
+
+    /** Like 'stringBound', but for the characters of 's' in
+      * [start,end).  The only allocation is the returned Rectangle. */
+    public Rectangle substringBound(CharSequence s, int start, int end)
+    {
+        int minX = Integer.MAX_VALUE;
+        int minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE;
+        int maxY = Integer.MIN_VALUE;
+        int penX = 0;
+        int penY = 0;
+        for (int i=start; i < end; ) {
+            int codePoint = codePointAt(s, i, end);
+            i += Character.charCount(codePoint);
+
+            int gi = this.glyphIndex(codePoint);
+            if (gi < 0) {
+                continue;
+            }
+
+            int left = penX + this.m_left[gi];
+            int top = penY + this.m_top[gi];
+            minX = Math.min(minX, left);
+            minY = Math.min(minY, top);
+            maxX = Math.max(maxX, left + this.m_width[gi]);
+            maxY = Math.max(maxY, top + this.m_height[gi]);
+
+            penX += this.m_advanceX[gi];
+            penY += this.m_advanceY[gi];
+        }
+
+        if (minX > maxX) {
+            return new Rectangle(0, 0, 0, 0);
+        }
+        return new Rectangle(minX, minY, maxX-minX, maxY-minY);
     }
 
     /** Return the usual height of a line of text.  This is meant to
@@ -279,11 +519,16 @@ public class BitmapFont implements StringMeasurer {
       * to a new line. */
     public void drawTextWithNewlines(Graphics g, String str, int x, int y)
     {
-        String lines[] = str.split("\n");
         int lineHeight = this.getStandardLineHeight();
-        for (String s : lines) {
-            this.drawString(g, s, x, y);
+        int start = 0;
+        while (start < str.length()) {
+            int end = str.indexOf('\n', start);
+            if (end < 0) {
+                end = str.length();
+            }
+            this.drawSubstring(g, str, start, end, x, y);
             y += lineHeight;
+            start = end+1;
         }
     }
 }
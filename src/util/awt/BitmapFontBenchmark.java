@@ -0,0 +1,114 @@
+// BitmapFontBenchmark.java
+// See toplevel license.txt for copyright and license terms.
+
+package util.awt;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+
+import java.net.URL;
+
+import java.util.zip.GZIPInputStream;
+
+import util.WrapText;
+import util.WrapTextPolicy;
+
+import static util.StringUtil.fmt;
+
+/** Simple timing harness for text measurement.  This is not part of
+  * the unit tests because its output depends on the machine.
+  *
+  * Usage: java -cp bin util.awt.BitmapFontBenchmark [iterations]
+  *
+  * Each measurement is preceded by a warm-up run of the same size so
+  * the JIT has compiled the code being measured. */
+public class BitmapFontBenchmark {
+    /** Load the font that DED uses for diagrams. */
+    private static BitmapFont loadDiagramFont()
+        throws Exception
+    {
+        String fname = "resources/helvR12sm.bdf.gz";
+        URL url = BitmapFontBenchmark.class.getResource("/"+fname);
+        InputStream in = (url != null? url.openStream() : new FileInputStream(fname));
+        try {
+            return new BitmapFont(new BDFParser(new GZIPInputStream(in)));
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /** Build an attribute block resembling a node with many fields
+      * and long values. */
+    private static String makeAttributeBlock(int lines)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (int i=0; i < lines; i++) {
+            sb.append(fmt("field%1$d: The quick brown fox jumps over the "+
+                          "lazy dog; value %1$d is somewhat longer than "+
+                          "the entity is wide.  It has two sentences.\n", i));
+        }
+        return sb.toString();
+    }
+
+    /** Time 'iters' calls of 'wrapText', returning microseconds per call. */
+    private static double timeWrapText(
+        BitmapFont font,
+        WrapTextPolicy policy,
+        String text,
+        int iters)
+    {
+        int sum = 0;
+        long start = System.nanoTime();
+        for (int i=0; i < iters; i++) {
+            sum += WrapText.wrapText(policy, 200, 2, text, font).length();
+        }
+        long elapsed = System.nanoTime() - start;
+        if (sum == 42) {
+            System.out.println("(prevent dead code elimination)");
+        }
+        return elapsed / 1000.0 / iters;
+    }
+
+    /** Time 'iters' calls of 'stringWidth', returning nanoseconds per call. */
+    private static double timeStringWidth(BitmapFont font, String text, int iters)
+    {
+        long sum = 0;
+        long start = System.nanoTime();
+        for (int i=0; i < iters; i++) {
+            sum += font.stringWidth(text);
+        }
+        long elapsed = System.nanoTime() - start;
+        if (sum == 42) {
+            System.out.println("(prevent dead code elimination)");
+        }
+        return (double)elapsed / iters;
+    }
+
+    public static void main(String args[])
+        throws Exception
+    {
+        int iters = (args.length > 0? Integer.parseInt(args[0]) : 2000);
+        BitmapFont font = loadDiagramFont();
+
+        String block = makeAttributeBlock(50);
+        String line = "The quick brown fox jumps over the lazy dog 0123456789";
+
+        for (WrapTextPolicy policy :
+                 new WrapTextPolicy[] { WrapTextPolicy.Whitespace,
+                                        WrapTextPolicy.Sentence }) {
+            timeWrapText(font, policy, block, iters);
+            System.out.println(fmt(
+                "wrapText %1$s, %2$d chars: %3$.1f us/call",
+                policy, block.length(),
+                timeWrapText(font, policy, block, iters)));
+        }
+
+        timeStringWidth(font, line, iters*100);
+        System.out.println(fmt(
+            "stringWidth, %1$d chars: %2$.1f ns/call",
+            line.length(), timeStringWidth(font, line, iters*100)));
+    }
+}
+
+// EOF
@@ -0,0 +1,140 @@
+// BoundedImageCache.java
+// See toplevel license.txt for copyright and license terms.
+
+package util.awt;
+
+import java.awt.image.BufferedImage;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static util.StringUtil.fmt;
+
+/** Map from keys of type 'K' to rendered images, with a bound on the
+  * total memory the images occupy.  When adding an image would exceed
+  * the bound, the least recently used entries are evicted.
+  *
+  * This also counts hits, misses, and evictions so the effectiveness
+  * of the cache can be reported.
+  *
+  * The methods are synchronized so that images being rendered
+  * concurrently, such as the tiles of an export, can share a cache. */
+public class BoundedImageCache<K> {
+    // -------------- instance data ----------------
+    /** Map from key to image, in access order, so the first entry
+      * is the least recently used. */
+    private LinkedHashMap<K, BufferedImage> m_map =
+        new LinkedHashMap<K, BufferedImage>(16, 0.75f, true /*accessOrder*/);
+
+    /** Maximum number of bytes of image data to retain. */
+    private long m_byteBudget;
+
+    /** Sum of 'imageBytes' over the images in 'm_map'. */
+    private long m_currentBytes = 0;
+
+    /** Number of 'get' calls that found an image. */
+    private long m_hits = 0;
+
+    /** Number of 'get' calls that did not. */
+    private long m_misses = 0;
+
+    /** Number of entries removed to stay within the budget. */
+    private long m_evictions = 0;
+
+    // ---------------- methods --------------------
+    public BoundedImageCache(long byteBudget)
+    {
+        this.m_byteBudget = byteBudget;
+    }
+
+    /** Approximate number of bytes used by 'image'.  This assumes four
+      * bytes per pixel, which is what the cached images normally use. */
+    public static long imageBytes(BufferedImage image)
+    {
+        return (long)image.getWidth() * (long)image.getHeight() * 4;
+    }
+
+    /** True if an image of the given dimensions is small enough to be
+      * worth caching.  Images that would consume more than a quarter
+      * of the budget would mostly just cause other entries to be
+      * evicted. */
+    public boolean wantToCache(int width, int height)
+    {
+        return (long)width * (long)height * 4 <= this.m_byteBudget / 4;
+    }
+
+    /** Get the image for 'key', or null if there is none.  This counts
+      * as a use of the entry for LRU purposes. */
+    public synchronized BufferedImage get(K key)
+    {
+        BufferedImage ret = this.m_map.get(key);
+        if (ret != null) {
+            this.m_hits++;
+        }
+        else {
+            this.m_misses++;
+        }
+        return ret;
+    }
+
+    /** Add or replace the image for 'key', evicting other entries if
+      * necessary to stay within the budget. */
+    public synchronized void put(K key, BufferedImage image)
+    {
+        BufferedImage old = this.m_map.put(key, image);
+        if (old != null) {
+            this.m_currentBytes -= imageBytes(old);
+        }
+        this.m_currentBytes += imageBytes(image);
+
+        // Evict least recently used entries, but never the one just
+        // added.
+        Iterator<Map.Entry<K, BufferedImage>> it =
+            this.m_map.entrySet().iterator();
+        while (this.m_currentBytes > this.m_byteBudget && it.hasNext()) {
+            Map.Entry<K, BufferedImage> entry = it.next();
+            if (entry.getValue() == image) {
+                continue;
+            }
+            this.m_currentBytes -= imageBytes(entry.getValue());
+            it.remove();
+            this.m_evictions++;
+        }
+    }
+
+    /** Remove all entries.  The counters are retained. */
+    public synchronized void clear()
+    {
+        this.m_map.clear();
+        this.m_currentBytes = 0;
+    }
+
+    /** Number of entries currently in the cache. */
+    public synchronized int size()
+    {
+        return this.m_map.size();
+    }
+
+    /** Number of bytes of image data currently retained. */
+    public synchronized long getCurrentBytes()
+    {
+        return this.m_currentBytes;
+    }
+
+    public synchronized long getHits() { return this.m_hits; }
+    public synchronized long getMisses() { return this.m_misses; }
+    public synchronized long getEvictions() { return this.m_evictions; }
+
+    /** Return a one-line summary of the cache state and counters. */
+    public synchronized String getStatistics()
+    {
+        return fmt("%1$d hits, %2$d misses, %3$d evictions, "+
+                   "%4$d entries, %5$d of %6$d bytes",
+                   this.m_hits, this.m_misses, this.m_evictions,
+                   this.m_map.size(), this.m_currentBytes,
+                   this.m_byteBudget);
+    }
+}
+
+// EOF
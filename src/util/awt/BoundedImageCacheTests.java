@@ -0,0 +1,67 @@
+// BoundedImageCacheTests.java
+// See toplevel license.txt for copyright and license terms.
+
+package util.awt;
+
+import java.awt.image.BufferedImage;
+
+/** Tests for BoundedImageCache. */
+public class BoundedImageCacheTests {
+    /** Make an image that occupies 'pixels'*4 bytes. */
+    private static BufferedImage makeImage(int pixels)
+    {
+        return new BufferedImage(pixels, 1, BufferedImage.TYPE_INT_ARGB);
+    }
+
+    public static void main(String args[])
+    {
+        // Room for 30 pixels.
+        BoundedImageCache<String> c = new BoundedImageCache<String>(120);
+        assert(c.size() == 0);
+        assert(c.get("a") == null);
+        assert(c.getMisses() == 1);
+
+        BufferedImage a = makeImage(10);
+        BufferedImage b = makeImage(10);
+        BufferedImage d = makeImage(10);
+        c.put("a", a);
+        c.put("b", b);
+        c.put("d", d);
+        assert(c.size() == 3);
+        assert(c.getCurrentBytes() == 120);
+        assert(c.getEvictions() == 0);
+
+        // Touch "a" so "b" becomes least recently used.
+        assert(c.get("a") == a);
+        assert(c.getHits() == 1);
+
+        // Adding another evicts "b".
+        BufferedImage e = makeImage(10);
+        c.put("e", e);
+        assert(c.size() == 3);
+        assert(c.getEvictions() == 1);
+        assert(c.get("b") == null);
+        assert(c.get("a") == a);
+        assert(c.get("d") == d);
+        assert(c.get("e") == e);
+
+        // Replacing an entry adjusts the byte count.
+        c.put("e", makeImage(5));
+        assert(c.getCurrentBytes() == 100);
+        assert(c.size() == 3);
+
+        // An entry larger than the budget is retained by itself.
+        c.put("big", makeImage(40));
+        assert(c.size() == 1);
+        assert(c.get("big") != null);
+
+        assert(c.wantToCache(7, 1));
+        assert(!c.wantToCache(8, 1));
+
+        c.clear();
+        assert(c.size() == 0);
+        assert(c.getCurrentBytes() == 0);
+    }
+}
+
+// EOF
@@ -0,0 +1,309 @@
+// GridIndex.java
+// See toplevel license.txt for copyright and license terms.
+
+package util.awt;
+
+import java.awt.Rectangle;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+
+/** Spatial index of rectangles, numbered 0, 1, 2, ... in the order they
+  * are added, that quickly finds the ones intersecting a query
+  * rectangle.
+  *
+  * The plane is divided into square cells, and each item is listed in
+  * every cell its rectangle touches.  A query looks only at the cells
+  * the query rectangle touches, so its cost depends on how much is near
+  * the query area rather than on the total number of items.  Items that
+  * would span a great many cells are kept in a separate list that every
+  * query checks. */
+public class GridIndex {
+    // ---------------- constants ------------------
+    /** Default width and height of a cell. */
+    public static final int defaultCellSize = 256;
+
+    /** Items touching more than this many cells go in 'm_large'. */
+    private static final int maxCellsPerItem = 64;
+
+    // ---------------- private types ------------------
+    /** Growable list of item numbers. */
+    private static class IntList {
+        public int[] elts = new int[4];
+        public int size = 0;
+
+        public void add(int x)
+        {
+            if (this.size == this.elts.length) {
+                this.elts = Arrays.copyOf(this.elts, this.size * 2);
+            }
+            this.elts[this.size++] = x;
+        }
+
+        /** Insert 'x', keeping the list in ascending order. */
+        public void insertSorted(int x)
+        {
+            this.add(x);
+            int i = this.size - 1;
+            while (i > 0 && this.elts[i-1] > x) {
+                this.elts[i] = this.elts[i-1];
+                i--;
+            }
+            this.elts[i] = x;
+        }
+
+        /** Remove 'x' if present.  Return true if it was. */
+        public boolean remove(int x)
+        {
+            for (int i=0; i < this.size; i++) {
+                if (this.elts[i] == x) {
+                    System.arraycopy(this.elts, i+1, this.elts, i,
+                                     this.size - i - 1);
+                    this.size--;
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    // ---------------- instance data ------------------
+    /** Width and height of a cell. */
+    private int m_cellSize;
+
+    /** Rectangle of each item, as x,y,w,h groups indexed by item
+      * number.  Empty rectangles are recorded but never found. */
+    private int[] m_rects = new int[64];
+
+    /** Number of items added. */
+    private int m_size = 0;
+
+    /** Map from cell coordinates, packed by 'cellKey', to the items
+      * touching that cell, in ascending order. */
+    private HashMap<Long, IntList> m_cells = new HashMap<Long, IntList>();
+
+    /** Items too large to list in each of their cells. */
+    private IntList m_large = new IntList();
+
+    // ------------------- methods ---------------------
+    public GridIndex(int cellSize)
+    {
+        if (cellSize <= 0) {
+            throw new IllegalArgumentException("cellSize must be positive");
+        }
+        this.m_cellSize = cellSize;
+    }
+
+    public GridIndex()
+    {
+        this(defaultCellSize);
+    }
+
+    /** Number of items added. */
+    public int size()
+    {
+        return this.m_size;
+    }
+
+    /** Cell coordinate containing pixel coordinate 'v'. */
+    private int cellOf(int v)
+    {
+        return Math.floorDiv(v, this.m_cellSize);
+    }
+
+    private static long cellKey(int cx, int cy)
+    {
+        return ((long)cx << 32) | (cy & 0xFFFFFFFFL);
+    }
+
+    /** Add an item with bounding rectangle 'r' and return its number. */
+    public int add(Rectangle r)
+    {
+        int id = this.m_size++;
+        if (this.m_rects.length < this.m_size * 4) {
+            this.m_rects = Arrays.copyOf(this.m_rects, this.m_rects.length * 2);
+        }
+        this.setRect(id, r);
+        this.insertItem(id, false /*sorted*/);
+        return id;
+    }
+
+    /** Change the rectangle of item 'id' to 'r'.  This takes time
+      * proportional to the number of items in the cells the old and
+      * new rectangles touch. */
+    public void update(int id, Rectangle r)
+    {
+        if (id < 0 || id >= this.m_size) {
+            throw new IndexOutOfBoundsException("no item "+id);
+        }
+        if (this.m_rects[id*4 + 0] == r.x &&
+            this.m_rects[id*4 + 1] == r.y &&
+            this.m_rects[id*4 + 2] == r.width &&
+            this.m_rects[id*4 + 3] == r.height)
+        {
+            return;
+        }
+        this.removeItem(id);
+        this.setRect(id, r);
+        this.insertItem(id, true /*sorted*/);
+    }
+
+    /** Record 'r' as the rectangle of 'id'. */
+    private void setRect(int id, Rectangle r)
+    {
+        this.m_rects[id*4 + 0] = r.x;
+        this.m_rects[id*4 + 1] = r.y;
+        this.m_rects[id*4 + 2] = r.width;
+        this.m_rects[id*4 + 3] = r.height;
+    }
+
+    /** Call 'list.add' or 'list.insertSorted'. */
+    private static void addToList(IntList list, int id, boolean sorted)
+    {
+        if (sorted) {
+            list.insertSorted(id);
+        }
+        else {
+            list.add(id);
+        }
+    }
+
+    /** List 'id' in the cells its rectangle touches, or in 'm_large'.
+      * If 'sorted', it might not be the largest item number, so insert
+      * it in order rather than appending. */
+    private void insertItem(int id, boolean sorted)
+    {
+        int x = this.m_rects[id*4 + 0];
+        int y = this.m_rects[id*4 + 1];
+        int w = this.m_rects[id*4 + 2];
+        int h = this.m_rects[id*4 + 3];
+        if (w <= 0 || h <= 0) {
+            return;
+        }
+
+        int cx1 = this.cellOf(x);
+        int cy1 = this.cellOf(y);
+        int cx2 = this.cellOf(x + w - 1);
+        int cy2 = this.cellOf(y + h - 1);
+        if ((long)(cx2 - cx1 + 1) * (cy2 - cy1 + 1) > maxCellsPerItem) {
+            addToList(this.m_large, id, sorted);
+            return;
+        }
+
+        for (int cy = cy1; cy <= cy2; cy++) {
+            for (int cx = cx1; cx <= cx2; cx++) {
+                Long key = cellKey(cx, cy);
+                IntList list = this.m_cells.get(key);
+                if (list == null) {
+                    list = new IntList();
+                    this.m_cells.put(key, list);
+                }
+                addToList(list, id, sorted);
+            }
+        }
+    }
+
+    /** Undo 'insertItem' for 'id', using its current rectangle. */
+    private void removeItem(int id)
+    {
+        int x = this.m_rects[id*4 + 0];
+        int y = this.m_rects[id*4 + 1];
+        int w = this.m_rects[id*4 + 2];
+        int h = this.m_rects[id*4 + 3];
+        if (w <= 0 || h <= 0) {
+            return;
+        }
+
+        int cx1 = this.cellOf(x);
+        int cy1 = this.cellOf(y);
+        int cx2 = this.cellOf(x + w - 1);
+        int cy2 = this.cellOf(y + h - 1);
+        if ((long)(cx2 - cx1 + 1) * (cy2 - cy1 + 1) > maxCellsPerItem) {
+            this.m_large.remove(id);
+            return;
+        }
+
+        for (int cy = cy1; cy <= cy2; cy++) {
+            for (int cx = cx1; cx <= cx2; cx++) {
+                Long key = cellKey(cx, cy);
+                IntList list = this.m_cells.get(key);
+                if (list != null) {
+                    list.remove(id);
+                    if (list.size == 0) {
+                        this.m_cells.remove(key);
+                    }
+                }
+            }
+        }
+    }
+
+    /** Return true if item 'id' intersects 'r'. */
+    private boolean itemIntersects(int id, Rectangle r)
+    {
+        int x = this.m_rects[id*4 + 0];
+        int y = this.m_rects[id*4 + 1];
+        int w = this.m_rects[id*4 + 2];
+        int h = this.m_rects[id*4 + 3];
+        return w > 0 && h > 0 &&
+               x < r.x + r.width && r.x < x + w &&
+               y < r.y + r.height && r.y < y + h;
+    }
+
+    /** Set the bit in 'result' of every item whose rectangle intersects
+      * 'r', leaving the other bits alone.  Iterating over the set bits
+      * then visits those items in the order they were added. */
+    public void query(Rectangle r, BitSet result)
+    {
+        if (r.isEmpty()) {
+            return;
+        }
+
+        for (int i=0; i < this.m_large.size; i++) {
+            int id = this.m_large.elts[i];
+            if (this.itemIntersects(id, r)) {
+                result.set(id);
+            }
+        }
+
+        int cx1 = this.cellOf(r.x);
+        int cy1 = this.cellOf(r.y);
+        int cx2 = this.cellOf(r.x + r.width - 1);
+        int cy2 = this.cellOf(r.y + r.height - 1);
+        if ((long)(cx2 - cx1 + 1) * (cy2 - cy1 + 1) > this.m_cells.size()) {
+            // The query covers more cells than are occupied, so it is
+            // faster to test every item.
+            for (int id=0; id < this.m_size; id++) {
+                if (this.itemIntersects(id, r)) {
+                    result.set(id);
+                }
+            }
+            return;
+        }
+
+        for (int cy = cy1; cy <= cy2; cy++) {
+            for (int cx = cx1; cx <= cx2; cx++) {
+                IntList list = this.m_cells.get(cellKey(cx, cy));
+                if (list == null) {
+                    continue;
+                }
+                for (int i=0; i < list.size; i++) {
+                    int id = list.elts[i];
+                    if (!result.get(id) && this.itemIntersects(id, r)) {
+                        result.set(id);
+                    }
+                }
+            }
+        }
+    }
+
+    /** Return the set of items intersecting 'r'. */
+    public BitSet query(Rectangle r)
+    {
+        BitSet ret = new BitSet(this.m_size);
+        this.query(r, ret);
+        return ret;
+    }
+}
+
+// EOF
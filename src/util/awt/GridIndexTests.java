@@ -0,0 +1,120 @@
+// GridIndexTests.java
+// See toplevel license.txt for copyright and license terms.
+
+package util.awt;
+
+import java.awt.Rectangle;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Random;
+
+/** Tests for GridIndex. */
+public class GridIndexTests {
+    /** Compare 'index' to a linear search of 'rects' for query 'q'. */
+    private static void checkQuery(
+        GridIndex index,
+        ArrayList<Rectangle> rects,
+        Rectangle q)
+    {
+        BitSet expect = new BitSet();
+        for (int i=0; i < rects.size(); i++) {
+            if (rects.get(i).intersects(q)) {
+                expect.set(i);
+            }
+        }
+        assert(index.query(q).equals(expect));
+    }
+
+    private static void testSimple()
+    {
+        GridIndex index = new GridIndex(100);
+        assert(index.add(new Rectangle(10, 10, 20, 20)) == 0);
+        assert(index.add(new Rectangle(150, 10, 20, 20)) == 1);
+        assert(index.add(new Rectangle(0, 0, 0, 0)) == 2);
+        assert(index.add(new Rectangle(-50, -50, 10, 10)) == 3);
+        assert(index.size() == 4);
+
+        BitSet b = index.query(new Rectangle(0, 0, 100, 100));
+        assert(b.cardinality() == 1 && b.get(0));
+
+        // Touching edges do not intersect.
+        assert(index.query(new Rectangle(30, 10, 120, 5)).isEmpty());
+
+        b = index.query(new Rectangle(-100, -100, 1000, 1000));
+        assert(b.cardinality() == 3 && !b.get(2));
+
+        b = index.query(new Rectangle(-45, -45, 1, 1));
+        assert(b.cardinality() == 1 && b.get(3));
+
+        assert(index.query(new Rectangle(10, 10, 0, 5)).isEmpty());
+    }
+
+    private static void testRandom()
+    {
+        Random r = new Random(1);
+        GridIndex index = new GridIndex(64);
+        ArrayList<Rectangle> rects = new ArrayList<Rectangle>();
+        for (int i=0; i < 2000; i++) {
+            // Mostly small items, with a few that span many cells.
+            int size = (i % 50 == 0)? 3000 : 80;
+            Rectangle rect = new Rectangle(
+                r.nextInt(4000) - 1000, r.nextInt(4000) - 1000,
+                r.nextInt(size), r.nextInt(size));
+            assert(index.add(rect) == i);
+            rects.add(rect);
+        }
+
+        for (int i=0; i < 500; i++) {
+            int size = (i % 10 == 0)? 5000 : 300;
+            checkQuery(index, rects, new Rectangle(
+                r.nextInt(4000) - 1000, r.nextInt(4000) - 1000,
+                r.nextInt(size) + 1, r.nextInt(size) + 1));
+        }
+    }
+
+    /** Move items around and check that queries see the new places. */
+    private static void testUpdate()
+    {
+        Random r = new Random(2);
+        GridIndex index = new GridIndex(64);
+        ArrayList<Rectangle> rects = new ArrayList<Rectangle>();
+        for (int i=0; i < 500; i++) {
+            Rectangle rect = new Rectangle(
+                r.nextInt(2000), r.nextInt(2000), r.nextInt(80), r.nextInt(80));
+            index.add(rect);
+            rects.add(rect);
+        }
+
+        for (int i=0; i < 2000; i++) {
+            // Sometimes make the item large or empty, so it moves
+            // between the cells and the large list.
+            int id = r.nextInt(rects.size());
+            int size = (i % 20 == 0)? 3000 : (i % 20 == 1)? 1 : 80;
+            Rectangle rect = new Rectangle(
+                r.nextInt(2000) - 500, r.nextInt(2000) - 500,
+                r.nextInt(size), r.nextInt(size));
+            index.update(id, rect);
+            rects.set(id, rect);
+
+            if (i % 10 == 0) {
+                checkQuery(index, rects, new Rectangle(
+                    r.nextInt(2000) - 500, r.nextInt(2000) - 500,
+                    r.nextInt(400) + 1, r.nextInt(400) + 1));
+            }
+        }
+        assert(index.size() == 500);
+
+        // Queries covering everything use the linear scan.
+        checkQuery(index, rects, new Rectangle(-10000, -10000, 20000, 20000));
+    }
+
+    public static void main(String args[])
+    {
+        testSimple();
+        testRandom();
+        testUpdate();
+    }
+}
+
+// EOF
@@ -0,0 +1,248 @@
+// ImageCache.java
+// See toplevel license.txt for copyright and license terms.
+
+package util.awt;
+
+import java.awt.Image;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static util.StringUtil.fmt;
+
+/** Map from names to images loaded from files or resources, with a
+  * bound on the total memory the images occupy.  A name can be mapped
+  * to null, meaning the image could not be loaded.
+  *
+  * When adding an image would exceed the bound, the least recently used
+  * entries are evicted.  An evicted image is still reachable through a
+  * SoftReference, so if the garbage collector has not reclaimed it by
+  * the time it is wanted again, it does not have to be reloaded.
+  *
+  * The methods are synchronized so that one cache can be shared by
+  * everything that loads images, including background loader threads. */
+public class ImageCache {
+    // -------------- constants ----------------
+    /** Default for the byte budget. */
+    public static final long defaultByteBudget = 64L << 20;
+
+    // -------------- private types ----------------
+    /** Soft reference to an evicted image that remembers its name, so
+      * it can be removed from 'm_softMap' once the image is collected. */
+    private static class NamedSoftReference extends SoftReference<Image> {
+        public final String name;
+
+        public NamedSoftReference(String name, Image image,
+                                  ReferenceQueue<Image> queue)
+        {
+            super(image, queue);
+            this.name = name;
+        }
+    }
+
+    // -------------- instance data ----------------
+    /** Map from name to image, in access order, so the first entry is
+      * the least recently used. */
+    private LinkedHashMap<String, Image> m_map =
+        new LinkedHashMap<String, Image>(16, 0.75f, true /*accessOrder*/);
+
+    /** Images evicted from 'm_map' that might not be collected yet. */
+    private HashMap<String, NamedSoftReference> m_softMap =
+        new HashMap<String, NamedSoftReference>();
+
+    /** Queue of references in 'm_softMap' whose images were collected. */
+    private ReferenceQueue<Image> m_collected = new ReferenceQueue<Image>();
+
+    /** Maximum number of bytes of image data to retain in 'm_map'. */
+    private long m_byteBudget;
+
+    /** Sum of 'imageBytes' over the images in 'm_map'. */
+    private long m_currentBytes = 0;
+
+    /** Number of 'containsKey' calls that found an entry. */
+    private long m_hits = 0;
+
+    /** Number of those hits that recovered an evicted image through
+      * its soft reference. */
+    private long m_softHits = 0;
+
+    /** Number of 'containsKey' calls that did not find an entry. */
+    private long m_misses = 0;
+
+    /** Number of entries removed from 'm_map' to stay within the
+      * budget. */
+    private long m_evictions = 0;
+
+    // ---------------- methods --------------------
+    public ImageCache(long byteBudget)
+    {
+        this.m_byteBudget = byteBudget;
+    }
+
+    public ImageCache()
+    {
+        this(defaultByteBudget);
+    }
+
+    /** Approximate number of bytes used by 'image', assuming four
+      * bytes per pixel.  A null image, or one whose size is not yet
+      * known, counts as zero. */
+    public static long imageBytes(Image image)
+    {
+        if (image == null) {
+            return 0;
+        }
+        long w = Math.max(image.getWidth(null), 0);
+        long h = Math.max(image.getHeight(null), 0);
+        return w * h * 4;
+    }
+
+    public synchronized long getByteBudget()
+    {
+        return this.m_byteBudget;
+    }
+
+    /** True if there is an entry for 'name', possibly one saying the
+      * image could not be loaded.  An evicted image that has not been
+      * collected is restored.  This is the lookup that the hit and miss
+      * counters measure. */
+    public synchronized boolean containsKey(String name)
+    {
+        this.expungeCollected();
+
+        if (this.m_map.containsKey(name)) {
+            this.m_hits++;
+            return true;
+        }
+
+        NamedSoftReference ref = this.m_softMap.get(name);
+        if (ref != null) {
+            Image image = ref.get();
+            if (image != null) {
+                this.m_hits++;
+                this.m_softHits++;
+                this.put(name, image);
+                return true;
+            }
+        }
+
+        this.m_misses++;
+        return false;
+    }
+
+    /** Get the image for 'name', or null if there is none or it could
+      * not be loaded.  This counts as a use of the entry for LRU
+      * purposes. */
+    public synchronized Image get(String name)
+    {
+        return this.m_map.get(name);
+    }
+
+    /** Add or replace the image for 'name', which can be null,
+      * evicting other entries if necessary to stay within the budget. */
+    public synchronized void put(String name, Image image)
+    {
+        this.m_softMap.remove(name);
+
+        if (this.m_map.containsKey(name)) {
+            this.m_currentBytes -= imageBytes(this.m_map.get(name));
+        }
+        this.m_map.put(name, image);
+        this.m_currentBytes += imageBytes(image);
+
+        // Evict least recently used entries, but never the one just
+        // added.  Entries for images that failed to load cost nothing,
+        // so they are left alone.
+        Iterator<Map.Entry<String, Image>> it =
+            this.m_map.entrySet().iterator();
+        while (this.m_currentBytes > this.m_byteBudget && it.hasNext()) {
+            Map.Entry<String, Image> entry = it.next();
+            Image victim = entry.getValue();
+            if (victim == null || entry.getKey().equals(name)) {
+                continue;
+            }
+            this.m_currentBytes -= imageBytes(victim);
+            it.remove();
+            this.m_softMap.put(entry.getKey(),
+                new NamedSoftReference(entry.getKey(), victim,
+                                       this.m_collected));
+            this.m_evictions++;
+        }
+    }
+
+    /** Remove any entry for 'name', so the next lookup is a miss. */
+    public synchronized void remove(String name)
+    {
+        this.m_softMap.remove(name);
+        if (this.m_map.containsKey(name)) {
+            this.m_currentBytes -= imageBytes(this.m_map.remove(name));
+        }
+    }
+
+    /** Remove all entries.  The counters are retained. */
+    public synchronized void clear()
+    {
+        this.m_map.clear();
+        this.m_softMap.clear();
+        this.m_currentBytes = 0;
+    }
+
+    /** Remove the entries of 'm_softMap' whose images were collected. */
+    private void expungeCollected()
+    {
+        Reference<? extends Image> r;
+        while ((r = this.m_collected.poll()) != null) {
+            NamedSoftReference ref = (NamedSoftReference)r;
+
+            // The name might have been evicted again since then.
+            if (this.m_softMap.get(ref.name) == ref) {
+                this.m_softMap.remove(ref.name);
+            }
+        }
+    }
+
+    /** Number of entries retained within the budget. */
+    public synchronized int size()
+    {
+        return this.m_map.size();
+    }
+
+    /** Number of bytes of image data retained within the budget. */
+    public synchronized long getCurrentBytes()
+    {
+        return this.m_currentBytes;
+    }
+
+    /** Number of evicted images that are only softly reachable and
+      * have not been seen to be collected. */
+    public synchronized int getSoftSize()
+    {
+        this.expungeCollected();
+        return this.m_softMap.size();
+    }
+
+    public synchronized long getHits() { return this.m_hits; }
+    public synchronized long getSoftHits() { return this.m_softHits; }
+    public synchronized long getMisses() { return this.m_misses; }
+    public synchronized long getEvictions() { return this.m_evictions; }
+
+    /** Return a one-line summary of the cache state and counters. */
+    public synchronized String getStatistics()
+    {
+        this.expungeCollected();
+        return fmt("%1$d hits (%2$d from soft references), %3$d misses, "+
+                   "%4$d evictions, %5$d entries, %6$d of %7$d bytes, "+
+                   "%8$d soft references",
+                   this.m_hits, this.m_softHits, this.m_misses,
+                   this.m_evictions, this.m_map.size(), this.m_currentBytes,
+                   this.m_byteBudget, this.m_softMap.size());
+    }
+}
+
+// EOF
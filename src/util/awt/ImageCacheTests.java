@@ -0,0 +1,94 @@
+// ImageCacheTests.java
+// See toplevel license.txt for copyright and license terms.
+
+package util.awt;
+
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+
+/** Tests for ImageCache. */
+public class ImageCacheTests {
+    /** Make an image that occupies 'pixels'*4 bytes. */
+    private static BufferedImage makeImage(int pixels)
+    {
+        return new BufferedImage(pixels, 1, BufferedImage.TYPE_INT_ARGB);
+    }
+
+    public static void main(String args[])
+    {
+        // Room for 30 pixels.
+        ImageCache c = new ImageCache(120);
+        assert(!c.containsKey("a"));
+        assert(c.getMisses() == 1);
+
+        // A failed load is remembered, and costs nothing.
+        c.put("bad", null);
+        assert(c.containsKey("bad"));
+        assert(c.get("bad") == null);
+        assert(c.getHits() == 1);
+        assert(c.getCurrentBytes() == 0);
+
+        Image a = makeImage(10);
+        Image b = makeImage(10);
+        Image d = makeImage(10);
+        c.put("a", a);
+        c.put("b", b);
+        c.put("d", d);
+        assert(c.size() == 4);
+        assert(c.getCurrentBytes() == 120);
+        assert(c.getEvictions() == 0);
+
+        // Touch "a" so "b" becomes least recently used.
+        assert(c.containsKey("a"));
+        assert(c.get("a") == a);
+
+        // Adding another evicts "b", but not the null entry.
+        Image e = makeImage(10);
+        c.put("e", e);
+        assert(c.size() == 4);
+        assert(c.getEvictions() == 1);
+        assert(c.getCurrentBytes() == 120);
+        assert(c.getSoftSize() == 1);
+        assert(c.containsKey("bad"));
+
+        // "b" is still strongly reachable here, so it comes back from
+        // its soft reference, evicting the least recently used, "d".
+        assert(c.containsKey("b"));
+        assert(c.get("b") == b);
+        assert(c.getSoftHits() == 1);
+        assert(c.getEvictions() == 2);
+        assert(c.getCurrentBytes() == 120);
+        assert(c.getSoftSize() == 1);
+
+        // Replacing an entry adjusts the byte count.
+        c.put("e", makeImage(5));
+        assert(c.getCurrentBytes() == 100);
+
+        // Removal forgets soft references too.
+        c.remove("d");
+        assert(c.getSoftSize() == 0);
+        long misses = c.getMisses();
+        assert(!c.containsKey("d"));
+        assert(c.getMisses() == misses+1);
+        c.remove("e");
+        assert(c.getCurrentBytes() == 80);
+
+        // An entry larger than the budget is retained by itself, along
+        // with the null entry.
+        c.put("big", makeImage(40));
+        assert(c.size() == 2);
+        assert(c.get("big") != null);
+        assert(c.getCurrentBytes() == 160);
+
+        assert(ImageCache.imageBytes(null) == 0);
+        assert(ImageCache.imageBytes(makeImage(3)) == 12);
+
+        c.clear();
+        assert(c.size() == 0);
+        assert(c.getSoftSize() == 0);
+        assert(c.getCurrentBytes() == 0);
+        assert(!c.containsKey("a"));
+    }
+}
+
+// EOF
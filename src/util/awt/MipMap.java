@@ -0,0 +1,126 @@
+// MipMap.java
+// See toplevel license.txt for copyright and license terms.
+
+package util.awt;
+
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+
+import java.util.ArrayList;
+
+/** An image along with copies of it reduced by successive factors of
+  * two, for drawing it at a small scale.
+  *
+  * Drawing a large image much smaller than its natural size makes Java2D
+  * read every source pixel and, with the default interpolation, skip most
+  * of them, which is both slow and noisy.  Drawing the nearest reduced
+  * copy instead touches few pixels, and each was produced by averaging
+  * the level above it.
+  *
+  * Levels are computed when first requested. */
+public class MipMap {
+    // ---------------- instance data ------------------
+    /** Level 0 is the original image.  Level 'i' is 2^-i times its size,
+      * rounded up, and at least 1x1.  Levels are added as needed. */
+    private ArrayList<Image> m_levels = new ArrayList<Image>();
+
+    /** Size of the original image. */
+    private int m_width, m_height;
+
+    // ------------------- methods ---------------------
+    /** Make a MipMap of 'image', which must already be loaded so it
+      * knows its size. */
+    public MipMap(Image image)
+    {
+        this.m_width = image.getWidth(null);
+        this.m_height = image.getHeight(null);
+        if (this.m_width <= 0 || this.m_height <= 0) {
+            throw new IllegalArgumentException("image size is not known");
+        }
+        this.m_levels.add(image);
+    }
+
+    public int getWidth()
+    {
+        return this.m_width;
+    }
+
+    public int getHeight()
+    {
+        return this.m_height;
+    }
+
+    /** Approximate number of bytes used by the original image and all
+      * the reduced levels, whether or not they have been computed yet,
+      * assuming four bytes per pixel.  The reduced levels add a third
+      * to the original. */
+    public long estimateBytes()
+    {
+        return (long)this.m_width * (long)this.m_height * 4 * 4 / 3;
+    }
+
+    /** Return the number of the smallest level that still has at least
+      * 'scale' times the resolution of the original, so drawing it
+      * stretched to the scaled size does not lose detail. */
+    public int getLevelForScale(double scale)
+    {
+        int level = 0;
+        int w = this.m_width;
+        int h = this.m_height;
+        while ((w > 1 || h > 1) &&
+               scale <= 0.5 / (1 << level))
+        {
+            level++;
+            w = (w + 1) / 2;
+            h = (h + 1) / 2;
+        }
+        return level;
+    }
+
+    /** Get the image for 'level', computing it if necessary. */
+    public synchronized Image getLevel(int level)
+    {
+        while (this.m_levels.size() <= level) {
+            Image prev = this.m_levels.get(this.m_levels.size()-1);
+            this.m_levels.add(halve(prev));
+        }
+        return this.m_levels.get(level);
+    }
+
+    /** Get the level of 'getLevelForScale(scale)'. */
+    public Image getImageForScale(double scale)
+    {
+        return this.getLevel(this.getLevelForScale(scale));
+    }
+
+    /** Return a copy of 'image' half the size in each dimension, rounded
+      * up, with each pixel blending the ones it replaces. */
+    private static BufferedImage halve(Image image)
+    {
+        int w = image.getWidth(null);
+        int h = image.getHeight(null);
+        int hw = Math.max(1, (w + 1) / 2);
+        int hh = Math.max(1, (h + 1) / 2);
+
+        BufferedImage ret = AWTUtil.createCompatibleImage(
+            hw, hh, AWTUtil.getTransparency(image));
+        Graphics2D g = ret.createGraphics();
+        try {
+            // Bilinear interpolation at half size samples the middle of
+            // each 2x2 block, averaging its four pixels.  With an odd
+            // dimension the last row or column is stretched slightly
+            // rather than reading past the edge.
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                               RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(image, 0, 0, hw, hh, 0, 0, w, h, null);
+        }
+        finally {
+            g.dispose();
+        }
+        return ret;
+    }
+}
+
+// EOF
@@ -0,0 +1,66 @@
+// MipMapTests.java
+// See toplevel license.txt for copyright and license terms.
+
+package util.awt;
+
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+
+/** Tests for MipMap. */
+public class MipMapTests {
+    private static void testLevels()
+    {
+        BufferedImage image = new BufferedImage(100, 37, BufferedImage.TYPE_INT_RGB);
+        MipMap m = new MipMap(image);
+        assert(m.getWidth() == 100 && m.getHeight() == 37);
+        assert(m.estimateBytes() == 100L * 37 * 4 * 4 / 3);
+
+        assert(m.getLevelForScale(2.0) == 0);
+        assert(m.getLevelForScale(1.0) == 0);
+        assert(m.getLevelForScale(0.6) == 0);
+        assert(m.getLevelForScale(0.5) == 1);
+        assert(m.getLevelForScale(0.3) == 1);
+        assert(m.getLevelForScale(0.25) == 2);
+        assert(m.getLevelForScale(0.1) == 3);
+
+        // Levels stop at 1x1.
+        assert(m.getLevelForScale(0.0001) == 7);
+
+        assert(m.getLevel(0) == image);
+        Image l1 = m.getLevel(1);
+        assert(l1.getWidth(null) == 50 && l1.getHeight(null) == 19);
+        Image l3 = m.getLevel(3);
+        assert(l3.getWidth(null) == 13 && l3.getHeight(null) == 5);
+        assert(m.getLevel(1) == l1);
+        Image l7 = m.getImageForScale(0.0001);
+        assert(l7.getWidth(null) == 1 && l7.getHeight(null) == 1);
+    }
+
+    /** A black and white checkerboard should shrink to gray. */
+    private static void testAveraging()
+    {
+        BufferedImage image = new BufferedImage(16, 16, BufferedImage.TYPE_INT_RGB);
+        for (int y=0; y < 16; y++) {
+            for (int x=0; x < 16; x++) {
+                image.setRGB(x, y, ((x+y) & 1) == 0? 0xFFFFFF : 0x000000);
+            }
+        }
+
+        BufferedImage l2 = (BufferedImage)new MipMap(image).getLevel(2);
+        assert(l2.getWidth() == 4);
+        for (int y=0; y < 4; y++) {
+            for (int x=0; x < 4; x++) {
+                int green = (l2.getRGB(x, y) >> 8) & 0xFF;
+                assert(96 <= green && green <= 160);
+            }
+        }
+    }
+
+    public static void main(String args[])
+    {
+        testLevels();
+        testAveraging();
+    }
+}
+
+// EOF
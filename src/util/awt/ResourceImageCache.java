@@ -7,21 +7,41 @@ import java.awt.Image;
 import java.io.FileInputStream;
 import java.io.InputStream;
 import java.net.URL;
-import java.util.HashMap;
 
 import javax.imageio.ImageIO;
 
 /** Cache Images loaded from resources. */
 public class ResourceImageCache {
     // -------------- instance data ----------------
-    /** Map from resource name to its Image, or null if it could
-      * not be loaded. */
-    private HashMap<String, Image> cache;
+    /** Cache holding the resource images under 'getCacheKey', and
+      * possibly other images. */
+    private ImageCache cache;
 
     // ---------------- methods --------------------
+    /** Keep the images in 'cache', which can be shared with other
+      * users of images so they are all within one budget. */
+    public ResourceImageCache(ImageCache cache)
+    {
+        this.cache = cache;
+    }
+
     public ResourceImageCache()
     {
-        this.cache = new HashMap<String, Image>();
+        this(new ImageCache());
+    }
+
+    /** Get the cache holding the images, which other kinds of image can
+      * also be kept in. */
+    public ImageCache getImageCache()
+    {
+        return this.cache;
+    }
+
+    /** Name of 'resourceName' in the ImageCache, distinct from the
+      * names of image files. */
+    private static String getCacheKey(String resourceName)
+    {
+        return "resource:"+resourceName;
     }
 
     /** Retrieve an image resource called 'resourceName'.  This name
@@ -32,15 +52,16 @@ public class ResourceImageCache {
     public Image getResourceImage(String resourceName)
     {
         // Consult the cache.
-        if (this.cache.containsKey(resourceName)) {
-            return this.cache.get(resourceName);  // Might be null.
+        String key = getCacheKey(resourceName);
+        if (this.cache.containsKey(key)) {
+            return this.cache.get(key);  // Might be null.
         }
 
         // Try to load the image from disk.
         Image image = this.innerGetResourceImage(resourceName);
 
         // Cache the result, whatever it was, even if null.
-        this.cache.put(resourceName, image);
+        this.cache.put(key, image);
 
         return image;
     }
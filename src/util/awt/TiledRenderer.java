@@ -0,0 +1,325 @@
+// TiledRenderer.java
+// See toplevel license.txt for copyright and license terms.
+
+package util.awt;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Polygon;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.Stroke;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/** Render an image by dividing it into rectangular tiles and painting
+  * the tiles concurrently on a fork/join pool.
+  *
+  * Each tile is painted into its own image through a Graphics that is
+  * translated so the tile's upper-left corner is at the tile position
+  * and clipped to the tile, then copied into the result.  Lines,
+  * rectangles, text and images come out identical to painting the
+  * whole image at once.
+  *
+  * Filled polygons and curves do not: the Java2D rasterizer can choose
+  * different edge pixels for them under a different translation or
+  * clip.  Painters therefore draw those with 'fillPolygon', 'fillOval',
+  * 'drawOval', 'drawArc' and 'fill' here.  When painting a tile, these
+  * rasterize the shape into a mask positioned only by the shape's own
+  * bounds, then draw the mask, so every tile gets the same pixels.
+  * Otherwise they just call the Graphics method of the same name. */
+public class TiledRenderer {
+    // ---------------- public types ------------------
+    /** Something that paints an image.  'paint' is called concurrently
+      * from multiple threads, so it must only read shared state, or
+      * protect what it writes. */
+    public static interface Painter {
+        public void paint(Graphics2D g);
+    }
+
+    // ---------------- constants ------------------
+    /** Default width and height of a tile in pixels. */
+    public static final int defaultTileSize = 256;
+
+    // ---------------- private types ------------------
+    /** Key of the rendering hint that marks a Graphics as painting a
+      * tile, so shapes must be drawn through a mask. */
+    private static class TileHintKey extends RenderingHints.Key {
+        public TileHintKey()
+        {
+            super(0);
+        }
+
+        @Override
+        public boolean isCompatibleValue(Object val)
+        {
+            return val instanceof Boolean;
+        }
+    }
+
+    /** A call to one of the Graphics shape methods. */
+    private static abstract class ShapeCall {
+        /** Paint the shape onto 'g'. */
+        public abstract void paint(Graphics2D g);
+    }
+
+    // ---------------- private data ------------------
+    private static final TileHintKey tileHintKey = new TileHintKey();
+
+    /** Task to paint one tile and copy it into the destination. */
+    private static class TileTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final BufferedImage m_dest;
+        private final Painter m_painter;
+        private final int m_x, m_y, m_width, m_height;
+
+        public TileTask(BufferedImage dest, Painter painter,
+                        int x, int y, int width, int height)
+        {
+            this.m_dest = dest;
+            this.m_painter = painter;
+            this.m_x = x;
+            this.m_y = y;
+            this.m_width = width;
+            this.m_height = height;
+        }
+
+        @Override
+        protected void compute()
+        {
+            BufferedImage tile =
+                new BufferedImage(this.m_width, this.m_height, this.m_dest.getType());
+            Graphics2D g = tile.createGraphics();
+            try {
+                g.setRenderingHint(tileHintKey, Boolean.TRUE);
+                g.translate(-this.m_x, -this.m_y);
+                g.clipRect(this.m_x, this.m_y, this.m_width, this.m_height);
+                this.m_painter.paint(g);
+            }
+            finally {
+                g.dispose();
+            }
+
+            // Tiles are disjoint, but the raster keeps some bookkeeping
+            // state of its own, so serialize the copies.  They are fast
+            // compared to painting.
+            synchronized (this.m_dest) {
+                this.m_dest.getRaster().setDataElements(
+                    this.m_x, this.m_y, tile.getRaster());
+            }
+        }
+    }
+
+    // ---------------- methods ------------------
+    /** Render an image of 'width' by 'height' pixels of 'imageType'
+      * using 'painter', with tiles of at most 'tileSize' pixels on a
+      * side painted on 'pool'.  An image that fits in one tile is
+      * painted on the calling thread. */
+    public static BufferedImage render(
+        int width,
+        int height,
+        int imageType,
+        int tileSize,
+        ForkJoinPool pool,
+        Painter painter)
+    {
+        assert(tileSize > 0);
+        BufferedImage dest = new BufferedImage(width, height, imageType);
+
+        final ArrayList<TileTask> tasks = new ArrayList<TileTask>();
+        for (int y=0; y < height; y += tileSize) {
+            for (int x=0; x < width; x += tileSize) {
+                tasks.add(new TileTask(dest, painter, x, y,
+                                       Math.min(tileSize, width - x),
+                                       Math.min(tileSize, height - y)));
+            }
+        }
+
+        if (tasks.size() == 1) {
+            tasks.get(0).compute();
+        }
+        else if (!tasks.isEmpty()) {
+            // 'invoke' waits for all of the tiles, rethrows any exception
+            // thrown by one of them, and makes their writes visible here.
+            pool.invoke(new RecursiveAction() {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected void compute()
+                {
+                    invokeAll(tasks);
+                }
+            });
+        }
+
+        return dest;
+    }
+
+    /** Like 'Graphics.fillPolygon', but with the same pixels in every
+      * tile. */
+    public static void fillPolygon(Graphics g, final Polygon p)
+    {
+        Rectangle bounds = p.getBounds();
+        bounds.grow(1, 1);
+        paintShape(g, bounds, false /*stroked*/, new ShapeCall() {
+            @Override
+            public void paint(Graphics2D g)
+            {
+                g.fillPolygon(p);
+            }
+        });
+    }
+
+    /** Like 'Graphics.fillOval', but with the same pixels in every
+      * tile. */
+    public static void fillOval(
+        Graphics g, final int x, final int y, final int w, final int h)
+    {
+        paintShape(g, new Rectangle(x-1, y-1, w+2, h+2), false /*stroked*/,
+            new ShapeCall() {
+                @Override
+                public void paint(Graphics2D g)
+                {
+                    g.fillOval(x, y, w, h);
+                }
+            });
+    }
+
+    /** Like 'Graphics.drawOval', but with the same pixels in every
+      * tile. */
+    public static void drawOval(
+        Graphics g, final int x, final int y, final int w, final int h)
+    {
+        paintShape(g, new Rectangle(x, y, w, h), true /*stroked*/,
+            new ShapeCall() {
+                @Override
+                public void paint(Graphics2D g)
+                {
+                    g.drawOval(x, y, w, h);
+                }
+            });
+    }
+
+    /** Like 'Graphics.drawArc', but with the same pixels in every
+      * tile.  The bounds are those of the whole oval. */
+    public static void drawArc(
+        Graphics g, final int x, final int y, final int w, final int h,
+        final int startAngle, final int arcAngle)
+    {
+        paintShape(g, new Rectangle(x, y, w, h), true /*stroked*/,
+            new ShapeCall() {
+                @Override
+                public void paint(Graphics2D g)
+                {
+                    g.drawArc(x, y, w, h, startAngle, arcAngle);
+                }
+            });
+    }
+
+    /** Like 'Graphics2D.fill', but with the same pixels in every tile. */
+    public static void fill(Graphics g, final Shape s)
+    {
+        Rectangle bounds = s.getBounds();
+        bounds.grow(1, 1);
+        paintShape(g, bounds, false /*stroked*/, new ShapeCall() {
+            @Override
+            public void paint(Graphics2D g)
+            {
+                g.fill(s);
+            }
+        });
+    }
+
+    /** Make 'call' paint onto 'g0'.  'bounds' contains what it paints,
+      * except that if 'stroked', the line extends outside by up to the
+      * width of the stroke. */
+    private static void paintShape(
+        Graphics g0,
+        Rectangle bounds,
+        boolean stroked,
+        ShapeCall call)
+    {
+        Graphics2D g = (Graphics2D)g0;
+        if (!isPaintingTile(g) || !(g.getPaint() instanceof Color)) {
+            call.paint(g);
+            return;
+        }
+
+        if (stroked) {
+            Stroke stroke = g.getStroke();
+            if (!(stroke instanceof BasicStroke)) {
+                call.paint(g);
+                return;
+            }
+            int margin = (int)Math.ceil(((BasicStroke)stroke).getLineWidth()) + 1;
+            bounds.grow(margin, margin);
+        }
+
+        Rectangle clip = g.getClipBounds();
+        if (bounds.isEmpty() ||
+            (clip != null && !clip.intersects(bounds)))
+        {
+            return;
+        }
+
+        // One bit per pixel: transparent, or the current color.
+        Color c = (Color)g.getPaint();
+        IndexColorModel cm = new IndexColorModel(1, 2,
+            new byte[] { 0, (byte)c.getRed() },
+            new byte[] { 0, (byte)c.getGreen() },
+            new byte[] { 0, (byte)c.getBlue() },
+            new byte[] { 0, (byte)c.getAlpha() });
+        BufferedImage mask = new BufferedImage(bounds.width, bounds.height,
+            BufferedImage.TYPE_BYTE_BINARY, cm);
+
+        Graphics2D mg = mask.createGraphics();
+        try {
+            mg.setRenderingHints(g.getRenderingHints());
+            mg.setRenderingHint(tileHintKey, Boolean.FALSE);
+            mg.setStroke(g.getStroke());
+            mg.setColor(new Color(cm.getRGB(1), true /*hasalpha*/));
+            mg.translate(-bounds.x, -bounds.y);
+            call.paint(mg);
+        }
+        finally {
+            mg.dispose();
+        }
+
+        g.drawImage(mask, bounds.x, bounds.y, null /*obs*/);
+    }
+
+    /** True if 'g' is painting a tile, with a transform that is an
+      * integer translation, so the shape methods need to use a mask. */
+    private static boolean isPaintingTile(Graphics2D g)
+    {
+        if (g.getRenderingHint(tileHintKey) != Boolean.TRUE) {
+            return false;
+        }
+        AffineTransform t = g.getTransform();
+        return (t.getType() & ~AffineTransform.TYPE_TRANSLATION) == 0 &&
+               t.getTranslateX() == Math.rint(t.getTranslateX()) &&
+               t.getTranslateY() == Math.rint(t.getTranslateY());
+    }
+
+    /** Render with the default tile size on the common pool. */
+    public static BufferedImage render(
+        int width,
+        int height,
+        int imageType,
+        Painter painter)
+    {
+        return render(width, height, imageType, defaultTileSize,
+                      ForkJoinPool.commonPool(), painter);
+    }
+}
+
+// EOF
@@ -0,0 +1,134 @@
+// TiledRendererTests.java
+// See toplevel license.txt for copyright and license terms.
+
+package util.awt;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Polygon;
+import java.awt.geom.GeneralPath;
+import java.awt.image.BufferedImage;
+
+import java.util.concurrent.ForkJoinPool;
+
+/** Tests for TiledRenderer. */
+public class TiledRendererTests {
+    /** Paint some lines, rectangles, polygons and curves that cross
+      * tile boundaries. */
+    private static class TestPainter implements TiledRenderer.Painter {
+        @Override
+        public void paint(Graphics2D g)
+        {
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, 300, 200);
+
+            g.setColor(Color.BLUE);
+            g.drawLine(3, 5, 290, 190);
+            g.drawLine(290, 7, 10, 170);
+            g.drawRect(20, 30, 150, 90);
+            g.drawPolyline(new int[] { 10, 120, 60, 250 },
+                           new int[] { 20, 50, 180, 15 }, 4);
+
+            g.setColor(Color.RED);
+            g.fillRect(60, 60, 50, 100);
+
+            // Shapes whose edge pixels would otherwise depend on the
+            // tile they are painted in.
+            g.setColor(Color.GREEN);
+            TiledRenderer.fillOval(g, 13, 17, 250, 160);
+            TiledRenderer.fillPolygon(g, makeTriangle());
+            g.setColor(Color.BLUE);
+            TiledRenderer.drawOval(g, 13, 17, 250, 160);
+            TiledRenderer.drawArc(g, 40, 50, 120, 90, 180, 180);
+            TiledRenderer.fill(g, makePath());
+
+            g.setStroke(new BasicStroke(3));
+            TiledRenderer.drawArc(g, 100, 20, 70, 70, 45, 315);
+
+            g.setColor(Color.BLACK);
+            g.setStroke(new BasicStroke(1, BasicStroke.CAP_BUTT,
+                BasicStroke.JOIN_MITER, 10, new float[] { 5, 3 }, 0));
+            g.drawLine(0, 100, 299, 110);
+        }
+    }
+
+    private static Polygon makeTriangle()
+    {
+        return new Polygon(new int[] { 200, 280, 150 },
+                           new int[] { 20, 150, 180 }, 3);
+    }
+
+    private static GeneralPath makePath()
+    {
+        GeneralPath p = new GeneralPath();
+        p.moveTo(20.5f, 120.25f);
+        p.lineTo(140f, 150.75f);
+        p.lineTo(30.25f, 190.5f);
+        p.closePath();
+        return p;
+    }
+
+    private static void assertSamePixels(BufferedImage a, BufferedImage b)
+    {
+        assert(a.getWidth() == b.getWidth());
+        assert(a.getHeight() == b.getHeight());
+        for (int y=0; y < a.getHeight(); y++) {
+            for (int x=0; x < a.getWidth(); x++) {
+                assert(a.getRGB(x, y) == b.getRGB(x, y));
+            }
+        }
+    }
+
+    public static void main(String args[])
+    {
+        TestPainter painter = new TestPainter();
+
+        // Reference: the whole image as one tile.
+        BufferedImage expect = TiledRenderer.render(300, 200,
+            BufferedImage.TYPE_INT_ARGB, 1000, ForkJoinPool.commonPool(),
+            painter);
+
+        // Tile sizes that do and do not divide the image evenly.
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (int tileSize : new int[] { 1000, 100, 37, 16 }) {
+                BufferedImage actual = TiledRenderer.render(300, 200,
+                    BufferedImage.TYPE_INT_ARGB, tileSize, pool, painter);
+                assertSamePixels(expect, actual);
+            }
+        }
+        finally {
+            pool.shutdown();
+        }
+
+        // Outside a tile, the shape methods are those of Graphics.
+        BufferedImage direct = new BufferedImage(300, 200,
+            BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = direct.createGraphics();
+        g.setColor(Color.BLUE);
+        g.fillOval(13, 17, 250, 160);
+        g.fillPolygon(makeTriangle());
+        g.drawArc(40, 50, 120, 90, 180, 180);
+        g.fill(makePath());
+        g.dispose();
+
+        BufferedImage helpers = new BufferedImage(300, 200,
+            BufferedImage.TYPE_INT_ARGB);
+        g = helpers.createGraphics();
+        g.setColor(Color.BLUE);
+        TiledRenderer.fillOval(g, 13, 17, 250, 160);
+        TiledRenderer.fillPolygon(g, makeTriangle());
+        TiledRenderer.drawArc(g, 40, 50, 120, 90, 180, 180);
+        TiledRenderer.fill(g, makePath());
+        g.dispose();
+        assertSamePixels(direct, helpers);
+
+        // Degenerate size.
+        BufferedImage empty = TiledRenderer.render(
+            1, 1, BufferedImage.TYPE_INT_ARGB, painter);
+        assert(empty.getWidth() == 1);
+    }
+}
+
+// EOF
@@ -0,0 +1,139 @@
+// WrappedTextLayout.java
+// See toplevel license.txt for copyright and license terms.
+
+package util.awt;
+
+import java.awt.Graphics;
+
+import util.WrapText;
+import util.WrapTextPolicy;
+
+/** The result of wrapping a block of text to a given width and
+  * breaking it into lines, with each line measured.  Drawing a layout
+  * does not need to wrap, split or measure anything.
+  *
+  * A layout is immutable.  Callers that draw the same text repeatedly
+  * keep the layout and use 'matches' to decide whether it is still
+  * valid. */
+public class WrappedTextLayout {
+    // ---------------- instance data ------------------
+    /** The inputs the layout was computed from. */
+    public final WrapTextPolicy policy;
+    public final int maxWidth;
+    public final int indentSpaces;
+    public final String text;
+    public final BitmapFont font;
+
+    /** Text after wrapping, with newlines between lines. */
+    private final String m_wrappedText;
+
+    /** Start and end (exclusive) of each line within 'm_wrappedText'. */
+    private final int[] m_lineStart;
+    private final int[] m_lineEnd;
+
+    /** Width of each line in pixels, as 'BitmapFont.stringWidth'. */
+    private final int[] m_lineWidth;
+
+    /** Vertical distance from the first line's baseline to the
+      * baseline of each line. */
+    private final int[] m_baselineOffset;
+
+    // ------------------- methods ---------------------
+    public WrappedTextLayout(
+        WrapTextPolicy policy,
+        int maxWidth,
+        int indentSpaces,
+        String text,
+        BitmapFont font)
+    {
+        this.policy = policy;
+        this.maxWidth = maxWidth;
+        this.indentSpaces = indentSpaces;
+        this.text = text;
+        this.font = font;
+
+        this.m_wrappedText =
+            WrapText.wrapText(policy, maxWidth, indentSpaces, text, font);
+
+        // Count the lines.
+        int numLines = 1;
+        for (int i=0; i < this.m_wrappedText.length(); i++) {
+            if (this.m_wrappedText.charAt(i) == '\n') {
+                numLines++;
+            }
+        }
+
+        this.m_lineStart = new int[numLines];
+        this.m_lineEnd = new int[numLines];
+        this.m_lineWidth = new int[numLines];
+        this.m_baselineOffset = new int[numLines];
+
+        int lineHeight = font.getStandardLineHeight();
+        int start = 0;
+        for (int line=0; line < numLines; line++) {
+            int end = this.m_wrappedText.indexOf('\n', start);
+            if (end < 0) {
+                end = this.m_wrappedText.length();
+            }
+            this.m_lineStart[line] = start;
+            this.m_lineEnd[line] = end;
+            this.m_lineWidth[line] =
+                font.substringWidth(this.m_wrappedText, start, end);
+            this.m_baselineOffset[line] = line * lineHeight;
+            start = end+1;
+        }
+    }
+
+    /** True if this layout was computed from the given inputs. */
+    public boolean matches(
+        WrapTextPolicy policy,
+        int maxWidth,
+        int indentSpaces,
+        String text,
+        BitmapFont font)
+    {
+        return this.policy == policy &&
+               this.maxWidth == maxWidth &&
+               this.indentSpaces == indentSpaces &&
+               this.font == font &&
+               this.text.equals(text);
+    }
+
+    /** Number of lines after wrapping. */
+    public int getNumLines()
+    {
+        return this.m_lineStart.length;
+    }
+
+    /** Get the text of line 'line', without its newline. */
+    public String getLine(int line)
+    {
+        return this.m_wrappedText.substring(
+            this.m_lineStart[line], this.m_lineEnd[line]);
+    }
+
+    /** Width in pixels of line 'line'. */
+    public int getLineWidth(int line)
+    {
+        return this.m_lineWidth[line];
+    }
+
+    /** Distance from the first baseline to the baseline of 'line'. */
+    public int getBaselineOffset(int line)
+    {
+        return this.m_baselineOffset[line];
+    }
+
+    /** Draw the lines with the first baseline at 'y' and the lines
+      * starting at 'x', like 'BitmapFont.drawTextWithNewlines'. */
+    public void draw(Graphics g, int x, int y)
+    {
+        for (int line=0; line < this.m_lineStart.length; line++) {
+            this.font.drawSubstring(g, this.m_wrappedText,
+                this.m_lineStart[line], this.m_lineEnd[line],
+                x, y + this.m_baselineOffset[line]);
+        }
+    }
+}
+
+// EOF
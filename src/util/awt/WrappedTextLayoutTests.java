@@ -0,0 +1,171 @@
+// WrappedTextLayoutTests.java
+// See toplevel license.txt for copyright and license terms.
+
+package util.awt;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+import util.WrapText;
+import util.WrapTextPolicy;
+
+/** Tests for WrappedTextLayout. */
+public class WrappedTextLayoutTests {
+    /** Load the font that DED uses for diagrams. */
+    private static BitmapFont loadFont()
+        throws Exception
+    {
+        InputStream in = new GZIPInputStream(
+            new FileInputStream("resources/helvR12sm.bdf.gz"));
+        try {
+            return new BitmapFont(new BDFParser(in));
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /** Return 'prev' if it was computed from the given inputs, and
+      * otherwise a new layout, the way EntityController remembers the
+      * layout of its attributes. */
+    private static WrappedTextLayout getLayout(
+        WrappedTextLayout prev,
+        WrapTextPolicy policy,
+        int maxWidth,
+        int indentSpaces,
+        String text,
+        BitmapFont font)
+    {
+        if (prev == null ||
+            !prev.matches(policy, maxWidth, indentSpaces, text, font))
+        {
+            return new WrappedTextLayout(policy, maxWidth, indentSpaces,
+                                         text, font);
+        }
+        return prev;
+    }
+
+    /** Check that 'layout' describes the text as wrapped by WrapText
+      * from its inputs, measured and drawn by its font. */
+    private static void checkLayout(WrappedTextLayout layout)
+    {
+        BitmapFont font = layout.font;
+        String wrapped = WrapText.wrapText(layout.policy, layout.maxWidth,
+            layout.indentSpaces, layout.text, font);
+        String[] lines = wrapped.split("\n", -1);
+
+        assert(layout.getNumLines() == lines.length);
+        for (int i=0; i < lines.length; i++) {
+            assert(layout.getLine(i).equals(lines[i]));
+            assert(layout.getLineWidth(i) == font.stringWidth(lines[i]));
+            assert(layout.getBaselineOffset(i) ==
+                   i * font.getStandardLineHeight());
+        }
+
+        // Drawing the layout gives the same pixels as drawing the
+        // wrapped text.
+        int w = layout.maxWidth + 100;
+        int h = (lines.length + 1) * font.getStandardLineHeight();
+        BufferedImage expect = makeWhiteImage(w, h);
+        Graphics g = expect.getGraphics();
+        g.setColor(Color.BLACK);
+        font.drawTextWithNewlines(g, wrapped, 2, font.getAscent());
+        g.dispose();
+
+        BufferedImage actual = makeWhiteImage(w, h);
+        g = actual.getGraphics();
+        g.setColor(Color.BLACK);
+        layout.draw(g, 2, font.getAscent());
+        g.dispose();
+
+        for (int y=0; y < h; y++) {
+            for (int x=0; x < w; x++) {
+                assert(expect.getRGB(x, y) == actual.getRGB(x, y));
+            }
+        }
+    }
+
+    /** Make a white image of 'w' by 'h' pixels. */
+    private static BufferedImage makeWhiteImage(int w, int h)
+    {
+        BufferedImage ret = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        Graphics g = ret.getGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, w, h);
+        g.dispose();
+        return ret;
+    }
+
+    public static void main(String args[])
+        throws Exception
+    {
+        BitmapFont font = loadFont();
+
+        String text =
+            "name: a fairly long value that will need to wrap\n"+
+            "count: 17\n"+
+            "\n"+
+            "note: First sentence.  Second sentence, which is longer.";
+
+        // The first layout matches a fresh one.
+        WrappedTextLayout layout =
+            getLayout(null, WrapTextPolicy.Whitespace, 120, 2, text, font);
+        checkLayout(layout);
+        assert(layout.getNumLines() > 4);
+
+        // The same inputs reuse it.
+        assert(getLayout(layout, WrapTextPolicy.Whitespace, 120, 2,
+                         new String(text), font) == layout);
+
+        // Changing any input makes a new layout, which matches a fresh
+        // one computed from the new inputs.
+        WrappedTextLayout changed = getLayout(layout,
+            WrapTextPolicy.Whitespace, 120, 2, text + " more", font);
+        assert(changed != layout);
+        checkLayout(changed);
+        assert(changed.getLine(changed.getNumLines()-1).endsWith("more"));
+
+        changed = getLayout(layout,
+            WrapTextPolicy.Whitespace, 200, 2, text, font);
+        assert(changed != layout);
+        checkLayout(changed);
+        assert(changed.getNumLines() < layout.getNumLines());
+
+        // Fonts are compared by identity, since any two could measure
+        // text differently.
+        BitmapFont otherFont = loadFont();
+        changed = getLayout(layout,
+            WrapTextPolicy.Whitespace, 120, 2, text, otherFont);
+        assert(changed != layout);
+        assert(changed.font == otherFont);
+        checkLayout(changed);
+
+        changed = getLayout(layout,
+            WrapTextPolicy.Sentence, 120, 2, text, font);
+        assert(changed != layout);
+        checkLayout(changed);
+
+        changed = getLayout(layout,
+            WrapTextPolicy.Whitespace, 120, 4, text, font);
+        assert(changed != layout);
+        checkLayout(changed);
+
+        // Without wrapping, the lines are those of the text.
+        changed = getLayout(layout,
+            WrapTextPolicy.NoWrap, 120, 2, text, font);
+        assert(changed.getNumLines() == 4);
+        assert(changed.getLine(2).equals(""));
+        assert(changed.getLineWidth(2) == 0);
+        checkLayout(changed);
+
+        // Empty text has one empty line.
+        checkLayout(getLayout(null, WrapTextPolicy.Whitespace, 120, 2,
+                              "", font));
+    }
+}
+
+// EOF
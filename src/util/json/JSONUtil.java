@@ -3,7 +3,11 @@
 
 package util.json;
 
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
 import java.util.Collection;
+import java.util.Iterator;
 
 import java.util.zip.Deflater;
 
@@ -55,34 +59,183 @@ public class JSONUtil {
     // factory classes (which I might decide to use at some point).
 
     /** Return true if 'a' and 'b' are equal.  This tolerates either
-        being null, and regards null as only equal to itself. */
+        being null, and regards null as only equal to itself.
+
+        The comparison is structural, and stops at the first difference.
+        Key order does not matter, and numbers are compared by value;
+        see 'equalJSONValues'. */
     public static boolean equalJSONObjects(JSONObject a, JSONObject b)
     {
         if (a == null || b == null) {
             return a == b;
         }
+        if (a == b) {
+            return true;
+        }
+        if (a.length() != b.length()) {
+            return false;
+        }
+
+        Iterator<?> it = a.keys();
+        while (it.hasNext()) {
+            String key = (String)it.next();
+            Object bValue = b.opt(key);
+            if (bValue == null || !equalJSONValues(a.opt(key), bValue)) {
+                return false;
+            }
+        }
 
-        // This is crude, but JSONObject does not have a proper 'equals'
-        // method.  Fortunately, its serialization code alphabetizes
-        // the keys, so that does not cause problems here.
-        String aString = a.toString();
-        String bString = b.toString();
+        // Both have the same number of keys, and every key of 'a' is in
+        // 'b', so 'b' cannot have any other keys.
+        return true;
+    }
 
-        if (aString == bString) {
-            // This includes the case where both are null.  In that
-            // case, in a sense both do not represent anything, and will
-            // both serialize to "null", so calling them equal is
-            // perhaps sensible.
+    /** Return true if 'a' and 'b' are equal, like 'equalJSONObjects'. */
+    public static boolean equalJSONArrays(JSONArray a, JSONArray b)
+    {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        if (a == b) {
             return true;
         }
+        if (a.length() != b.length()) {
+            return false;
+        }
 
-        if (aString == null) {
-            // This can happen when the structure contains values that
-            // cannot be represented in JSON.
+        for (int i=0; i < a.length(); i++) {
+            if (!equalJSONValues(a.opt(i), b.opt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return true if 'a' and 'b', which are values that can appear in
+        a JSONObject or JSONArray, are equal.  Numbers are equal if they
+        have the same value, regardless of their Java type, so 1 equals
+        1.0, since both serialize as "1". */
+    public static boolean equalJSONValues(Object a, Object b)
+    {
+        if (a == b) {
+            return true;
+        }
+        if (a == null || b == null) {
             return false;
         }
 
-        return aString.equals(bString);
+        if (a instanceof JSONObject) {
+            return b instanceof JSONObject &&
+                   equalJSONObjects((JSONObject)a, (JSONObject)b);
+        }
+        if (a instanceof JSONArray) {
+            return b instanceof JSONArray &&
+                   equalJSONArrays((JSONArray)a, (JSONArray)b);
+        }
+        if (a instanceof Number) {
+            return b instanceof Number &&
+                   equalJSONNumbers((Number)a, (Number)b);
+        }
+
+        // Strings, Booleans, and JSONObject.NULL.
+        return a.equals(b);
+    }
+
+    /** True if 'n' is one of the integer types, which are exact when
+        converted to 'long'. */
+    private static boolean isIntegral(Number n)
+    {
+        return n instanceof Integer ||
+               n instanceof Long ||
+               n instanceof Short ||
+               n instanceof Byte;
+    }
+
+    /** Compare numbers by value. */
+    private static boolean equalJSONNumbers(Number a, Number b)
+    {
+        if (isIntegral(a) && isIntegral(b)) {
+            return a.longValue() == b.longValue();
+        }
+        if (a instanceof BigInteger || a instanceof BigDecimal ||
+            b instanceof BigInteger || b instanceof BigDecimal)
+        {
+            if (!isFinite(a) || !isFinite(b)) {
+                return false;     // No BigDecimal equals these.
+            }
+            return toBigDecimal(a).compareTo(toBigDecimal(b)) == 0;
+        }
+
+        // At least one is a Double or Float.
+        return Double.compare(a.doubleValue(), b.doubleValue()) == 0;
+    }
+
+    /** False if 'n' is an infinite or NaN Double or Float. */
+    private static boolean isFinite(Number n)
+    {
+        if (n instanceof Double || n instanceof Float) {
+            double d = n.doubleValue();
+            return !Double.isInfinite(d) && !Double.isNaN(d);
+        }
+        return true;
+    }
+
+    /** Convert 'n', which 'isFinite', to BigDecimal without losing
+        precision. */
+    private static BigDecimal toBigDecimal(Number n)
+    {
+        if (n instanceof BigDecimal) {
+            return (BigDecimal)n;
+        }
+        if (n instanceof BigInteger) {
+            return new BigDecimal((BigInteger)n);
+        }
+        if (isIntegral(n)) {
+            return BigDecimal.valueOf(n.longValue());
+        }
+        return new BigDecimal(n.doubleValue());
+    }
+
+    /** Return a deep copy of 'o', which must not be null. */
+    public static JSONObject deepCopy(JSONObject o)
+    {
+        JSONObject ret = new JSONObject();
+        Iterator<?> it = o.keys();
+        while (it.hasNext()) {
+            String key = (String)it.next();
+            try {
+                ret.put(key, deepCopyValue(o.opt(key)));
+            }
+            catch (JSONException e) {
+                // The value was already accepted by 'o'.
+                throw new RuntimeException("JSONUtil.deepCopy failed", e);
+            }
+        }
+        return ret;
+    }
+
+    /** Return a deep copy of 'a', which must not be null. */
+    public static JSONArray deepCopy(JSONArray a)
+    {
+        JSONArray ret = new JSONArray();
+        for (int i=0; i < a.length(); i++) {
+            ret.put(deepCopyValue(a.opt(i)));
+        }
+        return ret;
+    }
+
+    /** Return a deep copy of 'v', a value in a JSONObject or JSONArray.
+        Values other than objects and arrays are immutable, so are
+        returned as is. */
+    public static Object deepCopyValue(Object v)
+    {
+        if (v instanceof JSONObject) {
+            return deepCopy((JSONObject)v);
+        }
+        if (v instanceof JSONArray) {
+            return deepCopy((JSONArray)v);
+        }
+        return v;
     }
 
     /** Get the number of bytes required to encode 'o' as JSON when
@@ -3,6 +3,10 @@
 
 package util.json;
 
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+import org.json.JSONException;
 import org.json.JSONObject;
 
 import util.Util;
@@ -16,10 +20,87 @@ public class JSONUtilTests {
     {
         JSONUtilTests t = new JSONUtilTests();
 
-        // For the moment, the only test is an interactive test.
         if (args.length > 0) {
+            // Interactive test.
             t.testReadFile(args[0]);
         }
+        else {
+            t.testEqualJSON();
+            t.testDeepCopy();
+        }
+    }
+
+    /** Check that 'a' and 'b' compare as 'expect', and that this agrees
+        with comparing their serializations. */
+    void checkEqual(String a, String b, boolean expect)
+    {
+        try {
+            JSONObject ao = new JSONObject(a);
+            JSONObject bo = new JSONObject(b);
+            assert(JSONUtil.equalJSONObjects(ao, bo) == expect);
+            assert(JSONUtil.equalJSONObjects(bo, ao) == expect);
+            assert(ao.toString().equals(bo.toString()) == expect);
+        }
+        catch (JSONException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    void testDeepCopy()
+    {
+        try {
+            JSONObject o = new JSONObject(
+                "{a:1, b:\"two\", c:[1,{d:[true,null]}], e:{f:{}}}");
+            JSONObject copy = JSONUtil.deepCopy(o);
+            assert(JSONUtil.equalJSONObjects(o, copy));
+            assert(copy.toString().equals(o.toString()));
+
+            // Changes to nested values of the copy do not affect 'o'.
+            copy.getJSONArray("c").getJSONObject(1).put("d", 3);
+            copy.getJSONObject("e").getJSONObject("f").put("g", 4);
+            assert(!JSONUtil.equalJSONObjects(o, copy));
+            assert(o.getJSONArray("c").getJSONObject(1).getJSONArray("d").length() == 2);
+            assert(o.getJSONObject("e").getJSONObject("f").length() == 0);
+        }
+        catch (JSONException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    void testEqualJSON()
+    {
+        checkEqual("{}", "{}", true);
+        checkEqual("{a:1, b:2}", "{b:2, a:1}", true);
+        checkEqual("{a:1}", "{a:1, b:2}", false);
+        checkEqual("{a:1, c:2}", "{a:1, b:2}", false);
+        checkEqual("{a:1}", "{a:1.0}", true);
+        checkEqual("{a:1}", "{a:1.5}", false);
+        checkEqual("{a:1}", "{a:\"1\"}", false);
+        try {
+            // Serialization writes the Double with an exponent, but the
+            // values are the same.
+            assert(JSONUtil.equalJSONObjects(
+                new JSONObject("{a:12345678901}"),
+                new JSONObject("{a:12345678901.0}")));
+        }
+        catch (JSONException e) {
+            throw new RuntimeException(e);
+        }
+        checkEqual("{a:true}", "{a:\"true\"}", false);
+        checkEqual("{a:null}", "{a:null}", true);
+        checkEqual("{a:null}", "{a:\"null\"}", false);
+        checkEqual("{a:[1,{b:[]}]}", "{a:[1,{b:[]}]}", true);
+        checkEqual("{a:[1,{b:[]}]}", "{a:[1,{b:[2]}]}", false);
+        checkEqual("{a:[1,2]}", "{a:[2,1]}", false);
+        checkEqual("{a:[1]}", "{a:{}}", false);
+        checkEqual("{a:{x:{y:1}}}", "{a:{x:{y:1}}}", true);
+
+        assert(JSONUtil.equalJSONObjects(null, null));
+        assert(!JSONUtil.equalJSONObjects(null, new JSONObject()));
+        assert(JSONUtil.equalJSONValues(new BigDecimal("2.50"), 2.5));
+        assert(JSONUtil.equalJSONValues(BigInteger.TEN, 10));
+        assert(!JSONUtil.equalJSONValues(BigInteger.TEN, Double.NaN));
+        assert(JSONUtil.equalJSONValues(Double.NaN, Double.NaN));
     }
 
     void testReadFile(String fname)